@@ -1,4 +1,29 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 import tester.*;
 import javalib.impworld.*;
 import javalib.worldimages.*;
@@ -19,13 +44,31 @@ import java.awt.Color;
  * 
  */
 
+// Represents copying part of a line of one array into every stride-th element of another,
+// the one step of a transpose that depends on the arrays' element type
+interface StridedCopy {
+  // Copies the given number of elements starting at from into the elements starting at to
+  // and the given stride apart
+  void copy(int from, int to, int stride, int count);
+}
+
 //convenient computations and methods that don't fit into other classes
 class Utils {
+  // The number of lines and positions copied together when transposing
+  static final int TRANSPOSE_BLOCK = 32;
+
+  // Helper for construction of the corner of the pixel graph from row-major packed colors
+  // EFFECT: mutates the corner by adding pixels to it, forming a representation of an image
+  void constructPixelGraphCorner(PixelSentinel corner,
+      int width, int height, int[] colors) {
+    this.constructPixelGraphCorner(corner, width, height, colors, null);
+  }
 
-  // Helper for construction of the corner of the pixel graph
+  // Helper for construction of the corner of the pixel graph from row-major packed colors and
+  // energies, making pixels that keep the given energies unless energies is null
   // EFFECT: mutates the corner by adding pixels to it, forming a representation of an image
   void constructPixelGraphCorner(PixelSentinel corner,
-      int width, int height, FromFileImage image) {
+      int width, int height, int[] colors, float[] energies) {
 
     corner.expandHorizontally(width);
 
@@ -35,7 +78,13 @@ class Utils {
       // EFFECT: modifies the references of the new and old pixels based on where
       // the new one is added
       for (int x = width - 1; x >= 0; x -= 1) {
-        Pixel newPixel = new Pixel(image.getColorAt(x, y));
+        Pixel newPixel;
+        if (energies == null) {
+          newPixel = new Pixel(colors[y * width + x]);
+        }
+        else {
+          newPixel = new MappedPixel(colors[y * width + x], energies[y * width + x]);
+        }
         newPixel.updateRight(columnPixel);
         newPixel.updateUp(columnPixel.up.left);
         columnPixel.updateLeft(newPixel);
@@ -76,6 +125,245 @@ class Utils {
     }
     return finalResult;
   }
+
+  // Determines the minimum weight SeamInfo among those in the given previous row that can
+  // reach the given position, where the previous row starts at previousLower
+  SeamInfo lowestReachable(ArrayList<SeamInfo> previous, int previousLower, int position) {
+    SeamInfo finalResult = null;
+    // EFFECT: modifies finalResult to be the lowest energy seam among the (up to three)
+    // seams adjacent to position, preferring the earlier seam on ties
+    for (int from = position - 1; from <= position + 1; from += 1) {
+      int index = from - previousLower;
+      if (index >= 0 && index < previous.size()) {
+        if (finalResult == null) {
+          finalResult = previous.get(index);
+        }
+        else {
+          finalResult = finalResult.lowerEnergy(previous.get(index));
+        }
+      }
+    }
+    if (finalResult == null) {
+      throw new IllegalArgumentException("window is unreachable");
+    }
+    return finalResult;
+  }
+
+  // Produces the windows {lower, upper} of the given length within band positions of the given
+  // path, where each position in the path covers scale positions, widened where needed so
+  // that each window is reachable from the one before it
+  int[][] bandAround(int[] path, int scale, int length1, int length2, int band) {
+    int[] lower = new int[length1];
+    int[] upper = new int[length1];
+    // EFFECT: centers the window of each row/column on the path's corresponding position
+    for (int edgeIndex = 0; edgeIndex < length1; edgeIndex += 1) {
+      int position = path[Math.min(edgeIndex / scale, path.length - 1)] * scale;
+      lower[edgeIndex] = Math.min(length2 - 1, Math.max(0, position - band));
+      upper[edgeIndex] = Math.max(0, Math.min(length2 - 1, position + scale - 1 + band));
+    }
+    // EFFECT: widens each window so that the ends of the next one can be reached from it
+    for (int edgeIndex = length1 - 1; edgeIndex > 0; edgeIndex -= 1) {
+      lower[edgeIndex - 1] = Math.min(lower[edgeIndex - 1], lower[edgeIndex] + 1);
+      upper[edgeIndex - 1] = Math.max(upper[edgeIndex - 1], upper[edgeIndex] - 1);
+    }
+    return new int[][] {lower, upper};
+  }
+
+  // Produces the windows {lower, upper} covering every position of each of the given number
+  // of rows/columns
+  int[][] fullWindows(int length1, int length2) {
+    int[] upper = new int[length1];
+    // EFFECT: sets the upper end of each window to the last position
+    for (int edgeIndex = 0; edgeIndex < length1; edgeIndex += 1) {
+      upper[edgeIndex] = length2 - 1;
+    }
+    return new int[][] {new int[length1], upper};
+  }
+
+  // Sets the energy of each position of a row or column of brightness, the same as
+  // BrightnessLevel's energyAt but reading the line and its neighbors straight from the given
+  // zero-padded copies of them
+  // EFFECT: sets the first length values of energy
+  void energyLine(double[] before, double[] line, double[] after, double[] energy,
+      int length) {
+    // EFFECT: sets the energy of each position from the 3x3 block of brightness around it
+    for (int position = 0; position < length; position += 1) {
+      double acrossPositions = (before[position] + 2.0 * line[position] + after[position])
+          - (before[position + 2] + 2.0 * line[position + 2] + after[position + 2]);
+      double acrossLines = (before[position] + 2.0 * before[position + 1]
+          + before[position + 2])
+          - (after[position] + 2.0 * after[position + 1] + after[position + 2]);
+      energy[position] =
+          Math.sqrt(Math.pow(acrossPositions, 2.0) + Math.pow(acrossLines, 2.0));
+    }
+  }
+
+  // Sets the least total energy reaching each of the given number of positions of a line
+  // in current, from the given energies of the line and the least total energies of the
+  // line before it in previous, and the move into each position, starting at the given
+  // index of moves, preferring the lower position when they tie. The two lines are separate
+  // arrays indexed from zero and the choices are made with conditional moves rather than
+  // branches, so that the loop can run a whole vector of positions at a time
+  // EFFECT: sets the values of current and the line's moves
+  void accumulateLine(double[] previous, double[] current, double[] energy, byte[] moves,
+      int row, int length) {
+    if (length == 1) {
+      current[0] = energy[0] + previous[0];
+      moves[row] = 0;
+      return;
+    }
+    boolean firstHigher = previous[1] < previous[0];
+    current[0] = energy[0] + (firstHigher ? previous[1] : previous[0]);
+    moves[row] = (byte) (firstHigher ? 1 : 0);
+    for (int position = 1; position < length - 1; position += 1) {
+      double low = previous[position - 1];
+      double middle = previous[position];
+      double high = previous[position + 1];
+      boolean middleLower = middle < low;
+      double lowOrMiddle = middleLower ? middle : low;
+      boolean highLower = high < lowOrMiddle;
+      current[position] = energy[position] + (highLower ? high : lowOrMiddle);
+      moves[row + position] = (byte) (highLower ? 1 : (middleLower ? 0 : -1));
+    }
+    boolean lastLower = previous[length - 2] <= previous[length - 1];
+    current[length - 1] = energy[length - 1]
+        + (lastLower ? previous[length - 2] : previous[length - 1]);
+    moves[row + length - 1] = (byte) (lastLower ? -1 : 0);
+  }
+
+  // Produces a copy of the given array of lines, each lineLength long and stride apart,
+  // with its rows and columns swapped, copying a block at a time to stay in cache
+  double[] transpose(double[] from, int stride, int lines, int lineLength) {
+    double[] result = new double[lines * lineLength];
+    this.transposeBlocks(stride, lines, lineLength, (at, to, step, count) -> {
+      for (int index = 0; index < count; index += 1) {
+        result[to + index * step] = from[at + index];
+      }
+    });
+    return result;
+  }
+
+  // Produces a copy of the given array of lines, each lineLength long and stride apart,
+  // with its rows and columns swapped, copying a block at a time to stay in cache
+  int[] transpose(int[] from, int stride, int lines, int lineLength) {
+    return this.transposeInto(from, stride, lines, lineLength, new int[lines * lineLength]);
+  }
+
+  // Copies the given array of lines, each lineLength long and stride apart, into the given
+  // array with its rows and columns swapped, and produces that array
+  // EFFECT: sets the first lines * lineLength values of result
+  int[] transposeInto(int[] from, int stride, int lines, int lineLength, int[] result) {
+    this.transposeBlocks(stride, lines, lineLength, (at, to, step, count) -> {
+      for (int index = 0; index < count; index += 1) {
+        result[to + index * step] = from[at + index];
+      }
+    });
+    return result;
+  }
+
+  // Produces a copy of the given array of lines, each lineLength long and stride apart,
+  // with its rows and columns swapped, copying a block at a time to stay in cache
+  byte[] transpose(byte[] from, int stride, int lines, int lineLength) {
+    byte[] result = new byte[lines * lineLength];
+    this.transposeBlocks(stride, lines, lineLength, (at, to, step, count) -> {
+      for (int index = 0; index < count; index += 1) {
+        result[to + index * step] = from[at + index];
+      }
+    });
+    return result;
+  }
+
+  // Swaps the rows and columns of the given number of lines, each lineLength long and stride
+  // apart, a block at a time to stay in cache, giving the part of each line in a block to
+  // the given copy along with where it goes, a column of the result that is lines apart
+  // EFFECT: runs the copy over every line of every block
+  void transposeBlocks(int stride, int lines, int lineLength, StridedCopy copy) {
+    // EFFECT: copies each block of the given lines into the corresponding block of the result
+    for (int lineBlock = 0; lineBlock < lines; lineBlock += TRANSPOSE_BLOCK) {
+      for (int positionBlock = 0; positionBlock < lineLength; positionBlock += TRANSPOSE_BLOCK) {
+        int lineEnd = Math.min(lines, lineBlock + TRANSPOSE_BLOCK);
+        int positionCount = Math.min(lineLength, positionBlock + TRANSPOSE_BLOCK) - positionBlock;
+        for (int line = lineBlock; line < lineEnd; line += 1) {
+          copy.copy(line * stride + positionBlock, positionBlock * lines + line, lines,
+              positionCount);
+        }
+      }
+    }
+  }
+
+  // Gives the memory of the given direct or mapped buffer back right away, which the standard
+  // library only exposes through sun.misc.Unsafe; without it the buffer is left to the
+  // garbage collector. The buffer must not be used afterwards
+  // EFFECT: frees the buffer's memory or unmaps it
+  void releaseBuffer(ByteBuffer buffer) {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      java.lang.reflect.Field field = unsafeClass.getDeclaredField("theUnsafe");
+      field.setAccessible(true);
+      unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+    }
+    catch (ReflectiveOperationException e) {
+      return;
+    }
+  }
+
+  // Produces the red part of the given packed color
+  int red(int color) {
+    return (color >> 16) & 0xFF;
+  }
+
+  // Produces the green part of the given packed color
+  int green(int color) {
+    return (color >> 8) & 0xFF;
+  }
+
+  // Produces the blue part of the given packed color
+  int blue(int color) {
+    return color & 0xFF;
+  }
+
+  // Packs the given red, green and blue parts into an opaque color
+  int pack(int red, int green, int blue) {
+    return 0xFF000000 | (red << 16) | (green << 8) | blue;
+  }
+
+  // Converts a packed color from a mask image into a mask value: mostly green marks a region
+  // to keep, mostly red marks a region to remove, and anything else is neutral
+  byte maskValue(int color) {
+    int red = this.red(color);
+    int green = this.green(color);
+    int blue = this.blue(color);
+    if (green > 2 * red && green > 2 * blue) {
+      return PixelGraph.MASK_KEEP;
+    }
+    else if (red > 2 * green && red > 2 * blue) {
+      return PixelGraph.MASK_REMOVE;
+    }
+    return 0;
+  }
+
+  // Converts the given row-major packed colors of a grayscale energy map into energies, with
+  // white mapping to the given energy
+  float[] energyFromColors(int[] colors, double scale) {
+    float[] result = new float[colors.length];
+    // EFFECT: fills result with the energy of each pixel of the map
+    for (int index = 0; index < colors.length; index += 1) {
+      int color = colors[index];
+      result[index] = (float) ((this.red(color) + this.green(color) + this.blue(color))
+          / (3 * 255.0) * scale);
+    }
+    return result;
+  }
+
+  // Converts the given row-major packed colors of a mask image into mask values
+  byte[] maskFromColors(int[] colors) {
+    byte[] result = new byte[colors.length];
+    // EFFECT: fills result with the mask value of each pixel in the mask image
+    for (int index = 0; index < colors.length; index += 1) {
+      result[index] = this.maskValue(colors[index]);
+    }
+    return result;
+  }
 }
 
 // Represents a pixel
@@ -184,9 +472,68 @@ abstract class APixel {
         .updateNegativeDirection(this.moveInNegativeDirection(movingVertical), movingVertical);
   }
 
+  // Produces the pixel the given number of steps away from this one, moving down or right
+  // for positive steps and up or left for negative steps based on the given boolean
+  APixel moveBy(int steps, boolean movingVertical) {
+    APixel result = this;
+    for (int remaining = steps; remaining > 0; remaining -= 1) {
+      result = result.moveInPositiveDirection(movingVertical);
+    }
+    for (int remaining = steps; remaining < 0; remaining += 1) {
+      result = result.moveInNegativeDirection(movingVertical);
+    }
+    return result;
+  }
+
+  // Links the given pixel in right after this one along this pixel's row (if vertical)
+  // or column (if horizontal)
+  // EFFECT: modifies this pixel, the given pixel and the pixel after this one to
+  // place the given pixel between them
+  void insertAfter(APixel p, boolean movingVertical) {
+    APixel next = this.moveInPositiveDirection(!movingVertical);
+    p.updateNegativeDirection(this, !movingVertical);
+    p.updatePositiveDirection(next, !movingVertical);
+    next.updateNegativeDirection(p, !movingVertical);
+    this.updatePositiveDirection(p, !movingVertical);
+  }
+
   // Calculates the brightness
   abstract double calculateBrightness();
 
+  // Calculates the brightness as a whole number from 0 to 255
+  abstract int calculateLuminance();
+
+  // Produces the packed color halfway between this pixel's color and the given packed color
+  abstract int averageWith(int that);
+
+  // Recomputes this pixel's energy from its neighbors, if it keeps an energy of its own
+  // EFFECT: does nothing, since most pixels compute their energy whenever it is needed
+  void refreshEnergy() {
+    // a pixel that does not keep its energy has nothing to recompute
+  }
+
+  // Produces the energy this pixel keeps, or 0 if it computes its energy whenever it is
+  // needed
+  float keptEnergy() {
+    return 0.0f;
+  }
+
+  // Gives this pixel back the given energy, if it keeps an energy of its own
+  // EFFECT: does nothing, since most pixels compute their energy whenever it is needed
+  void restoreEnergy(float energy) {
+    // a pixel that does not keep its energy has nothing to restore
+  }
+
+  // Points this pixel's neighbors back at it, such as when it was removed and they still
+  // are its neighbors
+  // EFFECT: modifies this pixel's neighbors to point to this pixel
+  void relinkNeighbors() {
+    this.right.updateLeft(this);
+    this.left.updateRight(this);
+    this.up.updateDown(this);
+    this.down.updateUp(this);
+  }
+
   // Determines whether this pixel's neighbors point to it
   boolean neighborsValid() {
     return (this.left.right == this) && (this.right.left == this) && (this.up.down == this)
@@ -197,10 +544,12 @@ abstract class APixel {
 // Represents a pixel of a certain color
 class Pixel extends APixel {
   // Fields
-  Color color;
+  // The color packed as 0xAARRGGBB, the same as Color.getRGB(); only the alpha of colors
+  // read from an image is kept, and it plays no part in the energy
+  int color;
 
   // Constructor
-  Pixel(APixel right, APixel left, APixel up, APixel down, Color color) {
+  Pixel(APixel right, APixel left, APixel up, APixel down, int color) {
     super(right, left, up, down);
     this.color = color;
     this.right.updateLeft(this);
@@ -210,14 +559,32 @@ class Pixel extends APixel {
   }
 
   // Null Constructor for Color
-  Pixel(Color color) {
+  Pixel(int color) {
     super(null, null, null, null);
     this.color = color;
   }
 
   // Calculate's this pixel's brightness
   double calculateBrightness() {
-    return ((this.color.getRed() + this.color.getBlue() + this.color.getGreen()) / 3) / 255.0;
+    return this.calculateLuminance() / 255.0;
+  }
+
+  // Calculates the brightness as a whole number from 0 to 255
+  int calculateLuminance() {
+    return (((this.color >> 16) & 0xFF) + (this.color & 0xFF) + ((this.color >> 8) & 0xFF)) / 3;
+  }
+
+  // Produces a new pixel to go between this pixel and the given pixel after it, halfway
+  // between their colors
+  Pixel blendWith(APixel next) {
+    return new Pixel(next.averageWith(this.color));
+  }
+
+  // Produces the packed color halfway between this pixel's color and the given packed color
+  int averageWith(int that) {
+    Utils u = new Utils();
+    return u.pack((u.red(this.color) + u.red(that)) / 2,
+        (u.green(this.color) + u.green(that)) / 2, (u.blue(this.color) + u.blue(that)) / 2);
   }
 
   // Calculate's this pixel's horizontal energy
@@ -243,6 +610,47 @@ class Pixel extends APixel {
   }
 }
 
+// Represents a pixel whose energy was given, such as from a saliency map computed
+// elsewhere, instead of computed from its neighbors' brightness. It keeps its energy as it
+// moves through seam removals, undos and insertions
+class MappedPixel extends Pixel {
+  float energy;
+
+  // Constructor
+  MappedPixel(int color, float energy) {
+    super(color);
+    this.energy = energy;
+  }
+
+  // Produces this pixel's given energy
+  double calculateEnergy() {
+    return this.energy;
+  }
+
+  // Recomputes this pixel's energy from its neighbors' brightness, as an unmapped pixel's
+  // EFFECT: replaces this pixel's energy
+  void refreshEnergy() {
+    this.energy = (float) super.calculateEnergy();
+  }
+
+  // Produces this pixel's given energy
+  float keptEnergy() {
+    return this.energy;
+  }
+
+  // Gives this pixel back the given energy
+  // EFFECT: replaces this pixel's energy
+  void restoreEnergy(float energy) {
+    this.energy = energy;
+  }
+
+  // Produces a new pixel to go between this pixel and the given pixel after it, halfway
+  // between their colors and with this pixel's energy
+  Pixel blendWith(APixel next) {
+    return new MappedPixel(next.averageWith(this.color), this.energy);
+  }
+}
+
 // Represents a sentinel guarding the edges of Pixels
 class PixelSentinel extends APixel {
   // Constructor
@@ -292,13 +700,55 @@ class PixelSentinel extends APixel {
   double calculateBrightness() {
     return 0.0;
   }
+
+  // Calculates the brightness as a whole number from 0 to 255
+  int calculateLuminance() {
+    return 0;
+  }
+
+  // Produces the given color, since a sentinel has no color of its own
+  int averageWith(int that) {
+    return that;
+  }
 }
 
 // Represents a rectangular graph of pixels
 class PixelGraph {
+  // Energy added to a pixel's energy for each unit of its mask value and each pixel of the
+  // seam's length, so that a kept or removed pixel outweighs a whole seam's energy, which is
+  // at most sqrt(32) per pixel
+  static final double MASK_UNIT = 10.0;
+  // Mask values that protect a pixel from and force a pixel into the least energy seam
+  static final byte MASK_KEEP = 127;
+  static final byte MASK_REMOVE = -128;
+  // Mask value given to both copies of an inserted seam, so later insertions spread out
+  static final byte MASK_STRETCHED = 1;
+
   PixelSentinel corner;
   int width;
   int height;
+  // Per-pixel energy bias, or null for no mask, stored as lines maskStride apart: rows while
+  // carving vertical seams and columns (maskTransposed) while carving horizontal ones, so
+  // a seam search reads and a seam removal shifts consecutive values.
+  // Seams are removed from it along with the pixels, so it always lines up with the graph
+  byte[] mask;
+  int maskStride;
+  boolean maskTransposed;
+  // Removed seams that can be put back, newest last, and undone seams that can be removed
+  // again. Removed seams keep their pixels, so together they hold at most historyBudget
+  // pixels; the oldest are forgotten first. A budget of 0 keeps no history
+  ArrayList<RemovedSeam> undoHistory = new ArrayList<RemovedSeam>();
+  ArrayList<RemovedSeam> redoHistory = new ArrayList<RemovedSeam>();
+  long historyBudget = 0;
+  long historySize = 0;
+  // Whether the pixels on either side of a removed seam recompute their energy from their new
+  // neighbors, for graphs of pixels whose energies were given
+  boolean recomputeNearSeams = false;
+  // Whether each removal checks the links it changed, and how many removals go between checks
+  // of the whole graph, or 0 for none
+  boolean validateRemovals = false;
+  int fullCheckInterval = 0;
+  int removalsSinceFullCheck = 0;
 
   // Convenience Constructor with new Sentinel
   PixelGraph() {
@@ -314,26 +764,111 @@ class PixelGraph {
     this.height = height;
   }
 
-  // Image Constructor
-  PixelGraph(FromFileImage image) {
+  // Constructor from the given row-major packed colors
+  PixelGraph(int[] colors, int width, int height) {
+    if (colors.length != width * height) {
+      throw new IllegalArgumentException("colors do not match image size");
+    }
     this.corner = new PixelSentinel();
-    this.width = (int) image.getWidth();
-    this.height = (int) image.getHeight();
-    new Utils().constructPixelGraphCorner(corner, width, height, image);
+    this.width = width;
+    this.height = height;
+    new Utils().constructPixelGraphCorner(corner, width, height, colors);
   }
 
-  // Renders this PixelGraph according to the colors of its pixels
-  ComputedPixelImage render() {
-    ComputedPixelImage result = new ComputedPixelImage(this.width, this.height);
+  // Constructor from the given row-major packed colors and the energy of each pixel, such as
+  // from a saliency map, used instead of computing energies from brightness. The pixels
+  // either side of each removed seam recompute their energy when the given boolean is true
+  PixelGraph(int[] colors, float[] energies, int width, int height,
+      boolean recomputeNearSeams) {
+    if (colors.length != width * height) {
+      throw new IllegalArgumentException("colors do not match image size");
+    }
+    if (energies.length != width * height) {
+      throw new IllegalArgumentException("energies do not match image size");
+    }
+    this.corner = new PixelSentinel();
+    this.width = width;
+    this.height = height;
+    this.recomputeNearSeams = recomputeNearSeams;
+    new Utils().constructPixelGraphCorner(corner, width, height, colors, energies);
+  }
+
+  // Masked Constructor from the given row-major packed colors and mask values
+  PixelGraph(int[] colors, int width, int height, byte[] mask) {
+    this(colors, width, height);
+    this.setMask(mask);
+  }
+
+  // Sets the mask biasing the energy of each pixel of this graph
+  // EFFECT: replaces this graph's mask with a copy of the given row-major mask values
+  void setMask(byte[] mask) {
+    if (mask.length != this.width * this.height) {
+      throw new IllegalArgumentException("mask does not match image size");
+    }
+    this.mask = mask.clone();
+    this.maskStride = this.width;
+    this.maskTransposed = false;
+  }
+
+  // Determines where the mask value of the pixel at the given position is in the mask
+  int maskIndex(int x, int y) {
+    if (this.maskTransposed) {
+      return x * this.maskStride + y;
+    }
+    return y * this.maskStride + x;
+  }
+
+  // Lays the mask out in rows for vertical seams or in columns for horizontal seams, based
+  // on the given boolean
+  // EFFECT: transposes the mask if it is laid out the other way
+  void useMaskLayout(boolean vertical) {
+    if (vertical == this.maskTransposed) {
+      int lines;
+      int lineLength;
+      if (this.maskTransposed) {
+        lines = this.width;
+        lineLength = this.height;
+      }
+      else {
+        lines = this.height;
+        lineLength = this.width;
+      }
+      this.mask = new Utils().transpose(this.mask, this.maskStride, lines, lineLength);
+      this.maskStride = lines;
+      this.maskTransposed = !this.maskTransposed;
+    }
+  }
+
+  // Determines the energy of the given pixel at the given position, including its mask bias
+  // scaled by the length of the seams being searched for, which the mask's layout gives
+  double cellEnergy(Pixel pixel, int x, int y) {
+    if (this.mask == null) {
+      return pixel.calculateEnergy();
+    }
+    int seamLength;
+    if (this.maskTransposed) {
+      seamLength = this.width;
+    }
+    else {
+      seamLength = this.height;
+    }
+    return pixel.calculateEnergy() + this.mask[this.maskIndex(x, y)] * MASK_UNIT * seamLength;
+  }
+
+  // Produces the packed colors of this graph's columns from the given column up to but not
+  // including the other given column, row by row
+  int[] colors(int fromX, int toX) {
+    if (fromX < 0 || toX > this.width || fromX > toX) {
+      throw new IllegalArgumentException("columns are outside the image");
+    }
+    int[] result = new int[(toX - fromX) * this.height];
     APixel rowPixel = this.corner.down;
     // Loop: Iterates over each row of the pixel graph from top to bottom
     for (int y = 0; y < this.height; y += 1) {
-      APixel columnPixel = rowPixel.right;
-      // Loop: Iterates over each pixel in the current row from left to right
-      for (int x = 0; x < this.width; x += 1) {
-        // EFFECT: sets each pixel in the current row of result
-        // to match the color of the corresponding pixel in the graph
-        result.setPixel(x, y, (((Pixel) columnPixel).color));
+      APixel columnPixel = rowPixel.right.moveBy(fromX, false);
+      // EFFECT: sets the colors of the row's pixels in the given columns in result
+      for (int x = fromX; x < toX; x += 1) {
+        result[y * (toX - fromX) + x - fromX] = ((Pixel) columnPixel).color;
         columnPixel = columnPixel.right;
       }
       rowPixel = rowPixel.down;
@@ -341,28 +876,57 @@ class PixelGraph {
     return result;
   }
 
-  // Renders this PixelGraph according to the energy of its pixels
-  ComputedPixelImage renderEnergy() {
-    ComputedPixelImage result = new ComputedPixelImage(this.width, this.height);
+  // Produces a copy of this graph shrunk by the given factor, each of its pixels the average
+  // color of a factor by factor block of this graph's pixels, with the last row and column of
+  // blocks taking in any leftover pixels
+  PixelGraph downscale(int factor) {
+    if (factor < 1) {
+      throw new IllegalArgumentException("factor must be positive");
+    }
+    int newWidth = Math.max(1, this.width / factor);
+    int newHeight = Math.max(1, this.height / factor);
+    long[] totals = new long[newWidth * newHeight * 3];
+    int[] counts = new int[newWidth * newHeight];
+    Utils u = new Utils();
     APixel rowPixel = this.corner.down;
+    // Loop: Iterates over each row of the pixel graph from top to bottom
     for (int y = 0; y < this.height; y += 1) {
       APixel columnPixel = rowPixel.right;
-      // Loop: Iterates over each pixel in the current row from left to right
+      int blockRow = Math.min(newHeight - 1, y / factor) * newWidth;
+      // EFFECT: adds the color of each pixel in the row to the total of its block
       for (int x = 0; x < this.width; x += 1) {
-        int colorChannel = (int) ((((Pixel) columnPixel).calculateEnergy() / 6) * 255);
-        Color energyColor = new Color(colorChannel, colorChannel, colorChannel);
-        // EFFECT: sets each pixel in the current row of the result image to a  
-        // color representing the energy of the corresponding pixel in the graph
-        result.setPixel(x, y, energyColor);
+        int block = blockRow + Math.min(newWidth - 1, x / factor);
+        int color = ((Pixel) columnPixel).color;
+        totals[block * 3] += u.red(color);
+        totals[block * 3 + 1] += u.green(color);
+        totals[block * 3 + 2] += u.blue(color);
+        counts[block] += 1;
         columnPixel = columnPixel.right;
       }
       rowPixel = rowPixel.down;
     }
-    return result;
+    int[] colors = new int[newWidth * newHeight];
+    // EFFECT: sets each block's color to its average
+    for (int block = 0; block < colors.length; block += 1) {
+      colors[block] = u.pack((int) (totals[block * 3] / counts[block]),
+          (int) (totals[block * 3 + 1] / counts[block]),
+          (int) (totals[block * 3 + 2] / counts[block]));
+    }
+    return new PixelGraph(colors, newWidth, newHeight);
   }
 
   // Finds the least energy seam in this graph in the direction corresponding to the given boolean
   SeamInfo leastEnergySeam(boolean vertical) {
+    return this.leastEnergySeam(vertical, null);
+  }
+
+  // Finds the least energy seam in this graph in the direction corresponding to the given
+  // boolean, checking the given control, if any, before each row (if vertical) or column
+  // (if horizontal) so a long search can be stopped part way
+  SeamInfo leastEnergySeam(boolean vertical, CarveControl control) {
+    if (this.mask != null) {
+      this.useMaskLayout(vertical);
+    }
     ArrayList<SeamInfo> result = this.makeFirstRowAsSeamInfo(vertical);
     int length1;
     int length2;
@@ -383,6 +947,9 @@ class PixelGraph {
     // EFFECT: Iteratively construct SeamInfo for each row/column depending
     // the given direction
     for (int edgeIndex = 1; edgeIndex < length1; edgeIndex += 1) {
+      if (control != null) {
+        control.checkpoint();
+      }
       APixel columnPixel = rowPixel.moveInPositiveDirection(!vertical);
       ArrayList<SeamInfo> tempResult = result;
       result = new ArrayList<SeamInfo>();
@@ -400,22 +967,25 @@ class PixelGraph {
           x = edgeIndex;
           y = innerIndex;
         }
+        double energy = this.cellEnergy((Pixel) columnPixel, x, y);
         if (innerIndex == 0 && innerIndex == length2 - 1) {
           // EFFECT: modifies result to contain a new SeamInfo
           result.add(innerIndex,
-              new SeamInfo((Pixel) columnPixel, tempResult.get(innerIndex), x, y));
+              new SeamInfo((Pixel) columnPixel, tempResult.get(innerIndex), x, y, energy));
         }
         else if (innerIndex == 0) {
           // EFFECT: modifies result to contain a new SeamInfo based on the lower
           // energy between two possible paths
           result.add(innerIndex, new SeamInfo((Pixel) columnPixel,
-              tempResult.get(innerIndex).lowerEnergy(tempResult.get(innerIndex + 1)), x, y));
+              tempResult.get(innerIndex).lowerEnergy(tempResult.get(innerIndex + 1)), x, y,
+              energy));
         }
         else if (innerIndex == length2 - 1) {
           // EFFECT: modifies result to contain a new SeamInfo based on the lower
           // energy between two possible paths
           result.add(innerIndex, new SeamInfo((Pixel) columnPixel,
-              tempResult.get(innerIndex - 1).lowerEnergy(tempResult.get(innerIndex)), x, y));
+              tempResult.get(innerIndex - 1).lowerEnergy(tempResult.get(innerIndex)), x, y,
+              energy));
         }
         else {
           // EFFECT: modifies result to contain a new SeamInfo based on which of three 
@@ -424,7 +994,7 @@ class PixelGraph {
               new SeamInfo((Pixel) columnPixel,
                   tempResult.get(innerIndex - 1).lowerEnergy(
                       tempResult.get(innerIndex).lowerEnergy(tempResult.get(innerIndex + 1))),
-                  x, y));
+                  x, y, energy));
 
         }
         columnPixel = columnPixel.moveInPositiveDirection(!vertical);
@@ -434,6 +1004,90 @@ class PixelGraph {
     return new Utils().minInfo(result);
   }
 
+  // Finds the least energy seam in this graph in the direction corresponding to the given
+  // boolean, only considering the pixels of each row (if vertical) or column (if horizontal)
+  // from the lower to the upper position given for it. Each window must be reachable from
+  // the one before it.
+  SeamInfo leastEnergySeamInWindow(boolean vertical, int[] lower, int[] upper) {
+    if (this.mask != null) {
+      this.useMaskLayout(vertical);
+    }
+    Utils u = new Utils();
+    ArrayList<SeamInfo> result = null;
+    APixel windowStart = this.corner.moveInPositiveDirection(vertical)
+        .moveInPositiveDirection(!vertical).moveBy(lower[0], !vertical);
+
+    // EFFECT: Iteratively construct SeamInfo for the window of each row/column
+    for (int edgeIndex = 0; edgeIndex < lower.length; edgeIndex += 1) {
+      if (edgeIndex > 0) {
+        windowStart = windowStart.moveInPositiveDirection(vertical)
+            .moveBy(lower[edgeIndex] - lower[edgeIndex - 1], !vertical);
+      }
+      ArrayList<SeamInfo> tempResult = result;
+      result = new ArrayList<SeamInfo>();
+      APixel columnPixel = windowStart;
+
+      // EFFECT: Mutates result to contain the seam info of the current window
+      for (int position = lower[edgeIndex]; position <= upper[edgeIndex]; position += 1) {
+        int x;
+        int y;
+        if (vertical) {
+          x = position;
+          y = edgeIndex;
+        }
+        else {
+          x = edgeIndex;
+          y = position;
+        }
+        SeamInfo cameFrom = null;
+        if (tempResult != null) {
+          cameFrom = u.lowestReachable(tempResult, lower[edgeIndex - 1], position);
+        }
+        result.add(new SeamInfo((Pixel) columnPixel, cameFrom, x, y,
+            this.cellEnergy((Pixel) columnPixel, x, y)));
+        columnPixel = columnPixel.moveInPositiveDirection(!vertical);
+      }
+    }
+    return u.minInfo(result);
+  }
+
+  // Finds the least energy seam in the direction corresponding to the given boolean among
+  // those that cross the given bounds {minX, minY, maxX, maxY}, only searching the pixels
+  // that such a seam could reach
+  SeamInfo leastEnergySeamThrough(int[] bounds, boolean vertical) {
+    int length1;
+    int length2;
+    int edgeMin;
+    int edgeMax;
+    int innerMin;
+    int innerMax;
+    if (vertical) {
+      length1 = this.height;
+      length2 = this.width;
+      edgeMin = bounds[1];
+      edgeMax = bounds[3];
+      innerMin = bounds[0];
+      innerMax = bounds[2];
+    }
+    else {
+      length1 = this.width;
+      length2 = this.height;
+      edgeMin = bounds[0];
+      edgeMax = bounds[2];
+      innerMin = bounds[1];
+      innerMax = bounds[3];
+    }
+    int[] lower = new int[length1];
+    int[] upper = new int[length1];
+    // EFFECT: widens the window by one pixel for each row/column away from the bounds
+    for (int edgeIndex = 0; edgeIndex < length1; edgeIndex += 1) {
+      int distance = Math.max(0, Math.max(edgeMin - edgeIndex, edgeIndex - edgeMax));
+      lower[edgeIndex] = Math.max(0, innerMin - distance);
+      upper[edgeIndex] = Math.min(length2 - 1, innerMax + distance);
+    }
+    return this.leastEnergySeamInWindow(vertical, lower, upper);
+  }
+
   // Creates a list of SeamInfo objects representing the first row (if vertical) 
   //or first column (if horizontal) of the pixel graph 
   ArrayList<SeamInfo> makeFirstRowAsSeamInfo(boolean vertical) {
@@ -450,10 +1104,12 @@ class PixelGraph {
     // each pixel's SeamInfo to result
     for (int x = 0; x < length; x += 1) {
       if (vertical) {
-        result.add(new SeamInfo((Pixel) firstRowPixel, null, x, 0));
+        result.add(new SeamInfo((Pixel) firstRowPixel, null, x, 0,
+            this.cellEnergy((Pixel) firstRowPixel, x, 0)));
       }
       else {
-        result.add(new SeamInfo((Pixel) firstRowPixel, null, 0, x));
+        result.add(new SeamInfo((Pixel) firstRowPixel, null, 0, x,
+            this.cellEnergy((Pixel) firstRowPixel, 0, x)));
       }
       firstRowPixel = firstRowPixel.moveInPositiveDirection(!vertical);
     }
@@ -464,10 +1120,29 @@ class PixelGraph {
   // EFFECT: removes the given seam from this pixelGraph and updates the width accordingly
   // and pixel references accordingly
   void removeSeam(SeamInfo seam, boolean vertical) {
+    this.redoHistory.clear();
+    this.detachSeam(seam, vertical);
+  }
+
+  // Removes the given seam from this pixelGraph given the direction of the seam, keeping it
+  // to be undone if this graph keeps a history
+  // EFFECT: removes the given seam from this pixelGraph and updates the width accordingly
+  // and pixel references accordingly, and adds it to the undo history
+  void detachSeam(SeamInfo seam, boolean vertical) {
+    if (this.historyBudget > 0) {
+      RemovedSeam removed = new RemovedSeam(seam, vertical,
+          this.corner.moveInPositiveDirection(!vertical), this.maskValuesUnder(seam, vertical));
+      if (this.recomputeNearSeams) {
+        removed.keepNeighborEnergies();
+      }
+      this.undoHistory.add(removed);
+      this.historySize += removed.size();
+      this.trimHistory();
+    }
+    if (this.mask != null) {
+      this.removeSeamFromMask(seam, vertical);
+    }
     seam.deleteThisSeam(vertical);
-    APixel curr;
-    APixel negativeSide;
-    APixel positiveSide;
     int length;
     if (vertical) {
       // EFFECT: decreases the graph's width to account for the removed seam
@@ -485,6 +1160,76 @@ class PixelGraph {
         this.corner.moveInPositiveDirection(!vertical).moveInPositiveDirection(!vertical), 
         !vertical);
     this.corner.moveInPositiveDirection(!vertical).updateNegativeDirection(this.corner, !vertical);
+    this.relinkSentinels(length, vertical);
+    if (this.recomputeNearSeams) {
+      // EFFECT: recomputes the energy of the pixels that were on either side of each pixel
+      // of the seam, which the removed pixels still point to
+      for (SeamInfo curr = seam; curr != null; curr = curr.cameFrom) {
+        curr.curr.moveInNegativeDirection(!vertical).refreshEnergy();
+        curr.curr.moveInPositiveDirection(!vertical).refreshEnergy();
+      }
+    }
+    this.validateRemoval(seam, vertical);
+  }
+
+  // Checks this graph after the given seam was removed, as its validation asks: the links
+  // around the seam every time, if validating removals, and the whole graph every
+  // fullCheckInterval removals
+  // EFFECT: counts the removal towards the next full check
+  void validateRemoval(SeamInfo seam, boolean vertical) {
+    if (this.validateRemovals && !this.isWellFormedAround(seam, vertical)) {
+      throw new IllegalStateException("graph is malformed around the removed seam");
+    }
+    if (this.fullCheckInterval > 0) {
+      this.removalsSinceFullCheck += 1;
+      if (this.removalsSinceFullCheck >= this.fullCheckInterval) {
+        this.removalsSinceFullCheck = 0;
+        if (!this.isWellFormed()) {
+          throw new IllegalStateException("graph is malformed");
+        }
+      }
+    }
+  }
+
+  // Determines whether the links a removal of the given seam changed are sound: the pixels
+  // that were on either side of each of its pixels must link to each other, and to their
+  // other neighbors, and the sentinels along the edge the removal shortened must too. The
+  // removed pixels still point to their former neighbors, which is how they are found
+  boolean isWellFormedAround(SeamInfo seam, boolean vertical) {
+    // EFFECT: checks the pixels on either side of each pixel of the seam
+    for (SeamInfo curr = seam; curr != null; curr = curr.cameFrom) {
+      APixel before = curr.curr.moveInNegativeDirection(!vertical);
+      APixel after = curr.curr.moveInPositiveDirection(!vertical);
+      if (before.moveInPositiveDirection(!vertical) != after || !before.neighborsValid()
+          || !after.neighborsValid()) {
+        return false;
+      }
+    }
+    int length;
+    if (vertical) {
+      length = this.width;
+    }
+    else {
+      length = this.height;
+    }
+    APixel sentinel = this.corner;
+    // EFFECT: checks the corner and each sentinel along the shortened edge
+    for (int index = 0; index <= length; index += 1) {
+      if (!sentinel.neighborsValid()) {
+        return false;
+      }
+      sentinel = sentinel.moveInPositiveDirection(!vertical);
+    }
+    return sentinel == this.corner;
+  }
+
+  // Links each of the given number of sentinels along the edge of this graph to the first and
+  // last pixels of its column (if vertical) or row (if horizontal)
+  // EFFECT: modifies the sentinels and the pixels on both sides of them
+  void relinkSentinels(int length, boolean vertical) {
+    APixel curr;
+    APixel negativeSide;
+    APixel positiveSide;
     curr = this.corner.moveInPositiveDirection(!vertical);
     negativeSide = this.corner.moveInNegativeDirection(vertical).moveInPositiveDirection(!vertical);
     positiveSide = this.corner.moveInPositiveDirection(vertical).moveInPositiveDirection(!vertical);
@@ -505,24 +1250,365 @@ class PixelGraph {
     }
   }
 
-  // Turns the pixels in the given seam red
-  void makeSeamRed(SeamInfo seam) {
-    seam.showSeam();
+  // Produces the mask values under the given seam, one for each row (if vertical) or column
+  // (if horizontal), or null if this graph has no mask
+  byte[] maskValuesUnder(SeamInfo seam, boolean vertical) {
+    if (this.mask == null) {
+      return null;
+    }
+    byte[] result = new byte[seam.calculatePosition(!vertical) + 1];
+    // EFFECT: records the mask value under each pixel of the seam
+    for (SeamInfo curr = seam; curr != null; curr = curr.cameFrom) {
+      result[curr.calculatePosition(!vertical)] = this.mask[this.maskIndex(curr.x, curr.y)];
+    }
+    return result;
   }
 
-  // Renders this PixelGraph according to the colors of its pixels
-  boolean isWellFormed() {
-    if (!this.corner.neighborsValid()) {
-      return false;
+  // Sets how many removed pixels this graph may keep to undo removed seams
+  // EFFECT: sets the history budget and forgets the oldest seams that no longer fit
+  void setHistoryBudget(long pixels) {
+    if (pixels < 0) {
+      throw new IllegalArgumentException("history budget must not be negative");
     }
-    APixel rowPixel = this.corner.down;
-    // Loop: Iterates through each row of this pixel graph from top to bottom
-    for (int y = 0; y < this.height; y += 1) {
-      APixel columnPixel = rowPixel.right;
-      // Loop : Iterates through each pixel in the current row from left to right
-      for (int x = 0; x < this.width; x += 1) {
-        if (!columnPixel.neighborsValid()) {
-          return false;
+    this.historyBudget = pixels;
+    this.trimHistory();
+  }
+
+  // Sets whether each seam removal checks the links it changed, which costs time in proportion
+  // to the seam and the edge it shortens rather than the whole graph, and how many removals
+  // go between checks of the whole graph, or 0 for none
+  // EFFECT: sets this graph's validation and restarts the count towards a full check
+  void setValidation(boolean validateRemovals, int fullCheckInterval) {
+    if (fullCheckInterval < 0) {
+      throw new IllegalArgumentException("full check interval must not be negative");
+    }
+    this.validateRemovals = validateRemovals;
+    this.fullCheckInterval = fullCheckInterval;
+    this.removalsSinceFullCheck = 0;
+  }
+
+  // Forgets the oldest removed seams until the history fits in its budget
+  // EFFECT: removes seams from the front of the undo history, then the redo history
+  void trimHistory() {
+    while (this.historySize > this.historyBudget && !this.undoHistory.isEmpty()) {
+      this.historySize -= this.undoHistory.remove(0).size();
+    }
+    while (this.historySize > this.historyBudget && !this.redoHistory.isEmpty()) {
+      this.historySize -= this.redoHistory.remove(0).size();
+    }
+  }
+
+  // Forgets all removed seams, since they cannot be put back once other changes are made
+  // EFFECT: empties both histories
+  void clearHistory() {
+    this.undoHistory.clear();
+    this.redoHistory.clear();
+    this.historySize = 0;
+  }
+
+  // Puts back the most recently removed seam, returning whether there was one to put back
+  // EFFECT: relinks the seam's pixels and sentinel, restores its mask values, updates the
+  // width or height and moves the seam to the redo history
+  boolean undoRemoval() {
+    if (this.undoHistory.isEmpty()) {
+      return false;
+    }
+    RemovedSeam removed = this.undoHistory.remove(this.undoHistory.size() - 1);
+    boolean vertical = removed.path.vertical;
+    if (this.mask != null) {
+      this.restoreSeamIntoMask(removed);
+    }
+    // EFFECT: points each neighbor of the seam's pixels back at them, last first
+    for (int edgeIndex = removed.pixels.length - 1; edgeIndex >= 0; edgeIndex -= 1) {
+      removed.pixels[edgeIndex].relinkNeighbors();
+    }
+    removed.restoreNeighborEnergies();
+    this.corner.insertAfter(removed.sentinel, vertical);
+    int length;
+    if (vertical) {
+      // EFFECT: increases the graph's width to account for the restored seam
+      this.width += 1;
+      length = this.width;
+    }
+    else {
+      // EFFECT: increases the graph's height to account for the restored seam
+      this.height += 1;
+      length = this.height;
+    }
+    this.relinkSentinels(length, vertical);
+    this.redoHistory.add(removed);
+    return true;
+  }
+
+  // Removes the most recently undone seam again, returning whether there was one to remove
+  // EFFECT: removes the seam and moves it back to the undo history
+  boolean redoRemoval() {
+    if (this.redoHistory.isEmpty()) {
+      return false;
+    }
+    RemovedSeam removed = this.redoHistory.remove(this.redoHistory.size() - 1);
+    this.historySize -= removed.size();
+    this.detachSeam(removed.seam(), removed.path.vertical);
+    return true;
+  }
+
+  // Opens a gap in the mask under each pixel of the given removed seam and fills it with the
+  // mask value the pixel had, or with 0 if the seam was removed before the mask was set
+  // EFFECT: shifts the rest of each row or column of the mask after the seam
+  void restoreSeamIntoMask(RemovedSeam removed) {
+    this.useMaskLayout(removed.path.vertical);
+    int lineLength = this.maskLineLength();
+    this.ensureMaskCapacity(lineLength + 1);
+    int[] positions = removed.path.positions();
+    // EFFECT: opens a gap at each pixel of the seam and fills it
+    for (int edgeIndex = 0; edgeIndex < positions.length; edgeIndex += 1) {
+      int index = edgeIndex * this.maskStride + positions[edgeIndex];
+      System.arraycopy(this.mask, index, this.mask, index + 1, lineLength - positions[edgeIndex]);
+      if (removed.maskValues == null) {
+        this.mask[index] = 0;
+      }
+      else {
+        this.mask[index] = removed.maskValues[edgeIndex];
+      }
+    }
+  }
+
+  // Removes the mask values under the given seam, closing the gap it leaves
+  // EFFECT: shifts the rest of each row (if vertical) or column (if horizontal) of the mask
+  // over the seam's mask value, using this graph's size from before the seam is removed
+  void removeSeamFromMask(SeamInfo seam, boolean vertical) {
+    this.useMaskLayout(vertical);
+    int lineLength = this.maskLineLength();
+    // EFFECT: closes the gap left by each pixel of the seam
+    for (SeamInfo curr = seam; curr != null; curr = curr.cameFrom) {
+      int position = curr.calculatePosition(vertical);
+      int index = curr.calculatePosition(!vertical) * this.maskStride + position;
+      System.arraycopy(this.mask, index + 1, this.mask, index, lineLength - position - 1);
+    }
+  }
+
+  // Determines how many mask values are in use in each line of the mask
+  int maskLineLength() {
+    if (this.maskTransposed) {
+      return this.height;
+    }
+    return this.width;
+  }
+
+  // Inserts a copy of the given seam right after it, blending each copied pixel's color with
+  // the color of the pixel after it
+  // EFFECT: adds a pixel after each pixel of the given seam and updates the graph's width
+  // (if vertical) or height (if horizontal) and pixel references accordingly
+  void insertSeam(SeamInfo seam, boolean vertical) {
+    this.clearHistory();
+    if (this.mask != null) {
+      this.insertSeamIntoMask(seam, vertical);
+    }
+    int length;
+    if (vertical) {
+      length = this.height;
+    }
+    else {
+      length = this.width;
+    }
+    Pixel[] seamPixels = new Pixel[length];
+    int[] positions = new int[length];
+    // EFFECT: adds a blended copy after each pixel in the seam, fixing the references
+    // along its row (if vertical) or column (if horizontal)
+    for (SeamInfo curr = seam; curr != null; curr = curr.cameFrom) {
+      int edgeIndex = curr.calculatePosition(!vertical);
+      seamPixels[edgeIndex] = curr.curr;
+      positions[edgeIndex] = curr.calculatePosition(vertical);
+      curr.curr.insertAfter(curr.curr.blendWith(curr.curr.moveInPositiveDirection(!vertical)),
+          vertical);
+    }
+    // EFFECT: adds a sentinel for the new column (if vertical) or row (if horizontal)
+    APixel edgeSeam = seamPixels[0].moveInNegativeDirection(vertical);
+    edgeSeam.insertAfter(new PixelSentinel(), vertical);
+
+    // EFFECT: fixes the references across each pair of neighboring rows (if vertical)
+    // or columns (if horizontal), treating the sentinels as both the first and the last
+    this.linkAcross(edgeSeam, positions[0], seamPixels[0], positions[0], vertical);
+    for (int edgeIndex = 1; edgeIndex < length; edgeIndex += 1) {
+      this.linkAcross(seamPixels[edgeIndex - 1], positions[edgeIndex - 1],
+          seamPixels[edgeIndex], positions[edgeIndex], vertical);
+    }
+    this.linkAcross(seamPixels[length - 1], positions[length - 1], edgeSeam, positions[0],
+        vertical);
+
+    if (vertical) {
+      // EFFECT: increases the graph's width to account for the inserted seam
+      this.width += 1;
+    }
+    else {
+      // EFFECT: increases the graph's height to account for the inserted seam
+      this.height += 1;
+    }
+  }
+
+  // Links the pixels of two neighboring rows (if vertical) or columns (if horizontal) after
+  // a seam is inserted into both, given each one's seam pixel and that pixel's position
+  // EFFECT: modifies the pixels between the two seam pixels and after them to point to
+  // their new neighbors in the other row or column
+  void linkAcross(APixel negativeSeam, int negativePosition, APixel positiveSeam,
+      int positivePosition, boolean vertical) {
+    int from = Math.min(negativePosition, positivePosition);
+    int to = Math.max(negativePosition, positivePosition);
+    APixel negativeSide = negativeSeam.moveBy(from - negativePosition, !vertical);
+    APixel positiveSide = positiveSeam.moveBy(from - positivePosition, !vertical);
+    // EFFECT: links each pixel after the first position up to just after the last one
+    for (int position = from; position <= to; position += 1) {
+      negativeSide = negativeSide.moveInPositiveDirection(!vertical);
+      positiveSide = positiveSide.moveInPositiveDirection(!vertical);
+      negativeSide.updatePositiveDirection(positiveSide, vertical);
+      positiveSide.updateNegativeDirection(negativeSide, vertical);
+    }
+  }
+
+  // Inserts mask values for a copy of the given seam right after it, marking both copies as
+  // stretched
+  // EFFECT: shifts the rest of each row (if vertical) or column (if horizontal) of the mask
+  // away from the seam, growing the mask first if it is full
+  void insertSeamIntoMask(SeamInfo seam, boolean vertical) {
+    this.useMaskLayout(vertical);
+    int lineLength = this.maskLineLength();
+    this.ensureMaskCapacity(lineLength + 1);
+    // EFFECT: opens a gap after each pixel of the seam and fills it
+    for (SeamInfo curr = seam; curr != null; curr = curr.cameFrom) {
+      int position = curr.calculatePosition(vertical);
+      int index = curr.calculatePosition(!vertical) * this.maskStride + position;
+      System.arraycopy(this.mask, index + 1, this.mask, index + 2, lineLength - position - 1);
+      this.mask[index] = (byte) Math.max(this.mask[index], MASK_STRETCHED);
+      this.mask[index + 1] = this.mask[index];
+    }
+  }
+
+  // Makes sure each line of the mask has room for the given number of values
+  // EFFECT: replaces the mask with a copy with longer lines if they are too short, growing
+  // them by half
+  void ensureMaskCapacity(int lineLength) {
+    if (lineLength > this.maskStride) {
+      int lines = this.mask.length / this.maskStride;
+      int newStride = lineLength + lineLength / 2;
+      byte[] newMask = new byte[newStride * lines];
+      // EFFECT: copies each line of the old mask into the new one
+      for (int line = 0; line < lines; line += 1) {
+        System.arraycopy(this.mask, line * this.maskStride, newMask, line * newStride,
+            this.maskStride);
+      }
+      this.mask = newMask;
+      this.maskStride = newStride;
+    }
+  }
+
+  // Inserts the given number of least energy seams in the direction corresponding to the
+  // given boolean, one at a time
+  // EFFECT: grows this graph and its mask, adding an empty mask if there is none so that
+  // the inserted seams spread out
+  void insertSeams(int count, boolean vertical) {
+    if (this.mask == null) {
+      this.setMask(new byte[this.width * this.height]);
+    }
+    for (int remaining = count; remaining > 0; remaining -= 1) {
+      this.insertSeam(this.leastEnergySeam(vertical), vertical);
+    }
+  }
+
+  // Finds the bounds {minX, minY, maxX, maxY} of the pixels marked for removal in this
+  // graph's mask, only looking between the given positions, or null if there are none
+  int[] markedBounds(int minX, int minY, int maxX, int maxY) {
+    int[] result = null;
+    if (this.mask == null) {
+      return result;
+    }
+    // EFFECT: grows result to cover each marked pixel in the given area
+    for (int y = minY; y <= maxY; y += 1) {
+      for (int x = minX; x <= maxX; x += 1) {
+        if (this.mask[this.maskIndex(x, y)] < 0) {
+          if (result == null) {
+            result = new int[] {x, y, x, y};
+          }
+          else {
+            result[0] = Math.min(result[0], x);
+            result[2] = Math.max(result[2], x);
+            result[3] = y;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  // Removes the region marked for removal in this graph's mask one least energy seam through
+  // it at a time, choosing vertical seams when the region is no wider than it is tall,
+  // and optionally inserts seams afterwards to bring this graph back to its original size.
+  // Stops early once the best seam through the region's bounds misses every marked pixel
+  // (protected pixels can make that cheaper), since removing it would not shrink the region,
+  // and produces whether the whole region was removed
+  // EFFECT: removes (and possibly inserts) seams in this graph and its mask
+  boolean removeMarkedRegion(boolean restoreSize) {
+    int originalWidth = this.width;
+    int originalHeight = this.height;
+    int[] bounds = this.markedBounds(0, 0, this.width - 1, this.height - 1);
+    // EFFECT: removes a seam through the marked region, which can then only have moved
+    // one pixel towards the removed seam
+    while (bounds != null && this.width > 1 && this.height > 1) {
+      boolean vertical = (bounds[2] - bounds[0]) <= (bounds[3] - bounds[1]);
+      SeamInfo seam = this.leastEnergySeamThrough(bounds, vertical);
+      if (!this.removesMarkedPixel(seam, vertical)) {
+        break;
+      }
+      this.removeSeam(seam, vertical);
+      if (vertical) {
+        bounds = this.markedBounds(Math.max(0, bounds[0] - 1), bounds[1],
+            Math.min(this.width - 1, bounds[2]), bounds[3]);
+      }
+      else {
+        bounds = this.markedBounds(bounds[0], Math.max(0, bounds[1] - 1),
+            bounds[2], Math.min(this.height - 1, bounds[3]));
+      }
+    }
+    if (restoreSize) {
+      this.insertSeams(originalWidth - this.width, true);
+      this.insertSeams(originalHeight - this.height, false);
+    }
+    return bounds == null;
+  }
+
+  // Determines whether the given seam, in the direction corresponding to the given boolean,
+  // crosses at least one pixel marked for removal
+  boolean removesMarkedPixel(SeamInfo seam, boolean vertical) {
+    byte[] under = this.maskValuesUnder(seam, vertical);
+    if (under == null) {
+      return false;
+    }
+    // Loop: looks for a marked pixel under the seam
+    for (int i = 0; i < under.length; i += 1) {
+      if (under[i] < 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Turns the pixels in the given seam red
+  void makeSeamRed(SeamInfo seam) {
+    seam.showSeam();
+  }
+
+  // Renders this PixelGraph according to the colors of its pixels
+  boolean isWellFormed() {
+    if (!this.corner.neighborsValid()) {
+      return false;
+    }
+    APixel rowPixel = this.corner.down;
+    // Loop: Iterates through each row of this pixel graph from top to bottom
+    for (int y = 0; y < this.height; y += 1) {
+      APixel columnPixel = rowPixel.right;
+      // Loop : Iterates through each pixel in the current row from left to right
+      for (int x = 0; x < this.width; x += 1) {
+        if (!columnPixel.neighborsValid()) {
+          return false;
         }
         columnPixel = columnPixel.right;
       }
@@ -535,6 +1621,9 @@ class PixelGraph {
 
 // Represents the info of a seam
 class SeamInfo {
+  // The packed color of a shown seam, opaque red
+  static final int SEAM_COLOR = 0xFFFF0000;
+
   Pixel curr;
   double totalWeight;
   SeamInfo cameFrom;
@@ -543,16 +1632,21 @@ class SeamInfo {
 
   // Constructor
   SeamInfo(Pixel curr, SeamInfo cameFrom, int x, int y) {
+    this(curr, cameFrom, x, y, curr.calculateEnergy());
+  }
+
+  // Constructor with the energy of the current pixel already known
+  SeamInfo(Pixel curr, SeamInfo cameFrom, int x, int y, double energy) {
     this.curr = curr;
     this.cameFrom = cameFrom;
     this.x = x;
     this.y = y;
 
     if (cameFrom == null) {
-      this.totalWeight = curr.calculateEnergy();
+      this.totalWeight = energy;
     }
     else {
-      this.totalWeight = curr.calculateEnergy() + this.cameFrom.totalWeight;
+      this.totalWeight = energy + this.cameFrom.totalWeight;
     }
   }
 
@@ -603,15 +1697,59 @@ class SeamInfo {
     }
   }
 
+  // Produces the packed colors of the pixels in this seam, in this seam's order
+  int[] colors() {
+    int[] result = new int[this.length()];
+    int index = 0;
+    // EFFECT: records the color of each pixel in this seam
+    for (SeamInfo curr = this; curr != null; curr = curr.cameFrom) {
+      result[index] = curr.curr.color;
+      index += 1;
+    }
+    return result;
+  }
+
+  // Sets the colors of the pixels in this seam to the given colors, in this seam's order
+  // EFFECT: mutates the color field of each pixel in this seam
+  void recolor(int[] colors) {
+    int index = 0;
+    // EFFECT: sets the color of each pixel in this seam
+    for (SeamInfo curr = this; curr != null; curr = curr.cameFrom) {
+      curr.curr.color = colors[index];
+      index += 1;
+    }
+  }
+
+  // Determines how many pixels are in this seam
+  int length() {
+    int result = 0;
+    // EFFECT: counts each pixel in this seam
+    for (SeamInfo curr = this; curr != null; curr = curr.cameFrom) {
+      result += 1;
+    }
+    return result;
+  }
+
   // Turns each pixel in this seam red
   // EFFECT: mutates each pixel in this seam to have its color field be red
   void showSeam() {
-    this.curr.color = Color.RED;
+    this.curr.color = SEAM_COLOR;
     if (this.cameFrom != null) {
       this.cameFrom.showSeam();
     }
   }
 
+  // Produces the position of this seam in each row (if vertical) or column (if horizontal)
+  // it crosses
+  int[] positions(boolean vertical) {
+    int[] result = new int[this.calculatePosition(!vertical) + 1];
+    // EFFECT: sets the position of each pixel of this seam in result
+    for (SeamInfo curr = this; curr != null; curr = curr.cameFrom) {
+      result[curr.calculatePosition(!vertical)] = curr.calculatePosition(vertical);
+    }
+    return result;
+  }
+
   // Determines the relevant coordinate (x or y) depending on the seam direction given
   int calculatePosition(boolean vertical) {
     if (vertical) {
@@ -622,818 +1760,8333 @@ class SeamInfo {
 
 }
 
-// Represents a world holding a graph representing an image being carved
-class CarvingWorld extends World {
-  PixelGraph graph;
-  int tickCounter = 0;
-  SeamInfo currSeam;
-  boolean energyToggle;
-  boolean vertical;
-  boolean paused;
+// Represents a seam removed from a PixelGraph, which still holds the pixels and the sentinel
+// that were removed along with the mask values under them, and the energies its neighbors
+// kept if the removal recomputed them, so it can be put back
+class RemovedSeam {
+  // Where the seam was, and its pixels, one for each row (if vertical) or column (if
+  // horizontal), which still point to their neighbors from before the seam was removed
+  PackedSeam path;
+  Pixel[] pixels;
+  APixel sentinel;
+  // The mask values under the seam's pixels, one for each row or column, or null if there was
+  // no mask
+  byte[] maskValues;
+  // The energies kept by the pixels before and after each of the seam's pixels, two for each
+  // row or column, from before the removal recomputed them, or null if it did not
+  float[] neighborEnergies;
 
   // Constructor
-  CarvingWorld(PixelGraph graph) {
-    this.graph = graph;
-    this.energyToggle = false;
-    this.vertical = true;
-    this.paused = false;
+  RemovedSeam(SeamInfo seam, boolean vertical, APixel sentinel, byte[] maskValues) {
+    this.path = new PackedSeam(seam, vertical);
+    this.pixels = new Pixel[this.path.length];
+    // EFFECT: records the pixel of the seam in each row or column
+    for (SeamInfo curr = seam; curr != null; curr = curr.cameFrom) {
+      this.pixels[curr.calculatePosition(!vertical)] = curr.curr;
+    }
+    this.sentinel = sentinel;
+    this.maskValues = maskValues;
+    this.neighborEnergies = null;
   }
 
-  // Colors then deletes the lowest energy seam in this world
-  // EFFECT: changes the color of pixels in the lowest energy seam or removes those pixels
-  public void onTick() {
-    if ((tickCounter % 2) == 0) {
-      if (!paused) {
-        //this.vertical = Math.random() < 0.5;
-        currSeam = this.graph.leastEnergySeam(vertical);
-        this.graph.makeSeamRed(currSeam);
-        tickCounter = tickCounter + 1;
+  // Records the energies kept by the pixels on either side of each of the seam's pixels,
+  // before removing the seam recomputes them
+  // EFFECT: sets neighborEnergies
+  void keepNeighborEnergies() {
+    boolean vertical = this.path.vertical;
+    this.neighborEnergies = new float[2 * this.pixels.length];
+    // EFFECT: records the energies either side of each pixel of the seam
+    for (int edgeIndex = 0; edgeIndex < this.pixels.length; edgeIndex += 1) {
+      Pixel pixel = this.pixels[edgeIndex];
+      this.neighborEnergies[2 * edgeIndex] =
+          pixel.moveInNegativeDirection(!vertical).keptEnergy();
+      this.neighborEnergies[2 * edgeIndex + 1] =
+          pixel.moveInPositiveDirection(!vertical).keptEnergy();
+    }
+  }
+
+  // Gives the pixels on either side of each of the seam's pixels back the energies they kept
+  // before the seam was removed, if its removal recomputed them
+  // EFFECT: restores the energies of the seam's neighbors
+  void restoreNeighborEnergies() {
+    if (this.neighborEnergies != null) {
+      boolean vertical = this.path.vertical;
+      // EFFECT: restores the energies either side of each pixel of the seam
+      for (int edgeIndex = 0; edgeIndex < this.pixels.length; edgeIndex += 1) {
+        Pixel pixel = this.pixels[edgeIndex];
+        pixel.moveInNegativeDirection(!vertical)
+            .restoreEnergy(this.neighborEnergies[2 * edgeIndex]);
+        pixel.moveInPositiveDirection(!vertical)
+            .restoreEnergy(this.neighborEnergies[2 * edgeIndex + 1]);
       }
     }
-    else {
-      this.graph.removeSeam(currSeam, vertical);
-      tickCounter = tickCounter + 1;
+  }
+
+  // Produces the seam as a chain of SeamInfo over its pixels, to be removed again
+  SeamInfo seam() {
+    return this.path.toSeam(this.pixels);
+  }
+
+  // Determines how many pixels, including the sentinel, this seam holds on to
+  long size() {
+    return this.path.length + 1;
+  }
+}
+
+// Represents a seam packed into as little memory as it can be: the position of its pixel in
+// the first row (if vertical) or column (if horizontal), then two bits for each following
+// pixel's move from the one before it (-1, 0 or +1, stored plus one), 32 moves to a long.
+// A seam across 4000 rows takes about 1KB this way, where its SeamInfo chain takes 160KB
+class PackedSeam {
+  static final int MOVES_PER_LONG = 32;
+
+  boolean vertical;
+  int start;
+  int length;
+  long[] moves;
+
+  // Constructor from the position of each pixel of a seam in its row (if vertical) or
+  // column (if horizontal)
+  PackedSeam(int[] positions, boolean vertical) {
+    if (positions.length == 0) {
+      throw new IllegalArgumentException("seam must not be empty");
     }
-    if ((this.graph.width == 1) || (this.graph.height == 1)) {
-      this.endOfWorld("Image gone");
+    this.vertical = vertical;
+    this.start = positions[0];
+    this.length = positions.length;
+    this.moves = new long[(positions.length - 1 + MOVES_PER_LONG - 1) / MOVES_PER_LONG];
+    // EFFECT: packs the move to each pixel after the first into moves
+    for (int index = 1; index < positions.length; index += 1) {
+      int move = positions[index] - positions[index - 1];
+      if (move < -1 || move > 1) {
+        throw new IllegalArgumentException("seam is not connected");
+      }
+      this.moves[(index - 1) / MOVES_PER_LONG] |=
+          (long) (move + 1) << (2 * ((index - 1) % MOVES_PER_LONG));
     }
   }
 
-  // Changes the world based on key events
-  // EFFECT: toggles the energy toggle field to change rendering behavior
-  public void onKeyEvent(String key) {
-    if (key.equals("e")) {
+  // Constructor from the given seam in the direction corresponding to the given boolean
+  PackedSeam(SeamInfo seam, boolean vertical) {
+    this(seam.positions(vertical), vertical);
+  }
 
-      this.energyToggle = !this.energyToggle;
+  // Constructor from a seam encoded by toLongs()
+  PackedSeam(long[] encoded) {
+    if (encoded.length == 0) {
+      throw new IllegalArgumentException("encoded seam is truncated");
     }
-    else if (key.equals(" ")) {
-      this.paused = !this.paused;
+    this.vertical = (encoded[0] & 1) == 1;
+    this.start = (int) ((encoded[0] >>> 1) & 0x7FFFFFFF);
+    this.length = (int) (encoded[0] >>> 32);
+    if (this.length < 1) {
+      throw new IllegalArgumentException("seam must not be empty");
     }
-    else if (key.equals("v") && paused) {
-      this.graph.removeSeam(this.graph.leastEnergySeam(true), true);
+    if (encoded.length != 1 + (this.length - 1 + MOVES_PER_LONG - 1) / MOVES_PER_LONG) {
+      throw new IllegalArgumentException("encoded seam is truncated");
     }
-    else if (key.equals("h") && paused) {
-      this.graph.removeSeam(this.graph.leastEnergySeam(false), false);
+    this.moves = Arrays.copyOfRange(encoded, 1, encoded.length);
+  }
+
+  // Produces this seam as longs that can be stored or sent and read back with the long[]
+  // constructor: its direction, start and length packed into the first, then its moves
+  long[] toLongs() {
+    long[] result = new long[this.moves.length + 1];
+    result[0] = ((long) this.length << 32) | ((long) this.start << 1);
+    if (this.vertical) {
+      result[0] |= 1;
     }
+    System.arraycopy(this.moves, 0, result, 1, this.moves.length);
+    return result;
   }
 
-  // Renders this scene
-  public WorldScene makeScene() {
-    ComputedPixelImage image;
-    if (energyToggle) {
-      image = this.graph.renderEnergy();
+  // Produces the move from the pixel before the given pixel of this seam to that pixel
+  int move(int index) {
+    return (int) ((this.moves[(index - 1) / MOVES_PER_LONG]
+        >>> (2 * ((index - 1) % MOVES_PER_LONG))) & 3) - 1;
+  }
+
+  // Produces the position of each pixel of this seam in its row (if vertical) or column (if
+  // horizontal)
+  int[] positions() {
+    int[] result = new int[this.length];
+    result[0] = this.start;
+    int index = 1;
+    // EFFECT: unpacks the moves of each long in turn
+    for (long packed : this.moves) {
+      for (int count = 0; count < MOVES_PER_LONG && index < this.length; count += 1) {
+        result[index] = result[index - 1] + (int) (packed & 3) - 1;
+        packed >>>= 2;
+        index += 1;
+      }
+    }
+    return result;
+  }
+
+  // Produces this seam as a chain of SeamInfo over the given graph's pixels, with their
+  // energies, so it can be removed from the graph
+  SeamInfo toSeam(PixelGraph graph) {
+    int length1;
+    int length2;
+    if (this.vertical) {
+      length1 = graph.height;
+      length2 = graph.width;
     }
     else {
-      image = this.graph.render();
+      length1 = graph.width;
+      length2 = graph.height;
     }
-    WorldScene levelScene = new WorldScene(this.graph.width, this.graph.height);
-    levelScene.placeImageXY(image, this.graph.width / 2, this.graph.height / 2);
-    return levelScene;
+    int[] positions = this.positions();
+    if (this.length != length1) {
+      throw new IllegalArgumentException("seam does not fit the graph");
+    }
+    for (int position : positions) {
+      if (position < 0 || position >= length2) {
+        throw new IllegalArgumentException("seam does not fit the graph");
+      }
+    }
+    SeamInfo result = null;
+    APixel pixel = graph.corner.moveInPositiveDirection(this.vertical)
+        .moveInPositiveDirection(!this.vertical).moveBy(this.start, !this.vertical);
+    // EFFECT: follows the moves from pixel to pixel, adding each to the chain
+    for (int edgeIndex = 0; edgeIndex < this.length; edgeIndex += 1) {
+      if (edgeIndex > 0) {
+        pixel = pixel.moveInPositiveDirection(this.vertical)
+            .moveBy(positions[edgeIndex] - positions[edgeIndex - 1], !this.vertical);
+      }
+      int x;
+      int y;
+      if (this.vertical) {
+        x = positions[edgeIndex];
+        y = edgeIndex;
+      }
+      else {
+        x = edgeIndex;
+        y = positions[edgeIndex];
+      }
+      result = new SeamInfo((Pixel) pixel, result, x, y, graph.cellEnergy((Pixel) pixel, x, y));
+    }
+    return result;
   }
 
-  // Renders the last scene
-  public WorldScene lastScene() {
-    WorldScene levelScene = new WorldScene(1, this.graph.height);
-    return levelScene;
+  // Produces this seam as a chain of SeamInfo over the given pixels, one for each row (if
+  // vertical) or column (if horizontal), such as those of a seam that was removed. Only the
+  // pixels and positions are known, so each pixel's energy is counted as 0
+  SeamInfo toSeam(Pixel[] pixels) {
+    int[] positions = this.positions();
+    SeamInfo result = null;
+    // EFFECT: adds each pixel to the chain
+    for (int edgeIndex = 0; edgeIndex < this.length; edgeIndex += 1) {
+      if (this.vertical) {
+        result = new SeamInfo(pixels[edgeIndex], result, positions[edgeIndex], edgeIndex, 0.0);
+      }
+      else {
+        result = new SeamInfo(pixels[edgeIndex], result, edgeIndex, positions[edgeIndex], 0.0);
+      }
+    }
+    return result;
   }
 
+  // Produces the given row-major raster of the given size without the values under this
+  // seam
+  int[] removeFrom(int[] raster, int width, int height) {
+    int[] positions = this.positions();
+    int length1;
+    if (this.vertical) {
+      length1 = height;
+    }
+    else {
+      length1 = width;
+    }
+    if (raster.length != width * height || this.length != length1) {
+      throw new IllegalArgumentException("seam does not fit the raster");
+    }
+    if (this.vertical) {
+      int[] result = new int[(width - 1) * height];
+      // EFFECT: copies each row around the seam's position in it
+      for (int y = 0; y < height; y += 1) {
+        System.arraycopy(raster, y * width, result, y * (width - 1), positions[y]);
+        System.arraycopy(raster, y * width + positions[y] + 1, result,
+            y * (width - 1) + positions[y], width - positions[y] - 1);
+      }
+      return result;
+    }
+    int[] result = new int[width * (height - 1)];
+    // EFFECT: copies each row, taking each value below the seam from the row after it
+    for (int y = 0; y < height - 1; y += 1) {
+      for (int x = 0; x < width; x += 1) {
+        if (y < positions[x]) {
+          result[y * width + x] = raster[y * width + x];
+        }
+        else {
+          result[y * width + x] = raster[(y + 1) * width + x];
+        }
+      }
+    }
+    return result;
+  }
 }
 
-class ExamplesSeamCarving {
-  /*
-   * TODO:
-   * - leastEnergySeam for horizontal
-   * - makeFirstRowAsSeam for horizontal
-   * - removeSeam for horizontal
-   * - deleteThisSeam for horizontal
-   * - renderEnergy
-   * - add more tests to calculatePosition?
-   */
-  PixelGraph graph1;
+// Represents the brightness of an image, possibly downsampled, stored in an array as lines
+// stride apart: rows while carving vertical seams and columns (transposed) while carving
+// horizontal ones, so that seam searches and removals run along consecutive values
+class BrightnessLevel {
+  double[] brightness;
+  int stride;
+  int width;
+  int height;
+  // The number of full resolution pixels along each side of one of this level's pixels
+  int scale;
+  boolean transposed;
 
-  PixelSentinel pixelcorner;
-  PixelSentinel pixelR0;
-  PixelSentinel pixelR1;
-  PixelSentinel pixelR2;
-  PixelSentinel pixelD0;
-  PixelSentinel pixelD1;
-  PixelSentinel pixelD2;
+  // Constructor
+  BrightnessLevel(double[] brightness, int stride, int width, int height, int scale) {
+    this.brightness = brightness;
+    this.stride = stride;
+    this.width = width;
+    this.height = height;
+    this.scale = scale;
+    this.transposed = false;
+  }
 
-  Pixel pixel00;
-  Pixel pixel01;
-  Pixel pixel02;
-  Pixel pixel10;
-  Pixel pixel11;
-  Pixel pixel12;
-  Pixel pixel20;
+  // Graph Constructor
+  BrightnessLevel(PixelGraph graph) {
+    this(new double[graph.width * graph.height], graph.width, graph.width, graph.height, 1);
+    APixel rowPixel = graph.corner.down;
+    // Loop: Iterates over each row of the graph from top to bottom
+    for (int y = 0; y < this.height; y += 1) {
+      APixel columnPixel = rowPixel.right;
+      // EFFECT: sets the brightness of each pixel in the current row
+      for (int x = 0; x < this.width; x += 1) {
+        this.brightness[y * this.stride + x] = columnPixel.calculateBrightness();
+        columnPixel = columnPixel.right;
+      }
+      rowPixel = rowPixel.down;
+    }
+  }
+
+  // Produces this level at half the resolution, averaging each 2x2 block of pixels
+  BrightnessLevel halve() {
+    int newWidth = (this.width + 1) / 2;
+    int newHeight = (this.height + 1) / 2;
+    double[] result = new double[newWidth * newHeight];
+    // EFFECT: sets each pixel of result to the average of the pixels it covers
+    for (int y = 0; y < newHeight; y += 1) {
+      for (int x = 0; x < newWidth; x += 1) {
+        double total = 0.0;
+        int count = 0;
+        for (int blockY = 2 * y; blockY < Math.min(2 * y + 2, this.height); blockY += 1) {
+          for (int blockX = 2 * x; blockX < Math.min(2 * x + 2, this.width); blockX += 1) {
+            total += this.brightness[this.index(blockX, blockY)];
+            count += 1;
+          }
+        }
+        result[y * newWidth + x] = total / count;
+      }
+    }
+    return new BrightnessLevel(result, newWidth, newWidth, newHeight, this.scale * 2);
+  }
+
+  // Determines where the brightness of the pixel at the given position is in the array
+  int index(int x, int y) {
+    if (this.transposed) {
+      return x * this.stride + y;
+    }
+    return y * this.stride + x;
+  }
+
+  // Lays this level out in rows for vertical seams or in columns for horizontal seams, based
+  // on the given boolean
+  // EFFECT: transposes the brightness array if it is laid out the other way
+  void useLayout(boolean vertical) {
+    if (vertical == this.transposed) {
+      int lines = this.seamLength(!this.transposed);
+      this.brightness = new Utils().transpose(this.brightness, this.stride, lines,
+          this.seamPositions(!this.transposed));
+      this.stride = lines;
+      this.transposed = !this.transposed;
+    }
+  }
+
+  // Determines the brightness at the given position, which is 0 outside this level
+  double brightnessAt(int x, int y) {
+    if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+      return 0.0;
+    }
+    return this.brightness[this.index(x, y)];
+  }
+
+  // Calculates the energy at the given position the same way a Pixel does
+  double energyAt(int x, int y) {
+    double horizontalEnergy = (this.brightnessAt(x - 1, y - 1)
+        + 2.0 * this.brightnessAt(x - 1, y) + this.brightnessAt(x - 1, y + 1))
+        - (this.brightnessAt(x + 1, y - 1) + 2.0 * this.brightnessAt(x + 1, y)
+        + this.brightnessAt(x + 1, y + 1));
+    double verticalEnergy = (this.brightnessAt(x - 1, y - 1)
+        + 2.0 * this.brightnessAt(x, y - 1) + this.brightnessAt(x + 1, y - 1))
+        - (this.brightnessAt(x - 1, y + 1) + 2.0 * this.brightnessAt(x, y + 1)
+        + this.brightnessAt(x + 1, y + 1));
+    return Math.sqrt(Math.pow(horizontalEnergy, 2.0) + Math.pow(verticalEnergy, 2.0));
+  }
+
+  // Determines the number of rows (if vertical) or columns (if horizontal) a seam crosses
+  int seamLength(boolean vertical) {
+    if (vertical) {
+      return this.height;
+    }
+    return this.width;
+  }
+
+  // Determines the number of positions a seam can take in each row (if vertical)
+  // or column (if horizontal)
+  int seamPositions(boolean vertical) {
+    if (vertical) {
+      return this.width;
+    }
+    return this.height;
+  }
+
+  // Finds the positions of the least energy seam in this level in the direction corresponding
+  // to the given boolean, only considering the pixels of each row (if vertical) or column
+  // (if horizontal) from the lower to the upper position given for it. Ties are broken
+  // the same way PixelGraph.leastEnergySeamInWindow breaks them.
+  int[] leastEnergyPath(boolean vertical, int[] lower, int[] upper) {
+    this.useLayout(vertical);
+    int length1 = lower.length;
+    int[] offsets = new int[length1 + 1];
+    // EFFECT: sets where each window starts in the array of moves
+    for (int edgeIndex = 0; edgeIndex < length1; edgeIndex += 1) {
+      offsets[edgeIndex + 1] = offsets[edgeIndex] + upper[edgeIndex] - lower[edgeIndex] + 1;
+    }
+    int[] cameFrom = new int[offsets[length1]];
+    double[] previous = new double[0];
+    double[] current = new double[0];
+
+    // EFFECT: Iteratively computes the least total energy reaching each position of the window
+    // of each row/column, and the position in the previous window it came from
+    for (int edgeIndex = 0; edgeIndex < length1; edgeIndex += 1) {
+      previous = current;
+      current = new double[upper[edgeIndex] - lower[edgeIndex] + 1];
+      for (int position = lower[edgeIndex]; position <= upper[edgeIndex]; position += 1) {
+        int index = position - lower[edgeIndex];
+        double energy;
+        if (vertical) {
+          energy = this.energyAt(position, edgeIndex);
+        }
+        else {
+          energy = this.energyAt(edgeIndex, position);
+        }
+        if (edgeIndex == 0) {
+          current[index] = energy;
+        }
+        else {
+          int best = -1;
+          for (int from = position - 1; from <= position + 1; from += 1) {
+            int fromIndex = from - lower[edgeIndex - 1];
+            if (fromIndex >= 0 && fromIndex < previous.length
+                && (best == -1 || previous[fromIndex] < previous[best - lower[edgeIndex - 1]])) {
+              best = from;
+            }
+          }
+          if (best == -1) {
+            throw new IllegalArgumentException("window is unreachable");
+          }
+          current[index] = energy + previous[best - lower[edgeIndex - 1]];
+          cameFrom[offsets[edgeIndex] + index] = best;
+        }
+      }
+    }
+
+    int[] result = new int[length1];
+    int last = 0;
+    // EFFECT: finds the first least total energy position in the last window
+    for (int index = 1; index < current.length; index += 1) {
+      if (current[index] < current[last]) {
+        last = index;
+      }
+    }
+    result[length1 - 1] = lower[length1 - 1] + last;
+    // EFFECT: follows where each position came from back to the first window
+    for (int edgeIndex = length1 - 1; edgeIndex > 0; edgeIndex -= 1) {
+      result[edgeIndex - 1] =
+          cameFrom[offsets[edgeIndex] + result[edgeIndex] - lower[edgeIndex]];
+    }
+    return result;
+  }
+
+  // Copies the given row (if vertical) or column (if horizontal) of this level into the given
+  // array with a zero on each side, or all zeros if the line is outside this level
+  // EFFECT: sets the values of padded
+  void padLine(int line, boolean vertical, double[] padded) {
+    int length = this.seamPositions(vertical);
+    if (line < 0 || line >= this.seamLength(vertical)) {
+      Arrays.fill(padded, 0, length + 2, 0.0);
+    }
+    else {
+      System.arraycopy(this.brightness, line * this.stride, padded, 1, length);
+      padded[0] = 0.0;
+      padded[length + 1] = 0.0;
+    }
+  }
+
+  // Finds the positions of the least energy seam in this level in the direction corresponding
+  // to the given boolean, the same as leastEnergyPath with every position in its windows but
+  // running each line through the branch-free accumulateLine kernel, keeping a byte move into
+  // each position and only two lines of total energies
+  int[] leastEnergyPathFull(boolean vertical) {
+    this.useLayout(vertical);
+    Utils u = new Utils();
+    int lines = this.seamLength(vertical);
+    int length = this.seamPositions(vertical);
+    byte[] moves = new byte[lines * length];
+    double[] previous = new double[length];
+    double[] current = new double[length];
+    double[] energy = new double[length];
+    double[] before = new double[length + 2];
+    double[] line = new double[length + 2];
+    double[] after = new double[length + 2];
+    this.padLine(-1, vertical, before);
+    this.padLine(0, vertical, line);
+    // EFFECT: computes the least total energy reaching each position of each line
+    for (int index = 0; index < lines; index += 1) {
+      double[] reusedTotals = previous;
+      previous = current;
+      current = reusedTotals;
+      this.padLine(index + 1, vertical, after);
+      u.energyLine(before, line, after, energy, length);
+      if (index == 0) {
+        System.arraycopy(energy, 0, current, 0, length);
+      }
+      else {
+        u.accumulateLine(previous, current, energy, moves, index * length, length);
+      }
+      double[] reused = before;
+      before = line;
+      line = after;
+      after = reused;
+    }
+
+    int[] result = new int[lines];
+    int last = 0;
+    // EFFECT: finds the first least total energy position in the last line
+    for (int position = 1; position < length; position += 1) {
+      if (current[position] < current[last]) {
+        last = position;
+      }
+    }
+    result[lines - 1] = last;
+    // EFFECT: follows the moves back to the first line
+    for (int index = lines - 1; index > 0; index -= 1) {
+      result[index - 1] = result[index] + moves[index * length + result[index]];
+    }
+    return result;
+  }
+
+  // Removes the pixel at the given position of each row (if vertical) or column
+  // (if horizontal) of this level
+  // EFFECT: shifts the rest of each row or column over the removed pixel and updates
+  // this level's width or height
+  void removePath(int[] path, boolean vertical) {
+    this.useLayout(vertical);
+    int lineLength = this.seamPositions(vertical);
+    // EFFECT: closes the gap left in each line
+    for (int line = 0; line < path.length; line += 1) {
+      int index = line * this.stride + path[line];
+      System.arraycopy(this.brightness, index + 1, this.brightness, index,
+          lineLength - path[line] - 1);
+    }
+    if (vertical) {
+      this.width -= 1;
+    }
+    else {
+      this.height -= 1;
+    }
+  }
+}
+
+// Represents a coarse-to-fine search for least energy seams in a pixel graph: each seam is
+// found in a downsampled copy of the graph and then refined within a band around it at
+// each finer level, so a seam costs about height * band at full resolution
+class PyramidSeamFinder {
+  PixelGraph graph;
+  // The downsampled levels, from half resolution to the lowest resolution
+  ArrayList<BrightnessLevel> levels;
+  int band;
+  // The seams removed in each direction, counted separately since a level only loses a
+  // line once as many seams as its scale have been removed in that line's direction
+  int verticalSeamsRemoved;
+  int horizontalSeamsRemoved;
+
+  // Constructor
+  PyramidSeamFinder(PixelGraph graph, int levelCount, int band) {
+    if (levelCount < 1) {
+      throw new IllegalArgumentException("a pyramid needs at least one level");
+    }
+    this.graph = graph;
+    this.levels = new ArrayList<BrightnessLevel>();
+    this.band = band;
+    this.verticalSeamsRemoved = 0;
+    this.horizontalSeamsRemoved = 0;
+    BrightnessLevel level = new BrightnessLevel(graph);
+    // EFFECT: adds each successively halved level to levels
+    for (int count = 0; count < levelCount; count += 1) {
+      level = level.halve();
+      this.levels.add(level);
+    }
+  }
+
+  // Finds an approximately least energy seam in the graph in the direction corresponding
+  // to the given boolean
+  SeamInfo leastEnergySeam(boolean vertical) {
+    Utils u = new Utils();
+    BrightnessLevel coarsest = this.levels.get(this.levels.size() - 1);
+    int[] path = coarsest.leastEnergyPathFull(vertical);
+    int[][] windows;
+    // EFFECT: refines path at each finer level within the band around it
+    for (int index = this.levels.size() - 2; index >= 0; index -= 1) {
+      BrightnessLevel level = this.levels.get(index);
+      windows = u.bandAround(path, 2, level.seamLength(vertical), level.seamPositions(vertical),
+          this.band);
+      path = level.leastEnergyPath(vertical, windows[0], windows[1]);
+    }
+    if (vertical) {
+      windows = u.bandAround(path, 2, this.graph.height, this.graph.width, this.band);
+    }
+    else {
+      windows = u.bandAround(path, 2, this.graph.width, this.graph.height, this.band);
+    }
+    return this.graph.leastEnergySeamInWindow(vertical, windows[0], windows[1]);
+  }
+
+  // Removes the given seam from the graph, and from each level once enough seams have been
+  // removed to make up one of that level's pixels
+  // EFFECT: modifies the graph and the levels
+  void removeSeam(SeamInfo seam, boolean vertical) {
+    int[] path = seam.positions(vertical);
+    this.graph.removeSeam(seam, vertical);
+    int seamsRemoved;
+    if (vertical) {
+      this.verticalSeamsRemoved += 1;
+      seamsRemoved = this.verticalSeamsRemoved;
+    }
+    else {
+      this.horizontalSeamsRemoved += 1;
+      seamsRemoved = this.horizontalSeamsRemoved;
+    }
+    // EFFECT: removes the seam, downsampled, from each level it now makes up a pixel of
+    for (BrightnessLevel level : this.levels) {
+      if (seamsRemoved % level.scale == 0 && level.seamPositions(vertical) > 1) {
+        int[] levelPath = new int[level.seamLength(vertical)];
+        for (int edgeIndex = 0; edgeIndex < levelPath.length; edgeIndex += 1) {
+          levelPath[edgeIndex] = Math.min(level.seamPositions(vertical) - 1,
+              path[Math.min(edgeIndex * level.scale, path.length - 1)] / level.scale);
+        }
+        level.removePath(levelPath, vertical);
+      }
+    }
+  }
+}
+
+// Represents an approximate search for least energy seams that only follows a beam of the
+// lowest energy partial seams from line to line, starting from the lowest energy pixels of
+// the first line, so a seam costs about beamWidth * length energies instead of the whole
+// graph's. A beam width of 1 extends the single lowest energy first pixel greedily, and a
+// beam as wide as the graph finds a least energy seam
+class BeamSeamFinder {
+  PixelGraph graph;
+  int beamWidth;
+  // The seam of the beam reaching each position of the line being extended to, or null, and
+  // the positions it has reached so far, both cleared again after each line
+  SeamInfo[] reached;
+  int[] touched;
+  // The seams of the beam, and the seams extending them to the next line
+  SeamInfo[] beam;
+  SeamInfo[] extended;
+
+  // Constructor
+  BeamSeamFinder(PixelGraph graph, int beamWidth) {
+    if (beamWidth < 1) {
+      throw new IllegalArgumentException("beam width must be positive");
+    }
+    this.graph = graph;
+    this.beamWidth = beamWidth;
+    this.reached = new SeamInfo[0];
+    this.touched = new int[0];
+    this.beam = new SeamInfo[0];
+    this.extended = new SeamInfo[0];
+  }
+
+  // Finds an approximately least energy seam in the graph in the direction corresponding
+  // to the given boolean
+  SeamInfo leastEnergySeam(boolean vertical) {
+    if (this.graph.mask != null) {
+      this.graph.useMaskLayout(vertical);
+    }
+    int length1;
+    int length2;
+    if (vertical) {
+      length1 = this.graph.height;
+      length2 = this.graph.width;
+    }
+    else {
+      length1 = this.graph.width;
+      length2 = this.graph.height;
+    }
+    this.fitBuffers(length2);
+    ArrayList<SeamInfo> firstRow = this.graph.makeFirstRowAsSeamInfo(vertical);
+    // EFFECT: copies the first row (if vertical) or column (if horizontal) to be narrowed
+    for (int position = 0; position < length2; position += 1) {
+      this.extended[position] = firstRow.get(position);
+    }
+    int beamCount = this.select(this.extended, length2, vertical);
+    System.arraycopy(this.extended, 0, this.beam, 0, beamCount);
+    // EFFECT: extends the beam by each following row (if vertical) or column (if horizontal)
+    for (int edgeIndex = 1; edgeIndex < length1; edgeIndex += 1) {
+      int touchedCount = 0;
+      // EFFECT: records the lowest energy seam of the beam reaching each position
+      for (int index = 0; index < beamCount; index += 1) {
+        SeamInfo seam = this.beam[index];
+        int position = seam.calculatePosition(vertical);
+        for (int next = Math.max(0, position - 1); next <= Math.min(length2 - 1, position + 1);
+            next += 1) {
+          SeamInfo best = this.reached[next];
+          if (best == null) {
+            this.touched[touchedCount] = next;
+            touchedCount += 1;
+            this.reached[next] = seam;
+          }
+          else if (this.precedes(seam, best, vertical)) {
+            this.reached[next] = seam;
+          }
+        }
+      }
+      // EFFECT: adds the pixel at each reached position to the seam reaching it, and clears
+      // the position for the next line
+      for (int index = 0; index < touchedCount; index += 1) {
+        int next = this.touched[index];
+        SeamInfo cameFrom = this.reached[next];
+        this.reached[next] = null;
+        Pixel pixel = (Pixel) cameFrom.curr.moveInPositiveDirection(vertical)
+            .moveBy(next - cameFrom.calculatePosition(vertical), !vertical);
+        int x;
+        int y;
+        if (vertical) {
+          x = next;
+          y = edgeIndex;
+        }
+        else {
+          x = edgeIndex;
+          y = next;
+        }
+        this.extended[index] =
+            new SeamInfo(pixel, cameFrom, x, y, this.graph.cellEnergy(pixel, x, y));
+      }
+      beamCount = this.select(this.extended, touchedCount, vertical);
+      System.arraycopy(this.extended, 0, this.beam, 0, beamCount);
+    }
+    SeamInfo result = this.beam[0];
+    // EFFECT: finds the lowest energy seam of the beam
+    for (int index = 1; index < beamCount; index += 1) {
+      if (this.precedes(this.beam[index], result, vertical)) {
+        result = this.beam[index];
+      }
+    }
+    return result;
+  }
+
+  // Makes the buffers big enough for lines of the given number of positions
+  // EFFECT: replaces the buffers that are too small
+  void fitBuffers(int length) {
+    if (this.reached.length < length) {
+      this.reached = new SeamInfo[length];
+      this.touched = new int[length];
+      this.beam = new SeamInfo[length];
+      this.extended = new SeamInfo[length];
+    }
+  }
+
+  // Determines whether the given seam has less energy than the other, or the same energy and
+  // an earlier position
+  boolean precedes(SeamInfo seam, SeamInfo other, boolean vertical) {
+    if (seam.totalWeight != other.totalWeight) {
+      return seam.totalWeight < other.totalWeight;
+    }
+    return seam.calculatePosition(vertical) < other.calculatePosition(vertical);
+  }
+
+  // Moves the beam width lowest energy of the first given number of the given seams, ending
+  // at different positions, to the front in no particular order, preferring the earlier
+  // position on ties, and produces how many were moved. Only the part holding the last of
+  // them is partitioned further each time, so it takes time linear in the number of seams
+  // EFFECT: reorders the given seams
+  int select(SeamInfo[] seams, int count, boolean vertical) {
+    int wanted = Math.min(this.beamWidth, count);
+    int low = 0;
+    int high = count - 1;
+    // EFFECT: partitions the range holding the last wanted seam until it is in place
+    while (wanted < count && low < high) {
+      SeamInfo pivot = seams[(low + high) / 2];
+      int left = low;
+      int right = high;
+      while (left <= right) {
+        while (this.precedes(seams[left], pivot, vertical)) {
+          left += 1;
+        }
+        while (this.precedes(pivot, seams[right], vertical)) {
+          right -= 1;
+        }
+        if (left <= right) {
+          SeamInfo swapped = seams[left];
+          seams[left] = seams[right];
+          seams[right] = swapped;
+          left += 1;
+          right -= 1;
+        }
+      }
+      if (wanted - 1 <= right) {
+        high = right;
+      }
+      else if (wanted - 1 >= left) {
+        low = left;
+      }
+      else {
+        low = high;
+      }
+    }
+    return wanted;
+  }
+}
+
+// Represents a sequence of equally sized frames carved together, so that each frame's seams
+// follow the same seams of the frame before it. Frames are carved in parallel: a frame can
+// search for its next seam as soon as the frame before it has found the same seam.
+class FrameSequenceCarver {
+  ArrayList<PixelGraph> frames;
+  ArrayList<String> names;
+  // How far a frame's seam can move from the same seam of the frame before it
+  int band;
+  // The positions of each seam removed from each frame, in order
+  ArrayList<ArrayList<int[]>> seams;
+
+  // Constructor
+  FrameSequenceCarver(ArrayList<PixelGraph> frames, ArrayList<String> names, int band) {
+    for (PixelGraph frame : frames) {
+      if (frame.width != frames.get(0).width || frame.height != frames.get(0).height) {
+        throw new IllegalArgumentException("frames must all be the same size");
+      }
+    }
+    this.frames = frames;
+    this.names = names;
+    this.band = band;
+    this.seams = new ArrayList<ArrayList<int[]>>();
+  }
+
+  // Directory Constructor, reading each PNG image in the given directory as a frame,
+  // in order of file name
+  FrameSequenceCarver(String directory, int band) {
+    this(new ArrayList<PixelGraph>(), new ArrayList<String>(), band);
+    String[] files = new File(directory).list();
+    if (files == null) {
+      throw new IllegalArgumentException("not a directory: " + directory);
+    }
+    Arrays.sort(files);
+    // EFFECT: adds each PNG image in the directory to frames
+    for (String name : files) {
+      if (name.toLowerCase().endsWith(".png")) {
+        PixelGraph frame = new ImageCodec().read(new File(directory, name).getPath());
+        if (this.frames.size() > 0
+            && (frame.width != this.frames.get(0).width
+            || frame.height != this.frames.get(0).height)) {
+          throw new IllegalArgumentException("frames must all be the same size");
+        }
+        this.frames.add(frame);
+        this.names.add(name);
+      }
+    }
+  }
+
+  // Removes the given numbers of vertical and then horizontal seams from every frame,
+  // carving up to the given number of frames at once
+  // EFFECT: removes seams from each frame and records their positions in seams
+  void carve(int verticalSeams, int horizontalSeams, int threads) {
+    int count = verticalSeams + horizontalSeams;
+    ArrayList<ArrayList<CompletableFuture<int[]>>> found =
+        new ArrayList<ArrayList<CompletableFuture<int[]>>>();
+    // EFFECT: adds a seam position to be completed for each seam of each frame
+    for (int frame = 0; frame < this.frames.size(); frame += 1) {
+      ArrayList<CompletableFuture<int[]>> frameSeams = new ArrayList<CompletableFuture<int[]>>();
+      for (int seam = 0; seam < count; seam += 1) {
+        frameSeams.add(new CompletableFuture<int[]>());
+      }
+      found.add(frameSeams);
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    ArrayList<CompletableFuture<Void>> done = new ArrayList<CompletableFuture<Void>>();
+    // EFFECT: starts carving each frame, in order so that a frame only waits on frames
+    // that have already started
+    for (int frame = 0; frame < this.frames.size(); frame += 1) {
+      int index = frame;
+      done.add(CompletableFuture.runAsync(() -> this.carveFrame(index, verticalSeams, found),
+          pool));
+    }
+    try {
+      CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+    }
+    finally {
+      pool.shutdown();
+    }
+
+    // EFFECT: records the found seams of each frame
+    for (ArrayList<CompletableFuture<int[]>> frameSeams : found) {
+      ArrayList<int[]> positions = new ArrayList<int[]>();
+      for (CompletableFuture<int[]> seam : frameSeams) {
+        positions.add(seam.join());
+      }
+      this.seams.add(positions);
+    }
+  }
+
+  // Removes the seams of the frame at the given index, following the frame before it
+  // EFFECT: removes seams from the frame and completes its found seams, or fails all of
+  // its remaining ones so that the frames after it stop too
+  void carveFrame(int index, int verticalSeams,
+      ArrayList<ArrayList<CompletableFuture<int[]>>> found) {
+    PixelGraph graph = this.frames.get(index);
+    ArrayList<CompletableFuture<int[]>> frameSeams = found.get(index);
+    Utils u = new Utils();
+    try {
+      for (int seamIndex = 0; seamIndex < frameSeams.size(); seamIndex += 1) {
+        boolean vertical = seamIndex < verticalSeams;
+        SeamInfo seam;
+        if (index == 0) {
+          seam = graph.leastEnergySeam(vertical);
+        }
+        else {
+          int[] previous = found.get(index - 1).get(seamIndex).join();
+          int[][] windows;
+          if (vertical) {
+            windows = u.bandAround(previous, 1, graph.height, graph.width, this.band);
+          }
+          else {
+            windows = u.bandAround(previous, 1, graph.width, graph.height, this.band);
+          }
+          seam = graph.leastEnergySeamInWindow(vertical, windows[0], windows[1]);
+        }
+        frameSeams.get(seamIndex).complete(seam.positions(vertical));
+        graph.removeSeam(seam, vertical);
+      }
+    }
+    catch (RuntimeException e) {
+      for (CompletableFuture<int[]> seam : frameSeams) {
+        seam.completeExceptionally(e);
+      }
+      throw e;
+    }
+  }
+
+  // Writes each frame as a PNG image with its original name into the given directory,
+  // creating the directory if needed
+  void save(String directory) {
+    File output = new File(directory);
+    output.mkdirs();
+    // EFFECT: writes each frame to the output directory
+    for (int index = 0; index < this.frames.size(); index += 1) {
+      new ImageCodec().write(this.frames.get(index),
+          new File(output, this.names.get(index)));
+    }
+  }
+}
+
+// Represents a flow network stored in primitive arrays, used to find minimum cuts. Each edge
+// adds a pair of arcs, arc i and arc i ^ 1, each the other's residual reverse
+class FlowNetwork {
+  // The most arcs the primitive arrays of a network can hold
+  static final int MAX_ARCS = Integer.MAX_VALUE - 8;
+
+  int nodes;
+  int arcCount;
+  int[] tail;
+  int[] head;
+  long[] capacity;
+  // The arcs leaving each node u are arcsByTail[firstArc[u]] to arcsByTail[firstArc[u + 1] - 1]
+  int[] firstArc;
+  int[] arcsByTail;
+  int[] label;
+  long[] excess;
+
+  // Constructor
+  FlowNetwork(int nodes, long expectedEdges) {
+    long arcs = 2 * Math.max(1, expectedEdges);
+    if (arcs > MAX_ARCS) {
+      throw new IllegalArgumentException("a flow network holds at most " + MAX_ARCS / 2
+          + " edges");
+    }
+    this.nodes = nodes;
+    this.arcCount = 0;
+    this.tail = new int[(int) arcs];
+    this.head = new int[(int) arcs];
+    this.capacity = new long[(int) arcs];
+  }
+
+  // Adds an edge between the given nodes with the given capacity in each direction
+  // EFFECT: appends the pair of arcs for the edge, growing the arrays if they are full
+  void addEdge(int from, int to, long forward, long backward) {
+    if (this.arcCount + 2 > this.tail.length) {
+      if (this.tail.length > MAX_ARCS - 2) {
+        throw new IllegalStateException("a flow network holds at most " + MAX_ARCS / 2
+            + " edges");
+      }
+      int grown = (int) Math.min(MAX_ARCS, 2L * this.tail.length);
+      this.tail = Arrays.copyOf(this.tail, grown);
+      this.head = Arrays.copyOf(this.head, grown);
+      this.capacity = Arrays.copyOf(this.capacity, grown);
+    }
+    this.tail[this.arcCount] = from;
+    this.head[this.arcCount] = to;
+    this.capacity[this.arcCount] = forward;
+    this.tail[this.arcCount + 1] = to;
+    this.head[this.arcCount + 1] = from;
+    this.capacity[this.arcCount + 1] = backward;
+    this.arcCount += 2;
+  }
+
+  // Groups the arcs by the node they leave
+  // EFFECT: sets firstArc and arcsByTail
+  void indexArcs() {
+    this.firstArc = new int[this.nodes + 1];
+    this.arcsByTail = new int[this.arcCount];
+    for (int arc = 0; arc < this.arcCount; arc += 1) {
+      this.firstArc[this.tail[arc] + 1] += 1;
+    }
+    for (int node = 0; node < this.nodes; node += 1) {
+      this.firstArc[node + 1] += this.firstArc[node];
+    }
+    int[] next = Arrays.copyOf(this.firstArc, this.nodes);
+    for (int arc = 0; arc < this.arcCount; arc += 1) {
+      this.arcsByTail[next[this.tail[arc]]] = arc;
+      next[this.tail[arc]] += 1;
+    }
+  }
+
+  // Finds a maximum preflow from the source to the sink with the FIFO push-relabel method,
+  // which is all a minimum cut needs, and produces its value
+  // EFFECT: modifies the residual capacities, labels and excesses of this network
+  long maxPreflow(int source, int sink) {
+    this.indexArcs();
+    this.label = new int[this.nodes];
+    this.excess = new long[this.nodes];
+    int[] current = Arrays.copyOf(this.firstArc, this.nodes);
+    int[] queue = new int[this.nodes];
+    boolean[] queued = new boolean[this.nodes];
+    int queueHead = 0;
+    int queueSize = 0;
+
+    // EFFECT: saturates every arc leaving the source
+    for (int index = this.firstArc[source]; index < this.firstArc[source + 1]; index += 1) {
+      int arc = this.arcsByTail[index];
+      this.excess[this.head[arc]] += this.capacity[arc];
+      this.capacity[arc ^ 1] += this.capacity[arc];
+      this.capacity[arc] = 0;
+    }
+    this.globalRelabel(source, sink);
+    // EFFECT: queues every node with excess that can still reach the sink
+    for (int node = 0; node < this.nodes; node += 1) {
+      if (this.excess[node] > 0 && node != sink && this.label[node] < this.nodes) {
+        queue[(queueHead + queueSize) % this.nodes] = node;
+        queueSize += 1;
+        queued[node] = true;
+      }
+    }
+
+    int relabels = 0;
+    // EFFECT: discharges active nodes until none can push towards the sink
+    while (queueSize > 0) {
+      int node = queue[queueHead];
+      queueHead = (queueHead + 1) % this.nodes;
+      queueSize -= 1;
+      queued[node] = false;
+      while (this.excess[node] > 0 && this.label[node] < this.nodes) {
+        if (current[node] == this.firstArc[node + 1]) {
+          // EFFECT: relabels the node just above its lowest residual neighbor
+          int lowest = this.nodes;
+          for (int index = this.firstArc[node]; index < this.firstArc[node + 1]; index += 1) {
+            int arc = this.arcsByTail[index];
+            if (this.capacity[arc] > 0) {
+              lowest = Math.min(lowest, this.label[this.head[arc]] + 1);
+            }
+          }
+          this.label[node] = Math.min(lowest, this.nodes);
+          current[node] = this.firstArc[node];
+          relabels += 1;
+          if (relabels >= this.nodes) {
+            this.globalRelabel(source, sink);
+            relabels = 0;
+          }
+        }
+        else {
+          int arc = this.arcsByTail[current[node]];
+          int to = this.head[arc];
+          if (this.capacity[arc] > 0 && this.label[node] == this.label[to] + 1) {
+            // EFFECT: pushes as much excess as the arc allows
+            long amount = Math.min(this.excess[node], this.capacity[arc]);
+            this.capacity[arc] -= amount;
+            this.capacity[arc ^ 1] += amount;
+            this.excess[node] -= amount;
+            this.excess[to] += amount;
+            if (to != source && to != sink && !queued[to]) {
+              queue[(queueHead + queueSize) % this.nodes] = to;
+              queueSize += 1;
+              queued[to] = true;
+            }
+          }
+          else {
+            current[node] += 1;
+          }
+        }
+      }
+    }
+    return this.excess[sink];
+  }
+
+  // Sets each node's label to its distance to the sink in the residual network, or to
+  // the number of nodes if it cannot reach the sink
+  // EFFECT: modifies label
+  void globalRelabel(int source, int sink) {
+    Arrays.fill(this.label, this.nodes);
+    int[] queue = new int[this.nodes];
+    int queueEnd = 1;
+    queue[0] = sink;
+    this.label[sink] = 0;
+    // EFFECT: labels the nodes with a residual arc into each node, breadth first
+    for (int queueStart = 0; queueStart < queueEnd; queueStart += 1) {
+      int node = queue[queueStart];
+      for (int index = this.firstArc[node]; index < this.firstArc[node + 1]; index += 1) {
+        int arc = this.arcsByTail[index];
+        int from = this.head[arc];
+        if (this.capacity[arc ^ 1] > 0 && this.label[from] == this.nodes && from != source) {
+          this.label[from] = this.label[node] + 1;
+          queue[queueEnd] = from;
+          queueEnd += 1;
+        }
+      }
+    }
+  }
+
+  // Determines which nodes are on the sink side of a minimum cut, after maxPreflow: those
+  // that can still reach the sink through the residual network
+  boolean[] sinkSide(int source, int sink) {
+    this.globalRelabel(source, sink);
+    boolean[] result = new boolean[this.nodes];
+    for (int node = 0; node < this.nodes; node += 1) {
+      result[node] = this.label[node] < this.nodes;
+    }
+    return result;
+  }
+}
+
+// Represents a search for a seam surface through a block of equally sized frames using a
+// minimum cut, so that the seam of each frame stays within one pixel of the seams of the
+// frames next to it. Unlike the dynamic programming search it considers every frame at once.
+class GraphCutSeamFinder {
+  // The number of capacity units per unit of energy
+  static final double CAPACITY_SCALE = 10000.0;
+  // The most edges the network adds for one pixel
+  static final int EDGES_PER_PIXEL = 5;
+
+  // Finds the positions of the least total energy seams through the given frames in the
+  // direction corresponding to the given boolean, as the source side of a minimum cut
+  // of a network with a node for each pixel of each frame
+  int[][] leastEnergySeams(ArrayList<BrightnessLevel> frames, boolean vertical) {
+    int frameCount = frames.size();
+    int length1 = frames.get(0).seamLength(vertical);
+    int length2 = frames.get(0).seamPositions(vertical);
+    long blockPixels = (long) frameCount * length1 * length2;
+    if (2 * EDGES_PER_PIXEL * blockPixels > FlowNetwork.MAX_ARCS) {
+      throw new IllegalArgumentException("a block of " + blockPixels
+          + " pixels is too large for one flow network");
+    }
+    int pixels = (int) blockPixels;
+    int source = pixels;
+    int sink = pixels + 1;
+    long[] energy = new long[pixels];
+    long total = 1;
+    // EFFECT: sets the energy of each pixel in capacity units
+    for (int frame = 0; frame < frameCount; frame += 1) {
+      BrightnessLevel level = frames.get(frame);
+      for (int edgeIndex = 0; edgeIndex < length1; edgeIndex += 1) {
+        for (int position = 0; position < length2; position += 1) {
+          double pixelEnergy;
+          if (vertical) {
+            pixelEnergy = level.energyAt(position, edgeIndex);
+          }
+          else {
+            pixelEnergy = level.energyAt(edgeIndex, position);
+          }
+          int node = (frame * length1 + edgeIndex) * length2 + position;
+          energy[node] = Math.round(pixelEnergy * CAPACITY_SCALE);
+          total += energy[node];
+        }
+      }
+    }
+
+    // Any capacity of at least the total energy can never be part of a minimum cut
+    long infinite = total;
+    FlowNetwork network = new FlowNetwork(pixels + 2, (long) EDGES_PER_PIXEL * pixels);
+    // EFFECT: adds the edges of each pixel: cutting the edge after a pixel puts it in the
+    // seam, the infinite edges back to the pixel before it allow one cut per row/column, and
+    // the infinite edges to the previous position of the neighboring rows/columns and frames
+    // keep the seam connected
+    for (int frame = 0; frame < frameCount; frame += 1) {
+      for (int edgeIndex = 0; edgeIndex < length1; edgeIndex += 1) {
+        for (int position = 0; position < length2; position += 1) {
+          int node = (frame * length1 + edgeIndex) * length2 + position;
+          if (position == 0) {
+            network.addEdge(source, node, infinite, 0);
+          }
+          else {
+            if (edgeIndex > 0) {
+              network.addEdge(node, node - length2 - 1, infinite, 0);
+            }
+            if (edgeIndex < length1 - 1) {
+              network.addEdge(node, node + length2 - 1, infinite, 0);
+            }
+            if (frame > 0) {
+              network.addEdge(node, node - length1 * length2 - 1, infinite, 0);
+            }
+            if (frame < frameCount - 1) {
+              network.addEdge(node, node + length1 * length2 - 1, infinite, 0);
+            }
+          }
+          if (position == length2 - 1) {
+            network.addEdge(node, sink, energy[node], 0);
+          }
+          else {
+            network.addEdge(node, node + 1, energy[node], infinite);
+          }
+        }
+      }
+    }
+    network.maxPreflow(source, sink);
+    boolean[] sinkSide = network.sinkSide(source, sink);
+
+    int[][] result = new int[frameCount][length1];
+    // EFFECT: sets each seam position to the last pixel of its row/column on the source side
+    for (int frame = 0; frame < frameCount; frame += 1) {
+      for (int edgeIndex = 0; edgeIndex < length1; edgeIndex += 1) {
+        int rowStart = (frame * length1 + edgeIndex) * length2;
+        int position = 0;
+        while (position + 1 < length2 && !sinkSide[rowStart + position + 1]) {
+          position += 1;
+        }
+        result[frame][edgeIndex] = position;
+      }
+    }
+    return result;
+  }
+
+  // Removes the given number of seams from each of the given frames, finding the seams of all
+  // frames together each time, and produces the positions of each frame's removed seams
+  // EFFECT: removes seams from each frame
+  ArrayList<ArrayList<int[]>> carve(ArrayList<PixelGraph> frames, int count, boolean vertical) {
+    ArrayList<ArrayList<int[]>> result = new ArrayList<ArrayList<int[]>>();
+    for (int frame = 0; frame < frames.size(); frame += 1) {
+      result.add(new ArrayList<int[]>());
+    }
+    for (int seam = 0; seam < count; seam += 1) {
+      ArrayList<BrightnessLevel> levels = new ArrayList<BrightnessLevel>();
+      for (PixelGraph frame : frames) {
+        levels.add(new BrightnessLevel(frame));
+      }
+      int[][] positions = this.leastEnergySeams(levels, vertical);
+      for (int frame = 0; frame < frames.size(); frame += 1) {
+        PixelGraph graph = frames.get(frame);
+        graph.removeSeam(graph.leastEnergySeamInWindow(vertical, positions[frame],
+            positions[frame]), vertical);
+        result.get(frame).add(positions[frame]);
+      }
+    }
+    return result;
+  }
+}
+
+// Represents the brightness of an image as whole numbers from 0 to 255, searched for seams
+// entirely in integers: the energy of each pixel is a whole number measure of its Sobel
+// gradient and total energies are longs. Stored in lines stride apart like a
+// BrightnessLevel: rows while carving vertical seams and columns (transposed) while carving
+// horizontal ones
+class LuminanceLevel {
+  int[] luminance;
+  int stride;
+  int width;
+  int height;
+  boolean transposed;
+  // How the gradient of each pixel is turned into its energy
+  int metric;
+  // The gradient's length scaled by MAGNITUDE_SCALE and rounded, which picks the same seams
+  // as the double energy unless two seams are within rounding of each other
+  static final int GRADIENT_MAGNITUDE = 0;
+  // The gradient's squared length, which needs no square root
+  static final int SQUARED_GRADIENT = 1;
+  // The sum of the absolute values of the gradient's parts
+  static final int ABSOLUTE_GRADIENT = 2;
+  static final double MAGNITUDE_SCALE = 1024.0;
+
+  // Constructor
+  LuminanceLevel(int[] luminance, int stride, int width, int height, int metric) {
+    if (metric < GRADIENT_MAGNITUDE || metric > ABSOLUTE_GRADIENT) {
+      throw new IllegalArgumentException("unknown energy metric");
+    }
+    this.luminance = luminance;
+    this.stride = stride;
+    this.width = width;
+    this.height = height;
+    this.transposed = false;
+    this.metric = metric;
+  }
+
+  // Constructor for the luminance of the given graph
+  LuminanceLevel(PixelGraph graph, int metric) {
+    this(new int[graph.width * graph.height], graph.width, graph.width, graph.height, metric);
+    APixel rowPixel = graph.corner.down;
+    // Loop: Iterates over each row of the pixel graph from top to bottom
+    for (int y = 0; y < this.height; y += 1) {
+      APixel columnPixel = rowPixel.right;
+      // EFFECT: stores the luminance of each pixel in the row
+      for (int x = 0; x < this.width; x += 1) {
+        this.luminance[y * this.stride + x] = columnPixel.calculateLuminance();
+        columnPixel = columnPixel.right;
+      }
+      rowPixel = rowPixel.down;
+    }
+  }
+
+  // Determines the number of rows (if vertical) or columns (if horizontal) a seam crosses
+  int seamLength(boolean vertical) {
+    if (vertical) {
+      return this.height;
+    }
+    return this.width;
+  }
+
+  // Determines the number of positions a seam can take in each row (if vertical)
+  // or column (if horizontal)
+  int seamPositions(boolean vertical) {
+    if (vertical) {
+      return this.width;
+    }
+    return this.height;
+  }
+
+  // Determines the luminance at the given position, which is 0 outside this level
+  int luminanceAt(int x, int y) {
+    if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+      return 0;
+    }
+    if (this.transposed) {
+      return this.luminance[x * this.stride + y];
+    }
+    return this.luminance[y * this.stride + x];
+  }
+
+  // Lays this level out in rows for vertical seams or in columns for horizontal seams, based
+  // on the given boolean
+  // EFFECT: transposes the luminance array if it is laid out the other way
+  void useLayout(boolean vertical) {
+    if (vertical == this.transposed) {
+      int lines = this.seamLength(!this.transposed);
+      this.luminance = new Utils().transpose(this.luminance, this.stride, lines,
+          this.seamPositions(!this.transposed));
+      this.stride = lines;
+      this.transposed = !this.transposed;
+    }
+  }
+
+  // Lays this level out as useLayout() does, transposing into the given workspace's spare
+  // array, which is given this level's old array in return
+  // EFFECT: transposes the luminance array if it is laid out the other way
+  void useLayout(boolean vertical, CarveWorkspace workspace) {
+    if (vertical == this.transposed) {
+      int lines = this.seamLength(!this.transposed);
+      int positions = this.seamPositions(!this.transposed);
+      int[] target = workspace.spareFor(lines * positions);
+      new Utils().transposeInto(this.luminance, this.stride, lines, positions, target);
+      workspace.spare = this.luminance;
+      this.luminance = target;
+      this.stride = lines;
+      this.transposed = !this.transposed;
+    }
+  }
+
+  // Determines the energy of a pixel with the given gradient, in whole numbers, by this
+  // level's metric
+  int gradientEnergy(int acrossPositions, int acrossLines) {
+    if (this.metric == SQUARED_GRADIENT) {
+      return acrossPositions * acrossPositions + acrossLines * acrossLines;
+    }
+    else if (this.metric == ABSOLUTE_GRADIENT) {
+      return Math.abs(acrossPositions) + Math.abs(acrossLines);
+    }
+    return (int) (Math.sqrt(acrossPositions * acrossPositions + acrossLines * acrossLines)
+        * MAGNITUDE_SCALE + 0.5);
+  }
+
+  // Copies the given line of this level into the given array with a zero on each side, or
+  // all zeros if the line is outside this level
+  // EFFECT: sets the values of padded
+  void padLine(int line, boolean vertical, int[] padded) {
+    int length = this.seamPositions(vertical);
+    if (line < 0 || line >= this.seamLength(vertical)) {
+      Arrays.fill(padded, 0, length + 2, 0);
+    }
+    else {
+      System.arraycopy(this.luminance, line * this.stride, padded, 1, length);
+      padded[0] = 0;
+      padded[length + 1] = 0;
+    }
+  }
+
+  // Sets the energy of each position of a line from the given zero-padded copies of it and
+  // the lines on either side of it
+  // EFFECT: sets the first length values of energy
+  void energyLine(int[] before, int[] line, int[] after, int[] energy, int length) {
+    // EFFECT: sets the energy of each position from the 3x3 block of luminance around it
+    for (int position = 0; position < length; position += 1) {
+      int acrossPositions = (before[position] + 2 * line[position] + after[position])
+          - (before[position + 2] + 2 * line[position + 2] + after[position + 2]);
+      int acrossLines = (before[position] + 2 * before[position + 1] + before[position + 2])
+          - (after[position] + 2 * after[position + 1] + after[position + 2]);
+      energy[position] = this.gradientEnergy(acrossPositions, acrossLines);
+    }
+  }
+
+  // Finds the positions of the least energy seam in this level in the direction corresponding
+  // to the given boolean, keeping a byte move into each position and only two lines of
+  // total energies
+  int[] leastEnergyPath(boolean vertical) {
+    return this.leastEnergyPath(vertical, new CarveWorkspace());
+  }
+
+  // Finds the positions of the least energy seam as above in the given workspace's buffers,
+  // producing its path buffer, whose first seamLength entries are the positions
+  // EFFECT: grows the workspace's buffers if they are too small
+  int[] leastEnergyPath(boolean vertical, CarveWorkspace workspace) {
+    this.useLayout(vertical, workspace);
+    int lines = this.seamLength(vertical);
+    int length = this.seamPositions(vertical);
+    workspace.fitSearch(lines, length);
+    byte[] moves = workspace.moves;
+    long[] previous = workspace.previous;
+    long[] current = workspace.current;
+    int[] energies = workspace.energies;
+    int[] before = workspace.before;
+    int[] line = workspace.line;
+    int[] after = workspace.after;
+    this.padLine(-1, vertical, before);
+    this.padLine(0, vertical, line);
+    // EFFECT: computes the least total energy reaching each position of each line, and the
+    // move into it from the line before
+    for (int index = 0; index < lines; index += 1) {
+      long[] reusedTotals = previous;
+      previous = current;
+      current = reusedTotals;
+      this.padLine(index + 1, vertical, after);
+      this.energyLine(before, line, after, energies, length);
+      int[] reused = before;
+      before = line;
+      line = after;
+      after = reused;
+      if (index == 0) {
+        for (int position = 0; position < length; position += 1) {
+          current[position] = energies[position];
+        }
+      }
+      else {
+        this.accumulateLine(previous, current, energies, moves, index * length, length);
+      }
+    }
+
+    int[] result = workspace.path;
+    int last = 0;
+    // EFFECT: finds the first least total energy position in the last line
+    for (int position = 1; position < length; position += 1) {
+      if (current[position] < current[last]) {
+        last = position;
+      }
+    }
+    result[lines - 1] = last;
+    // EFFECT: follows the moves back to the first line
+    for (int index = lines - 1; index > 0; index -= 1) {
+      result[index - 1] = result[index] + moves[index * length + result[index]];
+    }
+    return result;
+  }
+
+  // Sets the least total energy reaching each position of a line from the given energies of
+  // the line and the least total energies of the line before it, and the move into each
+  // position, starting at the given index of moves, preferring the lower position when they
+  // tie. The choices are made with conditional moves rather than branches, which random
+  // images would mispredict
+  // EFFECT: sets the values of current and the line's moves
+  void accumulateLine(long[] previous, long[] current, int[] energies, byte[] moves, int row,
+      int length) {
+    if (length == 1) {
+      current[0] = energies[0] + previous[0];
+      moves[row] = 0;
+      return;
+    }
+    boolean firstHigher = previous[1] < previous[0];
+    current[0] = energies[0] + Math.min(previous[0], previous[1]);
+    moves[row] = (byte) (firstHigher ? 1 : 0);
+    for (int position = 1; position < length - 1; position += 1) {
+      long low = previous[position - 1];
+      long middle = previous[position];
+      long high = previous[position + 1];
+      long lowOrMiddle = Math.min(low, middle);
+      int move = middle < low ? 0 : -1;
+      move = high < lowOrMiddle ? 1 : move;
+      current[position] = energies[position] + Math.min(lowOrMiddle, high);
+      moves[row + position] = (byte) move;
+    }
+    boolean lastLower = previous[length - 2] <= previous[length - 1];
+    current[length - 1] = energies[length - 1]
+        + Math.min(previous[length - 2], previous[length - 1]);
+    moves[row + length - 1] = (byte) (lastLower ? -1 : 0);
+  }
+
+  // Removes the pixel at the given position of each row (if vertical) or column
+  // (if horizontal) of this level
+  // EFFECT: shifts the rest of each row or column over the removed pixel and updates
+  // this level's width or height
+  void removePath(int[] path, boolean vertical) {
+    this.useLayout(vertical);
+    int lines = this.seamLength(vertical);
+    int lineLength = this.seamPositions(vertical);
+    // EFFECT: closes the gap left in each line
+    for (int line = 0; line < lines; line += 1) {
+      int index = line * this.stride + path[line];
+      System.arraycopy(this.luminance, index + 1, this.luminance, index,
+          lineLength - path[line] - 1);
+    }
+    if (vertical) {
+      this.width -= 1;
+    }
+    else {
+      this.height -= 1;
+    }
+  }
+}
+
+// Represents the buffers one thread reuses to carve image after image as packed colors: the
+// colors being carved, their luminance and a spare array to transpose it into, and the
+// energy, total energy and move buffers of the seam search. Each buffer grows when an image
+// needs more than it has and is never shrunk, so once a thread has carved its largest image
+// the next ones of that size or smaller allocate nothing but their results
+class CarveWorkspace {
+  // The workspace of each thread, made the first time that thread asks for it
+  static final ThreadLocal<CarveWorkspace> FOR_THREAD =
+      ThreadLocal.withInitial(() -> new CarveWorkspace());
+
+  // The colors being carved, a row of stride apart, and the current size of the image
+  int[] raster;
+  int stride;
+  int width;
+  int height;
+  int[] luminance;
+  int[] spare;
+  long[] previous;
+  long[] current;
+  int[] energies;
+  int[] before;
+  int[] line;
+  int[] after;
+  byte[] moves;
+  // The positions of the last seam found, in its first seamLength entries
+  int[] path;
+  // How many times a buffer has had to grow, and how many images have been carved
+  int growths;
+  int jobs;
+
+  // Constructor for a workspace with empty buffers
+  CarveWorkspace() {
+    this.raster = new int[0];
+    this.luminance = new int[0];
+    this.spare = new int[0];
+    this.previous = new long[0];
+    this.current = new long[0];
+    this.energies = new int[0];
+    this.before = new int[0];
+    this.line = new int[0];
+    this.after = new int[0];
+    this.moves = new byte[0];
+    this.path = new int[0];
+    this.growths = 0;
+    this.jobs = 0;
+  }
+
+  // Produces the calling thread's workspace
+  static CarveWorkspace forThread() {
+    return FOR_THREAD.get();
+  }
+
+  // Produces the given buffer if it holds at least the given number of values, or else a new
+  // one that does, doubling its length so a slowly growing size grows it only a few times
+  // EFFECT: counts the growth if the buffer was too small
+  int[] ints(int[] buffer, int size) {
+    if (buffer.length >= size) {
+      return buffer;
+    }
+    this.growths += 1;
+    return new int[Math.max(size, buffer.length * 2)];
+  }
+
+  // Produces the given buffer if it holds at least the given number of values, or else a
+  // new one that does, as ints() does
+  // EFFECT: counts the growth if the buffer was too small
+  long[] longs(long[] buffer, int size) {
+    if (buffer.length >= size) {
+      return buffer;
+    }
+    this.growths += 1;
+    return new long[Math.max(size, buffer.length * 2)];
+  }
+
+  // Produces the given buffer if it holds at least the given number of values, or else a
+  // new one that does, as ints() does
+  // EFFECT: counts the growth if the buffer was too small
+  byte[] bytes(byte[] buffer, int size) {
+    if (buffer.length >= size) {
+      return buffer;
+    }
+    this.growths += 1;
+    return new byte[Math.max(size, buffer.length * 2)];
+  }
+
+  // Makes the search buffers big enough for a seam across the given number of lines, each
+  // with the given number of positions
+  // EFFECT: grows the search buffers that are too small
+  void fitSearch(int lines, int length) {
+    this.previous = this.longs(this.previous, length);
+    this.current = this.longs(this.current, length);
+    this.energies = this.ints(this.energies, length);
+    this.before = this.ints(this.before, length + 2);
+    this.line = this.ints(this.line, length + 2);
+    this.after = this.ints(this.after, length + 2);
+    this.moves = this.bytes(this.moves, lines * length);
+    this.path = this.ints(this.path, lines);
+  }
+
+  // Produces the spare array, made big enough for the given number of values, to transpose
+  // into
+  // EFFECT: grows the spare array if it is too small
+  int[] spareFor(int size) {
+    this.spare = this.ints(this.spare, size);
+    return this.spare;
+  }
+
+  // Removes the given numbers of vertical and then horizontal seams from the image with the
+  // given row-major packed colors and size, stopping at a single column or row, finding
+  // seams by the integer gradient magnitude of a LuminanceLevel, and produces the carved
+  // image's packed colors. The result is the only array allocated once this workspace has
+  // grown to fit the image
+  // EFFECT: carves the image in this workspace's buffers, leaving its size in width and
+  // height, and counts the job
+  int[] carve(int[] colors, int width, int height, int verticalSeams, int horizontalSeams) {
+    if (width < 1 || height < 1 || colors.length != width * height) {
+      throw new IllegalArgumentException("colors do not match image size");
+    }
+    int pixels = width * height;
+    this.raster = this.ints(this.raster, pixels);
+    this.luminance = this.ints(this.luminance, pixels);
+    this.stride = width;
+    this.width = width;
+    this.height = height;
+    System.arraycopy(colors, 0, this.raster, 0, pixels);
+    // EFFECT: sets the luminance of each pixel the same way a Pixel does
+    for (int index = 0; index < pixels; index += 1) {
+      int color = colors[index];
+      this.luminance[index] = (((color >> 16) & 0xFF) + (color & 0xFF) + ((color >> 8) & 0xFF))
+          / 3;
+    }
+    LuminanceLevel level = new LuminanceLevel(this.luminance, width, width, height,
+        LuminanceLevel.GRADIENT_MAGNITUDE);
+    int verticalTotal = Math.max(0, Math.min(verticalSeams, width - 1));
+    int horizontalTotal = Math.max(0, Math.min(horizontalSeams, height - 1));
+    // EFFECT: removes each seam from the luminance and the colors
+    for (int count = 0; count < verticalTotal + horizontalTotal; count += 1) {
+      boolean vertical = count < verticalTotal;
+      int[] found = level.leastEnergyPath(vertical, this);
+      level.removePath(found, vertical);
+      this.removeFromRaster(found, vertical);
+    }
+    this.luminance = level.luminance;
+    this.jobs += 1;
+
+    int[] result = new int[this.width * this.height];
+    // EFFECT: copies each carved row into the result
+    for (int y = 0; y < this.height; y += 1) {
+      System.arraycopy(this.raster, y * this.stride, result, y * this.width, this.width);
+    }
+    return result;
+  }
+
+  // Removes the pixel at the given position of each row (if vertical) or column
+  // (if horizontal) of the colors being carved
+  // EFFECT: closes the gap in each row, or column, and updates the width or height
+  void removeFromRaster(int[] positions, boolean vertical) {
+    if (vertical) {
+      // EFFECT: shifts the rest of each row left over the removed pixel
+      for (int y = 0; y < this.height; y += 1) {
+        int index = y * this.stride + positions[y];
+        System.arraycopy(this.raster, index + 1, this.raster, index,
+            this.width - positions[y] - 1);
+      }
+      this.width -= 1;
+    }
+    else {
+      // EFFECT: shifts the rest of each column up over the removed pixel
+      for (int x = 0; x < this.width; x += 1) {
+        for (int y = positions[x]; y < this.height - 1; y += 1) {
+          this.raster[y * this.stride + x] = this.raster[(y + 1) * this.stride + x];
+        }
+      }
+      this.height -= 1;
+    }
+  }
+}
+
+// Represents equally long lines of bytes stored off the Java heap, in direct buffers or in
+// regions of a file mapped into memory, split into chunks of whole lines so that there can
+// be more than 2^31 bytes in all
+class OffHeapLines {
+  ByteBuffer[] chunks;
+  int lines;
+  int lineBytes;
+  int linesPerChunk;
+
+  // Constructor for lines in direct buffers if the given channel is null, or else mapped from
+  // the given channel starting at the given offset, each chunk at most chunkBytes long
+  OffHeapLines(int lines, int lineBytes, long chunkBytes, FileChannel channel, long offset) {
+    if (lineBytes > chunkBytes) {
+      throw new IllegalArgumentException("lines are too long");
+    }
+    this.lines = lines;
+    this.lineBytes = Math.max(1, lineBytes);
+    this.linesPerChunk = (int) Math.min(Math.max(1, lines), chunkBytes / this.lineBytes);
+    this.chunks = new ByteBuffer[(lines + this.linesPerChunk - 1) / this.linesPerChunk];
+    long position = offset;
+    // EFFECT: allocates or maps each chunk
+    for (int chunk = 0; chunk < this.chunks.length; chunk += 1) {
+      int size = Math.min(this.linesPerChunk, lines - chunk * this.linesPerChunk)
+          * this.lineBytes;
+      if (channel == null) {
+        this.chunks[chunk] = ByteBuffer.allocateDirect(size);
+      }
+      else {
+        try {
+          this.chunks[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      this.chunks[chunk].order(ByteOrder.nativeOrder());
+      position += size;
+    }
+  }
+
+  // Determines how many bytes these lines take up
+  long bytes() {
+    return (long) this.lines * this.lineBytes;
+  }
+
+  // Produces the chunk holding the given line
+  ByteBuffer chunkOf(int line) {
+    return this.chunks[line / this.linesPerChunk];
+  }
+
+  // Determines where the given byte of the given line is in its chunk
+  int offsetOf(int line, int byteIndex) {
+    return (line % this.linesPerChunk) * this.lineBytes + byteIndex;
+  }
+
+  // Produces the double at the given position of the given line
+  double getDouble(int line, int position) {
+    return this.chunkOf(line).getDouble(this.offsetOf(line, position * Double.BYTES));
+  }
+
+  // Sets the double at the given position of the given line
+  // EFFECT: writes the value into the line's chunk
+  void putDouble(int line, int position, double value) {
+    this.chunkOf(line).putDouble(this.offsetOf(line, position * Double.BYTES), value);
+  }
+
+  // Produces the int at the given position of the given line
+  int getInt(int line, int position) {
+    return this.chunkOf(line).getInt(this.offsetOf(line, position * Integer.BYTES));
+  }
+
+  // Sets the int at the given position of the given line
+  // EFFECT: writes the value into the line's chunk
+  void putInt(int line, int position, int value) {
+    this.chunkOf(line).putInt(this.offsetOf(line, position * Integer.BYTES), value);
+  }
+
+  // Produces the byte at the given position of the given line
+  byte getByte(int line, int position) {
+    return this.chunkOf(line).get(this.offsetOf(line, position));
+  }
+
+  // Sets the byte at the given position of the given line
+  // EFFECT: writes the value into the line's chunk
+  void putByte(int line, int position, byte value) {
+    this.chunkOf(line).put(this.offsetOf(line, position), value);
+  }
+
+  // Sets the first given number of bytes of the given line to those of the given array
+  // EFFECT: writes the bytes into the line's chunk
+  void putBytes(int line, byte[] values, int length) {
+    this.chunkOf(line).put(this.offsetOf(line, 0), values, 0, length);
+  }
+
+  // Removes the element of the given number of bytes at the given position of the given line
+  // by moving the given number of elements after it back over it
+  // EFFECT: shifts the rest of the line within its chunk
+  void closeGap(int line, int position, int elementBytes, int following) {
+    ByteBuffer chunk = this.chunkOf(line);
+    int at = this.offsetOf(line, position * elementBytes);
+    chunk.put(at, chunk, at + elementBytes, following * elementBytes);
+  }
+
+  // Copies the given number of lines, each of lineLength elements of the given size (a long or
+  // an int), into the given lines with their rows and columns swapped, a block at a time
+  // EFFECT: writes every element into flipped
+  void transposeInto(OffHeapLines flipped, int lines, int lineLength, int elementBytes) {
+    // EFFECT: copies each block of lines into the corresponding block of flipped
+    for (int lineBlock = 0; lineBlock < lines; lineBlock += Utils.TRANSPOSE_BLOCK) {
+      for (int positionBlock = 0; positionBlock < lineLength;
+          positionBlock += Utils.TRANSPOSE_BLOCK) {
+        int lineEnd = Math.min(lines, lineBlock + Utils.TRANSPOSE_BLOCK);
+        int positionEnd = Math.min(lineLength, positionBlock + Utils.TRANSPOSE_BLOCK);
+        for (int line = lineBlock; line < lineEnd; line += 1) {
+          ByteBuffer from = this.chunkOf(line);
+          for (int position = positionBlock; position < positionEnd; position += 1) {
+            int at = this.offsetOf(line, position * elementBytes);
+            ByteBuffer to = flipped.chunkOf(position);
+            int toAt = flipped.offsetOf(position, line * elementBytes);
+            if (elementBytes == Long.BYTES) {
+              to.putLong(toAt, from.getLong(at));
+            }
+            else {
+              to.putInt(toAt, from.getInt(at));
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // Gives the memory of these lines back right away rather than waiting for the garbage
+  // collector, after which they can no longer be used
+  // EFFECT: releases each chunk and forgets them
+  void release() {
+    for (ByteBuffer chunk : this.chunks) {
+      new Utils().releaseBuffer(chunk);
+    }
+    this.chunks = new ByteBuffer[0];
+  }
+}
+
+// Represents the brightness and colors of an image stored off the Java heap, optionally in a
+// file mapped into memory, for images too big for arrays or for the linked graph. It is
+// searched and carved in place the same way as a BrightnessLevel, with the same energies and
+// seams, its colors carved along with it, and its memory is given back as soon as it is closed
+class OffHeapLevel implements AutoCloseable {
+  // Lines of doubles: rows while carving vertical seams and columns (transposed) while
+  // carving horizontal ones
+  OffHeapLines brightness;
+  // Lines of packed colors, laid out the same way as the brightness
+  OffHeapLines colors;
+  // The move, -1, 0 or 1, into each position from the line before it on the least total
+  // energy path, kept between searches, or null until the first search
+  OffHeapLines moves;
+  int width;
+  int height;
+  boolean transposed;
+  long chunkBytes;
+  // The file the lines are mapped from, or null to keep them in direct buffers. The file has
+  // two regions each for the brightness and the colors, big enough for the whole original
+  // image, which the lines move between each time they are transposed, and one for the moves
+  FileChannel channel;
+  // The number of pixels each region of the file has room for
+  long regionPixels;
+  // Which of its two regions the brightness and colors are in
+  int region;
+  boolean closed;
+  static final long CHUNK_BYTES = 1 << 30;
+
+  // Constructor for an all black level in direct buffers if file is null, or else mapped from
+  // the given file
+  OffHeapLevel(int width, int height, File file) {
+    this(width, height, file, CHUNK_BYTES);
+  }
+
+  // Constructor for an all black level stored in chunks of at most the given number of bytes
+  OffHeapLevel(int width, int height, File file, long chunkBytes) {
+    this.width = width;
+    this.height = height;
+    this.transposed = false;
+    this.chunkBytes = chunkBytes;
+    this.regionPixels = (long) width * height;
+    this.region = 0;
+    this.closed = false;
+    this.moves = null;
+    if (file == null) {
+      this.channel = null;
+    }
+    else {
+      try {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    this.brightness = this.newLines(height, width * Double.BYTES, this.brightnessOffset(0));
+    this.colors = this.newLines(height, width * Integer.BYTES, this.colorsOffset(0));
+  }
+
+  // Constructor for the brightness and colors of the given graph
+  OffHeapLevel(PixelGraph graph, File file) {
+    this(graph.width, graph.height, file);
+    APixel rowPixel = graph.corner.down;
+    // Loop: Iterates over each row of the pixel graph from top to bottom
+    for (int y = 0; y < graph.height; y += 1) {
+      APixel columnPixel = rowPixel.right;
+      // EFFECT: stores the color and brightness of each pixel in the row
+      for (int x = 0; x < graph.width; x += 1) {
+        this.setColor(x, y, ((Pixel) columnPixel).color);
+        columnPixel = columnPixel.right;
+      }
+      rowPixel = rowPixel.down;
+    }
+  }
+
+  // Produces new lines in direct buffers, or mapped from this level's file at the given offset
+  OffHeapLines newLines(int lines, int lineBytes, long offset) {
+    return new OffHeapLines(lines, lineBytes, this.chunkBytes, this.channel, offset);
+  }
+
+  // Determines where the given region of the file for the brightness starts
+  long brightnessOffset(int region) {
+    return region * this.regionPixels * Double.BYTES;
+  }
+
+  // Determines where the given region of the file for the colors starts
+  long colorsOffset(int region) {
+    return 2 * this.regionPixels * Double.BYTES + region * this.regionPixels * Integer.BYTES;
+  }
+
+  // Determines where the region of the file for the moves starts
+  long movesOffset() {
+    return 2 * this.regionPixels * (Double.BYTES + Integer.BYTES);
+  }
+
+  // Makes sure this level has not been closed
+  void checkOpen() {
+    if (this.closed) {
+      throw new IllegalStateException("level is closed");
+    }
+  }
+
+  // Determines the number of rows (if vertical) or columns (if horizontal) a seam crosses
+  int seamLength(boolean vertical) {
+    if (vertical) {
+      return this.height;
+    }
+    return this.width;
+  }
+
+  // Determines the number of positions a seam can take in each row (if vertical)
+  // or column (if horizontal)
+  int seamPositions(boolean vertical) {
+    if (vertical) {
+      return this.width;
+    }
+    return this.height;
+  }
+
+  // Determines the brightness at the given position, which is 0 outside this level
+  double brightnessAt(int x, int y) {
+    this.checkOpen();
+    if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+      return 0.0;
+    }
+    if (this.transposed) {
+      return this.brightness.getDouble(x, y);
+    }
+    return this.brightness.getDouble(y, x);
+  }
+
+  // Sets the brightness at the given position
+  // EFFECT: writes the brightness into this level's lines
+  void setBrightness(int x, int y, double value) {
+    this.checkOpen();
+    if (this.transposed) {
+      this.brightness.putDouble(x, y, value);
+    }
+    else {
+      this.brightness.putDouble(y, x, value);
+    }
+  }
+
+  // Produces the packed color at the given position
+  int colorAt(int x, int y) {
+    this.checkOpen();
+    if (this.transposed) {
+      return this.colors.getInt(x, y);
+    }
+    return this.colors.getInt(y, x);
+  }
+
+  // Sets the packed color at the given position, and the brightness to match it
+  // EFFECT: writes the color and its brightness into this level's lines
+  void setColor(int x, int y, int color) {
+    this.setBrightness(x, y, new Pixel(color).calculateBrightness());
+    if (this.transposed) {
+      this.colors.putInt(x, y, color);
+    }
+    else {
+      this.colors.putInt(y, x, color);
+    }
+  }
+
+  // Lays this level out in rows for vertical seams or in columns for horizontal seams, based
+  // on the given boolean
+  // EFFECT: copies the brightness and colors into new transposed lines, in the other region
+  // of the file if mapped, and releases the old ones and the moves
+  void useLayout(boolean vertical) {
+    this.checkOpen();
+    if (vertical == this.transposed) {
+      int lines = this.seamLength(!this.transposed);
+      int lineLength = this.seamPositions(!this.transposed);
+      int flippedRegion = 1 - this.region;
+      OffHeapLines flippedBrightness = this.newLines(lineLength, lines * Double.BYTES,
+          this.brightnessOffset(flippedRegion));
+      this.brightness.transposeInto(flippedBrightness, lines, lineLength, Double.BYTES);
+      this.brightness.release();
+      this.brightness = flippedBrightness;
+      OffHeapLines flippedColors = this.newLines(lineLength, lines * Integer.BYTES,
+          this.colorsOffset(flippedRegion));
+      this.colors.transposeInto(flippedColors, lines, lineLength, Integer.BYTES);
+      this.colors.release();
+      this.colors = flippedColors;
+      this.region = flippedRegion;
+      this.transposed = !this.transposed;
+      if (this.moves != null) {
+        this.moves.release();
+        this.moves = null;
+      }
+    }
+  }
+
+  // Copies the given line of this level, of the given length, into the given array with a zero
+  // on each side, or all zeros if the line is outside this level
+  // EFFECT: sets the values of padded
+  void padLine(int line, int lines, int length, double[] padded) {
+    if (line < 0 || line >= lines) {
+      Arrays.fill(padded, 0, length + 2, 0.0);
+    }
+    else {
+      for (int position = 0; position < length; position += 1) {
+        padded[position + 1] = this.brightness.getDouble(line, position);
+      }
+      padded[0] = 0.0;
+      padded[length + 1] = 0.0;
+    }
+  }
+
+  // Finds the positions of the least energy seam in this level in the direction corresponding
+  // to the given boolean. Only the three lines around the current one and two lines of total
+  // energies are held on the heap; the move into every position is kept off it
+  int[] leastEnergyPath(boolean vertical) {
+    this.useLayout(vertical);
+    int lines = this.seamLength(vertical);
+    int length = this.seamPositions(vertical);
+    if (this.moves == null || this.moves.lines != lines || this.moves.lineBytes < length) {
+      if (this.moves != null) {
+        this.moves.release();
+      }
+      this.moves = this.newLines(lines, length, this.movesOffset());
+    }
+    Utils u = new Utils();
+    double[] previous = new double[length];
+    double[] current = new double[length];
+    double[] energies = new double[length];
+    byte[] lineMoves = new byte[length];
+    double[] before = new double[length + 2];
+    double[] padded = new double[length + 2];
+    double[] after = new double[length + 2];
+    this.padLine(-1, lines, length, before);
+    this.padLine(0, lines, length, padded);
+    // EFFECT: computes the least total energy reaching each position of each line, and the
+    // move into it from the line before
+    for (int line = 0; line < lines; line += 1) {
+      double[] reused = previous;
+      previous = current;
+      current = reused;
+      this.padLine(line + 1, lines, length, after);
+      u.energyLine(before, padded, after, energies, length);
+      reused = before;
+      before = padded;
+      padded = after;
+      after = reused;
+      if (line == 0) {
+        System.arraycopy(energies, 0, current, 0, length);
+      }
+      else {
+        u.accumulateLine(previous, current, energies, lineMoves, 0, length);
+        this.moves.putBytes(line, lineMoves, length);
+      }
+    }
+
+    int[] result = new int[lines];
+    int last = 0;
+    // EFFECT: finds the first least total energy position in the last line
+    for (int position = 1; position < length; position += 1) {
+      if (current[position] < current[last]) {
+        last = position;
+      }
+    }
+    result[lines - 1] = last;
+    // EFFECT: follows the moves back to the first line
+    for (int line = lines - 1; line > 0; line -= 1) {
+      result[line - 1] = result[line] + this.moves.getByte(line, result[line]);
+    }
+    return result;
+  }
+
+  // Removes the pixel at the given position of each row (if vertical) or column
+  // (if horizontal) of this level
+  // EFFECT: shifts the rest of each row or column over the removed pixel in place and
+  // updates this level's width or height
+  void removePath(int[] path, boolean vertical) {
+    this.useLayout(vertical);
+    int length = this.seamPositions(vertical);
+    // EFFECT: closes the gap left in each line of the brightness and the colors
+    for (int line = 0; line < path.length; line += 1) {
+      this.brightness.closeGap(line, path[line], Double.BYTES, length - path[line] - 1);
+      this.colors.closeGap(line, path[line], Integer.BYTES, length - path[line] - 1);
+    }
+    if (vertical) {
+      this.width -= 1;
+    }
+    else {
+      this.height -= 1;
+    }
+  }
+
+  // Gives back this level's memory and the space of its file, and closes the file, after
+  // which it can no longer be used
+  // EFFECT: releases the lines and the moves, and truncates and closes the file
+  public void close() {
+    if (!this.closed) {
+      this.closed = true;
+      this.brightness.release();
+      this.colors.release();
+      if (this.moves != null) {
+        this.moves.release();
+      }
+      if (this.channel != null) {
+        try {
+          this.channel.truncate(0);
+          this.channel.close();
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+  }
+}
+
+// Represents carving a downscaled proxy of a full resolution graph at interactive speed,
+// recording the proxy's seams so that they can be replayed on the full resolution graph
+// later. Each proxy seam is replayed as factor full resolution seams, each the least
+// energy seam within band pixels of the proxy seam scaled up
+class ProxyCarver {
+  PixelGraph full;
+  PixelGraph proxy;
+  int factor;
+  int band;
+  // The proxy's removed seams, in the order removed
+  ArrayList<PackedSeam> seams;
+  // How many of the recorded seams have been replayed on the full resolution graph
+  int replayed;
+  // The latest replay, each one starting once the one before it has finished
+  CompletableFuture<PixelGraph> replaying;
+
+  // Constructor
+  ProxyCarver(PixelGraph full, int factor, int band) {
+    this.full = full;
+    this.proxy = full.downscale(factor);
+    this.factor = factor;
+    this.band = band;
+    this.seams = new ArrayList<PackedSeam>();
+    this.replayed = 0;
+    this.replaying = CompletableFuture.completedFuture(full);
+  }
+
+  // Removes the given seam from the proxy
+  // EFFECT: removes the seam from the proxy and records it
+  void removeSeam(SeamInfo seam, boolean vertical) {
+    this.record(new PackedSeam(seam, vertical));
+    this.proxy.removeSeam(seam, vertical);
+  }
+
+  // Records the given seam as removed from the proxy
+  // EFFECT: adds the seam to the recorded seams
+  synchronized void record(PackedSeam seam) {
+    this.seams.add(seam);
+  }
+
+  // Forgets the most recently recorded seam, returning whether it could be forgotten, which
+  // it cannot once it has been replayed
+  // EFFECT: removes the last recorded seam
+  synchronized boolean unrecord() {
+    if (this.seams.size() <= this.replayed) {
+      return false;
+    }
+    this.seams.remove(this.seams.size() - 1);
+    return true;
+  }
+
+  // Takes the index of the next recorded seam to replay, or -1 if all have been replayed
+  // EFFECT: counts that seam as replayed
+  synchronized int takeNextSeam() {
+    if (this.replayed == this.seams.size()) {
+      return -1;
+    }
+    this.replayed += 1;
+    return this.replayed - 1;
+  }
+
+  // Replays every recorded seam that has not been replayed yet on the full resolution graph,
+  // producing that graph
+  // EFFECT: removes seams from the full resolution graph
+  PixelGraph replay() {
+    for (int index = this.takeNextSeam(); index >= 0; index = this.takeNextSeam()) {
+      PackedSeam seam;
+      synchronized (this) {
+        seam = this.seams.get(index);
+      }
+      this.replaySeam(seam.positions(), seam.vertical);
+    }
+    return this.full;
+  }
+
+  // Starts replaying the recorded seams on a background thread once any earlier replay has
+  // finished, producing the full resolution graph once done
+  // EFFECT: sets the latest replay
+  synchronized CompletableFuture<PixelGraph> replayAsync() {
+    this.replaying = this.replaying.thenApplyAsync(graph -> this.replay());
+    return this.replaying;
+  }
+
+  // Removes factor seams from the full resolution graph, each the least energy seam within
+  // band pixels of the given proxy seam scaled up
+  // EFFECT: removes seams from the full resolution graph
+  void replaySeam(int[] path, boolean vertical) {
+    Utils u = new Utils();
+    // EFFECT: removes each seam while the full resolution graph has room for it
+    for (int count = 0; count < this.factor && this.full.width > 1 && this.full.height > 1;
+        count += 1) {
+      int[][] windows;
+      if (vertical) {
+        windows = u.bandAround(path, this.factor, this.full.height, this.full.width, this.band);
+      }
+      else {
+        windows = u.bandAround(path, this.factor, this.full.width, this.full.height, this.band);
+      }
+      this.full.removeSeam(this.full.leastEnergySeamInWindow(vertical, windows[0], windows[1]),
+          vertical);
+    }
+  }
+}
+
+// Represents an approximate parallel carving of a PixelGraph's vertical seams, splitting the
+// graph into side by side strips that are carved at the same time, each on its own graph, and
+// stitched back together. Each strip gets a share of the seams based on its energy and its
+// seams never leave it, so the result can differ from carving the whole graph near the
+// borders between strips
+class StripCarver {
+  // Mean energy added to each strip's when sharing out the seams, so a flat strip, or one
+  // masked for removal, still has a finite weight
+  static final double ENERGY_FLOOR = 1e-3;
+
+  PixelGraph graph;
+  // The first column of each strip, followed by the graph's width
+  int[] starts;
+  // How many seams each strip is given and the energy of each strip's columns
+  int[] shares;
+  double[] energies;
+  // The positions of each seam removed from each strip, in order, counted from the strip's
+  // first column at the time it was removed, and the energy of each of those seams
+  ArrayList<ArrayList<int[]>> seams;
+  ArrayList<ArrayList<Double>> seamEnergies;
+
+  // Constructor
+  StripCarver(PixelGraph graph, int strips) {
+    if (strips < 1 || strips > graph.width) {
+      throw new IllegalArgumentException("strips must be between 1 and the image width");
+    }
+    this.graph = graph;
+    this.starts = new int[strips + 1];
+    // EFFECT: splits the width as evenly as possible between the strips
+    for (int strip = 0; strip <= strips; strip += 1) {
+      this.starts[strip] = (int) ((long) graph.width * strip / strips);
+    }
+    this.shares = new int[strips];
+    this.energies = new double[strips];
+    this.seams = new ArrayList<ArrayList<int[]>>();
+    this.seamEnergies = new ArrayList<ArrayList<Double>>();
+  }
+
+  // Determines the width of the given strip before any of its seams are removed
+  int stripWidth(int strip) {
+    return this.starts[strip + 1] - this.starts[strip];
+  }
+
+  // Produces a graph of the given strip of this carver's graph together with the column on
+  // either side of it, if there is one, so the pixels along its borders have the same energy
+  // as in the whole graph
+  PixelGraph cutStrip(int strip) {
+    int from = Math.max(0, this.starts[strip] - 1);
+    int to = Math.min(this.graph.width, this.starts[strip + 1] + 1);
+    PixelGraph result = new PixelGraph(this.graph.colors(from, to), to - from,
+        this.graph.height);
+    if (this.graph.mask != null) {
+      byte[] mask = new byte[result.width * result.height];
+      // EFFECT: copies the mask values of the strip's columns
+      for (int y = 0; y < result.height; y += 1) {
+        for (int x = from; x < to; x += 1) {
+          mask[y * result.width + x - from] = this.graph.mask[this.graph.maskIndex(x, y)];
+        }
+      }
+      result.setMask(mask);
+    }
+    return result;
+  }
+
+  // Determines the total energy of the given strip's columns of the given graph of it
+  double stripEnergy(PixelGraph stripGraph, int strip) {
+    int offset = this.starts[strip] - Math.max(0, this.starts[strip] - 1);
+    double total = 0.0;
+    APixel rowPixel = stripGraph.corner.down;
+    // EFFECT: adds the energy of each pixel of the strip's columns to total
+    for (int y = 0; y < stripGraph.height; y += 1) {
+      APixel columnPixel = rowPixel.right.moveBy(offset, false);
+      for (int x = offset; x < offset + this.stripWidth(strip); x += 1) {
+        total += stripGraph.cellEnergy((Pixel) columnPixel, x, y);
+        columnPixel = columnPixel.right;
+      }
+      rowPixel = rowPixel.down;
+    }
+    return total;
+  }
+
+  // Shares the given number of seams out between the strips, giving each next seam to the
+  // strip with the most columns per unit of mean energy for each seam it already has, and
+  // never taking a strip's last column
+  // EFFECT: sets the shares of the strips
+  void shareSeams(int count) {
+    int strips = this.shares.length;
+    double[] weights = new double[strips];
+    int room = 0;
+    // EFFECT: sets each strip's weight and counts how many seams the strips have room for
+    for (int strip = 0; strip < strips; strip += 1) {
+      int width = this.stripWidth(strip);
+      double meanEnergy = this.energies[strip] / ((double) width * this.graph.height);
+      weights[strip] = width / (Math.max(0.0, meanEnergy) + ENERGY_FLOOR);
+      this.shares[strip] = 0;
+      room += width - 1;
+    }
+    if (count < 0 || count > room) {
+      throw new IllegalArgumentException("the strips do not have room for that many seams");
+    }
+    // EFFECT: gives each seam to the strip with the highest weight per seam it would have
+    for (int seam = 0; seam < count; seam += 1) {
+      int best = -1;
+      for (int strip = 0; strip < strips; strip += 1) {
+        if (this.shares[strip] < this.stripWidth(strip) - 1
+            && (best < 0 || weights[strip] / (this.shares[strip] + 1)
+            > weights[best] / (this.shares[best] + 1))) {
+          best = strip;
+        }
+      }
+      this.shares[best] += 1;
+    }
+  }
+
+  // Removes the given strip's share of seams from the given graph of it, keeping each seam
+  // within the strip's columns
+  // EFFECT: removes seams from the strip's graph and records them
+  void carveStrip(PixelGraph stripGraph, int strip) {
+    int offset = this.starts[strip] - Math.max(0, this.starts[strip] - 1);
+    int[] lower = new int[stripGraph.height];
+    int[] upper = new int[stripGraph.height];
+    Arrays.fill(lower, offset);
+    // EFFECT: removes each seam from the strip's columns that are left
+    for (int count = 0; count < this.shares[strip]; count += 1) {
+      Arrays.fill(upper, offset + this.stripWidth(strip) - count - 1);
+      SeamInfo seam = stripGraph.leastEnergySeamInWindow(true, lower, upper);
+      int[] positions = seam.positions(true);
+      for (int y = 0; y < positions.length; y += 1) {
+        positions[y] -= offset;
+      }
+      this.seams.get(strip).add(positions);
+      this.seamEnergies.get(strip).add(seam.totalWeight);
+      stripGraph.removeSeam(seam, true);
+    }
+  }
+
+  // Removes the given number of vertical seams using up to the given number of threads,
+  // producing the carved graph. This carver's graph is left as it was
+  // EFFECT: sets the shares and energies of the strips and records the removed seams
+  PixelGraph carve(int count, int threads) {
+    int strips = this.shares.length;
+    PixelGraph[] stripGraphs = new PixelGraph[strips];
+    this.seams.clear();
+    this.seamEnergies.clear();
+    for (int strip = 0; strip < strips; strip += 1) {
+      this.seams.add(new ArrayList<int[]>());
+      this.seamEnergies.add(new ArrayList<Double>());
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      ArrayList<CompletableFuture<Void>> done = new ArrayList<CompletableFuture<Void>>();
+      // EFFECT: cuts out each strip and measures its energy
+      for (int strip = 0; strip < strips; strip += 1) {
+        int index = strip;
+        done.add(CompletableFuture.runAsync(() -> {
+          stripGraphs[index] = this.cutStrip(index);
+          this.energies[index] = this.stripEnergy(stripGraphs[index], index);
+        }, pool));
+      }
+      CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+      this.shareSeams(count);
+      done.clear();
+      // EFFECT: carves each strip
+      for (int strip = 0; strip < strips; strip += 1) {
+        int index = strip;
+        done.add(CompletableFuture.runAsync(() -> this.carveStrip(stripGraphs[index], index),
+            pool));
+      }
+      CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+    }
+    finally {
+      pool.shutdown();
+    }
+    return this.stitch(stripGraphs);
+  }
+
+  // Produces the graph made of the columns that are left of each strip of the given carved
+  // graphs of them, side by side
+  PixelGraph stitch(PixelGraph[] stripGraphs) {
+    int width = 0;
+    for (int strip = 0; strip < stripGraphs.length; strip += 1) {
+      width += this.stripWidth(strip) - this.shares[strip];
+    }
+    int height = this.graph.height;
+    int[] colors = new int[width * height];
+    byte[] mask = null;
+    if (this.graph.mask != null) {
+      mask = new byte[width * height];
+    }
+    int left = 0;
+    // EFFECT: copies the colors and mask values left in each strip's columns into place
+    for (int strip = 0; strip < stripGraphs.length; strip += 1) {
+      PixelGraph stripGraph = stripGraphs[strip];
+      int offset = this.starts[strip] - Math.max(0, this.starts[strip] - 1);
+      int stripWidth = this.stripWidth(strip) - this.shares[strip];
+      APixel rowPixel = stripGraph.corner.down;
+      for (int y = 0; y < height; y += 1) {
+        APixel columnPixel = rowPixel.right.moveBy(offset, false);
+        for (int x = 0; x < stripWidth; x += 1) {
+          colors[y * width + left + x] = ((Pixel) columnPixel).color;
+          if (mask != null) {
+            mask[y * width + left + x] = stripGraph.mask[stripGraph.maskIndex(offset + x, y)];
+          }
+          columnPixel = columnPixel.right;
+        }
+        rowPixel = rowPixel.down;
+      }
+      left += stripWidth;
+    }
+    PixelGraph result = new PixelGraph(colors, width, height);
+    if (mask != null) {
+      result.setMask(mask);
+    }
+    return result;
+  }
+}
+
+// Represents the conversions between PixelGraphs and AWT and javalib images. This and the
+// worlds and benchmarks are the only parts of carving that load AWT; the graph, its energy,
+// its seam searches and its seam removals only use packed colors
+class ImageCodec {
+  // Produces a graph of the image in the given file
+  PixelGraph read(String path) {
+    return this.read(new FromFileImage(path));
+  }
+
+  // Produces a graph of the given image
+  PixelGraph read(FromFileImage image) {
+    return new PixelGraph(this.colorsOf(image), (int) image.getWidth(),
+        (int) image.getHeight());
+  }
+
+  // Produces a graph of the image in the given file, masked by the mask image in the other
+  // given file
+  PixelGraph read(String path, String maskPath) {
+    PixelGraph result = this.read(path);
+    result.setMask(this.maskFromImage(new FromFileImage(maskPath), result.width,
+        result.height));
+    return result;
+  }
+
+  // Produces a graph of the image in the given file, masked by the given row-major mask values
+  PixelGraph read(String path, byte[] mask) {
+    PixelGraph result = this.read(path);
+    result.setMask(mask);
+    return result;
+  }
+
+  // Produces a graph of the image in the given file whose pixels take their energies from the
+  // grayscale energy map in the other given file, white being the given energy, recomputing
+  // the energies either side of removed seams when the given boolean is true
+  PixelGraph read(String path, String energyPath, double scale, boolean recomputeNearSeams) {
+    FromFileImage image = new FromFileImage(path);
+    FromFileImage energyImage = new FromFileImage(energyPath);
+    if (energyImage.getWidth() != image.getWidth()
+        || energyImage.getHeight() != image.getHeight()) {
+      throw new IllegalArgumentException("energy map does not match image size");
+    }
+    return new PixelGraph(this.colorsOf(image),
+        new Utils().energyFromColors(this.colorsOf(energyImage), scale),
+        (int) image.getWidth(), (int) image.getHeight(), recomputeNearSeams);
+  }
+
+  // Produces the row-major packed colors of the given image
+  int[] colorsOf(FromFileImage image) {
+    int width = (int) image.getWidth();
+    int height = (int) image.getHeight();
+    int[] result = new int[width * height];
+    // EFFECT: reads the color of each pixel of the image
+    for (int y = 0; y < height; y += 1) {
+      for (int x = 0; x < width; x += 1) {
+        result[y * width + x] = image.getColorAt(x, y).getRGB();
+      }
+    }
+    return result;
+  }
+
+  // Produces the packed form of each of the given colors
+  int[] pack(Color[] colors) {
+    int[] result = new int[colors.length];
+    // EFFECT: packs each color into result
+    for (int index = 0; index < colors.length; index += 1) {
+      result[index] = colors[index].getRGB();
+    }
+    return result;
+  }
+
+  // Converts the given mask image into a row-major array of mask values
+  byte[] maskFromImage(FromFileImage maskImage, int width, int height) {
+    if ((int) maskImage.getWidth() != width || (int) maskImage.getHeight() != height) {
+      throw new IllegalArgumentException("mask does not match image size");
+    }
+    return new Utils().maskFromColors(this.colorsOf(maskImage));
+  }
+
+  // Renders the given graph according to the colors of its pixels
+  ComputedPixelImage render(PixelGraph graph) {
+    ComputedPixelImage result = new ComputedPixelImage(graph.width, graph.height);
+    int[] colors = graph.colors(0, graph.width);
+    // Loop: Iterates over each row of the pixel graph from top to bottom
+    for (int y = 0; y < graph.height; y += 1) {
+      // EFFECT: sets each pixel in the current row of result
+      // to match the color of the corresponding pixel in the graph
+      for (int x = 0; x < graph.width; x += 1) {
+        result.setPixel(x, y, new Color(colors[y * graph.width + x], true));
+      }
+    }
+    return result;
+  }
+
+  // Renders the given graph according to the energy of its pixels
+  ComputedPixelImage renderEnergy(PixelGraph graph) {
+    ComputedPixelImage result = new ComputedPixelImage(graph.width, graph.height);
+    APixel rowPixel = graph.corner.down;
+    for (int y = 0; y < graph.height; y += 1) {
+      APixel columnPixel = rowPixel.right;
+      // Loop: Iterates over each pixel in the current row from left to right
+      for (int x = 0; x < graph.width; x += 1) {
+        int colorChannel = (int) ((((Pixel) columnPixel).calculateEnergy() / 6) * 255);
+        Color energyColor = new Color(colorChannel, colorChannel, colorChannel);
+        // EFFECT: sets each pixel in the current row of the result image to a
+        // color representing the energy of the corresponding pixel in the graph
+        result.setPixel(x, y, energyColor);
+        columnPixel = columnPixel.right;
+      }
+      rowPixel = rowPixel.down;
+    }
+    return result;
+  }
+
+  // Renders the given graph according to the colors of its pixels into an image that can be
+  // written to a file
+  BufferedImage renderBuffered(PixelGraph graph) {
+    BufferedImage result = new BufferedImage(graph.width, graph.height,
+        BufferedImage.TYPE_INT_RGB);
+    result.setRGB(0, 0, graph.width, graph.height, graph.colors(0, graph.width), 0,
+        graph.width);
+    return result;
+  }
+
+  // Writes the given graph as a PNG image to the given file
+  void write(PixelGraph graph, File file) {
+    try {
+      ImageIO.write(this.renderBuffered(graph), "png", file);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("could not write " + file, e);
+    }
+  }
+}
+
+// Represents the conversions between PixelGraphs, or OffHeapLevels, and binary PPM images with
+// 8 bits per color, using nothing but streams, so carving from one PPM file to another never
+// loads AWT
+class PpmCodec {
+  // Produces a graph of the PPM image in the given file
+  PixelGraph read(File file) {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      return this.read(in);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("could not read " + file, e);
+    }
+  }
+
+  // Produces a graph of the PPM image read from the given stream
+  PixelGraph read(InputStream in) throws IOException {
+    int[] size = this.readHeader(in);
+    int width = size[0];
+    int height = size[1];
+    byte[] bytes = new byte[width * height * 3];
+    this.readFully(in, bytes);
+    Utils u = new Utils();
+    int[] colors = new int[width * height];
+    // EFFECT: packs the red, green and blue bytes of each pixel
+    for (int index = 0; index < colors.length; index += 1) {
+      colors[index] = u.pack(bytes[index * 3] & 0xFF, bytes[index * 3 + 1] & 0xFF,
+          bytes[index * 3 + 2] & 0xFF);
+    }
+    return new PixelGraph(colors, width, height);
+  }
+
+  // Produces an off-heap level of the PPM image in the given file, kept in direct buffers if
+  // backing is null or else mapped from the backing file
+  OffHeapLevel readOffHeap(File file, File backing) {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      return this.readOffHeap(in, backing);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("could not read " + file, e);
+    }
+  }
+
+  // Produces an off-heap level of the PPM image read from the given stream, a row at a time
+  // straight into the level's lines, so the whole image is never held on the heap
+  OffHeapLevel readOffHeap(InputStream in, File backing) throws IOException {
+    int[] size = this.readHeader(in);
+    int width = size[0];
+    int height = size[1];
+    OffHeapLevel level = new OffHeapLevel(width, height, backing);
+    Utils u = new Utils();
+    byte[] row = new byte[width * 3];
+    try {
+      // EFFECT: reads each row and stores the color of each of its pixels
+      for (int y = 0; y < height; y += 1) {
+        this.readFully(in, row);
+        for (int x = 0; x < width; x += 1) {
+          level.setColor(x, y, u.pack(row[x * 3] & 0xFF, row[x * 3 + 1] & 0xFF,
+              row[x * 3 + 2] & 0xFF));
+        }
+      }
+    }
+    catch (IOException | RuntimeException e) {
+      level.close();
+      throw e;
+    }
+    return level;
+  }
+
+  // Reads the header of a binary 8-bit PPM image, and produces its {width, height}
+  int[] readHeader(InputStream in) throws IOException {
+    if (in.read() != 'P' || in.read() != '6') {
+      throw new IllegalArgumentException("not a binary PPM image");
+    }
+    int width = this.readNumber(in);
+    int height = this.readNumber(in);
+    if (this.readNumber(in) != 255) {
+      throw new IllegalArgumentException("only 8-bit PPM images are supported");
+    }
+    return new int[] {width, height};
+  }
+
+  // Reads exactly as many bytes as the given array holds from the given stream
+  // EFFECT: fills bytes
+  void readFully(InputStream in, byte[] bytes) throws IOException {
+    int read = 0;
+    // EFFECT: reads until bytes is full
+    while (read < bytes.length) {
+      int count = in.read(bytes, read, bytes.length - read);
+      if (count < 0) {
+        throw new IllegalArgumentException("PPM image ends early");
+      }
+      read += count;
+    }
+  }
+
+  // Reads the next number of a PPM header, skipping the whitespace and comments before it and
+  // the single whitespace character after it
+  int readNumber(InputStream in) throws IOException {
+    int next = in.read();
+    // EFFECT: skips whitespace and comments up to the first digit
+    while (next == '#' || Character.isWhitespace(next)) {
+      if (next == '#') {
+        while (next != '\n' && next >= 0) {
+          next = in.read();
+        }
+      }
+      next = in.read();
+    }
+    if (next < '0' || next > '9') {
+      throw new IllegalArgumentException("not a binary PPM image");
+    }
+    int result = 0;
+    // EFFECT: adds each digit of the number to result
+    while (next >= '0' && next <= '9') {
+      result = result * 10 + next - '0';
+      next = in.read();
+    }
+    return result;
+  }
+
+  // Writes the given graph as a PPM image to the given file
+  void write(PixelGraph graph, File file) {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      this.write(graph, out);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("could not write " + file, e);
+    }
+  }
+
+  // Writes the given graph as a PPM image to the given stream
+  void write(PixelGraph graph, OutputStream out) throws IOException {
+    Utils u = new Utils();
+    int[] colors = graph.colors(0, graph.width);
+    byte[] bytes = new byte[colors.length * 3];
+    // EFFECT: unpacks the red, green and blue bytes of each pixel
+    for (int index = 0; index < colors.length; index += 1) {
+      bytes[index * 3] = (byte) u.red(colors[index]);
+      bytes[index * 3 + 1] = (byte) u.green(colors[index]);
+      bytes[index * 3 + 2] = (byte) u.blue(colors[index]);
+    }
+    out.write(("P6\n" + graph.width + " " + graph.height + "\n255\n")
+        .getBytes(StandardCharsets.US_ASCII));
+    out.write(bytes);
+    out.flush();
+  }
+
+  // Writes the carved colors of the given off-heap level as a PPM image to the given file
+  void write(OffHeapLevel level, File file) {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      this.write(level, out);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("could not write " + file, e);
+    }
+  }
+
+  // Writes the carved colors of the given off-heap level as a PPM image to the given stream,
+  // a row at a time
+  void write(OffHeapLevel level, OutputStream out) throws IOException {
+    Utils u = new Utils();
+    out.write(("P6\n" + level.width + " " + level.height + "\n255\n")
+        .getBytes(StandardCharsets.US_ASCII));
+    byte[] row = new byte[level.width * 3];
+    // EFFECT: unpacks and writes the red, green and blue bytes of each row
+    for (int y = 0; y < level.height; y += 1) {
+      for (int x = 0; x < level.width; x += 1) {
+        int color = level.colorAt(x, y);
+        row[x * 3] = (byte) u.red(color);
+        row[x * 3 + 1] = (byte) u.green(color);
+        row[x * 3 + 2] = (byte) u.blue(color);
+      }
+      out.write(row);
+    }
+    out.flush();
+  }
+}
+
+// Represents something told how far a carve has got after each seam it removes
+interface CarveListener {
+  // Called with the seams removed so far, the seams the carve will remove in all, and the
+  // estimated nanoseconds until it finishes
+  void progress(int done, int total, long remainingNanos);
+}
+
+// Represents the controls of a carve: a token it can be cancelled with from any thread, an
+// optional deadline, whether to keep the seams removed so far when the deadline passes, and
+// an optional listener for its progress
+class CarveControl {
+  volatile boolean cancelled;
+  // The System.nanoTime() by which the carve must finish, if hasDeadline
+  long deadline;
+  boolean hasDeadline;
+  boolean keepPartial;
+  CarveListener listener;
+
+  // Constructor for a carve that runs until it finishes or is cancelled
+  CarveControl() {
+    this(null);
+  }
+
+  // Constructor for a carve that runs until it finishes or is cancelled, telling the given
+  // listener, if any, of its progress
+  CarveControl(CarveListener listener) {
+    this.cancelled = false;
+    this.deadline = 0;
+    this.hasDeadline = false;
+    this.keepPartial = false;
+    this.listener = listener;
+  }
+
+  // Constructor for a carve that must finish within the given nanoseconds from now, keeping
+  // the seams removed so far when it does not if keepPartial is true, and telling the given
+  // listener, if any, of its progress
+  CarveControl(long timeoutNanos, boolean keepPartial, CarveListener listener) {
+    if (timeoutNanos < 0) {
+      throw new IllegalArgumentException("timeout must not be negative");
+    }
+    this.cancelled = false;
+    this.deadline = System.nanoTime() + timeoutNanos;
+    this.hasDeadline = true;
+    this.keepPartial = keepPartial;
+    this.listener = listener;
+  }
+
+  // Cancels the carve, which stops at its next check
+  // EFFECT: marks this control as cancelled
+  void cancel() {
+    this.cancelled = true;
+  }
+
+  // Determines whether the carve has been cancelled
+  boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  // Determines whether the carve's deadline has passed
+  boolean pastDeadline() {
+    return this.hasDeadline && System.nanoTime() - this.deadline >= 0;
+  }
+
+  // Stops the carve by throwing if it has been cancelled or its deadline has passed
+  void checkpoint() {
+    if (this.cancelled) {
+      throw new CancellationException("carve was cancelled");
+    }
+    if (this.pastDeadline()) {
+      throw new CancellationException("carve missed its deadline");
+    }
+  }
+
+  // Tells the listener, if any, that the given number of seams out of the total have been
+  // removed in the given nanoseconds, estimating the time left from the average so far
+  void seamRemoved(int done, int total, long elapsedNanos) {
+    if (this.listener != null) {
+      this.listener.progress(done, total, elapsedNanos / done * (total - done));
+    }
+  }
+}
+
+// Represents a command line carver from one PPM image to another that never loads AWT or
+// javalib, for short-lived batch workers. Run it with:
+//   java BatchCarver in.ppm out.ppm verticalSeams horizontalSeams
+// With few classes to load it starts quickly from a class data sharing archive, made with
+//   java -XX:ArchiveClassesAtExit=carving.jsa BatchCarver ...
+// and run with -XX:SharedArchiveFile=carving.jsa, and it can be compiled ahead of time
+// with: native-image BatchCarver
+class BatchCarver {
+  // The LuminanceLevel metric seams are found by in whole numbers, or DOUBLE_ENERGY to find
+  // them by the graph's own double energies
+  int energy;
+  static final int DOUBLE_ENERGY = -1;
+
+  // Constructor for a carver finding seams by the graph's double energies
+  BatchCarver() {
+    this(DOUBLE_ENERGY);
+  }
+
+  // Constructor for a carver finding seams by the given LuminanceLevel metric, or by the
+  // graph's double energies if it is DOUBLE_ENERGY
+  BatchCarver(int energy) {
+    if (energy < DOUBLE_ENERGY || energy > LuminanceLevel.ABSOLUTE_GRADIENT) {
+      throw new IllegalArgumentException("unknown energy metric");
+    }
+    this.energy = energy;
+  }
+
+  // Carves the image named by the first argument into the file named by the second
+  public static void main(String[] args) {
+    if (args.length != 4) {
+      System.err.println("usage: BatchCarver in.ppm out.ppm verticalSeams horizontalSeams");
+      System.exit(2);
+    }
+    PpmCodec codec = new PpmCodec();
+    PixelGraph graph = codec.read(new File(args[0]));
+    new BatchCarver().carve(graph, Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+    codec.write(graph, new File(args[1]));
+  }
+
+  // Removes the given numbers of vertical and then horizontal seams from the given graph,
+  // stopping at a single column or row
+  // EFFECT: removes seams from the graph
+  void carve(PixelGraph graph, int verticalSeams, int horizontalSeams) {
+    this.carve(graph, verticalSeams, horizontalSeams, new CarveControl());
+  }
+
+  // Removes the given numbers of vertical and then horizontal seams from the given graph,
+  // stopping at a single column or row, and produces how many seams were removed. The control
+  // is checked between seams and while searching for each one, and is told of the progress
+  // after each seam. A cancelled carve throws, as does one past its deadline unless the
+  // control keeps partial results, in which case the graph keeps the seams removed so far
+  // EFFECT: removes seams from the graph
+  int carve(PixelGraph graph, int verticalSeams, int horizontalSeams, CarveControl control) {
+    return this.carve(graph, verticalSeams, horizontalSeams, control, null);
+  }
+
+  // Removes seams as above, streaming each one to the given stream, if any, as it is removed.
+  // With a whole number metric each seam is found in a LuminanceLevel kept in step with the
+  // graph, which the control only stops between seams, and a masked graph cannot be carved
+  // EFFECT: removes seams from the graph
+  int carve(PixelGraph graph, int verticalSeams, int horizontalSeams, CarveControl control,
+      CarvePublisher stream) {
+    LuminanceLevel level = null;
+    CarveWorkspace workspace = null;
+    if (this.energy != DOUBLE_ENERGY) {
+      if (graph.mask != null) {
+        throw new IllegalArgumentException("a masked graph needs double energies");
+      }
+      level = new LuminanceLevel(graph, this.energy);
+      workspace = new CarveWorkspace();
+    }
+    int verticalTotal = Math.max(0, Math.min(verticalSeams, graph.width - 1));
+    int total = verticalTotal + Math.max(0, Math.min(horizontalSeams, graph.height - 1));
+    int done = 0;
+    long start = System.nanoTime();
+    try {
+      // EFFECT: removes the vertical seams and then the horizontal ones
+      while (done < total) {
+        boolean vertical = done < verticalTotal;
+        control.checkpoint();
+        SeamInfo seam;
+        if (level == null) {
+          seam = graph.leastEnergySeam(vertical, control);
+        }
+        else {
+          int[] path = Arrays.copyOf(level.leastEnergyPath(vertical, workspace),
+              level.seamLength(vertical));
+          seam = graph.leastEnergySeamInWindow(vertical, path, path);
+          level.removePath(path, vertical);
+        }
+        graph.removeSeam(seam, vertical);
+        if (stream != null) {
+          stream.seamRemoved(new PackedSeam(seam, vertical));
+        }
+        done += 1;
+        control.seamRemoved(done, total, System.nanoTime() - start);
+      }
+    }
+    catch (CancellationException e) {
+      if (control.isCancelled() || !control.keepPartial) {
+        throw e;
+      }
+    }
+    return done;
+  }
+}
+
+// Represents a carving job waiting for memory, how much it reserves once it starts, and how
+// many later jobs have started ahead of it
+class GovernedJob {
+  long bytes;
+  Runnable work;
+  int overtaken;
+
+  // Constructor
+  GovernedJob(long bytes, Runnable work) {
+    this.bytes = bytes;
+    this.work = work;
+    this.overtaken = 0;
+  }
+}
+
+// Runs carving jobs side by side without running out of memory: each job reserves an estimate
+// of its peak footprint from its image's size and the way it is carved, and waits in the queue
+// until that much of the budget is free. Waiting jobs start in the order they were submitted,
+// except that one that fits may start ahead of an earlier one still waiting for room, until
+// that earlier one has been overtaken MAX_OVERTAKES times; from then on it holds its place and
+// the jobs behind it wait until it has started, so a large job cannot be starved by small ones
+class CarveGovernor implements AutoCloseable {
+  // The ways of carving a job's image, each with the bytes it needs per pixel at its peak,
+  // assuming compressed references
+  // A PixelGraph's linked Pixels (32 bytes), the SeamInfo made for every pixel while searching
+  // (40 bytes) and the packed colors it was read from (4 bytes)
+  static final int LINKED_GRAPH = 0;
+  // A BrightnessLevel's brightness and cumulative energies (8 bytes each) and the colors
+  static final int BRIGHTNESS_LEVEL = 1;
+  // A LuminanceLevel's luminance (4 bytes), its moves (1 byte) and the colors
+  static final int LUMINANCE_LEVEL = 2;
+  // An OffHeapLevel's brightness (8 bytes), colors (4 bytes) and moves (1 byte), counted
+  // even though they are outside the heap since direct buffers are limited to the heap's size
+  // by default
+  static final int OFF_HEAP_LEVEL = 3;
+  static final long[] BYTES_PER_PIXEL = new long[] {76, 20, 9, 13};
+  // Bytes reserved by every job whatever its size, for its line buffers and bookkeeping
+  static final long JOB_OVERHEAD = 1 << 20;
+  // How many later jobs may start ahead of a waiting job before it stops letting them
+  static final int MAX_OVERTAKES = 4;
+
+  long budget;
+  int maxJobs;
+  ExecutorService pool;
+  ArrayList<GovernedJob> queue;
+  long reserved;
+  long peakReserved;
+  int running;
+  long completed;
+  boolean closed;
+
+  // Constructor for a governor that lets jobs reserve up to the given number of bytes and
+  // runs at most the given number of them at once
+  CarveGovernor(long budget, int maxJobs) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("budget must be positive");
+    }
+    if (maxJobs < 1) {
+      throw new IllegalArgumentException("must allow at least one job");
+    }
+    this.budget = budget;
+    this.maxJobs = maxJobs;
+    this.pool = Executors.newFixedThreadPool(maxJobs);
+    this.queue = new ArrayList<GovernedJob>();
+    this.reserved = 0;
+    this.peakReserved = 0;
+    this.running = 0;
+    this.completed = 0;
+    this.closed = false;
+  }
+
+  // Constructor for a governor budgeted three quarters of the largest heap the JVM may use,
+  // leaving the rest for everything else
+  CarveGovernor(int maxJobs) {
+    this(Runtime.getRuntime().maxMemory() / 4 * 3, maxJobs);
+  }
+
+  // Estimates the peak bytes needed to carve an image of the given size the given way
+  long estimate(int width, int height, int backend) {
+    if (width < 1 || height < 1) {
+      throw new IllegalArgumentException("image must have at least one pixel");
+    }
+    if (backend < LINKED_GRAPH || backend > OFF_HEAP_LEVEL) {
+      throw new IllegalArgumentException("unknown carving backend");
+    }
+    return (long) width * height * BYTES_PER_PIXEL[backend] + JOB_OVERHEAD;
+  }
+
+  // Queues the given work on an image of the given size carved the given way, producing its
+  // result once it has run. The work's failures, running out of memory included, complete
+  // the result instead of being thrown
+  // EFFECT: queues the job and starts it if there is room for it
+  <T> CompletableFuture<T> submit(int width, int height, int backend, Supplier<T> work) {
+    long bytes = this.estimate(width, height, backend);
+    if (bytes > this.budget) {
+      throw new IllegalArgumentException("job needs more memory than the whole budget");
+    }
+    CompletableFuture<T> result = new CompletableFuture<T>();
+    GovernedJob job = new GovernedJob(bytes, () -> {
+      T value = null;
+      Throwable failure = null;
+      try {
+        value = work.get();
+      }
+      catch (Throwable e) {
+        failure = e;
+      }
+      this.release(bytes);
+      if (failure == null) {
+        result.complete(value);
+      }
+      else {
+        result.completeExceptionally(failure);
+      }
+    });
+    synchronized (this) {
+      if (this.closed) {
+        throw new IllegalStateException("governor is closed");
+      }
+      this.queue.add(job);
+      this.admit();
+    }
+    return result;
+  }
+
+  // Starts every waiting job there is room for, in the order they were submitted, stopping at
+  // a job that does not fit once it has been overtaken too often
+  // EFFECT: removes the started jobs from the queue and reserves their memory, counts the
+  // jobs they overtook, and shuts down the threads if this governor is closed and no job is
+  // left waiting
+  synchronized void admit() {
+    int index = 0;
+    // EFFECT: starts each waiting job that fits in what is left of the budget
+    while (index < this.queue.size() && this.running < this.maxJobs) {
+      GovernedJob job = this.queue.get(index);
+      if (this.reserved + job.bytes <= this.budget) {
+        this.queue.remove(index);
+        this.reserved += job.bytes;
+        this.peakReserved = Math.max(this.peakReserved, this.reserved);
+        this.running += 1;
+        this.pool.execute(job.work);
+        // EFFECT: counts the overtaking against each job still waiting ahead of this one
+        for (int earlier = 0; earlier < index; earlier += 1) {
+          this.queue.get(earlier).overtaken += 1;
+        }
+      }
+      else if (job.overtaken >= MAX_OVERTAKES) {
+        break;
+      }
+      else {
+        index += 1;
+      }
+    }
+    if (this.closed && this.queue.isEmpty()) {
+      this.pool.shutdown();
+    }
+  }
+
+  // Gives back the memory of a finished job and starts the jobs that now fit
+  // EFFECT: lowers the reservation, counts the job as completed and admits waiting jobs
+  synchronized void release(long bytes) {
+    this.reserved -= bytes;
+    this.running -= 1;
+    this.completed += 1;
+    this.admit();
+  }
+
+  // The bytes reserved by the jobs running now
+  synchronized long reservedBytes() {
+    return this.reserved;
+  }
+
+  // The most bytes reserved at once so far
+  synchronized long peakReservedBytes() {
+    return this.peakReserved;
+  }
+
+  // The bytes the waiting jobs will reserve once they start
+  synchronized long queuedBytes() {
+    long total = 0;
+    for (GovernedJob job : this.queue) {
+      total += job.bytes;
+    }
+    return total;
+  }
+
+  // The number of jobs running now
+  synchronized int runningJobs() {
+    return this.running;
+  }
+
+  // The number of jobs waiting for room
+  synchronized int queuedJobs() {
+    return this.queue.size();
+  }
+
+  // The number of jobs that have finished, whether or not they succeeded
+  synchronized long completedJobs() {
+    return this.completed;
+  }
+
+  // Stops taking jobs; the ones already submitted still run, after which the threads end
+  // EFFECT: closes this governor, shutting down its threads once no job is waiting
+  public synchronized void close() {
+    this.closed = true;
+    this.admit();
+  }
+}
+
+// Represents one item of a carve's stream: either a removed seam, a seam put back by an undo,
+// or a frame of the image's packed colors after the given number of seams have been removed
+class CarveEvent {
+  int seamsDone;
+  // The seam removed or put back, or null for a frame
+  PackedSeam seam;
+  // Whether the seam was put back rather than removed
+  boolean undone;
+  // The row-major packed colors of the image and its size, or null for a seam
+  int[] frame;
+  int width;
+  int height;
+
+  // Constructor for the given number of seams' last removed seam
+  CarveEvent(int seamsDone, PackedSeam seam) {
+    this(seamsDone, seam, false);
+  }
+
+  // Constructor for a seam removed, or put back if undone, leaving the given number of seams
+  // removed
+  CarveEvent(int seamsDone, PackedSeam seam, boolean undone) {
+    this.seamsDone = seamsDone;
+    this.seam = seam;
+    this.undone = undone;
+    this.frame = null;
+    this.width = 0;
+    this.height = 0;
+  }
+
+  // Constructor for a frame of the given size after the given number of seams
+  CarveEvent(int seamsDone, int[] frame, int width, int height) {
+    this.seamsDone = seamsDone;
+    this.seam = null;
+    this.undone = false;
+    this.frame = frame;
+    this.width = width;
+    this.height = height;
+  }
+
+  // Determines whether this event is a frame rather than a seam
+  boolean isFrame() {
+    return this.frame != null;
+  }
+
+  // Determines whether this event is a seam put back by an undo
+  boolean isUndo() {
+    return this.undone;
+  }
+}
+
+// Represents one subscriber's place in a carve's stream: the events it has not been given
+// yet and how many more it has asked for. Events are given to the subscriber one at a time,
+// on whichever thread removed the seam or asked for more
+class CarveSubscription implements Flow.Subscription {
+  Flow.Subscriber<? super CarveEvent> subscriber;
+  ArrayDeque<CarveEvent> pending;
+  long demand;
+  boolean cancelled;
+  // Whether the stream has ended, with the given failure or null, and whether the
+  // subscriber has been told
+  boolean ended;
+  Throwable failure;
+  boolean told;
+  boolean draining;
+
+  // Constructor
+  CarveSubscription(Flow.Subscriber<? super CarveEvent> subscriber) {
+    this.subscriber = subscriber;
+    this.pending = new ArrayDeque<CarveEvent>();
+    this.demand = 0;
+    this.cancelled = false;
+    this.ended = false;
+    this.failure = null;
+    this.told = false;
+    this.draining = false;
+  }
+
+  // Asks for the given number of events more, failing the subscription if it is not positive
+  // EFFECT: raises the demand and gives the subscriber the events it now can take
+  public void request(long count) {
+    synchronized (this) {
+      if (count <= 0) {
+        this.pending.clear();
+        this.ended = true;
+        this.failure = new IllegalArgumentException("must request a positive number of events");
+      }
+      else if (this.demand + count < 0) {
+        this.demand = Long.MAX_VALUE;
+      }
+      else {
+        this.demand += count;
+      }
+    }
+    this.drain();
+  }
+
+  // Stops giving the subscriber events
+  // EFFECT: marks this subscription as cancelled and drops its pending events
+  public synchronized void cancel() {
+    this.cancelled = true;
+    this.pending.clear();
+  }
+
+  // Determines whether the subscriber has cancelled this subscription
+  synchronized boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  // Determines whether the subscriber has asked for more than it is about to be given, so a
+  // frame made now would be taken straight away
+  synchronized boolean wantsFrame() {
+    return !this.cancelled && !this.ended && this.demand > this.pending.size();
+  }
+
+  // Queues the given event for the subscriber
+  // EFFECT: adds the event to the pending events and gives out what the demand allows
+  void offer(CarveEvent event) {
+    synchronized (this) {
+      if (this.cancelled || this.ended) {
+        return;
+      }
+      this.pending.add(event);
+    }
+    this.drain();
+  }
+
+  // Ends the stream with the given failure, or successfully if it is null, once the
+  // subscriber has been given the pending events
+  // EFFECT: marks the stream as ended and gives out what the demand allows
+  void finish(Throwable failure) {
+    synchronized (this) {
+      if (!this.ended) {
+        this.ended = true;
+        this.failure = failure;
+      }
+    }
+    this.drain();
+  }
+
+  // Gives the subscriber pending events while it has demand, and tells it the stream ended
+  // once none are left, doing nothing if another thread is already doing so
+  // EFFECT: removes the given events from the pending ones and lowers the demand
+  void drain() {
+    synchronized (this) {
+      if (this.draining) {
+        return;
+      }
+      this.draining = true;
+    }
+    // EFFECT: gives out one event, or the end of the stream, at a time
+    while (true) {
+      CarveEvent next = null;
+      synchronized (this) {
+        if (this.cancelled || this.told) {
+          this.draining = false;
+          return;
+        }
+        if (this.failure != null) {
+          this.pending.clear();
+        }
+        if (this.demand > 0 && !this.pending.isEmpty()) {
+          next = this.pending.poll();
+          this.demand -= 1;
+        }
+        else if (this.ended && this.pending.isEmpty()) {
+          this.told = true;
+        }
+        else {
+          this.draining = false;
+          return;
+        }
+      }
+      if (next != null) {
+        this.subscriber.onNext(next);
+      }
+      else if (this.failure == null) {
+        this.subscriber.onComplete();
+      }
+      else {
+        this.subscriber.onError(this.failure);
+      }
+    }
+  }
+}
+
+// Represents a stream of a carve's removed seams and, every so many seams, frames of the
+// image, given to each subscriber as fast as it asks for them. Every seam is kept for every
+// subscriber, since they are small, so a slow subscriber never holds up carving; instead a
+// frame is only made when some subscriber has asked for more than its pending seams, so slow
+// subscribers skip frames. The stream is fed either by carve() or, for a graph carved
+// elsewhere such as in a CarvingWorld, by seamRemoved() and finish()
+class CarvePublisher implements Flow.Publisher<CarveEvent> {
+  PixelGraph graph;
+  int frameInterval;
+  ArrayList<CarveSubscription> subscriptions;
+  int seamsDone;
+  int framesSkipped;
+  boolean ended;
+  Throwable failure;
+
+  // Constructor for a stream of the seams removed from the given graph with a frame every
+  // given number of seams
+  CarvePublisher(PixelGraph graph, int frameInterval) {
+    if (frameInterval < 1) {
+      throw new IllegalArgumentException("frame interval must be positive");
+    }
+    this.graph = graph;
+    this.frameInterval = frameInterval;
+    this.subscriptions = new ArrayList<CarveSubscription>();
+    this.seamsDone = 0;
+    this.framesSkipped = 0;
+    this.ended = false;
+    this.failure = null;
+  }
+
+  // Adds the given subscriber, which is given the events from the next seam removed after
+  // its onSubscribe returns. The subscription only joins the stream then, so that no event,
+  // nor the end of the stream, can reach the subscriber before onSubscribe does
+  // EFFECT: adds a subscription for the subscriber, ending it straight away if the stream
+  // has already ended
+  public void subscribe(Flow.Subscriber<? super CarveEvent> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber must not be null");
+    }
+    CarveSubscription subscription = new CarveSubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    boolean alreadyEnded;
+    Throwable endedWith;
+    synchronized (this) {
+      alreadyEnded = this.ended;
+      endedWith = this.failure;
+      if (!alreadyEnded) {
+        this.subscriptions.add(subscription);
+      }
+    }
+    if (alreadyEnded) {
+      subscription.finish(endedWith);
+    }
+  }
+
+  // Produces the current subscriptions, so events can be given out without holding the lock
+  // EFFECT: forgets the subscriptions that have been cancelled
+  synchronized ArrayList<CarveSubscription> currentSubscriptions() {
+    int index = 0;
+    // EFFECT: removes each cancelled subscription
+    while (index < this.subscriptions.size()) {
+      if (this.subscriptions.get(index).isCancelled()) {
+        this.subscriptions.remove(index);
+      }
+      else {
+        index += 1;
+      }
+    }
+    return new ArrayList<CarveSubscription>(this.subscriptions);
+  }
+
+  // Streams the given seam, just removed from this stream's graph, and a frame if it is due
+  // EFFECT: counts the seam and offers it, and possibly a frame, to every subscriber
+  void seamRemoved(PackedSeam seam) {
+    this.seamsDone += 1;
+    CarveEvent event = new CarveEvent(this.seamsDone, seam);
+    for (CarveSubscription subscription : this.currentSubscriptions()) {
+      subscription.offer(event);
+    }
+    if (this.seamsDone % this.frameInterval == 0) {
+      this.publishFrame();
+    }
+  }
+
+  // Streams the given seam, just put back into this stream's graph by an undo, and a frame of
+  // the graph as it is now
+  // EFFECT: uncounts the seam and offers it, and the frame, to every subscriber
+  void seamRestored(PackedSeam seam) {
+    this.seamsDone -= 1;
+    CarveEvent event = new CarveEvent(this.seamsDone, seam, true);
+    for (CarveSubscription subscription : this.currentSubscriptions()) {
+      subscription.offer(event);
+    }
+    this.publishFrame();
+  }
+
+  // Streams a frame of this stream's graph to the subscribers that would take it now, only
+  // making one if there is such a subscriber
+  // EFFECT: offers the frame to the subscribers that want it, or counts it as skipped
+  void publishFrame() {
+    ArrayList<CarveSubscription> wanting = new ArrayList<CarveSubscription>();
+    for (CarveSubscription subscription : this.currentSubscriptions()) {
+      if (subscription.wantsFrame()) {
+        wanting.add(subscription);
+      }
+    }
+    if (wanting.isEmpty()) {
+      this.framesSkipped += 1;
+      return;
+    }
+    CarveEvent frame = new CarveEvent(this.seamsDone, this.graph.colors(0, this.graph.width),
+        this.graph.width, this.graph.height);
+    for (CarveSubscription subscription : wanting) {
+      subscription.offer(frame);
+    }
+  }
+
+  // Ends the stream with the given failure, or successfully if it is null
+  // EFFECT: ends every subscription once its pending events have been given out
+  void finish(Throwable failure) {
+    synchronized (this) {
+      if (this.ended) {
+        return;
+      }
+      this.ended = true;
+      this.failure = failure;
+    }
+    for (CarveSubscription subscription : this.currentSubscriptions()) {
+      subscription.finish(failure);
+    }
+  }
+
+  // Removes the given numbers of vertical and then horizontal seams from this stream's graph
+  // as BatchCarver does with the given control, streaming each seam, then a last frame, and
+  // then ending the stream, and produces how many seams were removed. A failed or cancelled
+  // carve ends the stream with its failure
+  // EFFECT: removes seams from the graph and streams them
+  int carve(int verticalSeams, int horizontalSeams, CarveControl control) {
+    int done;
+    try {
+      done = new BatchCarver().carve(this.graph, verticalSeams, horizontalSeams, control, this);
+    }
+    catch (RuntimeException e) {
+      this.finish(e);
+      throw e;
+    }
+    if (this.seamsDone % this.frameInterval != 0) {
+      this.publishFrame();
+    }
+    this.finish(null);
+    return done;
+  }
+}
+
+// Represents timing comparisons between the ways of finding seams, printed to standard output.
+// Run it with: java SeamBenchmarks
+class SeamBenchmarks {
+  // Times each comparison
+  public static void main(String[] args) {
+    SeamBenchmarks benchmarks = new SeamBenchmarks();
+    benchmarks.compareGraphCutToFrames(4, 160, 90, 4);
+    benchmarks.compareKernels(2000, 1500);
+    benchmarks.compareIntegerEnergy(2000, 1500);
+    benchmarks.compareStripCarving(8, 40);
+    benchmarks.compareBeamToExact(10, new int[] {1, 4, 16, 64});
+    benchmarks.compareWorkspaces(400, 40, 20);
+    benchmarks.compareValidation(40, 20);
+  }
+
+  // Produces the mean number of nanoseconds one run of the given action takes, after running
+  // it the given number of warmups first
+  long meanNanos(Runnable action, int warmups, int runs) {
+    for (int count = 0; count < warmups; count += 1) {
+      action.run();
+    }
+    long start = System.nanoTime();
+    for (int count = 0; count < runs; count += 1) {
+      action.run();
+    }
+    return (System.nanoTime() - start) / Math.max(1, runs);
+  }
+
+  // Writes the given number of frames of the given size panning across balloons.jpg two
+  // pixels at a time into a new directory, and produces that directory
+  String writePanningFrames(int count, int width, int height) {
+    try {
+      BufferedImage balloons = ImageIO.read(new File("images/balloons.jpg"));
+      File directory = java.nio.file.Files.createTempDirectory("frames").toFile();
+      for (int frame = 0; frame < count; frame += 1) {
+        ImageIO.write(balloons.getSubimage(300 + 2 * frame, 100, width, height), "png",
+            new File(directory, String.format("frame%03d.png", frame)));
+      }
+      return directory.getPath();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  // Deletes the given directory of frames and the files in it
+  // EFFECT: deletes the directory and its files
+  void deleteFrames(String directory) {
+    File[] files = new File(directory).listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    new File(directory).delete();
+  }
+
+  // Determines how far, on average, the seams of each frame are from the same seams of the
+  // frame before it
+  double meanJitter(ArrayList<ArrayList<int[]>> seams) {
+    double total = 0.0;
+    int count = 0;
+    for (int frame = 1; frame < seams.size(); frame += 1) {
+      for (int seam = 0; seam < seams.get(frame).size(); seam += 1) {
+        int[] positions = seams.get(frame).get(seam);
+        int[] previous = seams.get(frame - 1).get(seam);
+        for (int index = 0; index < positions.length; index += 1) {
+          total += Math.abs(positions[index] - previous[index]);
+          count += 1;
+        }
+      }
+    }
+    return total / Math.max(1, count);
+  }
+
+  // Produces a level of the given size with random brightness, the same for every call
+  BrightnessLevel randomLevel(int width, int height) {
+    java.util.Random random = new java.util.Random(width * 31 + height);
+    double[] brightness = new double[width * height];
+    for (int index = 0; index < brightness.length; index += 1) {
+      brightness[index] = random.nextDouble();
+    }
+    return new BrightnessLevel(brightness, width, width, height, 1);
+  }
+
+  // Sets the least total energies and moves of a line the same way as Utils.accumulateLine,
+  // but choosing each move with plain branches, for comparison
+  // EFFECT: sets the values of current and the line's moves
+  void scalarLine(double[] previous, double[] current, double[] energy, byte[] moves, int row,
+      int length) {
+    for (int position = 0; position < length; position += 1) {
+      int move = 0;
+      double best = previous[position];
+      if (position > 0) {
+        move = -1;
+        best = previous[position - 1];
+        if (previous[position] < best) {
+          move = 0;
+          best = previous[position];
+        }
+      }
+      if (position + 1 < length && previous[position + 1] < best) {
+        move = 1;
+        best = previous[position + 1];
+      }
+      current[position] = energy[position] + best;
+      moves[row + position] = (byte) move;
+    }
+  }
+
+  // Compares accumulating the given number of lines of the given length of random energies
+  // with the plain scalar loop against the branch-free line kernel
+  void compareKernels(int length, int lines) {
+    java.util.Random random = new java.util.Random(length * 31 + lines);
+    double[][] energies = new double[lines][length];
+    // EFFECT: gives each line its own random energies
+    for (int line = 0; line < lines; line += 1) {
+      for (int position = 0; position < length; position += 1) {
+        energies[line][position] = random.nextDouble();
+      }
+    }
+    byte[] moves = new byte[length * lines];
+    Utils u = new Utils();
+    long scalar = this.meanNanos(() -> {
+      double[] previous = energies[0].clone();
+      double[] current = new double[length];
+      for (int line = 1; line < lines; line += 1) {
+        this.scalarLine(previous, current, energies[line], moves, line * length, length);
+        double[] reused = previous;
+        previous = current;
+        current = reused;
+      }
+    }, 3, 5);
+    long kernel = this.meanNanos(() -> {
+      double[] previous = energies[0].clone();
+      double[] current = new double[length];
+      for (int line = 1; line < lines; line += 1) {
+        u.accumulateLine(previous, current, energies[line], moves, line * length, length);
+        double[] reused = previous;
+        previous = current;
+        current = reused;
+      }
+    }, 3, 5);
+    System.out.println(String.format("%d lines of %d positions, totals and moves:", lines,
+        length));
+    System.out.println(String.format("  scalar loop: %8.2f ms", scalar / 1e6));
+    System.out.println(String.format("  line kernel: %8.2f ms (%.1fx)", kernel / 1e6,
+        (double) scalar / kernel));
+  }
+
+  // Compares finding the least energy vertical and horizontal seams of a random image of the
+  // given size with double brightness and energies against whole number luminance and
+  // gradient lengths
+  void compareIntegerEnergy(int width, int height) {
+    BrightnessLevel level = this.randomLevel(width, height);
+    int[] luminance = new int[width * height];
+    for (int index = 0; index < luminance.length; index += 1) {
+      luminance[index] = (int) (level.brightness[index] * 255);
+    }
+    LuminanceLevel integers = new LuminanceLevel(luminance, width, width, height,
+        LuminanceLevel.GRADIENT_MAGNITUDE);
+    long doubles = this.meanNanos(() -> {
+      level.leastEnergyPathFull(true);
+      level.leastEnergyPathFull(false);
+    }, 3, 5);
+    long whole = this.meanNanos(() -> {
+      integers.leastEnergyPath(true);
+      integers.leastEnergyPath(false);
+    }, 3, 5);
+    System.out.println(String.format("%dx%d image, one vertical and one horizontal seam:",
+        width, height));
+    System.out.println(String.format("  double energy:  %8.2f ms", doubles / 1e6));
+    System.out.println(String.format("  integer energy: %8.2f ms (%.1fx)", whole / 1e6,
+        (double) doubles / whole));
+  }
+
+  // Compares removing the given number of vertical seams from balloons.jpg all at once against
+  // carving the given number of strips of it at the same time, one thread per processor
+  void compareStripCarving(int strips, int seams) {
+    PixelGraph balloons = new ImageCodec().read("images/balloons.jpg");
+    int threads = Runtime.getRuntime().availableProcessors();
+    StripCarver whole = new StripCarver(balloons, 1);
+    long sequential = this.meanNanos(() -> whole.carve(seams, 1), 1, 3);
+    StripCarver parallel = new StripCarver(balloons, strips);
+    long stripped = this.meanNanos(() -> parallel.carve(seams, threads), 1, 3);
+    double wholeEnergy = 0.0;
+    double stripEnergy = 0.0;
+    for (Double energy : whole.seamEnergies.get(0)) {
+      wholeEnergy += energy;
+    }
+    for (ArrayList<Double> energies : parallel.seamEnergies) {
+      for (Double energy : energies) {
+        stripEnergy += energy;
+      }
+    }
+    System.out.println(String.format("balloons.jpg, %d vertical seams, %d threads:", seams,
+        threads));
+    System.out.println(String.format("  whole image: %8.2f ms", sequential / 1e6));
+    System.out.println(String.format("  %2d strips:   %8.2f ms (%.1fx), %.1f%% more seam energy",
+        strips, stripped / 1e6, (double) sequential / stripped,
+        100.0 * (stripEnergy / wholeEnergy - 1.0)));
+  }
+
+  // Compares removing the given number of vertical seams from each image in the images
+  // directory with the exact search against beam searches of each of the given widths, by
+  // time and by the total energy of the seams removed
+  void compareBeamToExact(int seams, int[] beamWidths) {
+    String[] files = new File("images").list();
+    Arrays.sort(files);
+    for (String name : files) {
+      String path = new File("images", name).getPath();
+      PixelGraph probe = new ImageCodec().read(path);
+      System.out.println(String.format("%s %dx%d, %d vertical seams:", name, probe.width,
+          probe.height, seams));
+      double[] exactEnergy = new double[1];
+      long exact = this.meanNanos(() -> {
+        PixelGraph graph = new ImageCodec().read(path);
+        exactEnergy[0] = 0.0;
+        for (int count = 0; count < seams && graph.width > 1; count += 1) {
+          SeamInfo seam = graph.leastEnergySeam(true);
+          exactEnergy[0] += seam.totalWeight;
+          graph.removeSeam(seam, true);
+        }
+      }, 1, 3);
+      System.out.println(String.format("  exact:    %8.2f ms, seam energy %10.3f", exact / 1e6,
+          exactEnergy[0]));
+      for (int beamWidth : beamWidths) {
+        double[] beamEnergy = new double[1];
+        long beam = this.meanNanos(() -> {
+          PixelGraph graph = new ImageCodec().read(path);
+          BeamSeamFinder finder = new BeamSeamFinder(graph, beamWidth);
+          beamEnergy[0] = 0.0;
+          for (int count = 0; count < seams && graph.width > 1; count += 1) {
+            SeamInfo seam = finder.leastEnergySeam(true);
+            beamEnergy[0] += seam.totalWeight;
+            graph.removeSeam(seam, true);
+          }
+        }, 1, 3);
+        System.out.println(String.format("  beam %3d: %8.2f ms, seam energy %10.3f", beamWidth,
+            beam / 1e6, beamEnergy[0]));
+      }
+    }
+  }
+
+  // Compares removing the given number of vertical seams from a block of panning frames with
+  // the minimum cut seam surface against the per-frame dynamic programming search, both
+  // independently and following the frame before
+  void compareGraphCutToFrames(int frames, int width, int height, int seams) {
+    String directory = this.writePanningFrames(frames, width, height);
+    ArrayList<ArrayList<int[]>> independentSeams = new ArrayList<ArrayList<int[]>>();
+    ArrayList<ArrayList<int[]>> followingSeams = new ArrayList<ArrayList<int[]>>();
+    ArrayList<ArrayList<int[]>> graphCutSeams = new ArrayList<ArrayList<int[]>>();
+    long independent;
+    long following;
+    long graphCut;
+    try {
+      independent = this.meanNanos(() -> {
+        FrameSequenceCarver carver = new FrameSequenceCarver(directory, width);
+        carver.carve(seams, 0, 1);
+        independentSeams.clear();
+        independentSeams.addAll(carver.seams);
+      }, 1, 3);
+      following = this.meanNanos(() -> {
+        FrameSequenceCarver carver = new FrameSequenceCarver(directory, 3);
+        carver.carve(seams, 0, 1);
+        followingSeams.clear();
+        followingSeams.addAll(carver.seams);
+      }, 1, 3);
+      graphCut = this.meanNanos(() -> {
+        FrameSequenceCarver carver = new FrameSequenceCarver(directory, 0);
+        graphCutSeams.clear();
+        graphCutSeams.addAll(new GraphCutSeamFinder().carve(carver.frames, seams, true));
+      }, 1, 3);
+    }
+    finally {
+      this.deleteFrames(directory);
+    }
+    System.out.println(String.format("%d frames of %dx%d, %d vertical seams each:",
+        frames, width, height, seams));
+    System.out.println(String.format("  per-frame DP, independent: %8.2f ms, jitter %.2f px",
+        independent / 1e6, this.meanJitter(independentSeams)));
+    System.out.println(String.format("  per-frame DP, following:   %8.2f ms, jitter %.2f px",
+        following / 1e6, this.meanJitter(followingSeams)));
+    System.out.println(String.format("  graph cut seam surface:    %8.2f ms, jitter %.2f px",
+        graphCut / 1e6, this.meanJitter(graphCutSeams)));
+  }
+
+  // Compares carving the given number of vertical and horizontal seams from a thumbnail cut
+  // from balloons.jpg, many times over, with a new PixelGraph each time, a new workspace each
+  // time and this thread's reused workspace, by time and by bytes allocated per thumbnail
+  void compareWorkspaces(int thumbnailWidth, int verticalSeams, int horizontalSeams) {
+    PixelGraph balloons = new ImageCodec().read("images/balloons.jpg");
+    int[] colors = balloons.colors(0, thumbnailWidth);
+    int height = balloons.height;
+    Runnable graph = () -> {
+      PixelGraph thumbnail = new PixelGraph(colors, thumbnailWidth, height);
+      new BatchCarver().carve(thumbnail, verticalSeams, horizontalSeams);
+      thumbnail.colors(0, thumbnail.width);
+    };
+    Runnable fresh = () -> new CarveWorkspace().carve(colors, thumbnailWidth, height,
+        verticalSeams, horizontalSeams);
+    Runnable reused = () -> CarveWorkspace.forThread().carve(colors, thumbnailWidth, height,
+        verticalSeams, horizontalSeams);
+    System.out.println(String.format("%dx%d thumbnails, %d vertical and %d horizontal seams:",
+        thumbnailWidth, height, verticalSeams, horizontalSeams));
+    System.out.println(String.format("  new PixelGraph:     %8.2f ms, %10d bytes",
+        this.meanNanos(graph, 3, 10) / 1e6, this.allocatedBytes(graph)));
+    System.out.println(String.format("  new workspace:      %8.2f ms, %10d bytes",
+        this.meanNanos(fresh, 3, 10) / 1e6, this.allocatedBytes(fresh)));
+    System.out.println(String.format("  reused workspace:   %8.2f ms, %10d bytes",
+        this.meanNanos(reused, 3, 10) / 1e6, this.allocatedBytes(reused)));
+  }
+
+  // Compares removing the given number of vertical seams from tower.jpg without validation,
+  // checking the links around each seam, doing so with a full check every given number of
+  // seams, and checking the whole graph after every seam
+  void compareValidation(int seams, int fullCheckInterval) {
+    String[] names = new String[] {"no validation:", "around each seam:",
+        String.format("around, full every %d:", fullCheckInterval), "full every seam:"};
+    boolean[] around = new boolean[] {false, true, true, false};
+    int[] intervals = new int[] {0, 0, fullCheckInterval, 1};
+    System.out.println(String.format("tower.jpg, %d vertical seams:", seams));
+    for (int index = 0; index < names.length; index += 1) {
+      int mode = index;
+      long nanos = this.meanNanos(() -> {
+        PixelGraph graph = new ImageCodec().read("images/tower.jpg");
+        graph.setValidation(around[mode], intervals[mode]);
+        for (int count = 0; count < seams; count += 1) {
+          graph.removeSeam(graph.leastEnergySeam(true), true);
+        }
+      }, 1, 3);
+      System.out.println(String.format("  %-24s %8.2f ms", names[mode], nanos / 1e6));
+    }
+  }
+
+  // Produces the bytes this thread allocates running the given action once, or -1 if the
+  // JVM cannot tell
+  long allocatedBytes(Runnable action) {
+    java.lang.management.ThreadMXBean threads =
+        java.lang.management.ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+    long thread = Thread.currentThread().getId();
+    long before = counting.getThreadAllocatedBytes(thread);
+    action.run();
+    return counting.getThreadAllocatedBytes(thread) - before;
+  }
+}
+
+// Represents one image of the throughput benchmark's corpus and the size it is carved to:
+// either a bundled image, read from its file, or a large image generated from a seed
+class BenchmarkCase {
+  String name;
+  // The bundled image's file, or null for a generated image
+  String path;
+  int width;
+  int height;
+  long seed;
+  int targetWidth;
+  int targetHeight;
+
+  // Constructor for a bundled image of the given size, carved to the given size
+  BenchmarkCase(String path, int width, int height, int targetWidth, int targetHeight) {
+    this(new File(path).getName(), path, width, height, 0, targetWidth, targetHeight);
+  }
+
+  // Constructor for an image of the given size generated from the given seed, carved to the
+  // given size
+  BenchmarkCase(String name, int width, int height, long seed, int targetWidth,
+      int targetHeight) {
+    this(name, null, width, height, seed, targetWidth, targetHeight);
+  }
+
+  // Constructor
+  BenchmarkCase(String name, String path, int width, int height, long seed, int targetWidth,
+      int targetHeight) {
+    if (targetWidth < 1 || targetWidth > width || targetHeight < 1 || targetHeight > height) {
+      throw new IllegalArgumentException("target size must be within the image");
+    }
+    this.name = name;
+    this.path = path;
+    this.width = width;
+    this.height = height;
+    this.seed = seed;
+    this.targetWidth = targetWidth;
+    this.targetHeight = targetHeight;
+  }
+
+  // Determines how many seams carving this case removes
+  int seams() {
+    return (this.width - this.targetWidth) + (this.height - this.targetHeight);
+  }
+
+  // Produces the packed colors of this case's generated image: smooth diagonal bands with
+  // noise and a few flat blocks, so seams have both easy and costly paths to choose from
+  int[] generate() {
+    java.util.Random random = new java.util.Random(this.seed);
+    Utils u = new Utils();
+    int[] colors = new int[this.width * this.height];
+    // EFFECT: sets the color of each pixel from its band and some noise
+    for (int y = 0; y < this.height; y += 1) {
+      for (int x = 0; x < this.width; x += 1) {
+        int band = ((x + 2 * y) / 24) % 2 * 96;
+        colors[y * this.width + x] = u.pack(band + random.nextInt(48),
+            (x * 255 / this.width + random.nextInt(16)) % 256, (y * 255 / this.height));
+      }
+    }
+    // EFFECT: paints flat blocks over the bands
+    for (int block = 0; block < 8; block += 1) {
+      int left = random.nextInt(this.width / 2);
+      int top = random.nextInt(this.height / 2);
+      int color = u.pack(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+      for (int y = top; y < top + this.height / 8; y += 1) {
+        Arrays.fill(colors, y * this.width + left, y * this.width + left + this.width / 8,
+            color);
+      }
+    }
+    return colors;
+  }
+
+  // Produces a graph of this case's image, reading or generating it
+  PixelGraph load() {
+    if (this.path != null) {
+      return new ImageCodec().read(this.path);
+    }
+    return new PixelGraph(this.generate(), this.width, this.height);
+  }
+}
+
+// Represents the outcome of one benchmark case: the size and checksum of its output pixels,
+// how long the whole load, carve and render path took at best, and what it cost in garbage
+// collection and heap. Its golden line, the part compared between runs, is:
+//   name width height checksum seamsPerSecond
+class BenchmarkResult {
+  // Runs shorter than this are too noisy for their throughput to be compared
+  static final long MIN_TIMED_NANOS = 50000000;
+
+  String name;
+  int width;
+  int height;
+  long checksum;
+  double seamsPerSecond;
+  long wallNanos;
+  long gcMillis;
+  long peakHeapBytes;
+
+  // Constructor
+  BenchmarkResult(String name, int width, int height, long checksum, double seamsPerSecond,
+      long wallNanos, long gcMillis, long peakHeapBytes) {
+    this.name = name;
+    this.width = width;
+    this.height = height;
+    this.checksum = checksum;
+    this.seamsPerSecond = seamsPerSecond;
+    this.wallNanos = wallNanos;
+    this.gcMillis = gcMillis;
+    this.peakHeapBytes = peakHeapBytes;
+  }
+
+  // Constructor from a golden line, which has no timings or costs
+  BenchmarkResult(String goldenLine) {
+    String[] parts = goldenLine.trim().split("\\s+");
+    if (parts.length != 5) {
+      throw new IllegalArgumentException("malformed golden line: " + goldenLine);
+    }
+    try {
+      this.name = parts[0];
+      this.width = Integer.parseInt(parts[1]);
+      this.height = Integer.parseInt(parts[2]);
+      this.checksum = Long.parseLong(parts[3], 16);
+      this.seamsPerSecond = Double.parseDouble(parts[4]);
+    }
+    catch (NumberFormatException e) {
+      throw new IllegalArgumentException("malformed golden line: " + goldenLine);
+    }
+    this.wallNanos = 0;
+    this.gcMillis = 0;
+    this.peakHeapBytes = 0;
+  }
+
+  // Produces this result's golden line
+  String goldenLine() {
+    return String.format("%s %d %d %08x %.2f", this.name, this.width, this.height,
+        this.checksum, this.seamsPerSecond);
+  }
+
+  // Produces the problems with this result compared to the given golden result: different
+  // output pixels, or seams per second more than the given fraction below the golden's when
+  // this result was timed long enough to tell
+  ArrayList<String> problemsAgainst(BenchmarkResult golden, double threshold) {
+    ArrayList<String> problems = new ArrayList<String>();
+    if (this.width != golden.width || this.height != golden.height
+        || this.checksum != golden.checksum) {
+      problems.add(String.format("%s: output changed, %dx%d %08x instead of %dx%d %08x",
+          this.name, this.width, this.height, this.checksum, golden.width, golden.height,
+          golden.checksum));
+    }
+    if (this.wallNanos >= MIN_TIMED_NANOS
+        && this.seamsPerSecond < golden.seamsPerSecond * (1.0 - threshold)) {
+      problems.add(String.format("%s: %.2f seams/s is %.0f%% below the golden %.2f", this.name,
+          this.seamsPerSecond, 100.0 * (1.0 - this.seamsPerSecond / golden.seamsPerSecond),
+          golden.seamsPerSecond));
+    }
+    return problems;
+  }
+}
+
+// Represents an end to end throughput benchmark: each image of a fixed corpus, the bundled
+// images and some large generated ones, is loaded, carved to a set size with BatchCarver
+// and rendered to PNG, timing the whole path. The output pixels and the throughput are
+// compared against the golden results in GOLDEN_FILE, failing when the pixels change or
+// the throughput falls by more than a threshold. Run it with:
+//   java ThroughputBenchmark record        to write the golden results on a quiet machine
+//   java ThroughputBenchmark check [0.2]   to compare against them, exiting with 1 on
+//                                          any problem
+// Throughputs only compare on the machine the golden results were recorded on
+class ThroughputBenchmark {
+  static final String GOLDEN_FILE = "benchmarks/throughput.golden";
+  static final double DEFAULT_THRESHOLD = 0.2;
+  // How many times each case is run untimed first, and then timed, keeping the best time
+  static final int WARMUPS = 1;
+  static final int RUNS = 3;
+
+  // Records or checks the golden results
+  public static void main(String[] args) {
+    if (args.length < 1 || args.length > 2
+        || !(args[0].equals("record") || args[0].equals("check"))) {
+      System.err.println("usage: ThroughputBenchmark record | check [threshold]");
+      System.exit(2);
+    }
+    ThroughputBenchmark benchmark = new ThroughputBenchmark();
+    ArrayList<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+    for (BenchmarkCase benchmarkCase : benchmark.corpus()) {
+      BenchmarkResult result = benchmark.run(benchmarkCase, WARMUPS, RUNS);
+      System.out.println(benchmark.report(result));
+      results.add(result);
+    }
+    System.out.println(String.format("peak RSS: %d kB", benchmark.peakResidentKilobytes()));
+    File golden = new File(GOLDEN_FILE);
+    if (args[0].equals("record")) {
+      benchmark.writeGolden(results, golden);
+      System.out.println("recorded " + golden);
+      return;
+    }
+    double threshold = DEFAULT_THRESHOLD;
+    if (args.length == 2) {
+      threshold = Double.parseDouble(args[1]);
+    }
+    ArrayList<String> problems = benchmark.compare(results, benchmark.readGolden(golden),
+        threshold);
+    for (String problem : problems) {
+      System.out.println("FAIL " + problem);
+    }
+    if (!problems.isEmpty()) {
+      System.exit(1);
+    }
+    System.out.println("all " + results.size() + " cases match " + golden);
+  }
+
+  // Produces the corpus: every bundled image carved to three quarters of its width and nine
+  // tenths of its height, and two large generated images with a fixed number of seams
+  ArrayList<BenchmarkCase> corpus() {
+    ArrayList<BenchmarkCase> result = new ArrayList<BenchmarkCase>();
+    String[] files = new File("images").list();
+    Arrays.sort(files);
+    for (String name : files) {
+      String path = new File("images", name).getPath();
+      PixelGraph probe = new ImageCodec().read(path);
+      result.add(new BenchmarkCase(path, probe.width, probe.height,
+          Math.max(1, probe.width * 3 / 4), Math.max(1, probe.height * 9 / 10)));
+    }
+    result.add(new BenchmarkCase("generated-1600x1200", 1600, 1200, 1, 1584, 1192));
+    result.add(new BenchmarkCase("generated-2400x600", 2400, 600, 2, 2376, 594));
+    return result;
+  }
+
+  // Produces the checksum of the given packed colors, ignoring their alpha
+  long checksum(int[] colors) {
+    java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+    ByteBuffer bytes = ByteBuffer.allocate(colors.length * 4);
+    for (int color : colors) {
+      bytes.putInt(color & 0xFFFFFF);
+    }
+    crc.update(bytes.array());
+    return crc.getValue();
+  }
+
+  // Loads, carves and renders the given case, producing the rendered pixels
+  int[] carveOnce(BenchmarkCase benchmarkCase) {
+    PixelGraph graph = benchmarkCase.load();
+    new BatchCarver().carve(graph, benchmarkCase.width - benchmarkCase.targetWidth,
+        benchmarkCase.height - benchmarkCase.targetHeight);
+    BufferedImage image = new ImageCodec().renderBuffered(graph);
+    try {
+      ImageIO.write(image, "png", new java.io.ByteArrayOutputStream());
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return image.getRGB(0, 0, graph.width, graph.height, null, 0, graph.width);
+  }
+
+  // Runs the given case the given numbers of times untimed and then timed, producing its
+  // result with the best wall time, and the garbage collection time and peak heap of all the
+  // timed runs
+  BenchmarkResult run(BenchmarkCase benchmarkCase, int warmups, int runs) {
+    for (int count = 0; count < warmups; count += 1) {
+      this.carveOnce(benchmarkCase);
+    }
+    this.resetPeakHeap();
+    long gcBefore = this.gcMillis();
+    long best = Long.MAX_VALUE;
+    int[] pixels = null;
+    for (int count = 0; count < Math.max(1, runs); count += 1) {
+      long start = System.nanoTime();
+      pixels = this.carveOnce(benchmarkCase);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    return new BenchmarkResult(benchmarkCase.name, benchmarkCase.targetWidth,
+        benchmarkCase.targetHeight, this.checksum(pixels),
+        benchmarkCase.seams() / (best / 1e9), best, this.gcMillis() - gcBefore,
+        this.peakHeapBytes());
+  }
+
+  // Produces the milliseconds spent in garbage collection so far
+  long gcMillis() {
+    long total = 0;
+    for (java.lang.management.GarbageCollectorMXBean collector
+        : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, collector.getCollectionTime());
+    }
+    return total;
+  }
+
+  // Forgets the peak usage of each heap pool
+  // EFFECT: resets the peak usage of the heap pools to their current usage
+  void resetPeakHeap() {
+    for (java.lang.management.MemoryPoolMXBean pool
+        : java.lang.management.ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == java.lang.management.MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  // Produces the sum of the heap pools' peak usage since they were last reset
+  long peakHeapBytes() {
+    long total = 0;
+    for (java.lang.management.MemoryPoolMXBean pool
+        : java.lang.management.ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == java.lang.management.MemoryType.HEAP) {
+        total += pool.getPeakUsage().getUsed();
+      }
+    }
+    return total;
+  }
+
+  // Produces this process's peak resident set size in kilobytes, from /proc on Linux, or -1
+  // where that cannot be read
+  long peakResidentKilobytes() {
+    try {
+      for (String line : java.nio.file.Files.readAllLines(new File("/proc/self/status")
+          .toPath())) {
+        if (line.startsWith("VmHWM:")) {
+          return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+      }
+    }
+    catch (IOException e) {
+      return -1;
+    }
+    return -1;
+  }
+
+  // Produces a line describing the given result
+  String report(BenchmarkResult result) {
+    return String.format("%-22s %5dx%-5d %9.2f ms %8.2f seams/s  gc %5d ms  peak heap %6d MB",
+        result.name, result.width, result.height, result.wallNanos / 1e6, result.seamsPerSecond,
+        result.gcMillis, result.peakHeapBytes >> 20);
+  }
+
+  // Produces the problems with the given results compared to the given golden results
+  ArrayList<String> compare(ArrayList<BenchmarkResult> results,
+      ArrayList<BenchmarkResult> golden, double threshold) {
+    ArrayList<String> problems = new ArrayList<String>();
+    HashMap<String, BenchmarkResult> byName = new HashMap<String, BenchmarkResult>();
+    for (BenchmarkResult result : golden) {
+      byName.put(result.name, result);
+    }
+    for (BenchmarkResult result : results) {
+      if (!byName.containsKey(result.name)) {
+        problems.add(result.name + ": no golden result");
+      }
+      else {
+        problems.addAll(result.problemsAgainst(byName.get(result.name), threshold));
+      }
+    }
+    return problems;
+  }
+
+  // Writes the golden lines of the given results to the given file
+  // EFFECT: creates or replaces the file
+  void writeGolden(ArrayList<BenchmarkResult> results, File file) {
+    ArrayList<String> lines = new ArrayList<String>();
+    lines.add("# name width height checksum seamsPerSecond, from: java ThroughputBenchmark "
+        + "record");
+    for (BenchmarkResult result : results) {
+      lines.add(result.goldenLine());
+    }
+    try {
+      if (file.getParentFile() != null) {
+        file.getParentFile().mkdirs();
+      }
+      java.nio.file.Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("could not write " + file, e);
+    }
+  }
+
+  // Reads the golden results from the given file, skipping blank lines and # comments
+  ArrayList<BenchmarkResult> readGolden(File file) {
+    ArrayList<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+    try {
+      for (String line : java.nio.file.Files.readAllLines(file.toPath(),
+          StandardCharsets.UTF_8)) {
+        if (!line.isBlank() && !line.startsWith("#")) {
+          results.add(new BenchmarkResult(line));
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException("could not read " + file, e);
+    }
+    return results;
+  }
+}
+
+// Represents a world holding a graph representing an image being carved
+class CarvingWorld extends World {
+  PixelGraph graph;
+  int tickCounter = 0;
+  SeamInfo currSeam;
+  boolean energyToggle;
+  boolean vertical;
+  boolean paused;
+  // The search for the next seam, running on the searcher while the current frame renders,
+  // or null if none has been started. While it runs the graph is only read: it is handed
+  // back to the world's thread before any pixel is recolored or removed
+  CompletableFuture<SeamInfo> nextSeam;
+  boolean nextVertical;
+  ExecutorService searcher;
+  // Seams queued by held 'v' and 'h' keys while paused, removed in batches on the searcher.
+  // While carving, the searcher owns the graph and the world shows the latest snapshot
+  int queuedVertical;
+  int queuedHorizontal;
+  boolean carving;
+  CompletableFuture<Void> carver;
+  ComputedPixelImage snapshot;
+  int snapshotWidth;
+  int snapshotHeight;
+  // The colors of the current seam's pixels before it was shown in red
+  int[] shownColors;
+  // How many removed pixels the graph keeps so that 'u' and 'r' can undo and redo removals
+  static final long HISTORY_BUDGET = 1 << 20;
+  // Whether each seam is shown in red for a tick before it is removed, rather than removing
+  // as many seams each tick as fit in the frame budget
+  boolean precise;
+  long frameBudgetNanos;
+  // The smoothed time it has taken to find and remove one seam, or 0 before any were timed
+  double seamNanos;
+  // How much each newly timed batch moves the smoothed time per seam
+  static final double SEAM_COST_SMOOTHING = 0.3;
+  // The carver recording this world's seams to replay at full resolution, if this world's
+  // graph is a downscaled proxy, or null
+  ProxyCarver proxy;
+  // The stream this world's removed seams are given to, or null
+  CarvePublisher stream;
+
+  // Constructor
+  CarvingWorld(PixelGraph graph) {
+    this(graph, 0.0);
+    this.precise = true;
+  }
+
+  // Constructor for removing as many seams each tick as fit in the given number of
+  // milliseconds
+  CarvingWorld(PixelGraph graph, double frameBudgetMillis) {
+    this.graph = graph;
+    this.proxy = null;
+    this.stream = null;
+    this.precise = false;
+    this.frameBudgetNanos = (long) (frameBudgetMillis * 1000000);
+    this.seamNanos = 0.0;
+    this.energyToggle = false;
+    this.vertical = true;
+    this.paused = false;
+    this.nextSeam = null;
+    this.queuedVertical = 0;
+    this.queuedHorizontal = 0;
+    this.carving = false;
+    this.carver = CompletableFuture.completedFuture(null);
+    this.graph.setHistoryBudget(HISTORY_BUDGET);
+    this.searcher = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "seam searcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // Colors then deletes the lowest energy seam in this world, searching for the next seam
+  // in the background while the current one is shown, or without precise stepping removes
+  // as many seams as fit in the frame budget
+  // EFFECT: changes the color of pixels in the lowest energy seam or removes those pixels,
+  // skipping a coloring tick if the background search has not finished yet
+  public void onTick() {
+    if (this.isCarving()) {
+      return;
+    }
+    if (!this.precise && (tickCounter % 2) == 0) {
+      if (!paused) {
+        this.carveWithinBudget();
+        tickCounter = tickCounter + 2;
+      }
+    }
+    else if ((tickCounter % 2) == 0) {
+      if (!paused) {
+        //this.vertical = Math.random() < 0.5;
+        if (this.nextSeam != null && !this.nextSeam.isDone()) {
+          return;
+        }
+        currSeam = this.takeSeam(vertical);
+        this.shownColors = currSeam.colors();
+        this.graph.makeSeamRed(currSeam);
+        tickCounter = tickCounter + 1;
+      }
+    }
+    else {
+      this.removeSeam(currSeam, vertical);
+      currSeam.recolor(this.shownColors);
+      tickCounter = tickCounter + 1;
+      if ((this.graph.width > 1) && (this.graph.height > 1)) {
+        this.searchAhead(vertical);
+      }
+    }
+    if ((this.graph.width == 1) || (this.graph.height == 1)) {
+      if (this.stream != null) {
+        this.stream.finish(null);
+      }
+      this.endOfWorld("Image gone");
+    }
+  }
+
+  // Constructor for carving the given carver's proxy, removing as many seams each tick as
+  // fit in the given number of milliseconds
+  CarvingWorld(ProxyCarver proxy, double frameBudgetMillis) {
+    this(proxy.proxy, frameBudgetMillis);
+    this.proxy = proxy;
+  }
+
+  // Streams the seams this world removes from now on to the given stream, which must be of
+  // this world's graph, along with the seams undone and redone with 'u' and 'r'
+  // EFFECT: sets this world's stream
+  void streamTo(CarvePublisher stream) {
+    if (stream.graph != this.graph) {
+      throw new IllegalArgumentException("stream is of another graph");
+    }
+    this.stream = stream;
+  }
+
+  // Removes the given seam from this world's graph
+  // EFFECT: removes the seam, recording it to be replayed if the graph is a proxy, and
+  // streams it if this world has a stream
+  void removeSeam(SeamInfo seam, boolean vertical) {
+    if (this.proxy != null) {
+      this.proxy.record(new PackedSeam(seam, vertical));
+    }
+    this.graph.removeSeam(seam, vertical);
+    if (this.stream != null) {
+      this.stream.seamRemoved(new PackedSeam(seam, vertical));
+    }
+  }
+
+  // Puts back the most recently removed seam, unless it has already been replayed at
+  // full resolution
+  // EFFECT: puts the seam back into the graph and forgets its recording, and streams it as
+  // undone if this world has a stream
+  void undoRemoval() {
+    if (this.graph.undoHistory.isEmpty()) {
+      return;
+    }
+    RemovedSeam removed = this.graph.undoHistory.get(this.graph.undoHistory.size() - 1);
+    if (this.proxy == null || this.proxy.unrecord()) {
+      this.graph.undoRemoval();
+      if (this.stream != null) {
+        this.stream.seamRestored(removed.path);
+      }
+    }
+  }
+
+  // Removes the most recently undone seam again
+  // EFFECT: removes the seam from the graph, recording it again if the graph is a proxy, and
+  // streams it if this world has a stream
+  void redoRemoval() {
+    if (this.graph.redoHistory.isEmpty()) {
+      return;
+    }
+    RemovedSeam removed = this.graph.redoHistory.get(this.graph.redoHistory.size() - 1);
+    if (this.proxy != null) {
+      this.proxy.record(removed.path);
+    }
+    this.graph.redoRemoval();
+    if (this.stream != null) {
+      this.stream.seamRemoved(removed.path);
+    }
+  }
+
+  // Determines how many seams to remove this tick, from how long seams have been taking
+  int seamsPerTick() {
+    if (this.seamNanos <= 0.0) {
+      return 1;
+    }
+    return Math.max(1, (int) (this.frameBudgetNanos / this.seamNanos));
+  }
+
+  // Removes as many seams as should fit in the frame budget, timing them to plan the next
+  // tick, and starts the search for the seam after them. Stops early once the budget is
+  // spent, in case seams have become slower than planned, but always removes one seam
+  // EFFECT: removes seams from the graph and updates the time per seam
+  void carveWithinBudget() {
+    int count = this.seamsPerTick();
+    int removed = 0;
+    long start = System.nanoTime();
+    // EFFECT: removes each seam, leaving at least one row and column
+    while (removed < count && this.graph.width > 1 && this.graph.height > 1
+        && (removed == 0 || System.nanoTime() - start < this.frameBudgetNanos)) {
+      this.removeSeam(this.takeSeam(vertical), vertical);
+      removed += 1;
+    }
+    this.timeSeams(System.nanoTime() - start, removed);
+    if ((this.graph.width > 1) && (this.graph.height > 1)) {
+      this.searchAhead(vertical);
+    }
+  }
+
+  // Records that the given number of seams took the given number of nanoseconds
+  // EFFECT: moves the time per seam toward the time these seams took
+  void timeSeams(long nanos, int count) {
+    if (count > 0) {
+      double perSeam = (double) nanos / count;
+      if (this.seamNanos <= 0.0) {
+        this.seamNanos = perSeam;
+      }
+      else {
+        this.seamNanos += SEAM_COST_SMOOTHING * (perSeam - this.seamNanos);
+      }
+    }
+  }
+
+  // Starts searching for the least energy seam in the given direction on the searcher
+  // EFFECT: sets the next seam to the search's result
+  void searchAhead(boolean vertical) {
+    PixelGraph graph = this.graph;
+    this.nextVertical = vertical;
+    this.nextSeam = CompletableFuture.supplyAsync(() -> graph.leastEnergySeam(vertical),
+        this.searcher);
+  }
+
+  // Finds the least energy seam in the given direction, taking it from the background search
+  // if that searched the same direction, and hands the graph back to this world's thread
+  // EFFECT: waits for and clears the background search
+  SeamInfo takeSeam(boolean vertical) {
+    SeamInfo seam = null;
+    if (this.nextSeam != null) {
+      seam = this.nextSeam.join();
+      if (this.nextVertical != vertical) {
+        seam = null;
+      }
+      this.nextSeam = null;
+    }
+    if (seam == null) {
+      seam = this.graph.leastEnergySeam(vertical);
+    }
+    return seam;
+  }
+
+  // Changes the world based on key events
+  // EFFECT: toggles the energy toggle field to change rendering behavior
+  public void onKeyEvent(String key) {
+    if (key.equals("e")) {
+
+      this.energyToggle = !this.energyToggle;
+    }
+    else if (key.equals(" ")) {
+      this.paused = !this.paused;
+    }
+    else if (key.equals("s")) {
+      this.precise = !this.precise;
+    }
+    else if (key.equals("f") && this.proxy != null) {
+      this.proxy.replayAsync();
+    }
+    else if (key.equals("v") && paused && (tickCounter % 2) == 0) {
+      this.queueSeams(true, 1);
+    }
+    else if (key.equals("h") && paused && (tickCounter % 2) == 0) {
+      this.queueSeams(false, 1);
+    }
+    else if (key.equals("u") && paused && this.canEditHistory()) {
+      this.discardSearch();
+      this.undoRemoval();
+    }
+    else if (key.equals("r") && paused && this.canEditHistory()) {
+      this.discardSearch();
+      this.redoRemoval();
+    }
+  }
+
+  // Determines whether removals can be undone or redone now, which is when the carver does
+  // not own the graph and no seam is being shown
+  boolean canEditHistory() {
+    return !this.isCarving() && (this.tickCounter % 2) == 0;
+  }
+
+  // Waits for the background search and forgets its seam, which the graph is about to outdate
+  // EFFECT: clears the background search
+  void discardSearch() {
+    if (this.nextSeam != null) {
+      this.nextSeam.join();
+      this.nextSeam = null;
+    }
+  }
+
+  // Queues the given number of seams in the given direction to be removed on the searcher,
+  // coalescing with any seams already queued
+  // EFFECT: adds to the queued seams, discards the background search since its seam will be
+  // stale, and starts the carver if it is not already running
+  synchronized void queueSeams(boolean vertical, int count) {
+    if (vertical) {
+      this.queuedVertical += count;
+    }
+    else {
+      this.queuedHorizontal += count;
+    }
+    this.nextSeam = null;
+    if (!this.carving) {
+      this.publishSnapshot();
+      this.carving = true;
+      this.carver = CompletableFuture.runAsync(this::carveQueued, this.searcher);
+    }
+  }
+
+  // Determines whether the carver currently owns the graph
+  synchronized boolean isCarving() {
+    return this.carving;
+  }
+
+  // Takes all of the queued seams as a batch of {vertical, horizontal} counts, or null if
+  // there are none
+  // EFFECT: clears the queued seams, and marks the carver as stopped if there were none
+  synchronized int[] takeQueued() {
+    if (this.queuedVertical == 0 && this.queuedHorizontal == 0) {
+      this.carving = false;
+      return null;
+    }
+    int[] batch = new int[] {this.queuedVertical, this.queuedHorizontal};
+    this.queuedVertical = 0;
+    this.queuedHorizontal = 0;
+    return batch;
+  }
+
+  // Removes the queued seams a batch at a time until none are left, stopping short of
+  // removing the last row or column
+  // EFFECT: removes seams from the graph and publishes a snapshot after each batch
+  void carveQueued() {
+    for (int[] batch = this.takeQueued(); batch != null; batch = this.takeQueued()) {
+      for (int count = 0; count < batch[0] && this.graph.width > 1; count += 1) {
+        this.removeSeam(this.graph.leastEnergySeam(true), true);
+      }
+      for (int count = 0; count < batch[1] && this.graph.height > 1; count += 1) {
+        this.removeSeam(this.graph.leastEnergySeam(false), false);
+      }
+      this.publishSnapshot();
+    }
+  }
+
+  // Renders the graph for the world to show while the carver owns it
+  // EFFECT: replaces the snapshot
+  void publishSnapshot() {
+    ComputedPixelImage image = this.renderGraph();
+    synchronized (this) {
+      this.snapshot = image;
+      this.snapshotWidth = this.graph.width;
+      this.snapshotHeight = this.graph.height;
+    }
+  }
+
+  // Waits for the carver to remove all of the queued seams
+  void finishCarving() {
+    while (this.isCarving()) {
+      this.carver.join();
+    }
+  }
+
+  // Renders the graph as colors or as energies, depending on the energy toggle
+  ComputedPixelImage renderGraph() {
+    if (energyToggle) {
+      return new ImageCodec().renderEnergy(this.graph);
+    }
+    else {
+      return new ImageCodec().render(this.graph);
+    }
+  }
+
+  // Renders this scene, from the latest snapshot while the carver owns the graph. Only this
+  // world's thread starts the carver, so the graph cannot be handed off during rendering
+  public WorldScene makeScene() {
+    ComputedPixelImage image;
+    int width;
+    int height;
+    if (this.isCarving()) {
+      synchronized (this) {
+        image = this.snapshot;
+        width = this.snapshotWidth;
+        height = this.snapshotHeight;
+      }
+    }
+    else {
+      image = this.renderGraph();
+      width = this.graph.width;
+      height = this.graph.height;
+    }
+    WorldScene levelScene = new WorldScene(width, height);
+    levelScene.placeImageXY(image, width / 2, height / 2);
+    return levelScene;
+  }
+
+  // Renders the last scene
+  public WorldScene lastScene() {
+    WorldScene levelScene = new WorldScene(1, this.graph.height);
+    return levelScene;
+  }
+
+}
+
+class ExamplesSeamCarving {
+  /*
+   * TODO:
+   * - leastEnergySeam for horizontal
+   * - makeFirstRowAsSeam for horizontal
+   * - removeSeam for horizontal
+   * - deleteThisSeam for horizontal
+   * - renderEnergy
+   * - add more tests to calculatePosition?
+   */
+  PixelGraph graph1;
+
+  PixelSentinel pixelcorner;
+  PixelSentinel pixelR0;
+  PixelSentinel pixelR1;
+  PixelSentinel pixelR2;
+  PixelSentinel pixelD0;
+  PixelSentinel pixelD1;
+  PixelSentinel pixelD2;
+
+  Pixel pixel00;
+  Pixel pixel01;
+  Pixel pixel02;
+  Pixel pixel10;
+  Pixel pixel11;
+  Pixel pixel12;
+  Pixel pixel20;
   Pixel pixel21;
   Pixel pixel22;
 
-  void initData() {
+  void initData() {
+
+    // Sentinels
+    this.pixelcorner = new PixelSentinel();
+    this.pixelR0 = new PixelSentinel(pixelcorner, "horizontal");
+    this.pixelR1 = new PixelSentinel(pixelR0, "horizontal");
+    this.pixelR2 = new PixelSentinel(pixelR1, "horizontal");
+
+    this.pixelD2 = new PixelSentinel(pixelcorner, "vertical");
+    this.pixelD1 = new PixelSentinel(pixelcorner, "vertical");
+    this.pixelD0 = new PixelSentinel(pixelcorner, "vertical");
+
+    // Pixels
+    this.pixel00 = new Pixel(new Color(0, 0, 0).getRGB());
+    this.pixel01 = new Pixel(new Color(255, 255, 255).getRGB());
+    this.pixel02 = new Pixel(new Color(0, 0, 0).getRGB());
+
+    this.pixel10 = new Pixel(new Color(255, 0, 0).getRGB());           
+    this.pixel11 = new Pixel(new Color(0, 255, 0).getRGB());         
+    this.pixel12 = new Pixel(new Color(0, 0, 255).getRGB());
+
+    this.pixel20 = new Pixel(new Color(255, 255, 0).getRGB());     
+    this.pixel21 = new Pixel(new Color(0, 255, 255).getRGB());         
+    this.pixel22 = new Pixel(new Color(255, 0, 255).getRGB());   
+
+    this.pixel00 = new Pixel(pixel01, pixelD0, pixelR0, pixel10, new Color(0, 0, 0).getRGB()); 
+    this.pixel01 = new Pixel(pixel02, pixel00, pixelR1, pixel11, new Color(255, 255, 255).getRGB()); 
+    this.pixel02 = new Pixel(pixelD0, pixel01, pixelR2, pixel12, new Color(0, 0, 0).getRGB());
+
+    this.pixel10 = new Pixel(pixel11, pixelD1, pixel00, pixel20, new Color(255, 0, 0).getRGB());           
+    this.pixel11 = new Pixel(pixel12, pixel10, pixel01, pixel21, new Color(0, 255, 0).getRGB());         
+    this.pixel12 = new Pixel(pixelD1, pixel11, pixel02, pixel22, new Color(0, 0, 255).getRGB());
+
+    this.pixel20 = new Pixel(pixel21, pixelD2, pixel10, pixelR0, new Color(255, 255, 0).getRGB());     
+    this.pixel21 = new Pixel(pixel22, pixel20, pixel11, pixelR1, new Color(0, 255, 255).getRGB());         
+    this.pixel22 = new Pixel(pixelD2, pixel21, pixel12, pixelR2, new Color(255, 0, 255).getRGB());     
+  }
+
+  void testBigBang(Tester t) {
+    PixelGraph image = new ImageCodec().read("images/balloons.jpg");
+    double tickRate = 0.02;
+    CarvingWorld w = new CarvingWorld(image, tickRate * 1000 / 2);
+    int worldWidth = image.width;
+    int worldHeight = image.height;
+    w.bigBang(worldWidth, worldHeight, tickRate);
+  }
+
+  // test removing horizontal seams
+  void testHorizontalIsWellFormed(Tester t) {
+    PixelGraph image = new ImageCodec().read("images/balloons.jpg");
+    t.checkExpect(image.isWellFormed(), true);
+    image.removeSeam(image.leastEnergySeam(false), false);
+    t.checkExpect(image.isWellFormed(), true);
+  }
+
+  // wellFormed()
+  void testWellFormedness(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    PixelGraph graphEmpty = new PixelGraph(new PixelSentinel(), 0, 0);
+    t.checkExpect(graph.isWellFormed(), true);
+
+    graph.corner.right.down.updateLeft(graph.corner.right.down.right);
+    
+    t.checkExpect(graph.isWellFormed(), false);
+    t.checkExpect(graphEmpty.isWellFormed(), true);
+  }
+
+  // updateDirection()
+  void testUpdateDirection(Tester t) {
+    this.initData();
+    Pixel testPixel = new Pixel(Color.BLACK.getRGB());
+
+    // Test updateRight
+    t.checkExpect(pixel10.right, pixel11);
+    pixel10.updateRight(testPixel);
+    t.checkExpect(pixel10.right, testPixel);
+
+    t.checkExpect(pixel22.right, pixelD2);
+    pixel22.updateRight(testPixel);
+    t.checkExpect(pixel22.right, testPixel);
+
+    // Test updateLeft
+    t.checkExpect(pixel11.left, pixel10);
+    pixelR1.updateLeft(testPixel);
+    t.checkExpect(pixelR1.left, testPixel);
+
+    t.checkExpect(pixel00.left, pixelD0);
+    pixel00.updateLeft(testPixel);
+    t.checkExpect(pixel00.left, testPixel);
+
+    // Test updateUp
+    t.checkExpect(pixel02.up, pixelR2);
+    pixel02.updateUp(testPixel);
+    t.checkExpect(pixel02.up, testPixel);
+
+    t.checkExpect(pixel11.up, pixel01);
+    pixel11.updateUp(testPixel);
+    t.checkExpect(pixel11.up, testPixel);
+
+    // Test updateDown
+    t.checkExpect(pixel12.down, pixel22);
+    pixel12.updateDown(testPixel);
+    t.checkExpect(pixel12.down, testPixel);
+
+    t.checkExpect(pixel21.down, pixelR1);
+    pixel21.updateDown(testPixel);
+    t.checkExpect(pixel12.down, testPixel);
+  }
+
+  // updatePositiveDirection() vertical
+  void testUpdatePositiveDirectionVertical(Tester t) {
+    this.initData();
+    Pixel testPixel = new Pixel(Color.BLACK.getRGB());
+
+    t.checkExpect(this.pixel11.down, this.pixel21);
+    this.pixel11.updatePositiveDirection(testPixel, true);
+    t.checkExpect(this.pixel11.down, testPixel);
+
+  }
+
+  // updatePositiveDirection() horizontal
+  void testUpdatePositiveDirectionHorizontal(Tester t) {
+    this.initData();
+    Pixel testPixel = new Pixel(Color.BLACK.getRGB());
+
+    t.checkExpect(this.pixel11.right, this.pixel12);
+    this.pixel11.updatePositiveDirection(testPixel, false);
+    t.checkExpect(this.pixel11.right, testPixel);
+  }
+
+  // updateNegativeDirection() vertical
+  void testUpdateNegativeDirectionVertical(Tester t) {
+    this.initData();
+    Pixel testPixel = new Pixel(Color.BLACK.getRGB());
+
+    t.checkExpect(this.pixel11.up, this.pixel01);
+    this.pixel11.updateNegativeDirection(testPixel, true);
+    t.checkExpect(this.pixel11.up, testPixel);
+  }
+
+  // updateNegativeDirection() horizontal
+  void testUpdateNegativeDirection(Tester t) {
+    this.initData();
+    Pixel testPixel = new Pixel(Color.BLACK.getRGB());
+
+    t.checkExpect(this.pixel11.left, this.pixel10);
+    this.pixel11.updateNegativeDirection(testPixel, false);
+    t.checkExpect(this.pixel11.left, testPixel);
+  }
+
+  // moveInPositiveDirection()
+  void testMoveInPositiveDirection(Tester t) {
+    this.initData();
+
+    // test moveInPositiveDirection when moving in the positive vertical direction (down)
+    t.checkExpect(this.pixel00.moveInPositiveDirection(true), this.pixel10);
+    t.checkExpect(this.pixel10.moveInPositiveDirection(true), this.pixel20);
+    t.checkExpect(this.pixel20.moveInPositiveDirection(true), this.pixelR0); 
+
+    // test moveInPositiveDirection when moving in the positive horizontal (right)
+    t.checkExpect(this.pixel00.moveInPositiveDirection(false), this.pixel01);
+    t.checkExpect(this.pixel01.moveInPositiveDirection(false), this.pixel02);
+    t.checkExpect(this.pixel02.moveInPositiveDirection(false), this.pixelD0); 
+  }
+
+  // moveInNegativeDirection()
+  void testMoveInNegativeDirection(Tester t) {
+    this.initData();
+
+    // test moveInPositiveDirection when moving in the negative vertical direction (up)
+    t.checkExpect(this.pixel20.moveInNegativeDirection(true), this.pixel10);
+    t.checkExpect(this.pixel10.moveInNegativeDirection(true), this.pixel00);
+    t.checkExpect(this.pixel00.moveInNegativeDirection(true), this.pixelR0); // hits sentinel at top
+
+    // test moveInPositiveDirection when moving in the negative horizontal (left)
+    t.checkExpect(this.pixel02.moveInNegativeDirection(false), this.pixel01);
+    t.checkExpect(this.pixel01.moveInNegativeDirection(false), this.pixel00);
+    t.checkExpect(this.pixel00.moveInNegativeDirection(false), this.pixelD0);
+  }
+
+  // removeThisPixelVertical() vertical
+  void testRemoveThisPixelAlignedVertical(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+
+    APixel middle = graph.corner.down.right.right;
+    APixel left = middle.left;
+    APixel right = middle.right;
+
+    t.checkExpect(left.right, middle);
+    t.checkExpect(right.left, middle);
+
+    ((Pixel) middle).removeThisPixelAligned(true);
+
+    t.checkExpect(left.right, right);
+    t.checkExpect(right.left, left);
+  }
+
+  // removeThisPixelVertical() horizontal
+  void testRemoveThisPixelAlignedHorizontal(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+
+    APixel middle = graph.corner.down.right.right; 
+    APixel up = middle.up;
+    APixel down = middle.down;
+
+    t.checkExpect(up.down, middle);
+    t.checkExpect(down.up, middle);
+
+    ((Pixel) middle).removeThisPixelAligned(false);
+
+    t.checkExpect(up.down, down);
+    t.checkExpect(down.up, up);
+  }
+
+  // removeThisPixelDiagonalNegative() vertical
+  void testRemoveThisPixelDiagonalNegativeVertical(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+
+    APixel middle = graph.corner.down.right.right;
+    APixel up = middle.up;
+    APixel left = middle.left;
+
+    t.checkExpect(left.right, middle);
+    t.checkExpect(up.down, middle);
+    t.checkExpect(left.up, graph.corner.right);
+
+    ((Pixel) middle).removeThisPixelDiagonalNegative(true);
+
+    t.checkExpect(left.right, middle.right);
+    t.checkExpect(up.down, left);
+    t.checkExpect(left.up, up);
+  }
+
+  //removeThisPixelDiagonalNegative() horizontal
+  void testRemoveThisPixelDiagonalNegativeHorizontal(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    APixel middle = graph.corner.down.right.right; 
+    APixel up = middle.up;
+    APixel left = middle.left;
+
+    t.checkExpect(up.down, middle);
+    t.checkExpect(middle.down.up, middle);
+    t.checkExpect(left.right, middle);
+    t.checkExpect(up.left, graph.corner.right);
+
+    ((Pixel) middle).removeThisPixelDiagonalNegative(false);
+
+    t.checkExpect(up.down, middle.down);
+    t.checkExpect(middle.down.up, up);
+    t.checkExpect(left.right, up);
+    t.checkExpect(up.left, left);
+  }
+
+
+  // removeThisPixelDiagonalPositive() vertical
+  void testRemoveThisPixelDiagonalPositiveVertical(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+
+    Pixel pixelToRemove = (Pixel) graph.corner.down.right;          
+    Pixel pixelToRemoveRight = (Pixel) graph.corner.down.right.right;          
+    Pixel pixelToRemovePositiveDiagonal = (Pixel) pixelToRemove.down.right;  
+
+    t.checkExpect(pixelToRemoveRight.left, pixelToRemove);
+    t.checkExpect(pixelToRemovePositiveDiagonal.left, pixelToRemove.down);
+
+    ((Pixel) pixelToRemove).removeThisPixelDiagonalPositive(true);
+
+    t.checkExpect(graph.corner.down.right, pixelToRemoveRight);
+    t.checkExpect(pixelToRemoveRight.down, pixelToRemovePositiveDiagonal);
+  }
+
+  // removeThisPixelDiagonalPositive() horizontal
+  void testRemoveThisPixelDiagonalPositiveHorizontal(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+
+    APixel middle = graph.corner.down.right.right;
+    APixel up = middle.up;
+    APixel down = middle.down;
+    APixel right = middle.right;
+    APixel left = middle.left;
+
+    t.checkExpect(graph.corner.down.right.right, middle);
+    t.checkExpect(left.right, middle);
+    t.checkExpect(up.down, middle);
+
+    ((Pixel) middle).removeThisPixelDiagonalPositive(false);
+
+    t.checkExpect(graph.corner.down.right.right, down);
+    t.checkExpect(left.right, down);
+    t.checkExpect(up.down, down);
+  }
+
+  // calculateBrightness()
+  void testCalculateBrightness(Tester t) {
+    this.initData();
+    t.checkInexact(this.pixelR0.calculateBrightness(), 0.0, .1);
+    t.checkInexact(this.pixelD2.calculateBrightness(), 0.0, .1);
+    t.checkInexact(this.pixel00.calculateBrightness(), 0.0, .1);
+    t.checkInexact(this.pixel01.calculateBrightness(), 1.0, .1);
+    t.checkInexact(this.pixel11.calculateBrightness(), .33, .1);
+    t.checkInexact(this.pixel12.calculateBrightness(), .33, .1);
+    t.checkInexact(this.pixel20.calculateBrightness(), .66, .1);
+    t.checkInexact(this.pixel21.calculateBrightness(), .66, .1);
+  }
+
+  // calculateHorizontalEnergy()
+  void testCalculateHorizontalEnergy(Tester t) {
+    this.initData();
+    t.checkExpect(pixel00.calculateHorizontalEnergy(),
+        (this.pixelcorner.calculateBrightness() + (2 * this.pixelD0.calculateBrightness())
+            + this.pixelD1.calculateBrightness())
+        - (this.pixelR1.calculateBrightness() + (2 * this.pixel01.calculateBrightness())
+            + this.pixel11.calculateBrightness()));
+    t.checkExpect(pixel11.calculateHorizontalEnergy(),
+        (this.pixel00.calculateBrightness() + (2 * this.pixel10.calculateBrightness())
+            + this.pixel20.calculateBrightness())
+        - (this.pixel02.calculateBrightness() + (2 * this.pixel12.calculateBrightness())
+            + this.pixel22.calculateBrightness()));
+    t.checkExpect(pixel21.calculateHorizontalEnergy(),
+        (this.pixel10.calculateBrightness() + (2 * this.pixel20.calculateBrightness())
+            + this.pixelR0.calculateBrightness())
+        - (this.pixel12.calculateBrightness() + (2 * this.pixel22.calculateBrightness())
+            + this.pixelR2.calculateBrightness()));
+  }
+
+  // calculateVerticalEnergy()
+  void testCalculateVerticalEnergy(Tester t) {
+    this.initData();
+    t.checkExpect(pixel00.calculateVerticalEnergy(),
+        (this.pixelcorner.calculateBrightness() + (2 * this.pixelR0.calculateBrightness())
+            + this.pixelR1.calculateBrightness())
+        - (this.pixelD1.calculateBrightness() + (2 * this.pixel10.calculateBrightness())
+            + this.pixel11.calculateBrightness()));
+    t.checkExpect(pixel11.calculateVerticalEnergy(),
+        (this.pixel00.calculateBrightness() + (2 * this.pixel01.calculateBrightness())
+            + this.pixel02.calculateBrightness())
+        - (this.pixel20.calculateBrightness() + (2 * this.pixel21.calculateBrightness())
+            + this.pixel22.calculateBrightness()));
+    t.checkExpect(pixel20.calculateVerticalEnergy(),
+        (this.pixelD1.calculateBrightness() + (2 * this.pixel10.calculateBrightness())
+            + this.pixel11.calculateBrightness())
+        - (this.pixelcorner.calculateBrightness() + (2 * this.pixelR0.calculateBrightness())
+            + this.pixelR1.calculateBrightness()));
+  }
+
+  // calculateEnergy()
+  void testCalculateEnergy(Tester t) {
+    this.initData();
+    t.checkExpect(this.pixel00.calculateEnergy(),
+        Math.sqrt(Math.pow(this.pixel00.calculateHorizontalEnergy(), 2.0)
+            + Math.pow(this.pixel00.calculateVerticalEnergy(), 2.0)));
+    t.checkExpect(this.pixel11.calculateEnergy(),
+        Math.sqrt(Math.pow(this.pixel11.calculateHorizontalEnergy(), 2.0)
+            + Math.pow(this.pixel11.calculateVerticalEnergy(), 2.0)));
+    t.checkExpect(this.pixel20.calculateEnergy(),
+        Math.sqrt(Math.pow(this.pixel20.calculateHorizontalEnergy(), 2.0)
+            + Math.pow(this.pixel20.calculateVerticalEnergy(), 2.0)));
+  }
+
+  // expandHorizontally() test #1
+  void testExpandHorizontally1(Tester t) {
+    PixelSentinel corner = new PixelSentinel();
+    t.checkExpect(corner.left, corner);
+    t.checkExpect(corner.right, corner);
+
+    corner.expandHorizontally(2);
+    t.checkExpect(corner.left.left.left, corner);
+    t.checkExpect(corner.right.right.right, corner);
+  }
+
+  //expandHorizontally() test #2
+  void testExpandHorizontally2(Tester t) {
+    PixelSentinel corner = new PixelSentinel();
+    t.checkExpect(corner.left, corner);
+    t.checkExpect(corner.right, corner);
+
+    corner.expandHorizontally(3);
+    t.checkExpect(corner.left.left.left.left, corner);
+    t.checkExpect(corner.right.right.right.right, corner);
+  }
+
+  //render
+  void testRender(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    ComputedPixelImage image = new ImageCodec().render(graph);
+
+    t.checkExpect(image.getPixel(0, 2).getRGB(), this.pixel00.color);
+    t.checkExpect(image.getPixel(1, 2).getRGB(), this.pixel01.color);
+    t.checkExpect(image.getPixel(2, 2).getRGB(), this.pixel02.color);
+
+    t.checkExpect(image.getPixel(0, 1).getRGB(), this.pixel10.color);
+    t.checkExpect(image.getPixel(1, 1).getRGB(), this.pixel11.color);
+    t.checkExpect(image.getPixel(2, 1).getRGB(), this.pixel12.color);
+
+    t.checkExpect(image.getPixel(0, 0).getRGB(), this.pixel20.color);
+    t.checkExpect(image.getPixel(1, 0).getRGB(), this.pixel21.color);
+    t.checkExpect(image.getPixel(2, 0).getRGB(), this.pixel22.color);
+  }
+  
+  //render
+  void testRenderEnergy(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    ComputedPixelImage image = new ImageCodec().renderEnergy(graph);
+
+    t.checkExpect(image.getPixel(0, 2), new Color(107, 107, 107));
+    t.checkExpect(image.getPixel(1, 2), new Color(56, 56, 56));
+    t.checkExpect(image.getPixel(2, 2), new Color(107, 107, 107));
+
+    t.checkExpect(image.getPixel(0, 1), new Color(107, 107, 107));
+    t.checkExpect(image.getPixel(1, 1), new Color(28, 28, 28));
+    t.checkExpect(image.getPixel(2, 1), new Color(107, 107, 107));
+
+    t.checkExpect(image.getPixel(0, 0), new Color(82, 82, 82));
+    t.checkExpect(image.getPixel(1, 0), new Color(56, 56, 56));
+    t.checkExpect(image.getPixel(2, 0), new Color(82, 82, 82));
+  }
+
+
+  // LeastEnergySeam() vertical
+  void testLeastEnergySeamVertical(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    SeamInfo firstRemovedSeam = graph.leastEnergySeam(true);
+
+    t.checkExpect(firstRemovedSeam.x, 1);
+    t.checkExpect(firstRemovedSeam.y, 2);
+    t.checkExpect(firstRemovedSeam.cameFrom.x, 1);
+    t.checkExpect(firstRemovedSeam.cameFrom.y, 1);
+    t.checkExpect(firstRemovedSeam.cameFrom.cameFrom.x, 1);
+    t.checkExpect(firstRemovedSeam.cameFrom.cameFrom.y, 0);
+  }
+  
+  // LeastEnergySeam() horizontal
+  void testLeastEnergySeamHorizontal(Tester t) {
+    this.initData();
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    SeamInfo firstRemovedSeam = graph.leastEnergySeam(false);
+
+    t.checkExpect(firstRemovedSeam.x, 2);
+    t.checkExpect(firstRemovedSeam.y, 2);
+    t.checkExpect(firstRemovedSeam.cameFrom.x, 1);
+    t.checkExpect(firstRemovedSeam.cameFrom.y, 1);
+    t.checkExpect(firstRemovedSeam.cameFrom.cameFrom.x, 0);
+    t.checkExpect(firstRemovedSeam.cameFrom.cameFrom.y, 2);
+  }
+
+
+  // makeFirstRowAsSeamInfo()
+  void testMakeFirstRowAsSeamInfo(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    ArrayList<SeamInfo> firstRowSeams = graph.makeFirstRowAsSeamInfo(true);
+
+    APixel row = graph.corner.down;
+    APixel pixelFromGraph = row.right; 
+
+    t.checkExpect(firstRowSeams.size(), 3);
+    t.checkExpect(firstRowSeams.get(0).cameFrom, null);
+    t.checkExpect(firstRowSeams.get(1).cameFrom, null);
+    t.checkExpect(firstRowSeams.get(2).cameFrom, null);
+
+    t.checkInexact(firstRowSeams.get(0).curr.calculateEnergy(), 
+        ((Pixel) pixelFromGraph).calculateEnergy(), 0.0001);
+    t.checkInexact(firstRowSeams.get(1).curr.calculateEnergy(), 
+        ((Pixel) pixelFromGraph.right).calculateEnergy(), 0.0001);
+    t.checkInexact(firstRowSeams.get(2).curr.calculateEnergy(), 
+        ((Pixel) pixelFromGraph.right.right).calculateEnergy(), 0.0001);
+
+    t.checkExpect(firstRowSeams.get(0).x, 0);
+    t.checkExpect(firstRowSeams.get(0).y, 0);
+    t.checkExpect(firstRowSeams.get(1).x, 1);
+    t.checkExpect(firstRowSeams.get(1).y, 0);
+    t.checkExpect(firstRowSeams.get(2).x, 2);
+    t.checkExpect(firstRowSeams.get(2).y, 0);
+  }
+  
+  // makeFirstRowAsSeamInfo()
+  void testMakeFirstRowAsSeamInfoHorizontal(Tester t) {
+    this.initData();
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    ArrayList<SeamInfo> firstRowSeams = graph.makeFirstRowAsSeamInfo(false);
+
+    APixel column = graph.corner.right;
+    APixel pixelFromGraph = column.down; 
+
+    t.checkExpect(firstRowSeams.size(), 3);
+    t.checkExpect(firstRowSeams.get(0).cameFrom, null);
+    t.checkExpect(firstRowSeams.get(1).cameFrom, null);
+    t.checkExpect(firstRowSeams.get(2).cameFrom, null);
+
+    t.checkInexact(firstRowSeams.get(0).curr.calculateEnergy(), 
+        ((Pixel) pixelFromGraph).calculateEnergy(), 0.0001);
+    t.checkInexact(firstRowSeams.get(1).curr.calculateEnergy(), 
+        ((Pixel) pixelFromGraph.down).calculateEnergy(), 0.0001);
+    t.checkInexact(firstRowSeams.get(2).curr.calculateEnergy(), 
+        ((Pixel) pixelFromGraph.down.down).calculateEnergy(), 0.0001);
+
+    t.checkExpect(firstRowSeams.get(0).x, 0);
+    t.checkExpect(firstRowSeams.get(0).y, 0);
+    t.checkExpect(firstRowSeams.get(1).x, 0);
+    t.checkExpect(firstRowSeams.get(1).y, 1);
+    t.checkExpect(firstRowSeams.get(2).x, 0);
+    t.checkExpect(firstRowSeams.get(2).y, 2);
+  }
+
+  // removeSeam()
+  void testRemoveLeastEnergySeam(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    SeamInfo firstRemovedSeam = graph.leastEnergySeam(true);
+    graph.removeSeam(firstRemovedSeam, true);
+
+    t.checkExpect(this.pixel00.right, this.pixel02);
+    t.checkExpect(this.pixel10.right, this.pixel12);
+    t.checkExpect(this.pixel20.right, this.pixel22);
+    t.checkExpect(this.pixel02.left, this.pixel00);
+    t.checkExpect(this.pixel12.left, this.pixel10);
+    t.checkExpect(this.pixel22.left, this.pixel20);
+  }
+
+  void testRemoveLeastEnergySeamHorizontal(Tester t) {
+    this.initData();
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    PixelGraph removedGraph = new ImageCodec().read("images/32ex1.png");
+    SeamInfo firstRemovedSeam = graph.leastEnergySeam(false);
+    graph.removeSeam(firstRemovedSeam, false);
+    
+    t.checkExpect(graph, removedGraph);
+  }
+  
+  // makeSeamRed()
+  void testMakeSeamRed(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    ComputedPixelImage image = new ImageCodec().render(graph);
+
+    t.checkExpect(image.getPixel(1, 2).getRGB(), this.pixel01.color);
+    t.checkExpect(image.getPixel(1, 1).getRGB(), this.pixel11.color);
+    t.checkExpect(image.getPixel(1, 0).getRGB(), this.pixel21.color);
+
+    SeamInfo seamToMakeRed = graph.leastEnergySeam(true);
+    graph.makeSeamRed(seamToMakeRed);
+
+    image = new ImageCodec().render(graph);
+    t.checkExpect(image.getPixel(1, 2), Color.RED);
+    t.checkExpect(image.getPixel(1, 1), Color.RED);
+    t.checkExpect(image.getPixel(1, 0), Color.RED);
+  }
+
+  // lowerEnergy()
+  void testLowerEnergy(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    ComputedPixelImage image = new ImageCodec().render(graph);
+
+    SeamInfo firstRemovedSeam = graph.leastEnergySeam(true);
+    graph.removeSeam(firstRemovedSeam, true);
+    SeamInfo secondRemovedSeam = graph.leastEnergySeam(true);
+    graph.removeSeam(secondRemovedSeam, true);
+
+    // vertical seams
+    SeamInfo testSeam1Start = new SeamInfo(this.pixel00, null, 0, 2);
+    SeamInfo testSeam1Mid = new SeamInfo(this.pixel10, testSeam1Start, 0, 1);
+    SeamInfo testSeam1 = new SeamInfo(this.pixel20, testSeam1Mid, 0, 0);
+
+    SeamInfo testSeam2Start = new SeamInfo(this.pixel02, null, 2, 2);
+    SeamInfo testSeam2Mid = new SeamInfo(this.pixel12, testSeam2Start, 2, 1);
+    SeamInfo testSeam2 = new SeamInfo(this.pixel22, testSeam1Mid, 2, 0);
+
+    // diagonal seams
+    SeamInfo testSeam3Start = new SeamInfo(this.pixel01, null, 1, 2);
+    SeamInfo testSeam3Mid = new SeamInfo(this.pixel11, testSeam3Start, 1, 1);
+    SeamInfo testSeam3 = new SeamInfo(this.pixel22, testSeam3Mid, 2, 0);
+
+    SeamInfo testSeam4Start = new SeamInfo(this.pixel01, null, 1, 2);
+    SeamInfo testSeam4Mid = new SeamInfo(this.pixel11, testSeam3Start, 1, 1);
+    SeamInfo testSeam4 = new SeamInfo(this.pixel20, testSeam3Mid, 0, 0);
+
+    t.checkExpect(firstRemovedSeam.lowerEnergy(secondRemovedSeam), firstRemovedSeam); 
+    t.checkExpect(testSeam1.lowerEnergy(testSeam2), testSeam2);
+    t.checkExpect(testSeam3.lowerEnergy(testSeam4), testSeam3);
+  }
+
+  // deleteThisSeam()
+  void testDeleteThisSeam(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+
+    SeamInfo seamToRemove = graph.leastEnergySeam(true);
+
+    Pixel bottomOfSeam = seamToRemove.curr;
+    Pixel middleOfSeam = seamToRemove.cameFrom.curr;
+    Pixel topOfSeam = seamToRemove.cameFrom.cameFrom.curr;
+
+    APixel topOfSeamLeftNeighbor = topOfSeam.left;
+    APixel topOfSeamRightNeighbor = topOfSeam.right;
+
+    APixel midOfSeamLeftNeighbor = middleOfSeam.left;
+    APixel midOfSeamRightNeighbor = middleOfSeam.right;
+
+    APixel bottomOfSeamLeftNeighbor = bottomOfSeam.left;
+    APixel bottomOfSeamRightNeighbor = bottomOfSeam.right;
+
+    seamToRemove.deleteThisSeam(true);
+
+    t.checkExpect(bottomOfSeam.right, bottomOfSeamRightNeighbor);
+    t.checkExpect(bottomOfSeam.left, bottomOfSeamLeftNeighbor);
+
+    t.checkExpect(middleOfSeam.right, midOfSeamRightNeighbor);
+    t.checkExpect(middleOfSeam.left, midOfSeamLeftNeighbor);
+
+    t.checkExpect(topOfSeam.right, topOfSeamRightNeighbor);
+    t.checkExpect(topOfSeam.left, topOfSeamLeftNeighbor);
+  }
+  
+  void testDeleteThisSeamHorizontal(Tester t) {
+    this.initData();
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    SeamInfo seamToRemove = graph.leastEnergySeam(false);
+    
+    Pixel leftOfSeam = seamToRemove.curr;
+    Pixel middleOfSeam = seamToRemove.cameFrom.curr;
+    Pixel rightOfSeam = seamToRemove.cameFrom.cameFrom.curr;
+
+    APixel leftOfSeamDownNeighbor = leftOfSeam.down;
+    APixel leftOfSeamUpNeighbor = leftOfSeam.up;
+
+    APixel midOfSeamDownNeighbor = middleOfSeam.down;
+    APixel midOfSeamUpNeighbor = middleOfSeam.up;
+
+    APixel rightOfSeamDownNeighbor = rightOfSeam.down;
+    APixel rightOfSeamUpNeighbor = rightOfSeam.up;
+    
+    seamToRemove.deleteThisSeam(true);
+
+    t.checkExpect(leftOfSeam.down, leftOfSeamDownNeighbor);
+    t.checkExpect(leftOfSeam.up, leftOfSeamUpNeighbor);
+
+    t.checkExpect(middleOfSeam.down, midOfSeamDownNeighbor);
+    t.checkExpect(middleOfSeam.up, midOfSeamUpNeighbor);
+
+    t.checkExpect(rightOfSeam.down, rightOfSeamDownNeighbor);
+    t.checkExpect(rightOfSeam.up, rightOfSeamUpNeighbor);
+  }
+
+  // showSeam()
+  void testShowSeam(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    ComputedPixelImage image = new ImageCodec().render(graph);
+
+    t.checkExpect(image.getPixel(1, 2).getRGB(), this.pixel01.color);
+    t.checkExpect(image.getPixel(1, 1).getRGB(), this.pixel11.color);
+    t.checkExpect(image.getPixel(1, 0).getRGB(), this.pixel21.color);
+
+    graph.leastEnergySeam(true).showSeam();
+    image = new ImageCodec().render(graph);
+
+    t.checkExpect(image.getPixel(1, 2), Color.RED);
+    t.checkExpect(image.getPixel(1, 1), Color.RED);
+    t.checkExpect(image.getPixel(1, 0), Color.RED);
+  }
+
+  // calculatePosition() vertical
+  void testCalcualtePositionVertical(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    SeamInfo leastEnergySeam = graph.leastEnergySeam(true);
+
+    t.checkExpect(leastEnergySeam.calculatePosition(true), 0);
+    t.checkExpect(leastEnergySeam.cameFrom.calculatePosition(true), 0);
+  }
+
+  //calculatePosition() horizontal
+  void testCalcualtePositionHorizontal(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    SeamInfo leastEnergySeam = graph.leastEnergySeam(false);
+
+    t.checkExpect(leastEnergySeam.calculatePosition(false), 0);
+    t.checkExpect(leastEnergySeam.cameFrom.calculatePosition(false), 0);
+  }
+
+  // onTick()
+  void testOnTick(Tester t) {
+    this.initData();
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    ComputedPixelImage image = new ImageCodec().render(graph);
+    CarvingWorld world = new CarvingWorld(graph);
+    int worldWidth = graph.width;
+    int worldHeight = graph.height;
+
+    t.checkExpect(world.tickCounter, 0);
+    t.checkExpect(world.graph.width, worldWidth);
+
+    world.onTick();
+
+    t.checkExpect(world.tickCounter, 1);
+    t.checkExpect(world.graph.width, worldWidth);
+
+    world.onTick();
+
+    t.checkExpect(world.tickCounter, 2);
+    t.checkExpect((world.graph.width == worldWidth - 1) || (world.graph.height == worldHeight - 1),
+        true);
+  }
+
+  // maskValue()
+  void testMaskValue(Tester t) {
+    Utils u = new Utils();
+    t.checkExpect(u.maskValue(Color.GREEN.getRGB()), PixelGraph.MASK_KEEP);
+    t.checkExpect(u.maskValue(new Color(30, 200, 40).getRGB()), PixelGraph.MASK_KEEP);
+    t.checkExpect(u.maskValue(Color.RED.getRGB()), PixelGraph.MASK_REMOVE);
+    t.checkExpect(u.maskValue(Color.GRAY.getRGB()), (byte) 0);
+    t.checkExpect(u.maskValue(Color.YELLOW.getRGB()), (byte) 0);
+  }
+
+  // setMask()
+  void testSetMask(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    byte[] mask = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8};
+    graph.setMask(mask);
+    mask[0] = 9;
+
+    t.checkExpect(graph.mask[0], (byte) 0);
+    t.checkExpect(graph.maskStride, 3);
+    t.checkException(new IllegalArgumentException("mask does not match image size"),
+        graph, "setMask", new byte[2]);
+  }
+
+  // cellEnergy()
+  void testCellEnergy(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    t.checkInexact(graph.cellEnergy(this.pixel11, 1, 1), this.pixel11.calculateEnergy(), 0.0001);
+
+    graph.setMask(new byte[] {0, 0, 0, 0, 2, 0, 0, 0, 0});
+    t.checkInexact(graph.cellEnergy(this.pixel11, 1, 1),
+        this.pixel11.calculateEnergy() + 2 * PixelGraph.MASK_UNIT * 3, 0.0001);
+    t.checkInexact(graph.cellEnergy(this.pixel10, 0, 1), this.pixel10.calculateEnergy(), 0.0001);
+
+    PixelGraph wide = new PixelGraph(new int[8], 4, 2);
+    Pixel corner = (Pixel) wide.corner.down.right;
+    wide.setMask(new byte[] {PixelGraph.MASK_REMOVE, 0, 0, 0, 0, 0, 0, 0});
+    t.checkInexact(wide.cellEnergy(corner, 0, 0),
+        corner.calculateEnergy() + PixelGraph.MASK_REMOVE * PixelGraph.MASK_UNIT * 2, 0.0001);
+    wide.useMaskLayout(false);
+    t.checkInexact(wide.cellEnergy(corner, 0, 0),
+        corner.calculateEnergy() + PixelGraph.MASK_REMOVE * PixelGraph.MASK_UNIT * 4, 0.0001);
+  }
+
+  // leastEnergySeam() with a mask
+  void testLeastEnergySeamMasked(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    byte k = PixelGraph.MASK_KEEP;
+    graph.setMask(new byte[] {0, k, 0, 0, k, 0, 0, k, 0});
+    SeamInfo seam = graph.leastEnergySeam(true);
+
+    t.checkExpect(seam.x == 1, false);
+    t.checkExpect(seam.cameFrom.x == 1, false);
+    t.checkExpect(seam.cameFrom.cameFrom.x == 1, false);
+
+    byte r = PixelGraph.MASK_REMOVE;
+    graph.setMask(new byte[] {0, 0, r, 0, 0, r, 0, 0, r});
+    seam = graph.leastEnergySeam(true);
+
+    t.checkExpect(seam.x, 2);
+    t.checkExpect(seam.cameFrom.x, 2);
+    t.checkExpect(seam.cameFrom.cameFrom.x, 2);
+  }
+
+  // removeSeamFromMask() vertical
+  void testRemoveSeamFromMaskVertical(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    graph.setMask(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8});
+    SeamInfo seam = new SeamInfo(this.pixel21, new SeamInfo(this.pixel12,
+        new SeamInfo(this.pixel01, null, 1, 0), 2, 1), 1, 2);
+    graph.removeSeamFromMask(seam, true);
+
+    t.checkExpect(graph.mask[0], (byte) 0);
+    t.checkExpect(graph.mask[1], (byte) 2);
+    t.checkExpect(graph.mask[3], (byte) 3);
+    t.checkExpect(graph.mask[4], (byte) 4);
+    t.checkExpect(graph.mask[6], (byte) 6);
+    t.checkExpect(graph.mask[7], (byte) 8);
+  }
+
+  // removeSeamFromMask() horizontal
+  void testRemoveSeamFromMaskHorizontal(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    graph.setMask(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8});
+    SeamInfo seam = new SeamInfo(this.pixel22, new SeamInfo(this.pixel01,
+        new SeamInfo(this.pixel10, null, 0, 1), 1, 0), 2, 2);
+    graph.removeSeamFromMask(seam, false);
+
+    t.checkExpect(graph.maskTransposed, true);
+    t.checkExpect(graph.mask[graph.maskIndex(0, 0)], (byte) 0);
+    t.checkExpect(graph.mask[graph.maskIndex(0, 1)], (byte) 6);
+    t.checkExpect(graph.mask[graph.maskIndex(1, 0)], (byte) 4);
+    t.checkExpect(graph.mask[graph.maskIndex(1, 1)], (byte) 7);
+    t.checkExpect(graph.mask[graph.maskIndex(2, 0)], (byte) 2);
+    t.checkExpect(graph.mask[graph.maskIndex(2, 1)], (byte) 5);
+  }
+
+  // removeSeam() with a mask
+  void testRemoveSeamMasked(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    byte[] mask = new byte[graph.width * graph.height];
+    for (int y = 0; y < graph.height; y += 1) {
+      mask[y * graph.width + 5] = PixelGraph.MASK_REMOVE;
+    }
+    graph.setMask(mask);
+    SeamInfo seam = graph.leastEnergySeam(true);
+    t.checkExpect(seam.x, 5);
+
+    graph.removeSeam(seam, true);
+    boolean maskGone = true;
+    for (int y = 0; y < graph.height; y += 1) {
+      for (int x = 0; x < graph.width; x += 1) {
+        maskGone = maskGone && graph.mask[graph.maskIndex(x, y)] == 0;
+      }
+    }
+    t.checkExpect(maskGone, true);
+    t.checkExpect(graph.isWellFormed(), true);
+  }
+
+
+  // moveBy()
+  void testMoveBy(Tester t) {
+    this.initData();
+    t.checkExpect(this.pixel00.moveBy(2, false), this.pixel02);
+    t.checkExpect(this.pixel02.moveBy(-1, false), this.pixel01);
+    t.checkExpect(this.pixel00.moveBy(1, true), this.pixel10);
+    t.checkExpect(this.pixel11.moveBy(0, true), this.pixel11);
+  }
+
+  // insertAfter()
+  void testInsertAfter(Tester t) {
+    this.initData();
+    Pixel testPixel = new Pixel(Color.BLACK.getRGB());
+    this.pixel10.insertAfter(testPixel, true);
+
+    t.checkExpect(this.pixel10.right, testPixel);
+    t.checkExpect(testPixel.left, this.pixel10);
+    t.checkExpect(testPixel.right, this.pixel11);
+    t.checkExpect(this.pixel11.left, testPixel);
+  }
+
+  // averageWith()
+  void testAverageWith(Tester t) {
+    this.initData();
+    t.checkExpect(this.pixel01.averageWith(new Color(0, 0, 0).getRGB()),
+        new Color(127, 127, 127).getRGB());
+    t.checkExpect(this.pixel10.averageWith(new Color(0, 0, 255).getRGB()),
+        new Color(127, 0, 127).getRGB());
+    t.checkExpect(this.pixelR0.averageWith(Color.BLUE.getRGB()), Color.BLUE.getRGB());
+  }
+
+  // lowestReachable()
+  void testLowestReachable(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    ArrayList<SeamInfo> firstRow = graph.makeFirstRowAsSeamInfo(true);
+    Utils u = new Utils();
+
+    t.checkExpect(u.lowestReachable(firstRow, 0, 0), firstRow.get(1));
+    t.checkExpect(u.lowestReachable(firstRow, 0, 3), firstRow.get(2));
+    t.checkExpect(u.lowestReachable(firstRow, 1, 0), firstRow.get(0));
+    t.checkException(new IllegalArgumentException("window is unreachable"),
+        u, "lowestReachable", firstRow, 0, 5);
+  }
+
+  // positions()
+  void testPositions(Tester t) {
+    this.initData();
+    SeamInfo seam = new SeamInfo(this.pixel22, new SeamInfo(this.pixel11,
+        new SeamInfo(this.pixel10, null, 0, 1), 1, 0), 2, 1);
+    t.checkExpect(seam.positions(false), new int[] {1, 0, 1});
+    t.checkExpect(seam.cameFrom.positions(false), new int[] {1, 0});
+
+    SeamInfo verticalSeam = new SeamInfo(this.pixel21, new SeamInfo(this.pixel12,
+        new SeamInfo(this.pixel01, null, 1, 0), 2, 1), 1, 2);
+    t.checkExpect(verticalSeam.positions(true), new int[] {1, 2, 1});
+  }
+
+  // leastEnergySeamInWindow()
+  void testLeastEnergySeamInWindow(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    int[] lower = new int[graph.height];
+    int[] upper = new int[graph.height];
+    for (int y = 0; y < graph.height; y += 1) {
+      upper[y] = graph.width - 1;
+    }
+    t.checkExpect(graph.leastEnergySeamInWindow(true, lower, upper).positions(true),
+        graph.leastEnergySeam(true).positions(true));
+
+    for (int y = 0; y < graph.height; y += 1) {
+      lower[y] = 10 + y / 4;
+      upper[y] = 12 + y / 4;
+    }
+    int[] windowed = graph.leastEnergySeamInWindow(true, lower, upper).positions(true);
+    boolean inWindow = true;
+    for (int y = 0; y < graph.height; y += 1) {
+      inWindow = inWindow && windowed[y] >= lower[y] && windowed[y] <= upper[y];
+    }
+    t.checkExpect(inWindow, true);
+  }
 
-    // Sentinels
-    this.pixelcorner = new PixelSentinel();
-    this.pixelR0 = new PixelSentinel(pixelcorner, "horizontal");
-    this.pixelR1 = new PixelSentinel(pixelR0, "horizontal");
-    this.pixelR2 = new PixelSentinel(pixelR1, "horizontal");
+  // leastEnergySeamThrough()
+  void testLeastEnergySeamThrough(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    int[] vertical = graph.leastEnergySeamThrough(new int[] {20, 10, 21, 12}, true)
+        .positions(true);
+    t.checkNumRange(vertical[11], 20, 22);
+    t.checkNumRange(vertical[0], 10, 32);
+
+    int[] horizontal = graph.leastEnergySeamThrough(new int[] {3, 4, 3, 4}, false)
+        .positions(false);
+    t.checkExpect(horizontal[3], 4);
+    t.checkNumRange(horizontal[5], 2, 7);
+  }
 
-    this.pixelD2 = new PixelSentinel(pixelcorner, "vertical");
-    this.pixelD1 = new PixelSentinel(pixelcorner, "vertical");
-    this.pixelD0 = new PixelSentinel(pixelcorner, "vertical");
+  // markedBounds()
+  void testMarkedBounds(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    t.checkExpect(graph.markedBounds(0, 0, 2, 2), null);
 
-    // Pixels
-    this.pixel00 = new Pixel(new Color(0, 0, 0));
-    this.pixel01 = new Pixel(new Color(255, 255, 255));
-    this.pixel02 = new Pixel(new Color(0, 0, 0));
+    byte r = PixelGraph.MASK_REMOVE;
+    graph.setMask(new byte[] {0, 0, 0, 0, r, r, 0, r, 0});
+    t.checkExpect(graph.markedBounds(0, 0, 2, 2), new int[] {1, 1, 2, 2});
+    t.checkExpect(graph.markedBounds(0, 2, 2, 2), new int[] {1, 2, 1, 2});
+    t.checkExpect(graph.markedBounds(0, 0, 0, 2), null);
+  }
 
-    this.pixel10 = new Pixel(new Color(255, 0, 0));           
-    this.pixel11 = new Pixel(new Color(0, 255, 0));         
-    this.pixel12 = new Pixel(new Color(0, 0, 255));
+  // insertSeam() vertical
+  void testInsertSeamVertical(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    ComputedPixelImage before = new ImageCodec().render(graph);
+    SeamInfo seam = graph.leastEnergySeam(true);
+    int[] positions = seam.positions(true);
+    graph.insertSeam(seam, true);
+    ComputedPixelImage after = new ImageCodec().render(graph);
 
-    this.pixel20 = new Pixel(new Color(255, 255, 0));     
-    this.pixel21 = new Pixel(new Color(0, 255, 255));         
-    this.pixel22 = new Pixel(new Color(255, 0, 255));   
+    t.checkExpect(graph.width, 4);
+    t.checkExpect(graph.isWellFormed(), true);
+    for (int y = 0; y < 3; y += 1) {
+      int x = positions[y];
+      Color next = before.getPixel(Math.min(x + 1, 2), y);
+      t.checkExpect(after.getPixel(x, y), before.getPixel(x, y));
+      t.checkExpect(after.getPixel(x + 1, y).getRGB(),
+          new Pixel(before.getPixel(x, y).getRGB()).averageWith(next.getRGB()));
+      t.checkExpect(after.getPixel(3, y), before.getPixel(2, y));
+    }
+  }
 
-    this.pixel00 = new Pixel(pixel01, pixelD0, pixelR0, pixel10, new Color(0, 0, 0)); 
-    this.pixel01 = new Pixel(pixel02, pixel00, pixelR1, pixel11, new Color(255, 255, 255)); 
-    this.pixel02 = new Pixel(pixelD0, pixel01, pixelR2, pixel12, new Color(0, 0, 0));
+  // insertSeam() horizontal
+  void testInsertSeamHorizontal(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PixelGraph original = new ImageCodec().read("images/testImage.png");
+    SeamInfo seam = graph.leastEnergySeam(false);
+    graph.insertSeam(seam, false);
 
-    this.pixel10 = new Pixel(pixel11, pixelD1, pixel00, pixel20, new Color(255, 0, 0));           
-    this.pixel11 = new Pixel(pixel12, pixel10, pixel01, pixel21, new Color(0, 255, 0));         
-    this.pixel12 = new Pixel(pixelD1, pixel11, pixel02, pixel22, new Color(0, 0, 255));
+    t.checkExpect(graph.height, 33);
+    t.checkExpect(graph.isWellFormed(), true);
 
-    this.pixel20 = new Pixel(pixel21, pixelD2, pixel10, pixelR0, new Color(255, 255, 0));     
-    this.pixel21 = new Pixel(pixel22, pixel20, pixel11, pixelR1, new Color(0, 255, 255));         
-    this.pixel22 = new Pixel(pixelD2, pixel21, pixel12, pixelR2, new Color(255, 0, 255));     
+    int[] copies = seam.positions(false);
+    for (int x = 0; x < copies.length; x += 1) {
+      copies[x] += 1;
+    }
+    graph.removeSeam(graph.leastEnergySeamInWindow(false, copies, copies), false);
+    ComputedPixelImage image = new ImageCodec().render(graph);
+    ComputedPixelImage originalImage = new ImageCodec().render(original);
+    boolean sameColors = true;
+    for (int y = 0; y < 32; y += 1) {
+      for (int x = 0; x < 32; x += 1) {
+        sameColors = sameColors && image.getPixel(x, y).equals(originalImage.getPixel(x, y));
+      }
+    }
+    t.checkExpect(sameColors, true);
   }
 
-  void testBigBang(Tester t) {
-    PixelGraph image = new PixelGraph(new FromFileImage("images/balloons.jpg"));
-    CarvingWorld w = new CarvingWorld(image);
-    int worldWidth = image.width;
-    int worldHeight = image.height;
-    double tickRate = 0.02;
-    w.bigBang(worldWidth, worldHeight, tickRate);
+  // insertSeamIntoMask()
+  void testInsertSeamIntoMask(Tester t) {
+    this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    graph.setMask(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8});
+    SeamInfo seam = new SeamInfo(this.pixel21, new SeamInfo(this.pixel12,
+        new SeamInfo(this.pixel01, null, 1, 0), 2, 1), 1, 2);
+    graph.insertSeamIntoMask(seam, true);
+
+    t.checkExpect(graph.maskStride, 6);
+    t.checkExpect(graph.mask[0], (byte) 0);
+    t.checkExpect(graph.mask[1], (byte) 1);
+    t.checkExpect(graph.mask[2], (byte) 1);
+    t.checkExpect(graph.mask[3], (byte) 2);
+    t.checkExpect(graph.mask[8], (byte) 5);
+    t.checkExpect(graph.mask[9], (byte) 5);
+    t.checkExpect(graph.mask[12], (byte) 6);
+    t.checkExpect(graph.mask[15], (byte) 8);
   }
 
-  // test removing horizontal seams
-  void testHorizontalIsWellFormed(Tester t) {
-    PixelGraph image = new PixelGraph(new FromFileImage("images/balloons.jpg"));
-    t.checkExpect(image.isWellFormed(), true);
-    image.removeSeam(image.leastEnergySeam(false), false);
-    t.checkExpect(image.isWellFormed(), true);
+  // insertSeams()
+  void testInsertSeams(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    graph.insertSeams(5, true);
+    graph.insertSeams(3, false);
+
+    t.checkExpect(graph.width, 37);
+    t.checkExpect(graph.height, 35);
+    t.checkExpect(graph.isWellFormed(), true);
   }
 
-  // wellFormed()
-  void testWellFormedness(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    PixelGraph graphEmpty = new PixelGraph(new PixelSentinel(), 0, 0);
+  // removeMarkedRegion()
+  void testRemoveMarkedRegion(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    byte[] mask = new byte[graph.width * graph.height];
+    for (int y = 8; y < 13; y += 1) {
+      for (int x = 14; x < 17; x += 1) {
+        mask[y * graph.width + x] = PixelGraph.MASK_REMOVE;
+      }
+    }
+    graph.setMask(mask);
+    t.checkExpect(graph.removeMarkedRegion(false), true);
+
+    t.checkExpect(graph.width, 29);
+    t.checkExpect(graph.height, 32);
+    t.checkExpect(graph.markedBounds(0, 0, graph.width - 1, graph.height - 1), null);
     t.checkExpect(graph.isWellFormed(), true);
 
-    graph.corner.right.down.updateLeft(graph.corner.right.down.right);
-    
-    t.checkExpect(graph.isWellFormed(), false);
-    t.checkExpect(graphEmpty.isWellFormed(), true);
+    PixelGraph restored = new ImageCodec().read("images/testImage.png", mask);
+    restored.removeMarkedRegion(true);
+    t.checkExpect(restored.width, 32);
+    t.checkExpect(restored.height, 32);
+    t.checkExpect(restored.markedBounds(0, 0, restored.width - 1, restored.height - 1), null);
+    t.checkExpect(restored.isWellFormed(), true);
+
+    // the marked corners can only be reached through protected pixels, so the best seam
+    // through their bounds misses both and nothing is removed
+    byte[] guarded = new byte[15];
+    guarded[0] = -1;
+    guarded[3] = 127;
+    guarded[4] = 127;
+    guarded[10] = 127;
+    guarded[11] = 127;
+    guarded[14] = -1;
+    PixelGraph stuck = new PixelGraph(new int[15], 3, 5, guarded);
+    t.checkExpect(stuck.removeMarkedRegion(false), false);
+    t.checkExpect(stuck.width, 3);
+    t.checkExpect(stuck.markedBounds(0, 0, 2, 4), new int[] {0, 0, 2, 4});
+    t.checkExpect(stuck.isWellFormed(), true);
   }
 
-  // updateDirection()
-  void testUpdateDirection(Tester t) {
-    this.initData();
-    Pixel testPixel = new Pixel(Color.BLACK);
+  // removesMarkedPixel()
+  void testRemovesMarkedPixel(Tester t) {
+    byte[] mask = new byte[9];
+    mask[4] = PixelGraph.MASK_REMOVE;
+    PixelGraph graph = new PixelGraph(new int[9], 3, 3, mask);
+    t.checkExpect(graph.removesMarkedPixel(graph.leastEnergySeam(true), true), true);
+    t.checkExpect(graph.removesMarkedPixel(graph.leastEnergySeamThrough(
+        new int[] {0, 0, 0, 2}, true), true), false);
+  }
 
-    // Test updateRight
-    t.checkExpect(pixel10.right, pixel11);
-    pixel10.updateRight(testPixel);
-    t.checkExpect(pixel10.right, testPixel);
+  // bandAround()
+  void testBandAround(Tester t) {
+    Utils u = new Utils();
+    int[][] windows = u.bandAround(new int[] {1, 2}, 2, 4, 8, 1);
+    t.checkExpect(windows[0], new int[] {1, 1, 3, 3});
+    t.checkExpect(windows[1], new int[] {4, 5, 6, 6});
 
-    t.checkExpect(pixel22.right, pixelD2);
-    pixel22.updateRight(testPixel);
-    t.checkExpect(pixel22.right, testPixel);
+    windows = u.bandAround(new int[] {0, 3}, 2, 3, 7, 0);
+    t.checkExpect(windows[0], new int[] {0, 0, 6});
+    t.checkExpect(windows[1], new int[] {4, 5, 6});
+  }
 
-    // Test updateLeft
-    t.checkExpect(pixel11.left, pixel10);
-    pixelR1.updateLeft(testPixel);
-    t.checkExpect(pixelR1.left, testPixel);
+  // fullWindows()
+  void testFullWindows(Tester t) {
+    int[][] windows = new Utils().fullWindows(3, 5);
+    t.checkExpect(windows[0], new int[] {0, 0, 0});
+    t.checkExpect(windows[1], new int[] {4, 4, 4});
+  }
 
-    t.checkExpect(pixel00.left, pixelD0);
-    pixel00.updateLeft(testPixel);
-    t.checkExpect(pixel00.left, testPixel);
+  // BrightnessLevel(PixelGraph)
+  void testBrightnessLevelFromGraph(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    BrightnessLevel level = new BrightnessLevel(graph);
+    Pixel pixel = (Pixel) graph.corner.down.down.down.right.right;
+
+    t.checkExpect(level.width, 32);
+    t.checkExpect(level.scale, 1);
+    t.checkInexact(level.brightnessAt(1, 2), pixel.calculateBrightness(), 0.0001);
+    t.checkInexact(level.energyAt(1, 2), pixel.calculateEnergy(), 0.0001);
+    t.checkInexact(level.brightnessAt(-1, 2), 0.0, 0.0001);
+    t.checkInexact(level.energyAt(0, 0), ((Pixel) graph.corner.down.right).calculateEnergy(),
+        0.0001);
+  }
 
-    // Test updateUp
-    t.checkExpect(pixel02.up, pixelR2);
-    pixel02.updateUp(testPixel);
-    t.checkExpect(pixel02.up, testPixel);
+  // halve()
+  void testHalve(Tester t) {
+    BrightnessLevel level = new BrightnessLevel(new double[] {0.0, 0.2, 0.4, 0.6, 0.8, 1.0},
+        3, 3, 2, 1);
+    BrightnessLevel half = level.halve();
+
+    t.checkExpect(half.width, 2);
+    t.checkExpect(half.height, 1);
+    t.checkExpect(half.scale, 2);
+    t.checkInexact(half.brightnessAt(0, 0), 0.4, 0.0001);
+    t.checkInexact(half.brightnessAt(1, 0), 0.7, 0.0001);
+  }
 
-    t.checkExpect(pixel11.up, pixel01);
-    pixel11.updateUp(testPixel);
-    t.checkExpect(pixel11.up, testPixel);
+  // seamLength() and seamPositions()
+  void testSeamLengthAndPositions(Tester t) {
+    BrightnessLevel level = new BrightnessLevel(new double[6], 3, 3, 2, 1);
+    t.checkExpect(level.seamLength(true), 2);
+    t.checkExpect(level.seamLength(false), 3);
+    t.checkExpect(level.seamPositions(true), 3);
+    t.checkExpect(level.seamPositions(false), 2);
+  }
 
-    // Test updateDown
-    t.checkExpect(pixel12.down, pixel22);
-    pixel12.updateDown(testPixel);
-    t.checkExpect(pixel12.down, testPixel);
+  // leastEnergyPath()
+  void testLeastEnergyPath(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/balloons.jpg");
+    BrightnessLevel level = new BrightnessLevel(graph);
+    int[][] windows = new Utils().fullWindows(graph.height, graph.width);
+    t.checkExpect(level.leastEnergyPath(true, windows[0], windows[1]),
+        graph.leastEnergySeam(true).positions(true));
+
+    PixelGraph small = new ImageCodec().read("images/33ex1.png");
+    windows = new Utils().fullWindows(3, 3);
+    t.checkExpect(new BrightnessLevel(small).leastEnergyPath(false, windows[0], windows[1]),
+        small.leastEnergySeam(false).positions(false));
+    t.checkException(new IllegalArgumentException("window is unreachable"),
+        new BrightnessLevel(small), "leastEnergyPath", true, new int[] {0, 2, 0},
+        new int[] {0, 2, 0});
+  }
 
-    t.checkExpect(pixel21.down, pixelR1);
-    pixel21.updateDown(testPixel);
-    t.checkExpect(pixel12.down, testPixel);
+  // removePath()
+  void testRemovePath(Tester t) {
+    BrightnessLevel level = new BrightnessLevel(new double[] {0.0, 0.2, 0.4, 0.6, 0.8, 1.0},
+        3, 3, 2, 1);
+    level.removePath(new int[] {0, 2}, true);
+    t.checkExpect(level.width, 2);
+    t.checkInexact(level.brightnessAt(0, 0), 0.2, 0.0001);
+    t.checkInexact(level.brightnessAt(1, 0), 0.4, 0.0001);
+    t.checkInexact(level.brightnessAt(0, 1), 0.6, 0.0001);
+    t.checkInexact(level.brightnessAt(1, 1), 0.8, 0.0001);
+
+    level.removePath(new int[] {1, 0}, false);
+    t.checkExpect(level.height, 1);
+    t.checkInexact(level.brightnessAt(0, 0), 0.2, 0.0001);
+    t.checkInexact(level.brightnessAt(1, 0), 0.8, 0.0001);
   }
 
-  // updatePositiveDirection() vertical
-  void testUpdatePositiveDirectionVertical(Tester t) {
-    this.initData();
-    Pixel testPixel = new Pixel(Color.BLACK);
+  // PyramidSeamFinder()
+  void testPyramidSeamFinderConstructor(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PyramidSeamFinder finder = new PyramidSeamFinder(graph, 3, 2);
+
+    t.checkExpect(finder.levels.size(), 3);
+    t.checkExpect(finder.levels.get(0).width, 16);
+    t.checkExpect(finder.levels.get(2).width, 4);
+    t.checkExpect(finder.levels.get(2).scale, 8);
+    t.checkConstructorException(new IllegalArgumentException("a pyramid needs at least one level"),
+        "PyramidSeamFinder", graph, 0, 2);
+  }
+
+  // PyramidSeamFinder leastEnergySeam() and removeSeam()
+  void testPyramidSeamFinder(Tester t) {
+    PixelGraph approximate = new ImageCodec().read("images/balloons.jpg");
+    PyramidSeamFinder finder = new PyramidSeamFinder(approximate, 2, 4);
+    double exactTotal = 0.0;
+    double approximateTotal = 0.0;
+
+    // both seams are searched for in the same graph before either is removed
+    for (int count = 0; count < 10; count += 1) {
+      SeamInfo exactSeam = approximate.leastEnergySeam(true);
+      SeamInfo approximateSeam = finder.leastEnergySeam(true);
+      t.checkExpect(approximateSeam.totalWeight >= exactSeam.totalWeight - 0.0001, true);
+      exactTotal += exactSeam.totalWeight;
+      approximateTotal += approximateSeam.totalWeight;
+      finder.removeSeam(approximateSeam, true);
+    }
+    t.checkExpect(finder.verticalSeamsRemoved, 10);
+    // the coarse-to-fine seams of balloons.jpg cost about 27% more than the exact ones
+    t.checkNumRange(approximateTotal / exactTotal, 1.0, 1.4);
+    t.checkExpect(approximate.width, 790);
+    t.checkExpect(finder.levels.get(0).width, 395);
+    t.checkExpect(finder.levels.get(1).width, 198);
+    t.checkExpect(approximate.isWellFormed(), true);
+
+    SeamInfo horizontal = finder.leastEnergySeam(false);
+    finder.removeSeam(horizontal, false);
+    t.checkExpect(approximate.height, 342);
+    t.checkExpect(approximate.isWellFormed(), true);
+    t.checkExpect(finder.verticalSeamsRemoved, 10);
+    t.checkExpect(finder.horizontalSeamsRemoved, 1);
+
+    // one seam in each direction makes up no pixel of a half resolution level
+    PyramidSeamFinder small = new PyramidSeamFinder(
+        new ImageCodec().read("images/testImage.png"), 1, 2);
+    small.removeSeam(small.leastEnergySeam(true), true);
+    small.removeSeam(small.leastEnergySeam(false), false);
+    t.checkExpect(small.levels.get(0).width, 16);
+    t.checkExpect(small.levels.get(0).height, 16);
+    small.removeSeam(small.leastEnergySeam(false), false);
+    t.checkExpect(small.levels.get(0).width, 16);
+    t.checkExpect(small.levels.get(0).height, 15);
+  }
 
-    t.checkExpect(this.pixel11.down, this.pixel21);
-    this.pixel11.updatePositiveDirection(testPixel, true);
-    t.checkExpect(this.pixel11.down, testPixel);
 
+  // renderBuffered()
+  void testRenderBuffered(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    ComputedPixelImage image = new ImageCodec().render(graph);
+    BufferedImage buffered = new ImageCodec().renderBuffered(graph);
+
+    t.checkExpect(buffered.getWidth(), 3);
+    t.checkExpect(buffered.getHeight(), 3);
+    t.checkExpect(new Color(buffered.getRGB(0, 0)), image.getPixel(0, 0));
+    t.checkExpect(new Color(buffered.getRGB(2, 1)), image.getPixel(2, 1));
   }
 
-  // updatePositiveDirection() horizontal
-  void testUpdatePositiveDirectionHorizontal(Tester t) {
-    this.initData();
-    Pixel testPixel = new Pixel(Color.BLACK);
+  // Loads the given number of frames panning across balloons.jpg two pixels at a time into
+  // a FrameSequenceCarver with the given band, deleting the frames once they are read
+  FrameSequenceCarver makePanningFrames(int count, int band) {
+    SeamBenchmarks benchmarks = new SeamBenchmarks();
+    String directory = benchmarks.writePanningFrames(count, 200, 120);
+    try {
+      return new FrameSequenceCarver(directory, band);
+    }
+    finally {
+      benchmarks.deleteFrames(directory);
+    }
+  }
 
-    t.checkExpect(this.pixel11.right, this.pixel12);
-    this.pixel11.updatePositiveDirection(testPixel, false);
-    t.checkExpect(this.pixel11.right, testPixel);
+  // FrameSequenceCarver()
+  void testFrameSequenceCarverConstructor(Tester t) {
+    FrameSequenceCarver carver = this.makePanningFrames(3, 3);
+
+    t.checkExpect(carver.frames.size(), 3);
+    t.checkExpect(carver.names.get(0), "frame000.png");
+    t.checkExpect(carver.names.get(2), "frame002.png");
+    t.checkExpect(carver.frames.get(1).width, 200);
+
+    ArrayList<PixelGraph> frames = new ArrayList<PixelGraph>();
+    frames.add(new ImageCodec().read("images/33ex1.png"));
+    frames.add(new ImageCodec().read("images/32ex1.png"));
+    t.checkConstructorException(new IllegalArgumentException("frames must all be the same size"),
+        "FrameSequenceCarver", frames, new ArrayList<String>(), 3);
   }
 
-  // updateNegativeDirection() vertical
-  void testUpdateNegativeDirectionVertical(Tester t) {
-    this.initData();
-    Pixel testPixel = new Pixel(Color.BLACK);
+  // carve() and save()
+  void testFrameSequenceCarve(Tester t) {
+    FrameSequenceCarver carver = this.makePanningFrames(4, 3);
+    carver.carve(6, 2, 4);
+
+    boolean coherent = true;
+    for (int frame = 0; frame < 4; frame += 1) {
+      t.checkExpect(carver.frames.get(frame).width, 194);
+      t.checkExpect(carver.frames.get(frame).height, 118);
+      t.checkExpect(carver.frames.get(frame).isWellFormed(), true);
+      t.checkExpect(carver.seams.get(frame).size(), 8);
+      for (int seam = 0; frame > 0 && seam < 8; seam += 1) {
+        int[] positions = carver.seams.get(frame).get(seam);
+        int[] previous = carver.seams.get(frame - 1).get(seam);
+        for (int index = 0; index < positions.length; index += 1) {
+          coherent = coherent && Math.abs(positions[index] - previous[index]) <= 3;
+        }
+      }
+    }
+    t.checkExpect(coherent, true);
 
-    t.checkExpect(this.pixel11.up, this.pixel01);
-    this.pixel11.updateNegativeDirection(testPixel, true);
-    t.checkExpect(this.pixel11.up, testPixel);
+    File output;
+    try {
+      output = java.nio.file.Files.createTempDirectory("carved").toFile();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    try {
+      carver.save(output.getPath());
+      BufferedImage saved = ImageIO.read(new File(output, "frame003.png"));
+      t.checkExpect(saved.getWidth(), 194);
+      t.checkExpect(saved.getHeight(), 118);
+      t.checkExpect(saved.getRGB(10, 10),
+          new ImageCodec().renderBuffered(carver.frames.get(3)).getRGB(10, 10));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    finally {
+      new SeamBenchmarks().deleteFrames(output.getPath());
+    }
   }
 
-  // updateNegativeDirection() horizontal
-  void testUpdateNegativeDirection(Tester t) {
-    this.initData();
-    Pixel testPixel = new Pixel(Color.BLACK);
 
-    t.checkExpect(this.pixel11.left, this.pixel10);
-    this.pixel11.updateNegativeDirection(testPixel, false);
-    t.checkExpect(this.pixel11.left, testPixel);
+  // FlowNetwork maxPreflow() and sinkSide()
+  void testFlowNetwork(Tester t) {
+    FlowNetwork network = new FlowNetwork(4, 1);
+    network.addEdge(0, 1, 3, 0);
+    network.addEdge(0, 2, 2, 0);
+    network.addEdge(1, 2, 5, 0);
+    network.addEdge(1, 3, 2, 0);
+    network.addEdge(2, 3, 3, 0);
+
+    t.checkExpect(network.arcCount, 10);
+    t.checkExpect(network.maxPreflow(0, 3), 5L);
+    t.checkExpect(network.sinkSide(0, 3), new boolean[] {false, false, false, true});
+
+    FlowNetwork blocked = new FlowNetwork(3, 2);
+    blocked.addEdge(0, 1, 4, 0);
+    blocked.addEdge(1, 2, 1, 0);
+    t.checkExpect(blocked.maxPreflow(0, 2), 1L);
+    t.checkExpect(blocked.sinkSide(0, 2), new boolean[] {false, false, true});
+
+    t.checkConstructorException(new IllegalArgumentException("a flow network holds at most "
+        + FlowNetwork.MAX_ARCS / 2 + " edges"), "FlowNetwork", 3, 1L << 31);
   }
 
-  // moveInPositiveDirection()
-  void testMoveInPositiveDirection(Tester t) {
+  // indexArcs()
+  void testIndexArcs(Tester t) {
+    FlowNetwork network = new FlowNetwork(3, 1);
+    network.addEdge(0, 2, 1, 0);
+    network.addEdge(1, 0, 1, 0);
+    network.indexArcs();
+
+    t.checkExpect(network.firstArc, new int[] {0, 2, 3, 4});
+    t.checkExpect(network.arcsByTail, new int[] {0, 3, 2, 1});
+  }
+
+  // GraphCutSeamFinder leastEnergySeams() with one frame
+  void testGraphCutSingleFrame(Tester t) {
+    for (String file : new String[] {"images/33ex1.png", "images/face.png", "images/grid.png"}) {
+      PixelGraph graph = new ImageCodec().read(file);
+      ArrayList<BrightnessLevel> frames = new ArrayList<BrightnessLevel>();
+      frames.add(new BrightnessLevel(graph));
+      for (boolean vertical : new boolean[] {true, false}) {
+        int[] positions = new GraphCutSeamFinder().leastEnergySeams(frames, vertical)[0];
+        t.checkInexact(graph.leastEnergySeamInWindow(vertical, positions, positions).totalWeight,
+            graph.leastEnergySeam(vertical).totalWeight, 0.001);
+      }
+    }
+  }
+
+  // GraphCutSeamFinder leastEnergySeams() with several frames
+  void testGraphCutFrames(Tester t) {
+    FrameSequenceCarver carver = this.makePanningFrames(3, 0);
+    ArrayList<BrightnessLevel> frames = new ArrayList<BrightnessLevel>();
+    double independentTotal = 0.0;
+    for (PixelGraph graph : carver.frames) {
+      frames.add(new BrightnessLevel(graph));
+      independentTotal += graph.leastEnergySeam(true).totalWeight;
+    }
+    int[][] positions = new GraphCutSeamFinder().leastEnergySeams(frames, true);
+    double surfaceTotal = 0.0;
+    boolean coherent = true;
+    for (int frame = 0; frame < 3; frame += 1) {
+      surfaceTotal += carver.frames.get(frame).leastEnergySeamInWindow(true, positions[frame],
+          positions[frame]).totalWeight;
+      for (int y = 0; frame > 0 && y < positions[frame].length; y += 1) {
+        coherent = coherent && Math.abs(positions[frame][y] - positions[frame - 1][y]) <= 1;
+      }
+    }
+    t.checkExpect(coherent, true);
+    t.checkExpect(surfaceTotal >= independentTotal - 0.001, true);
+  }
+
+  // GraphCutSeamFinder carve()
+  void testGraphCutCarve(Tester t) {
+    ArrayList<PixelGraph> frames = new ArrayList<PixelGraph>();
+    frames.add(new ImageCodec().read("images/grid.png"));
+    frames.add(new ImageCodec().read("images/square.png"));
+    ArrayList<ArrayList<int[]>> seams = new GraphCutSeamFinder().carve(frames, 2, false);
+
+    t.checkExpect(seams.size(), 2);
+    t.checkExpect(seams.get(1).size(), 2);
+    t.checkExpect(frames.get(0).height, 30);
+    t.checkExpect(frames.get(1).height, 30);
+    t.checkExpect(frames.get(0).isWellFormed(), true);
+    t.checkExpect(frames.get(1).isWellFormed(), true);
+
+    // 60000 x 60000 pixels overflow an int, so the block is rejected before anything is
+    // allocated for it
+    ArrayList<BrightnessLevel> huge = new ArrayList<BrightnessLevel>();
+    huge.add(new BrightnessLevel(new double[1], 1, 60000, 60000, 1));
+    t.checkException(new IllegalArgumentException("a block of 3600000000 pixels is too large"
+        + " for one flow network"), new GraphCutSeamFinder(), "leastEnergySeams", huge, true);
+  }
+
+  // meanJitter()
+  void testMeanJitter(Tester t) {
+    ArrayList<ArrayList<int[]>> seams = new ArrayList<ArrayList<int[]>>();
+    seams.add(new ArrayList<int[]>(Arrays.asList(new int[] {1, 2}, new int[] {0, 0})));
+    seams.add(new ArrayList<int[]>(Arrays.asList(new int[] {2, 2}, new int[] {0, 3})));
+    t.checkInexact(new SeamBenchmarks().meanJitter(seams), 1.0, 0.0001);
+  }
+
+
+  // transpose()
+  void testTranspose(Tester t) {
+    Utils u = new Utils();
+    t.checkExpect(u.transpose(new double[] {0.0, 1.0, 2.0, 9.0, 3.0, 4.0, 5.0, 9.0}, 4, 2, 3),
+        new double[] {0.0, 3.0, 1.0, 4.0, 2.0, 5.0});
+    t.checkExpect(u.transpose(new byte[] {0, 1, 2, 3, 4, 5}, 3, 2, 3),
+        new byte[] {0, 3, 1, 4, 2, 5});
+    t.checkExpect(u.transpose(new int[] {0, 1, 2, 9, 3, 4, 5, 9}, 4, 2, 3),
+        new int[] {0, 3, 1, 4, 2, 5});
+
+    double[] big = new double[40 * 70];
+    for (int i = 0; i < big.length; i += 1) {
+      big[i] = i;
+    }
+    double[] flipped = u.transpose(big, 70, 40, 70);
+    t.checkInexact(flipped[69 * 40 + 39], 39.0 * 70 + 69, 0.0001);
+    t.checkInexact(flipped[33 * 40 + 5], 5.0 * 70 + 33, 0.0001);
+    t.checkExpect(u.transpose(flipped, 40, 70, 40), big);
+  }
+
+  // index() and useLayout()
+  void testUseLayout(Tester t) {
+    BrightnessLevel level = new BrightnessLevel(new double[] {0.0, 0.2, 0.4, 0.6, 0.8, 1.0},
+        3, 3, 2, 1);
+    t.checkExpect(level.index(2, 1), 5);
+
+    level.useLayout(false);
+    t.checkExpect(level.transposed, true);
+    t.checkExpect(level.stride, 2);
+    t.checkExpect(level.index(2, 1), 5);
+    t.checkExpect(level.index(1, 0), 2);
+    t.checkInexact(level.brightnessAt(1, 0), 0.2, 0.0001);
+    t.checkInexact(level.brightnessAt(0, 1), 0.6, 0.0001);
+
+    level.useLayout(false);
+    t.checkExpect(level.transposed, true);
+    level.useLayout(true);
+    t.checkExpect(level.transposed, false);
+    t.checkExpect(level.brightness, new double[] {0.0, 0.2, 0.4, 0.6, 0.8, 1.0});
+  }
+
+  // leastEnergyPath() and removePath() alternating directions
+  void testLeastEnergyPathAlternating(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    BrightnessLevel level = new BrightnessLevel(graph);
+
+    for (int count = 0; count < 4; count += 1) {
+      boolean vertical = count % 2 == 0;
+      SeamInfo seam = graph.leastEnergySeam(vertical);
+      int[][] windows = new Utils().fullWindows(level.seamLength(vertical),
+          level.seamPositions(vertical));
+      int[] path = level.leastEnergyPath(vertical, windows[0], windows[1]);
+      t.checkExpect(level.transposed, !vertical);
+      t.checkExpect(path, seam.positions(vertical));
+      graph.removeSeam(seam, vertical);
+      level.removePath(path, vertical);
+    }
+    t.checkInexact(level.brightnessAt(5, 7),
+        ((Pixel) graph.corner.down.moveBy(7, true).right.moveBy(5, false))
+            .calculateBrightness(), 0.0001);
+  }
+
+  // maskIndex() and useMaskLayout()
+  void testUseMaskLayout(Tester t) {
     this.initData();
+    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
+    graph.setMask(new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8});
+    t.checkExpect(graph.maskIndex(2, 1), 5);
+
+    graph.useMaskLayout(false);
+    t.checkExpect(graph.maskTransposed, true);
+    t.checkExpect(graph.mask, new byte[] {0, 3, 6, 1, 4, 7, 2, 5, 8});
+    t.checkExpect(graph.maskIndex(2, 1), 7);
+    t.checkExpect(graph.mask[graph.maskIndex(2, 1)], (byte) 5);
+
+    graph.useMaskLayout(true);
+    t.checkExpect(graph.maskTransposed, false);
+    t.checkExpect(graph.mask, new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8});
+  }
 
-    // test moveInPositiveDirection when moving in the positive vertical direction (down)
-    t.checkExpect(this.pixel00.moveInPositiveDirection(true), this.pixel10);
-    t.checkExpect(this.pixel10.moveInPositiveDirection(true), this.pixel20);
-    t.checkExpect(this.pixel20.moveInPositiveDirection(true), this.pixelR0); 
 
-    // test moveInPositiveDirection when moving in the positive horizontal (right)
-    t.checkExpect(this.pixel00.moveInPositiveDirection(false), this.pixel01);
-    t.checkExpect(this.pixel01.moveInPositiveDirection(false), this.pixel02);
-    t.checkExpect(this.pixel02.moveInPositiveDirection(false), this.pixelD0); 
+  // onTick() waiting on the background search
+  void testOnTickPipelined(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    CarvingWorld world = new CarvingWorld(graph);
+    world.onTick();
+    world.onTick();
+
+    t.checkExpect(world.nextSeam != null, true);
+    t.checkExpect(world.nextVertical, true);
+    int[] expected = new ImageCodec().read("images/testImage.png")
+        .leastEnergySeam(true).positions(true);
+    SeamInfo found = world.nextSeam.join();
+
+    world.nextSeam = new CompletableFuture<SeamInfo>();
+    world.onTick();
+    t.checkExpect(world.tickCounter, 2);
+
+    world.nextSeam.complete(found);
+    world.onTick();
+    t.checkExpect(world.tickCounter, 3);
+    t.checkExpect(world.currSeam, found);
+    t.checkExpect(world.nextSeam, null);
+    t.checkExpect(found.curr.color, Color.RED.getRGB());
+    t.checkExpect(graph.width, 31);
   }
 
-  // moveInNegativeDirection()
-  void testMoveInNegativeDirection(Tester t) {
+  // searchAhead() and takeSeam()
+  void testSearchAheadAndTakeSeam(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PixelGraph copy = new ImageCodec().read("images/testImage.png");
+    CarvingWorld world = new CarvingWorld(graph);
+
+    world.searchAhead(false);
+    SeamInfo seam = world.takeSeam(false);
+    t.checkExpect(seam.positions(false), copy.leastEnergySeam(false).positions(false));
+    t.checkExpect(world.nextSeam, null);
+
+    world.searchAhead(false);
+    t.checkExpect(world.takeSeam(true).positions(true),
+        copy.leastEnergySeam(true).positions(true));
+    t.checkExpect(world.nextSeam, null);
+    t.checkExpect(world.takeSeam(false).positions(false),
+        copy.leastEnergySeam(false).positions(false));
+  }
+
+  // onKeyEvent() removing seams while paused
+  void testOnKeyEventPaused(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    CarvingWorld world = new CarvingWorld(graph);
+    world.onKeyEvent("v");
+    t.checkExpect(graph.width, 32);
+
+    world.onKeyEvent(" ");
+    world.searchAhead(true);
+    world.onKeyEvent("v");
+    t.checkExpect(world.nextSeam, null);
+    world.finishCarving();
+    t.checkExpect(graph.width, 31);
+    world.onKeyEvent("h");
+    world.finishCarving();
+    t.checkExpect(graph.height, 31);
+    t.checkExpect(graph.isWellFormed(), true);
+
+    PixelGraph shown = new ImageCodec().read("images/testImage.png");
+    CarvingWorld showing = new CarvingWorld(shown);
+    showing.onTick();
+    showing.onKeyEvent(" ");
+    // EFFECT: asks for seams while the shown seam is still red
+    for (int count = 0; count < 5; count += 1) {
+      showing.onKeyEvent("v");
+    }
+    t.checkExpect(showing.isCarving(), false);
+    showing.finishCarving();
+    showing.onTick();
+    t.checkExpect(shown.width, 31);
+    t.checkExpect(shown.isWellFormed(), true);
+    showing.onKeyEvent("v");
+    showing.finishCarving();
+    t.checkExpect(shown.width, 30);
+    t.checkExpect(shown.isWellFormed(), true);
+  }
+
+  // takeQueued()
+  void testTakeQueued(Tester t) {
+    CarvingWorld world = new CarvingWorld(new ImageCodec().read("images/face.png"));
+    world.carving = true;
+    world.queuedVertical = 3;
+    world.queuedHorizontal = 1;
+
+    t.checkExpect(world.takeQueued(), new int[] {3, 1});
+    t.checkExpect(world.isCarving(), true);
+    t.checkExpect(world.takeQueued(), null);
+    t.checkExpect(world.isCarving(), false);
+  }
+
+  // queueSeams() and carveQueued()
+  void testQueueSeams(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PixelGraph copy = new ImageCodec().read("images/testImage.png");
+    CarvingWorld world = new CarvingWorld(graph);
+    CompletableFuture<Void> gate = new CompletableFuture<Void>();
+    world.searcher.execute(() -> gate.join());
+
+    world.queueSeams(true, 1);
+    world.queueSeams(true, 2);
+    world.queueSeams(false, 1);
+    t.checkExpect(world.isCarving(), true);
+    t.checkExpect(world.queuedVertical, 3);
+    t.checkExpect(world.queuedHorizontal, 1);
+    t.checkExpect(world.snapshotWidth, 32);
+
+    world.onTick();
+    t.checkExpect(world.tickCounter, 0);
+    gate.complete(null);
+    world.finishCarving();
+
+    for (int count = 0; count < 3; count += 1) {
+      copy.removeSeam(copy.leastEnergySeam(true), true);
+    }
+    copy.removeSeam(copy.leastEnergySeam(false), false);
+    t.checkExpect(graph.width, 29);
+    t.checkExpect(graph.height, 31);
+    t.checkExpect(world.snapshotWidth, 29);
+    t.checkExpect(world.snapshotHeight, 31);
+    boolean same = true;
+    ComputedPixelImage image = new ImageCodec().render(copy);
+    for (int y = 0; y < 31; y += 1) {
+      for (int x = 0; x < 29; x += 1) {
+        same = same && world.snapshot.getPixel(x, y).equals(image.getPixel(x, y));
+      }
+    }
+    t.checkExpect(same, true);
+  }
+
+  // carveQueued() stopping at one column
+  void testCarveQueuedStops(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/face.png");
+    CarvingWorld world = new CarvingWorld(graph);
+    world.queueSeams(true, 10);
+    world.finishCarving();
+    t.checkExpect(graph.width, 1);
+    t.checkExpect(graph.isWellFormed(), true);
+  }
+
+
+  // Helper for checking that two graphs show the same image
+  boolean sameImage(PixelGraph graph, PixelGraph other) {
+    if (graph.width != other.width || graph.height != other.height) {
+      return false;
+    }
+    ComputedPixelImage image = new ImageCodec().render(graph);
+    ComputedPixelImage otherImage = new ImageCodec().render(other);
+    boolean same = true;
+    for (int y = 0; y < graph.height; y += 1) {
+      for (int x = 0; x < graph.width; x += 1) {
+        same = same && image.getPixel(x, y).equals(otherImage.getPixel(x, y));
+      }
+    }
+    return same;
+  }
+
+  // undoRemoval() and redoRemoval()
+  void testUndoRedoRemoval(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/balloons.jpg");
+    PixelGraph original = new ImageCodec().read("images/balloons.jpg");
+    PixelGraph carved = new ImageCodec().read("images/balloons.jpg");
+    byte[] mask = new byte[graph.width * graph.height];
+    for (int y = 100; y < 200; y += 1) {
+      for (int x = 300; x < 400; x += 1) {
+        mask[y * graph.width + x] = PixelGraph.MASK_KEEP;
+      }
+    }
+    graph.setMask(mask);
+    carved.setMask(mask);
+    graph.setHistoryBudget(1 << 20);
+    t.checkExpect(graph.undoRemoval(), false);
+
+    for (int count = 0; count < 12; count += 1) {
+      boolean vertical = count % 3 != 0;
+      graph.removeSeam(graph.leastEnergySeam(vertical), vertical);
+      carved.removeSeam(carved.leastEnergySeam(vertical), vertical);
+    }
+    t.checkExpect(graph.undoHistory.size(), 12);
+    t.checkExpect(graph.historySize, 8L * graph.height + 4L * graph.width + 44);
+
+    for (int count = 0; count < 12; count += 1) {
+      t.checkExpect(graph.undoRemoval(), true);
+    }
+    t.checkExpect(graph.undoRemoval(), false);
+    t.checkExpect(graph.isWellFormed(), true);
+    t.checkExpect(this.sameImage(graph, original), true);
+    boolean sameMask = true;
+    for (int y = 0; y < graph.height; y += 1) {
+      for (int x = 0; x < graph.width; x += 1) {
+        sameMask = sameMask && graph.mask[graph.maskIndex(x, y)] == mask[y * graph.width + x];
+      }
+    }
+    t.checkExpect(sameMask, true);
+    t.checkExpect(graph.leastEnergySeam(true).positions(true),
+        original.leastEnergySeam(true).positions(true));
+
+    for (int count = 0; count < 12; count += 1) {
+      t.checkExpect(graph.redoRemoval(), true);
+    }
+    t.checkExpect(graph.redoRemoval(), false);
+    t.checkExpect(graph.isWellFormed(), true);
+    t.checkExpect(this.sameImage(graph, carved), true);
+    t.checkExpect(graph.leastEnergySeam(false).positions(false),
+        carved.leastEnergySeam(false).positions(false));
+
+    graph.undoRemoval();
+    graph.removeSeam(graph.leastEnergySeam(true), true);
+    t.checkExpect(graph.redoHistory.size(), 0);
+    t.checkExpect(graph.redoRemoval(), false);
+  }
+
+  // setHistoryBudget(), trimHistory() and clearHistory()
+  void testHistoryBudget(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    graph.removeSeam(graph.leastEnergySeam(true), true);
+    t.checkExpect(graph.undoHistory.size(), 0);
+
+    graph.setHistoryBudget(100);
+    for (int count = 0; count < 4; count += 1) {
+      graph.removeSeam(graph.leastEnergySeam(true), true);
+    }
+    t.checkExpect(graph.undoHistory.size(), 3);
+    t.checkExpect(graph.historySize, 99L);
+
+    graph.undoRemoval();
+    graph.setHistoryBudget(40);
+    t.checkExpect(graph.undoHistory.size(), 0);
+    t.checkExpect(graph.redoHistory.size(), 1);
+    t.checkExpect(graph.historySize, 33L);
+    graph.setHistoryBudget(0);
+    t.checkExpect(graph.redoHistory.size(), 0);
+    t.checkExpect(graph.historySize, 0L);
+    t.checkException(new IllegalArgumentException("history budget must not be negative"),
+        graph, "setHistoryBudget", -1L);
+
+    graph.setHistoryBudget(100);
+    graph.removeSeam(graph.leastEnergySeam(false), false);
+    graph.insertSeam(graph.leastEnergySeam(true), true);
+    t.checkExpect(graph.undoHistory.size(), 0);
+    t.checkExpect(graph.historySize, 0L);
+    t.checkExpect(graph.isWellFormed(), true);
+  }
+
+  // relinkNeighbors()
+  void testRelinkNeighbors(Tester t) {
     this.initData();
+    this.pixel11.removeThisPixelAligned(true);
+    t.checkExpect(this.pixel10.right, this.pixel12);
+    this.pixel11.relinkNeighbors();
+    t.checkExpect(this.pixel10.right, this.pixel11);
+    t.checkExpect(this.pixel12.left, this.pixel11);
+    t.checkExpect(this.pixel11.neighborsValid(), true);
+  }
 
-    // test moveInPositiveDirection when moving in the negative vertical direction (up)
-    t.checkExpect(this.pixel20.moveInNegativeDirection(true), this.pixel10);
-    t.checkExpect(this.pixel10.moveInNegativeDirection(true), this.pixel00);
-    t.checkExpect(this.pixel00.moveInNegativeDirection(true), this.pixelR0); // hits sentinel at top
+  // colors(), recolor() and length()
+  void testSeamColors(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    SeamInfo seam = graph.leastEnergySeam(true);
+    int[] colors = seam.colors();
+    t.checkExpect(seam.length(), 3);
+    t.checkExpect(colors[0], seam.curr.color);
+    t.checkExpect(colors[2], seam.cameFrom.cameFrom.curr.color);
 
-    // test moveInPositiveDirection when moving in the negative horizontal (left)
-    t.checkExpect(this.pixel02.moveInNegativeDirection(false), this.pixel01);
-    t.checkExpect(this.pixel01.moveInNegativeDirection(false), this.pixel00);
-    t.checkExpect(this.pixel00.moveInNegativeDirection(false), this.pixelD0);
+    seam.showSeam();
+    t.checkExpect(seam.cameFrom.curr.color, Color.RED.getRGB());
+    seam.recolor(colors);
+    t.checkExpect(seam.colors(), colors);
+  }
+
+  // onKeyEvent() undoing and redoing removals
+  void testOnKeyEventUndo(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PixelGraph original = new ImageCodec().read("images/testImage.png");
+    CarvingWorld world = new CarvingWorld(graph);
+    world.onTick();
+    world.onTick();
+    world.nextSeam.join();
+    world.onTick();
+    world.onKeyEvent(" ");
+    world.onKeyEvent("u");
+    t.checkExpect(graph.width, 31);
+    t.checkExpect(world.canEditHistory(), false);
+
+    world.onTick();
+    t.checkExpect(world.canEditHistory(), true);
+    world.onKeyEvent("u");
+    world.onKeyEvent("u");
+    t.checkExpect(graph.width, 32);
+    t.checkExpect(this.sameImage(graph, original), true);
+    t.checkExpect(world.nextSeam, null);
+
+    world.onKeyEvent("r");
+    t.checkExpect(graph.width, 31);
+    t.checkExpect(graph.isWellFormed(), true);
+  }
+
+
+  // seamsPerTick() and timeSeams()
+  void testSeamsPerTick(Tester t) {
+    CarvingWorld world =
+        new CarvingWorld(new ImageCodec().read("images/face.png"), 10.0);
+    t.checkExpect(world.precise, false);
+    t.checkExpect(world.frameBudgetNanos, 10000000L);
+    t.checkExpect(world.seamsPerTick(), 1);
+
+    world.timeSeams(4000000, 2);
+    t.checkInexact(world.seamNanos, 2000000.0, 0.0001);
+    t.checkExpect(world.seamsPerTick(), 5);
+    world.timeSeams(12000000, 1);
+    t.checkInexact(world.seamNanos, 5000000.0, 0.0001);
+    t.checkExpect(world.seamsPerTick(), 2);
+    world.timeSeams(0, 0);
+    t.checkInexact(world.seamNanos, 5000000.0, 0.0001);
+    world.timeSeams(90000000, 1);
+    t.checkExpect(world.seamsPerTick(), 1);
   }
 
-  // removeThisPixelVertical() vertical
-  void testRemoveThisPixelAlignedVertical(Tester t) {
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
+  // onTick() and carveWithinBudget() without precise stepping
+  void testCarveWithinBudget(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PixelGraph copy = new ImageCodec().read("images/testImage.png");
+    CarvingWorld world = new CarvingWorld(graph, 1000.0);
 
-    APixel middle = graph.corner.down.right.right;
-    APixel left = middle.left;
-    APixel right = middle.right;
+    world.onTick();
+    t.checkExpect(graph.width, 31);
+    t.checkExpect(world.tickCounter, 2);
+    t.checkExpect(world.seamNanos > 0.0, true);
 
-    t.checkExpect(left.right, middle);
-    t.checkExpect(right.left, middle);
+    world.seamNanos = world.frameBudgetNanos / 4.0;
+    world.onTick();
+    t.checkExpect(graph.width, 27);
+    t.checkExpect(world.tickCounter, 4);
+    for (int count = 0; count < 5; count += 1) {
+      copy.removeSeam(copy.leastEnergySeam(true), true);
+    }
+    t.checkExpect(this.sameImage(graph, copy), true);
 
-    ((Pixel) middle).removeThisPixelAligned(true);
+    world.seamNanos = 1.0;
+    world.onTick();
+    t.checkExpect(graph.width, 1);
+    t.checkExpect(graph.isWellFormed(), true);
 
-    t.checkExpect(left.right, right);
-    t.checkExpect(right.left, left);
+    // seams planned far faster than they are stop at the one nanosecond budget
+    PixelGraph slow = new ImageCodec().read("images/testImage.png");
+    CarvingWorld hurried = new CarvingWorld(slow, 0.000001);
+    hurried.seamNanos = 0.000001;
+    t.checkExpect(hurried.seamsPerTick() > 1, true);
+    hurried.onTick();
+    t.checkExpect(slow.width, 31);
   }
 
-  // removeThisPixelVertical() horizontal
-  void testRemoveThisPixelAlignedHorizontal(Tester t) {
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
+  // onKeyEvent() switching to precise stepping
+  void testOnKeyEventPrecise(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    CarvingWorld world = new CarvingWorld(graph, 1000.0);
+    world.onKeyEvent("s");
+    t.checkExpect(world.precise, true);
+    world.onTick();
+    t.checkExpect(world.tickCounter, 1);
+    t.checkExpect(graph.width, 32);
 
-    APixel middle = graph.corner.down.right.right; 
-    APixel up = middle.up;
-    APixel down = middle.down;
+    world.onKeyEvent("s");
+    world.onTick();
+    t.checkExpect(world.tickCounter, 2);
+    t.checkExpect(graph.width, 31);
+    t.checkExpect(new CarvingWorld(graph).precise, true);
+  }
 
-    t.checkExpect(up.down, middle);
-    t.checkExpect(down.up, middle);
 
-    ((Pixel) middle).removeThisPixelAligned(false);
+  // PixelGraph(int[], int, int)
+  void testPixelGraphFromColors(Tester t) {
+    int[] colors = new ImageCodec().pack(new Color[] {Color.RED, Color.GREEN, Color.BLUE,
+        Color.WHITE, Color.BLACK, Color.GRAY});
+    PixelGraph graph = new PixelGraph(colors, 3, 2);
+    ComputedPixelImage image = new ImageCodec().render(graph);
 
-    t.checkExpect(up.down, down);
-    t.checkExpect(down.up, up);
+    t.checkExpect(graph.isWellFormed(), true);
+    t.checkExpect(image.getPixel(2, 0), Color.BLUE);
+    t.checkExpect(image.getPixel(0, 1), Color.WHITE);
+    t.checkExpect(this.sameImage(graph,
+        new ImageCodec().read("images/32ex1.png")), false);
+    t.checkConstructorException(new IllegalArgumentException("colors do not match image size"),
+        "PixelGraph", colors, 2, 2);
   }
 
-  // removeThisPixelDiagonalNegative() vertical
-  void testRemoveThisPixelDiagonalNegativeVertical(Tester t) {
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
-
-    APixel middle = graph.corner.down.right.right;
-    APixel up = middle.up;
-    APixel left = middle.left;
-
-    t.checkExpect(left.right, middle);
-    t.checkExpect(up.down, middle);
-    t.checkExpect(left.up, graph.corner.right);
+  // downscale()
+  void testDownscale(Tester t) {
+    Color[] colors = new Color[] {
+        new Color(0, 0, 0), new Color(40, 0, 0), new Color(0, 0, 0), new Color(0, 0, 0),
+        new Color(0, 80, 0), new Color(0, 0, 120), new Color(0, 0, 0), new Color(0, 0, 0),
+        new Color(90, 90, 90), new Color(90, 90, 90), new Color(90, 90, 90),
+        new Color(30, 30, 30)};
+    PixelGraph graph = new PixelGraph(new ImageCodec().pack(colors), 4, 3);
+    PixelGraph half = graph.downscale(2);
+    ComputedPixelImage image = new ImageCodec().render(half);
+
+    t.checkExpect(half.width, 2);
+    t.checkExpect(half.height, 1);
+    t.checkExpect(half.isWellFormed(), true);
+    t.checkExpect(image.getPixel(0, 0), new Color(36, 43, 50));
+    t.checkExpect(image.getPixel(1, 0), new Color(20, 20, 20));
+    t.checkExpect(graph.downscale(8).width, 1);
+    t.checkExpect(this.sameImage(graph.downscale(1), graph), true);
+    t.checkException(new IllegalArgumentException("factor must be positive"),
+        graph, "downscale", 0);
+  }
 
-    ((Pixel) middle).removeThisPixelDiagonalNegative(true);
+  // ProxyCarver removeSeam(), record(), unrecord() and replay()
+  void testProxyCarver(Tester t) {
+    PixelGraph full = new ImageCodec().read("images/balloons.jpg");
+    ProxyCarver carver = new ProxyCarver(full, 4, 3);
+    t.checkExpect(carver.proxy.width, 200);
+    t.checkExpect(carver.proxy.height, 85);
 
-    t.checkExpect(left.right, middle.right);
-    t.checkExpect(up.down, left);
-    t.checkExpect(left.up, up);
+    int[] firstPath = carver.proxy.leastEnergySeam(true).positions(true);
+    for (int count = 0; count < 3; count += 1) {
+      carver.removeSeam(carver.proxy.leastEnergySeam(true), true);
+    }
+    carver.removeSeam(carver.proxy.leastEnergySeam(false), false);
+    t.checkExpect(carver.seams.size(), 4);
+    t.checkExpect(carver.seams.get(0).positions(), firstPath);
+    t.checkExpect(carver.seams.get(3).vertical, false);
+    t.checkExpect(full.width, 800);
+
+    t.checkExpect(carver.replay(), full);
+    t.checkExpect(full.width, 788);
+    t.checkExpect(full.height, 339);
+    t.checkExpect(full.isWellFormed(), true);
+    t.checkExpect(carver.replayed, 4);
+    t.checkExpect(carver.unrecord(), false);
+
+    carver.removeSeam(carver.proxy.leastEnergySeam(true), true);
+    t.checkExpect(carver.unrecord(), true);
+    t.checkExpect(carver.seams.size(), 4);
+    carver.replay();
+    t.checkExpect(full.width, 788);
   }
 
-  //removeThisPixelDiagonalNegative() horizontal
-  void testRemoveThisPixelDiagonalNegativeHorizontal(Tester t) {
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
-    APixel middle = graph.corner.down.right.right; 
-    APixel up = middle.up;
-    APixel left = middle.left;
+  // ProxyCarver replaySeam()
+  void testReplaySeam(Tester t) {
+    PixelGraph full = new ImageCodec().read("images/balloons.jpg");
+    PixelGraph copy = new ImageCodec().read("images/balloons.jpg");
+    ProxyCarver carver = new ProxyCarver(full, 4, 2);
+    int[] path = carver.proxy.leastEnergySeam(true).positions(true);
+    int[][] windows = new Utils().bandAround(path, 4, 343, 800, 2);
+    SeamInfo expected = copy.leastEnergySeamInWindow(true, windows[0], windows[1]);
+    int[] expectedPositions = expected.positions(true);
+    boolean inBand = true;
+    for (int y = 0; y < 343; y += 1) {
+      inBand = inBand && expectedPositions[y] >= windows[0][y]
+          && expectedPositions[y] <= windows[1][y];
+    }
+    t.checkExpect(inBand, true);
+
+    carver.replaySeam(path, true);
+    copy.removeSeam(expected, true);
+    t.checkExpect(full.width, 796);
+    t.checkExpect(full.undoHistory.size(), 0);
+    for (int count = 0; count < 3; count += 1) {
+      windows = new Utils().bandAround(path, 4, 343, copy.width, 2);
+      copy.removeSeam(copy.leastEnergySeamInWindow(true, windows[0], windows[1]), true);
+    }
+    t.checkExpect(this.sameImage(full, copy), true);
+  }
 
-    t.checkExpect(up.down, middle);
-    t.checkExpect(middle.down.up, middle);
-    t.checkExpect(left.right, middle);
-    t.checkExpect(up.left, graph.corner.right);
+  // replayAsync() and CarvingWorld with a proxy
+  void testCarvingWorldProxy(Tester t) {
+    PixelGraph full = new ImageCodec().read("images/balloons.jpg");
+    ProxyCarver carver = new ProxyCarver(full, 4, 3);
+    CarvingWorld world = new CarvingWorld(carver, 1000.0);
+    t.checkExpect(world.graph, carver.proxy);
 
-    ((Pixel) middle).removeThisPixelDiagonalNegative(false);
+    world.seamNanos = world.frameBudgetNanos / 3.0;
+    world.onTick();
+    t.checkExpect(carver.proxy.width, 197);
+    t.checkExpect(carver.seams.size(), 3);
+
+    world.onKeyEvent(" ");
+    world.onKeyEvent("u");
+    t.checkExpect(carver.proxy.width, 198);
+    t.checkExpect(carver.seams.size(), 2);
+    world.onKeyEvent("r");
+    t.checkExpect(carver.proxy.width, 197);
+    t.checkExpect(carver.seams.size(), 3);
+
+    world.onKeyEvent("f");
+    t.checkExpect(carver.replaying.join(), full);
+    t.checkExpect(full.width, 788);
+    world.onKeyEvent("u");
+    t.checkExpect(carver.proxy.width, 197);
+    t.checkExpect(carver.replayAsync().join().width, 788);
+  }
 
-    t.checkExpect(up.down, middle.down);
-    t.checkExpect(middle.down.up, up);
-    t.checkExpect(left.right, up);
-    t.checkExpect(up.left, left);
+  // accumulateLine()
+  void testAccumulateLine(Tester t) {
+    Utils u = new Utils();
+    double[] previous = new double[] {3.0, 1.0, 4.0, 1.0};
+    double[] current = new double[4];
+    byte[] moves = new byte[6];
+    u.accumulateLine(previous, current, new double[] {1.0, 2.0, 3.0, 4.0}, moves, 2, 4);
+    t.checkExpect(current, new double[] {2.0, 3.0, 4.0, 5.0});
+    t.checkExpect(moves, new byte[] {0, 0, 1, 0, -1, 0});
+    t.checkExpect(previous, new double[] {3.0, 1.0, 4.0, 1.0});
+
+    u.accumulateLine(new double[] {1.0, 2.0, 1.0, 1.0}, current, new double[4], moves, 0, 4);
+    t.checkExpect(moves, new byte[] {0, -1, 0, -1, -1, 0});
+
+    double[] single = new double[1];
+    u.accumulateLine(new double[] {2.0}, single, new double[] {0.5}, moves, 0, 1);
+    t.checkExpect(single, new double[] {2.5});
+    t.checkExpect(moves[0], (byte) 0);
+
+    double[] pair = new double[2];
+    u.accumulateLine(new double[] {2.0, 1.0}, pair, new double[] {1.0, 1.0}, moves, 0, 2);
+    t.checkExpect(pair, new double[] {2.0, 2.0});
+    t.checkExpect(moves[0], (byte) 1);
+    t.checkExpect(moves[1], (byte) 0);
+
+    double[] random = new SeamBenchmarks().randomLevel(50, 2).brightness;
+    double[] line = Arrays.copyOfRange(random, 0, 50);
+    double[] energy = Arrays.copyOfRange(random, 50, 100);
+    double[] scalar = new double[50];
+    byte[] scalarMoves = new byte[50];
+    double[] kernel = new double[50];
+    byte[] kernelMoves = new byte[50];
+    new SeamBenchmarks().scalarLine(line, scalar, energy, scalarMoves, 0, 50);
+    u.accumulateLine(line, kernel, energy, kernelMoves, 0, 50);
+    t.checkExpect(kernel, scalar);
+    t.checkExpect(kernelMoves, scalarMoves);
   }
 
+  // padLine() and energyLine()
+  void testEnergyLine(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    BrightnessLevel level = new BrightnessLevel(graph);
+    double[] before = new double[34];
+    double[] line = new double[34];
+    double[] after = new double[34];
+    double[] energy = new double[32];
+    level.padLine(-1, true, before);
+    t.checkExpect(before, new double[34]);
+
+    level.padLine(4, true, before);
+    level.padLine(5, true, line);
+    level.padLine(6, true, after);
+    t.checkInexact(line[1], level.brightnessAt(0, 5), 0.0001);
+    t.checkInexact(line[33], 0.0, 0.0001);
+    new Utils().energyLine(before, line, after, energy, 32);
+    boolean same = true;
+    for (int x = 0; x < 32; x += 1) {
+      same = same && energy[x] == level.energyAt(x, 5);
+    }
+    t.checkExpect(same, true);
+
+    level.useLayout(false);
+    level.padLine(30, false, before);
+    level.padLine(31, false, line);
+    level.padLine(32, false, after);
+    new Utils().energyLine(before, line, after, energy, 32);
+    for (int y = 0; y < 32; y += 1) {
+      same = same && energy[y] == level.energyAt(31, y);
+    }
+    t.checkExpect(same, true);
+  }
 
-  // removeThisPixelDiagonalPositive() vertical
-  void testRemoveThisPixelDiagonalPositiveVertical(Tester t) {
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
+  // leastEnergyPathFull()
+  void testLeastEnergyPathFull(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/balloons.jpg");
+    BrightnessLevel level = new BrightnessLevel(graph);
+    int[][] rows = new Utils().fullWindows(graph.height, graph.width);
+    int[][] columns = new Utils().fullWindows(graph.width, graph.height);
+    t.checkExpect(level.leastEnergyPathFull(true), level.leastEnergyPath(true, rows[0], rows[1]));
+    t.checkExpect(level.leastEnergyPathFull(true), graph.leastEnergySeam(true).positions(true));
+    t.checkExpect(level.leastEnergyPathFull(false),
+        level.leastEnergyPath(false, columns[0], columns[1]));
+
+    BrightnessLevel random = new SeamBenchmarks().randomLevel(60, 40);
+    rows = new Utils().fullWindows(40, 60);
+    t.checkExpect(random.leastEnergyPathFull(true), random.leastEnergyPath(true, rows[0], rows[1]));
+
+    BrightnessLevel narrow = new BrightnessLevel(new double[] {0.2, 0.4, 0.6}, 1, 1, 3, 1);
+    t.checkExpect(narrow.leastEnergyPathFull(true), new int[] {0, 0, 0});
+    columns = new Utils().fullWindows(1, 3);
+    t.checkExpect(narrow.leastEnergyPathFull(false),
+        narrow.leastEnergyPath(false, columns[0], columns[1]));
+  }
 
-    Pixel pixelToRemove = (Pixel) graph.corner.down.right;          
-    Pixel pixelToRemoveRight = (Pixel) graph.corner.down.right.right;          
-    Pixel pixelToRemovePositiveDiagonal = (Pixel) pixelToRemove.down.right;  
 
-    t.checkExpect(pixelToRemoveRight.left, pixelToRemove);
-    t.checkExpect(pixelToRemovePositiveDiagonal.left, pixelToRemove.down);
+  // OffHeapLines
+  void testOffHeapLines(Tester t) {
+    OffHeapLines lines = new OffHeapLines(5, 32, 64, null, 0);
+    t.checkExpect(lines.linesPerChunk, 2);
+    t.checkExpect(lines.chunks.length, 3);
+    t.checkExpect(lines.chunks[2].capacity(), 32);
+    t.checkExpect(lines.bytes(), 160L);
+    t.checkExpect(lines.offsetOf(3, 8), 40);
 
-    ((Pixel) pixelToRemove).removeThisPixelDiagonalPositive(true);
+    for (int position = 0; position < 4; position += 1) {
+      lines.putDouble(4, position, position + 0.5);
+    }
+    lines.putByte(3, 31, (byte) -1);
+    lines.closeGap(4, 1, Double.BYTES, 2);
+    t.checkInexact(lines.getDouble(4, 0), 0.5, 0.0001);
+    t.checkInexact(lines.getDouble(4, 1), 2.5, 0.0001);
+    t.checkInexact(lines.getDouble(4, 2), 3.5, 0.0001);
+    t.checkExpect(lines.getByte(3, 31), (byte) -1);
+    t.checkConstructorException(new IllegalArgumentException("lines are too long"),
+        "OffHeapLines", 2, 100, 64L, null, 0L);
+
+    lines.release();
+    t.checkExpect(lines.chunks.length, 0);
+  }
 
-    t.checkExpect(graph.corner.down.right, pixelToRemoveRight);
-    t.checkExpect(pixelToRemoveRight.down, pixelToRemovePositiveDiagonal);
+  // OffHeapLevel(PixelGraph, File), brightnessAt() and setBrightness()
+  void testOffHeapLevelConstructor(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    BrightnessLevel level = new BrightnessLevel(graph);
+    OffHeapLevel offHeap = new OffHeapLevel(graph, null);
+    boolean same = true;
+    for (int y = 0; y < 32; y += 1) {
+      for (int x = 0; x < 32; x += 1) {
+        same = same && offHeap.brightnessAt(x, y) == level.brightnessAt(x, y);
+      }
+    }
+    t.checkExpect(same, true);
+    t.checkInexact(offHeap.brightnessAt(32, 0), 0.0, 0.0001);
+
+    int[] colors = graph.colors(0, 32);
+    boolean sameColors = true;
+    for (int y = 0; y < 32; y += 1) {
+      for (int x = 0; x < 32; x += 1) {
+        sameColors = sameColors && offHeap.colorAt(x, y) == colors[y * 32 + x];
+      }
+    }
+    t.checkExpect(sameColors, true);
+
+    offHeap.setBrightness(3, 5, 0.25);
+    offHeap.useLayout(false);
+    t.checkExpect(offHeap.transposed, true);
+    t.checkInexact(offHeap.brightnessAt(3, 5), 0.25, 0.0001);
+    t.checkExpect(offHeap.colorAt(7, 2), colors[2 * 32 + 7]);
+    offHeap.setBrightness(4, 6, 0.75);
+    offHeap.setColor(9, 1, Color.WHITE.getRGB());
+    t.checkInexact(offHeap.brightnessAt(9, 1), 1.0, 0.0001);
+    offHeap.useLayout(true);
+    t.checkInexact(offHeap.brightnessAt(4, 6), 0.75, 0.0001);
+    t.checkExpect(offHeap.colorAt(9, 1), Color.WHITE.getRGB());
+    t.checkExpect(offHeap.colorAt(7, 2), colors[2 * 32 + 7]);
+    offHeap.close();
+    t.checkException(new IllegalStateException("level is closed"),
+        offHeap, "brightnessAt", 0, 0);
+    offHeap.close();
   }
 
-  // removeThisPixelDiagonalPositive() horizontal
-  void testRemoveThisPixelDiagonalPositiveHorizontal(Tester t) {
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
+  // OffHeapLevel leastEnergyPath() and removePath()
+  void testOffHeapLevelCarving(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/balloons.jpg");
+    BrightnessLevel level = new BrightnessLevel(graph);
+    OffHeapLevel offHeap = new OffHeapLevel(graph, null);
+    double[] padded = new double[802];
+    offHeap.padLine(5, 343, 800, padded);
+    t.checkExpect(padded[8], level.brightnessAt(7, 5));
+    t.checkExpect(padded[801], 0.0);
+    offHeap.padLine(343, 343, 800, padded);
+    t.checkExpect(padded, new double[802]);
+
+    boolean same = true;
+    for (int count = 0; count < 6; count += 1) {
+      boolean vertical = count % 3 != 2;
+      int[] path = offHeap.leastEnergyPath(vertical);
+      same = same && Arrays.equals(path, level.leastEnergyPathFull(vertical));
+      offHeap.removePath(path, vertical);
+      level.removePath(path, vertical);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(offHeap.width, 796);
+    t.checkExpect(offHeap.height, 341);
+    t.checkExpect(offHeap.brightnessAt(795, 340), level.brightnessAt(795, 340));
+    offHeap.close();
+  }
 
-    APixel middle = graph.corner.down.right.right;
-    APixel up = middle.up;
-    APixel down = middle.down;
-    APixel right = middle.right;
-    APixel left = middle.left;
+  // OffHeapLevel mapped from a file in small chunks
+  void testOffHeapLevelMapped(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    BrightnessLevel level = new BrightnessLevel(graph);
+    File file;
+    try {
+      file = File.createTempFile("level", ".bin");
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    OffHeapLevel mapped = new OffHeapLevel(32, 32, file, 32 * 8 * 5);
+    t.checkExpect(mapped.brightness.chunks.length, 7);
+    t.checkExpect(mapped.colors.chunks.length, 4);
+    for (int y = 0; y < 32; y += 1) {
+      for (int x = 0; x < 32; x += 1) {
+        mapped.setBrightness(x, y, level.brightnessAt(x, y));
+      }
+    }
+    boolean same = true;
+    // every direction flip and every new set of moves reuses the same regions of the file,
+    // two each for the brightness and colors and one for the moves
+    boolean bounded = true;
+    for (int count = 0; count < 12; count += 1) {
+      boolean vertical = count % 2 == 0;
+      int[] path = mapped.leastEnergyPath(vertical);
+      same = same && Arrays.equals(path, level.leastEnergyPathFull(vertical));
+      mapped.removePath(path, vertical);
+      level.removePath(path, vertical);
+      bounded = bounded && file.length() <= 32 * 32 * (2 * 8 + 2 * 4 + 1);
+    }
+    t.checkExpect(same, true);
+    t.checkExpect(bounded, true);
+    t.checkExpect(mapped.region, 1);
+    t.checkExpect(file.length() > 32 * 32 * 2 * 8, true);
+    mapped.close();
+    t.checkExpect(file.length(), 0L);
+    t.checkExpect(file.delete(), true);
+  }
 
-    t.checkExpect(graph.corner.down.right.right, middle);
-    t.checkExpect(left.right, middle);
-    t.checkExpect(up.down, middle);
 
-    ((Pixel) middle).removeThisPixelDiagonalPositive(false);
+  // calculateLuminance()
+  void testCalculateLuminance(Tester t) {
+    t.checkExpect(new Pixel(new Color(10, 20, 31).getRGB()).calculateLuminance(), 20);
+    t.checkExpect(new Pixel(Color.WHITE.getRGB()).calculateLuminance(), 255);
+    t.checkExpect(new PixelSentinel().calculateLuminance(), 0);
+    t.checkInexact(new Pixel(new Color(10, 20, 31).getRGB()).calculateBrightness(), 20 / 255.0,
+        0.0001);
+  }
 
-    t.checkExpect(graph.corner.down.right.right, down);
-    t.checkExpect(left.right, down);
-    t.checkExpect(up.down, down);
+  // LuminanceLevel(), luminanceAt() and useLayout()
+  void testLuminanceLevel(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/32ex1.png");
+    LuminanceLevel level = new LuminanceLevel(graph, LuminanceLevel.SQUARED_GRADIENT);
+    Pixel pixel = (Pixel) graph.corner.down.down.right.right;
+    t.checkExpect(level.width, 3);
+    t.checkExpect(level.luminanceAt(1, 1), pixel.calculateLuminance());
+    t.checkExpect(level.luminanceAt(3, 1), 0);
+
+    level.useLayout(false);
+    t.checkExpect(level.transposed, true);
+    t.checkExpect(level.stride, 2);
+    t.checkExpect(level.luminanceAt(1, 1), pixel.calculateLuminance());
+    t.checkConstructorException(new IllegalArgumentException("unknown energy metric"),
+        "LuminanceLevel", new int[1], 1, 1, 1, 3);
   }
 
-  // calculateBrightness()
-  void testCalculateBrightness(Tester t) {
-    this.initData();
-    t.checkInexact(this.pixelR0.calculateBrightness(), 0.0, .1);
-    t.checkInexact(this.pixelD2.calculateBrightness(), 0.0, .1);
-    t.checkInexact(this.pixel00.calculateBrightness(), 0.0, .1);
-    t.checkInexact(this.pixel01.calculateBrightness(), 1.0, .1);
-    t.checkInexact(this.pixel11.calculateBrightness(), .33, .1);
-    t.checkInexact(this.pixel12.calculateBrightness(), .33, .1);
-    t.checkInexact(this.pixel20.calculateBrightness(), .66, .1);
-    t.checkInexact(this.pixel21.calculateBrightness(), .66, .1);
+  // gradientEnergy()
+  void testGradientEnergy(Tester t) {
+    LuminanceLevel magnitude = new LuminanceLevel(new int[1], 1, 1, 1,
+        LuminanceLevel.GRADIENT_MAGNITUDE);
+    LuminanceLevel squared = new LuminanceLevel(new int[1], 1, 1, 1,
+        LuminanceLevel.SQUARED_GRADIENT);
+    LuminanceLevel absolute = new LuminanceLevel(new int[1], 1, 1, 1,
+        LuminanceLevel.ABSOLUTE_GRADIENT);
+    t.checkExpect(magnitude.gradientEnergy(3, -4), 5 * 1024);
+    t.checkExpect(magnitude.gradientEnergy(1, 1), 1448);
+    t.checkExpect(squared.gradientEnergy(3, -4), 25);
+    t.checkExpect(absolute.gradientEnergy(3, -4), 7);
+    t.checkExpect(squared.gradientEnergy(1020, 1020), 2080800);
   }
 
-  // calculateHorizontalEnergy()
-  void testCalculateHorizontalEnergy(Tester t) {
-    this.initData();
-    t.checkExpect(pixel00.calculateHorizontalEnergy(),
-        (this.pixelcorner.calculateBrightness() + (2 * this.pixelD0.calculateBrightness())
-            + this.pixelD1.calculateBrightness())
-        - (this.pixelR1.calculateBrightness() + (2 * this.pixel01.calculateBrightness())
-            + this.pixel11.calculateBrightness()));
-    t.checkExpect(pixel11.calculateHorizontalEnergy(),
-        (this.pixel00.calculateBrightness() + (2 * this.pixel10.calculateBrightness())
-            + this.pixel20.calculateBrightness())
-        - (this.pixel02.calculateBrightness() + (2 * this.pixel12.calculateBrightness())
-            + this.pixel22.calculateBrightness()));
-    t.checkExpect(pixel21.calculateHorizontalEnergy(),
-        (this.pixel10.calculateBrightness() + (2 * this.pixel20.calculateBrightness())
-            + this.pixelR0.calculateBrightness())
-        - (this.pixel12.calculateBrightness() + (2 * this.pixel22.calculateBrightness())
-            + this.pixelR2.calculateBrightness()));
+  // LuminanceLevel energyLine()
+  void testLuminanceEnergyLine(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    LuminanceLevel level = new LuminanceLevel(graph, LuminanceLevel.GRADIENT_MAGNITUDE);
+    BrightnessLevel doubles = new BrightnessLevel(graph);
+    int[] before = new int[34];
+    int[] line = new int[34];
+    int[] after = new int[34];
+    int[] energy = new int[32];
+    level.padLine(8, true, before);
+    level.padLine(9, true, line);
+    level.padLine(10, true, after);
+    level.energyLine(before, line, after, energy, 32);
+
+    boolean close = true;
+    for (int x = 0; x < 32; x += 1) {
+      close = close && Math.abs(energy[x] / 1024.0 / 255.0 - doubles.energyAt(x, 9)) < 0.0001;
+    }
+    t.checkExpect(close, true);
+    level.padLine(-1, true, before);
+    t.checkExpect(before, new int[34]);
   }
 
-  // calculateVerticalEnergy()
-  void testCalculateVerticalEnergy(Tester t) {
-    this.initData();
-    t.checkExpect(pixel00.calculateVerticalEnergy(),
-        (this.pixelcorner.calculateBrightness() + (2 * this.pixelR0.calculateBrightness())
-            + this.pixelR1.calculateBrightness())
-        - (this.pixelD1.calculateBrightness() + (2 * this.pixel10.calculateBrightness())
-            + this.pixel11.calculateBrightness()));
-    t.checkExpect(pixel11.calculateVerticalEnergy(),
-        (this.pixel00.calculateBrightness() + (2 * this.pixel01.calculateBrightness())
-            + this.pixel02.calculateBrightness())
-        - (this.pixel20.calculateBrightness() + (2 * this.pixel21.calculateBrightness())
-            + this.pixel22.calculateBrightness()));
-    t.checkExpect(pixel20.calculateVerticalEnergy(),
-        (this.pixelD1.calculateBrightness() + (2 * this.pixel10.calculateBrightness())
-            + this.pixel11.calculateBrightness())
-        - (this.pixelcorner.calculateBrightness() + (2 * this.pixelR0.calculateBrightness())
-            + this.pixelR1.calculateBrightness()));
+  // LuminanceLevel leastEnergyPath() and removePath()
+  void testLuminanceLeastEnergyPath(Tester t) {
+    for (String name : new String[] {"images/testImage.png", "images/square.png"}) {
+      PixelGraph graph = new ImageCodec().read(name);
+      BrightnessLevel doubles = new BrightnessLevel(graph);
+      LuminanceLevel integers = new LuminanceLevel(graph, LuminanceLevel.GRADIENT_MAGNITUDE);
+      boolean same = true;
+      for (int count = 0; count < 20; count += 1) {
+        boolean vertical = count % 2 == 0;
+        int[] path = doubles.leastEnergyPathFull(vertical);
+        same = same && Arrays.equals(path, integers.leastEnergyPath(vertical));
+        doubles.removePath(path, vertical);
+        integers.removePath(path, vertical);
+      }
+      t.checkExpect(same, true);
+      t.checkExpect(integers.width, 22);
+      t.checkExpect(integers.luminanceAt(21, 21) / 255.0, doubles.brightnessAt(21, 21));
+    }
   }
 
-  // calculateEnergy()
-  void testCalculateEnergy(Tester t) {
-    this.initData();
-    t.checkExpect(this.pixel00.calculateEnergy(),
-        Math.sqrt(Math.pow(this.pixel00.calculateHorizontalEnergy(), 2.0)
-            + Math.pow(this.pixel00.calculateVerticalEnergy(), 2.0)));
-    t.checkExpect(this.pixel11.calculateEnergy(),
-        Math.sqrt(Math.pow(this.pixel11.calculateHorizontalEnergy(), 2.0)
-            + Math.pow(this.pixel11.calculateVerticalEnergy(), 2.0)));
-    t.checkExpect(this.pixel20.calculateEnergy(),
-        Math.sqrt(Math.pow(this.pixel20.calculateHorizontalEnergy(), 2.0)
-            + Math.pow(this.pixel20.calculateVerticalEnergy(), 2.0)));
+  // LuminanceLevel leastEnergyPath() on seams that tie
+  void testLuminanceLeastEnergyPathTies(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/balloons.jpg");
+    BrightnessLevel doubles = new BrightnessLevel(graph);
+    LuminanceLevel integers = new LuminanceLevel(graph, LuminanceLevel.GRADIENT_MAGNITUDE);
+    double worst = 0.0;
+    for (int count = 0; count < 10; count += 1) {
+      boolean vertical = count % 2 == 0;
+      int[] path = doubles.leastEnergyPathFull(vertical);
+      int[] whole = integers.leastEnergyPath(vertical);
+      double pathTotal = 0.0;
+      double wholeTotal = 0.0;
+      for (int index = 0; index < path.length; index += 1) {
+        if (vertical) {
+          pathTotal += doubles.energyAt(path[index], index);
+          wholeTotal += doubles.energyAt(whole[index], index);
+        }
+        else {
+          pathTotal += doubles.energyAt(index, path[index]);
+          wholeTotal += doubles.energyAt(index, whole[index]);
+        }
+      }
+      worst = Math.max(worst, Math.abs(pathTotal - wholeTotal));
+      doubles.removePath(path, vertical);
+      integers.removePath(path, vertical);
+    }
+    t.checkNumRange(worst, 0.0, 0.000001);
+
+    LuminanceLevel flat = new LuminanceLevel(new int[9], 3, 3, 3,
+        LuminanceLevel.ABSOLUTE_GRADIENT);
+    t.checkExpect(flat.leastEnergyPath(true), new int[] {0, 0, 0});
+    LuminanceLevel squared = new LuminanceLevel(graph, LuminanceLevel.SQUARED_GRADIENT);
+    int[] path = squared.leastEnergyPath(false);
+    boolean connected = path.length == 800;
+    for (int index = 1; index < path.length; index += 1) {
+      connected = connected && Math.abs(path[index] - path[index - 1]) <= 1;
+    }
+    t.checkExpect(connected, true);
   }
 
-  // expandHorizontally() test #1
-  void testExpandHorizontally1(Tester t) {
-    PixelSentinel corner = new PixelSentinel();
-    t.checkExpect(corner.left, corner);
-    t.checkExpect(corner.right, corner);
 
-    corner.expandHorizontally(2);
-    t.checkExpect(corner.left.left.left, corner);
-    t.checkExpect(corner.right.right.right, corner);
+  // colors()
+  void testColors(Tester t) {
+    ImageCodec codec = new ImageCodec();
+    PixelGraph graph = new PixelGraph(codec.pack(new Color[] {
+        Color.RED, Color.GREEN, Color.BLUE,
+        Color.WHITE, Color.BLACK, Color.GRAY}), 3, 2);
+    t.checkExpect(graph.colors(0, 3), codec.pack(new Color[] {
+        Color.RED, Color.GREEN, Color.BLUE, Color.WHITE, Color.BLACK, Color.GRAY}));
+    t.checkExpect(graph.colors(1, 3), codec.pack(new Color[] {
+        Color.GREEN, Color.BLUE, Color.BLACK, Color.GRAY}));
+    t.checkExpect(graph.colors(2, 2), new int[] {});
+    t.checkException(new IllegalArgumentException("columns are outside the image"),
+        graph, "colors", 2, 4);
+    t.checkException(new IllegalArgumentException("columns are outside the image"),
+        graph, "colors", 2, 1);
   }
 
-  //expandHorizontally() test #2
-  void testExpandHorizontally2(Tester t) {
-    PixelSentinel corner = new PixelSentinel();
-    t.checkExpect(corner.left, corner);
-    t.checkExpect(corner.right, corner);
+  // Helper for making a small graph with noisy columns on the left, a flat band of gray
+  // around the middle column and lightly varying columns on the right
+  PixelGraph makeStripImage() {
+    java.util.Random random = new java.util.Random(7);
+    Utils u = new Utils();
+    int[] colors = new int[8 * 4];
+    for (int y = 0; y < 4; y += 1) {
+      for (int x = 0; x < 8; x += 1) {
+        if (x < 3) {
+          int gray = random.nextInt(256);
+          colors[y * 8 + x] = u.pack(gray, gray, gray);
+        }
+        else if (x < 6) {
+          colors[y * 8 + x] = u.pack(128, 128, 128);
+        }
+        else {
+          int gray = 120 + 10 * ((x + y) % 2);
+          colors[y * 8 + x] = u.pack(gray, gray, gray);
+        }
+      }
+    }
+    return new PixelGraph(colors, 8, 4);
+  }
 
-    corner.expandHorizontally(3);
-    t.checkExpect(corner.left.left.left.left, corner);
-    t.checkExpect(corner.right.right.right.right, corner);
+  // StripCarver constructor, cutStrip() and stripEnergy()
+  void testStripCarver(Tester t) {
+    PixelGraph graph = this.makeStripImage();
+    StripCarver carver = new StripCarver(graph, 3);
+    t.checkExpect(carver.starts, new int[] {0, 2, 5, 8});
+    t.checkExpect(carver.stripWidth(1), 3);
+
+    PixelGraph first = carver.cutStrip(0);
+    PixelGraph middle = carver.cutStrip(1);
+    t.checkExpect(first.width, 3);
+    t.checkExpect(middle.width, 5);
+    t.checkExpect(middle.height, 4);
+    t.checkExpect(middle.isWellFormed(), true);
+    t.checkExpect(middle.colors(0, 5), graph.colors(1, 6));
+    t.checkExpect(carver.cutStrip(2).colors(0, 4), graph.colors(4, 8));
+
+    // the pixels along a strip's borders have the same energy as in the whole graph
+    double total = 0.0;
+    for (int y = 0; y < 4; y += 1) {
+      for (int x = 2; x < 5; x += 1) {
+        total += ((Pixel) graph.corner.down.moveBy(y, true).right.moveBy(x, false))
+            .calculateEnergy();
+      }
+    }
+    t.checkInexact(carver.stripEnergy(middle, 1), total, 1e-9);
+
+    t.checkConstructorException(
+        new IllegalArgumentException("strips must be between 1 and the image width"),
+        "StripCarver", graph, 0);
+    t.checkConstructorException(
+        new IllegalArgumentException("strips must be between 1 and the image width"),
+        "StripCarver", graph, 9);
   }
 
-  //render
-  void testRender(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    ComputedPixelImage image = graph.render();
+  // shareSeams()
+  void testShareSeams(Tester t) {
+    StripCarver carver = new StripCarver(this.makeStripImage(), 2);
+    carver.energies = new double[] {40.0, 40.0};
+    carver.shareSeams(4);
+    t.checkExpect(carver.shares, new int[] {2, 2});
+    carver.energies = new double[] {48.0, 16.0};
+    carver.shareSeams(4);
+    t.checkExpect(carver.shares, new int[] {1, 3});
+    // a strip keeps its last column however little energy it has
+    carver.energies = new double[] {48.0, 0.0};
+    carver.shareSeams(5);
+    t.checkExpect(carver.shares, new int[] {2, 3});
+    carver.energies = new double[] {-100.0, 16.0};
+    carver.shareSeams(2);
+    t.checkExpect(carver.shares, new int[] {2, 0});
+    carver.shareSeams(0);
+    t.checkExpect(carver.shares, new int[] {0, 0});
+    t.checkException(
+        new IllegalArgumentException("the strips do not have room for that many seams"),
+        carver, "shareSeams", 7);
+    t.checkException(
+        new IllegalArgumentException("the strips do not have room for that many seams"),
+        carver, "shareSeams", -1);
+  }
 
-    t.checkExpect(image.getPixel(0, 2), this.pixel00.color);
-    t.checkExpect(image.getPixel(1, 2), this.pixel01.color);
-    t.checkExpect(image.getPixel(2, 2), this.pixel02.color);
+  // carve(), carveStrip() and stitch()
+  void testCarveStrips(Tester t) {
+    PixelGraph graph = this.makeStripImage();
+    PixelGraph whole = this.makeStripImage();
+    whole.removeSeam(whole.leastEnergySeam(true), true);
+
+    // the least energy seam runs down the first column of the second strip, and is still
+    // the one removed
+    StripCarver carver = new StripCarver(graph, 2);
+    PixelGraph carved = carver.carve(1, 2);
+    t.checkExpect(carver.shares, new int[] {0, 1});
+    t.checkExpect(carver.seams.get(1).get(0), new int[] {0, 0, 0, 1});
+    t.checkExpect(this.sameImage(carved, whole), true);
+    t.checkExpect(carved.isWellFormed(), true);
+    t.checkExpect(this.sameImage(graph, this.makeStripImage()), true);
+
+    // with one strip, carving is the same as carving the whole graph
+    PixelGraph balloons = new ImageCodec().read("images/balloons.jpg");
+    PixelGraph sequential = new ImageCodec().read("images/balloons.jpg");
+    double sequentialEnergy = 0.0;
+    for (int count = 0; count < 12; count += 1) {
+      SeamInfo seam = sequential.leastEnergySeam(true);
+      sequentialEnergy += seam.totalWeight;
+      sequential.removeSeam(seam, true);
+    }
+    t.checkExpect(this.sameImage(new StripCarver(balloons, 1).carve(12, 1), sequential), true);
+
+    // with four strips, no seam leaves its strip, and the seams found are not much worse
+    StripCarver strips = new StripCarver(balloons, 4);
+    PixelGraph stripCarved = strips.carve(12, 4);
+    t.checkExpect(stripCarved.width, 788);
+    t.checkExpect(stripCarved.height, 343);
+    t.checkExpect(stripCarved.isWellFormed(), true);
+    t.checkExpect(balloons.width, 800);
+    int removed = 0;
+    double stripEnergy = 0.0;
+    boolean inside = true;
+    for (int strip = 0; strip < 4; strip += 1) {
+      removed += strips.shares[strip];
+      t.checkExpect(strips.seams.get(strip).size(), strips.shares[strip]);
+      for (int count = 0; count < strips.shares[strip]; count += 1) {
+        stripEnergy += strips.seamEnergies.get(strip).get(count);
+        for (int position : strips.seams.get(strip).get(count)) {
+          inside = inside && position >= 0 && position < strips.stripWidth(strip) - count;
+        }
+      }
+    }
+    t.checkExpect(removed, 12);
+    t.checkExpect(inside, true);
+    t.checkNumRange(stripEnergy, sequentialEnergy, sequentialEnergy * 1.25);
+
+    // the columns either side of each stitched border are not much busier than the same
+    // columns of the sequential carve, so the strips meet without a visible seam of their own
+    int before = 0;
+    boolean smooth = true;
+    for (int strip = 1; strip < 4; strip += 1) {
+      before += strips.shares[strip - 1];
+      int border = strips.starts[strip] - before;
+      double stitched = this.columnEnergy(stripCarved, border - 1)
+          + this.columnEnergy(stripCarved, border);
+      double unsplit = this.columnEnergy(sequential, border - 1)
+          + this.columnEnergy(sequential, border);
+      smooth = smooth && stitched <= unsplit * 1.25;
+    }
+    t.checkExpect(smooth, true);
+  }
 
-    t.checkExpect(image.getPixel(0, 1), this.pixel10.color);
-    t.checkExpect(image.getPixel(1, 1), this.pixel11.color);
-    t.checkExpect(image.getPixel(2, 1), this.pixel12.color);
+  // Helper for the total energy of the given column of the given graph
+  double columnEnergy(PixelGraph graph, int x) {
+    double total = 0.0;
+    for (int y = 0; y < graph.height; y += 1) {
+      total += graph.cellEnergy(this.pixelAt(graph, x, y), x, y);
+    }
+    return total;
+  }
 
-    t.checkExpect(image.getPixel(0, 0), this.pixel20.color);
-    t.checkExpect(image.getPixel(1, 0), this.pixel21.color);
-    t.checkExpect(image.getPixel(2, 0), this.pixel22.color);
+  // carve() with a mask
+  void testCarveStripsMasked(Tester t) {
+    PixelGraph graph = this.makeStripImage();
+    byte[] mask = new byte[8 * 4];
+    for (int y = 0; y < 4; y += 1) {
+      mask[y * 8 + 1] = PixelGraph.MASK_REMOVE;
+      mask[y * 8 + 7] = 3;
+    }
+    graph.setMask(mask);
+    graph.useMaskLayout(false);
+    PixelGraph whole = this.makeStripImage();
+    whole.setMask(mask);
+    whole.removeSeam(whole.leastEnergySeam(true), true);
+
+    StripCarver carver = new StripCarver(graph, 2);
+    PixelGraph carved = carver.carve(1, 2);
+    t.checkExpect(carver.shares, new int[] {1, 0});
+    t.checkExpect(this.sameImage(carved, whole), true);
+    t.checkExpect(carved.mask.length, 7 * 4);
+    t.checkExpect(carved.mask[carved.maskIndex(6, 2)], (byte) 3);
+    t.checkExpect(carved.mask[carved.maskIndex(1, 2)], (byte) 0);
   }
-  
-  //render
-  void testRenderEnergy(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    ComputedPixelImage image = graph.renderEnergy();
 
-    t.checkExpect(image.getPixel(0, 2), new Color(107, 107, 107));
-    t.checkExpect(image.getPixel(1, 2), new Color(56, 56, 56));
-    t.checkExpect(image.getPixel(2, 2), new Color(107, 107, 107));
 
-    t.checkExpect(image.getPixel(0, 1), new Color(107, 107, 107));
-    t.checkExpect(image.getPixel(1, 1), new Color(28, 28, 28));
-    t.checkExpect(image.getPixel(2, 1), new Color(107, 107, 107));
+  // red(), green(), blue(), pack() and maskFromColors()
+  void testPackedColors(Tester t) {
+    Utils u = new Utils();
+    int color = new Color(10, 20, 30).getRGB();
+    t.checkExpect(u.red(color), 10);
+    t.checkExpect(u.green(color), 20);
+    t.checkExpect(u.blue(color), 30);
+    t.checkExpect(u.pack(10, 20, 30), color);
+    t.checkExpect(u.pack(255, 255, 255), Color.WHITE.getRGB());
+    t.checkExpect(u.maskFromColors(new ImageCodec().pack(new Color[] {
+        Color.GREEN, Color.GRAY, Color.RED})),
+        new byte[] {PixelGraph.MASK_KEEP, 0, PixelGraph.MASK_REMOVE});
+  }
 
-    t.checkExpect(image.getPixel(0, 0), new Color(82, 82, 82));
-    t.checkExpect(image.getPixel(1, 0), new Color(56, 56, 56));
-    t.checkExpect(image.getPixel(2, 0), new Color(82, 82, 82));
+  // ImageCodec read(), colorsOf() and maskFromImage()
+  void testImageCodecRead(Tester t) {
+    ImageCodec codec = new ImageCodec();
+    FromFileImage image = new FromFileImage("images/33ex1.png");
+    PixelGraph graph = codec.read(image);
+    int[] colors = codec.colorsOf(image);
+    t.checkExpect(graph.width, 3);
+    t.checkExpect(graph.height, 3);
+    t.checkExpect(colors[5], image.getColorAt(2, 1).getRGB());
+    t.checkExpect(graph.colors(0, 3), colors);
+    t.checkExpect(this.sameImage(codec.read("images/33ex1.png"), graph), true);
+
+    PixelGraph masked = codec.read("images/33ex1.png", "images/33ex1.png");
+    t.checkExpect(masked.mask, new Utils().maskFromColors(colors));
+    t.checkException(new IllegalArgumentException("mask does not match image size"),
+        codec, "maskFromImage", image, 4, 3);
   }
 
+  // Helper for writing the given graph as a PPM image into bytes
+  byte[] ppmBytes(PixelGraph graph) {
+    java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+    try {
+      new PpmCodec().write(graph, out);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
 
-  // LeastEnergySeam() vertical
-  void testLeastEnergySeamVertical(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    SeamInfo firstRemovedSeam = graph.leastEnergySeam(true);
+  // Helper for reading a PPM image from the given bytes
+  PixelGraph readPpm(byte[] bytes) throws IOException {
+    return new PpmCodec().read(new java.io.ByteArrayInputStream(bytes));
+  }
 
-    t.checkExpect(firstRemovedSeam.x, 1);
-    t.checkExpect(firstRemovedSeam.y, 2);
-    t.checkExpect(firstRemovedSeam.cameFrom.x, 1);
-    t.checkExpect(firstRemovedSeam.cameFrom.y, 1);
-    t.checkExpect(firstRemovedSeam.cameFrom.cameFrom.x, 1);
-    t.checkExpect(firstRemovedSeam.cameFrom.cameFrom.y, 0);
+  // Helper for reading a PPM image from the given bytes into an off-heap level
+  OffHeapLevel readPpmOffHeap(byte[] bytes) throws IOException {
+    return new PpmCodec().readOffHeap(new java.io.ByteArrayInputStream(bytes), null);
+  }
+
+  // PpmCodec readOffHeap() and write() of an OffHeapLevel, carving in between
+  void testPpmOffHeap(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/balloons.jpg");
+    OffHeapLevel level;
+    try {
+      level = this.readPpmOffHeap(this.ppmBytes(graph));
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    t.checkExpect(level.width, 800);
+    t.checkExpect(level.height, 343);
+    t.checkExpect(level.colorAt(450, 200), graph.colors(0, 800)[200 * 800 + 450]);
+    t.checkInexact(level.brightnessAt(450, 200),
+        new BrightnessLevel(graph).brightnessAt(450, 200), 0.0001);
+
+    // the graph removes the same seams, so it ends up with the colors the level should write
+    for (int count = 0; count < 5; count += 1) {
+      boolean vertical = count % 2 == 0;
+      int[] path = level.leastEnergyPath(vertical);
+      level.removePath(path, vertical);
+      graph.removeSeam(graph.leastEnergySeamInWindow(vertical, path, path), vertical);
+    }
+    java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+    try {
+      new PpmCodec().write(level, out);
+      t.checkExpect(this.sameImage(this.readPpm(out.toByteArray()), graph), true);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    level.close();
+
+    t.checkException(new IllegalArgumentException("PPM image ends early"),
+        this, "readPpmOffHeap", "P6\n2 1\n255\nab".getBytes(StandardCharsets.US_ASCII));
+    t.checkException(new IllegalArgumentException("not a binary PPM image"),
+        this, "readPpmOffHeap", "P3\n1 1\n255\n".getBytes(StandardCharsets.US_ASCII));
   }
-  
-  // LeastEnergySeam() horizontal
-  void testLeastEnergySeamHorizontal(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/33ex1.png"));
-    SeamInfo firstRemovedSeam = graph.leastEnergySeam(false);
 
-    t.checkExpect(firstRemovedSeam.x, 2);
-    t.checkExpect(firstRemovedSeam.y, 2);
-    t.checkExpect(firstRemovedSeam.cameFrom.x, 1);
-    t.checkExpect(firstRemovedSeam.cameFrom.y, 1);
-    t.checkExpect(firstRemovedSeam.cameFrom.cameFrom.x, 0);
-    t.checkExpect(firstRemovedSeam.cameFrom.cameFrom.y, 2);
+  // PpmCodec read(), readNumber() and write()
+  void testPpmCodec(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    byte[] bytes = this.ppmBytes(graph);
+    t.checkExpect(bytes.length, 11 + 27);
+    t.checkExpect(new String(bytes, 0, 11, StandardCharsets.US_ASCII), "P6\n3 3\n255\n");
+    try {
+      PixelGraph read = this.readPpm(bytes);
+      t.checkExpect(this.sameImage(read, graph), true);
+      t.checkExpect(read.isWellFormed(), true);
+
+      byte[] header = "P6 # made by hand\n# two by one\n2 1\n255\n"
+          .getBytes(StandardCharsets.US_ASCII);
+      byte[] commented = Arrays.copyOf(header, header.length + 6);
+      System.arraycopy(new byte[] {1, 2, 3, (byte) 255, 0, (byte) 128}, 0, commented,
+          header.length, 6);
+      PixelGraph small = this.readPpm(commented);
+      t.checkExpect(small.colors(0, 2), new int[] {new Utils().pack(1, 2, 3),
+          new Utils().pack(255, 0, 128)});
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    t.checkException(new IllegalArgumentException("not a binary PPM image"),
+        this, "readPpm", "P3\n1 1\n255\n".getBytes(StandardCharsets.US_ASCII));
+    t.checkException(new IllegalArgumentException("not a binary PPM image"),
+        this, "readPpm", "P6\nx 1\n255\n".getBytes(StandardCharsets.US_ASCII));
+    t.checkException(new IllegalArgumentException("only 8-bit PPM images are supported"),
+        this, "readPpm", "P6\n1 1\n65535\n".getBytes(StandardCharsets.US_ASCII));
+    t.checkException(new IllegalArgumentException("PPM image ends early"),
+        this, "readPpm", "P6\n2 1\n255\nab".getBytes(StandardCharsets.US_ASCII));
+
+    try {
+      File file = File.createTempFile("carved", ".ppm");
+      file.deleteOnExit();
+      new PpmCodec().write(graph, file);
+      t.checkExpect(this.sameImage(new PpmCodec().read(file), graph), true);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 
+  // BatchCarver carve()
+  void testBatchCarver(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PixelGraph sequential = new ImageCodec().read("images/testImage.png");
+    for (int count = 0; count < 3; count += 1) {
+      sequential.removeSeam(sequential.leastEnergySeam(true), true);
+    }
+    sequential.removeSeam(sequential.leastEnergySeam(false), false);
+    new BatchCarver().carve(graph, 3, 1);
+    t.checkExpect(this.sameImage(graph, sequential), true);
+
+    PixelGraph small = new ImageCodec().read("images/33ex1.png");
+    new BatchCarver().carve(small, 5, 5);
+    t.checkExpect(small.width, 1);
+    t.checkExpect(small.height, 1);
+
+    // whole number gradient lengths pick the same seams as the double energies
+    for (String name : new String[] {"images/testImage.png", "images/square.png",
+        "images/grid.png"}) {
+      PixelGraph doubles = new ImageCodec().read(name);
+      PixelGraph integers = new ImageCodec().read(name);
+      new BatchCarver().carve(doubles, 6, 4);
+      t.checkExpect(new BatchCarver(LuminanceLevel.GRADIENT_MAGNITUDE).carve(integers, 6, 4,
+          new CarveControl()), 10);
+      t.checkExpect(this.sameImage(integers, doubles), true);
+      t.checkExpect(integers.isWellFormed(), true);
+    }
+    PixelGraph squared = new ImageCodec().read("images/33ex1.png");
+    new BatchCarver(LuminanceLevel.SQUARED_GRADIENT).carve(squared, 5, 5);
+    t.checkExpect(squared.width, 1);
+    t.checkExpect(squared.height, 1);
+
+    PixelGraph masked = new ImageCodec().read("images/33ex1.png");
+    masked.setMask(new byte[9]);
+    t.checkException(new IllegalArgumentException("a masked graph needs double energies"),
+        new BatchCarver(LuminanceLevel.ABSOLUTE_GRADIENT), "carve", masked, 1, 0,
+        new CarveControl(), null);
+    t.checkConstructorException(new IllegalArgumentException("unknown energy metric"),
+        "BatchCarver", 3);
+    t.checkConstructorException(new IllegalArgumentException("unknown energy metric"),
+        "BatchCarver", -2);
+  }
 
-  // makeFirstRowAsSeamInfo()
-  void testMakeFirstRowAsSeamInfo(Tester t) {
+
+  // BeamSeamFinder constructor, precedes() and select()
+  void testBeamSeamFinder(Tester t) {
     this.initData();
     PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    ArrayList<SeamInfo> firstRowSeams = graph.makeFirstRowAsSeamInfo(true);
-
-    APixel row = graph.corner.down;
-    APixel pixelFromGraph = row.right; 
+    BeamSeamFinder finder = new BeamSeamFinder(graph, 2);
+    SeamInfo[] firstRow = graph.makeFirstRowAsSeamInfo(true).toArray(new SeamInfo[0]);
+    SeamInfo[] selected = firstRow.clone();
+    t.checkExpect(finder.select(selected, 3, true), 2);
+    boolean lowest = true;
+    for (SeamInfo seam : firstRow) {
+      lowest = lowest && (seam == selected[0] || seam == selected[1]
+          || (!finder.precedes(seam, selected[0], true)
+              && !finder.precedes(seam, selected[1], true)));
+    }
+    t.checkExpect(lowest, true);
+    t.checkExpect(new BeamSeamFinder(graph, 5).select(firstRow.clone(), 3, true), 3);
+    t.checkExpect(finder.precedes(firstRow[0], firstRow[0], true), false);
+
+    SeamInfo low = new SeamInfo((Pixel) graph.corner.down.right, null, 0, 1, 1.0);
+    SeamInfo tied = new SeamInfo((Pixel) graph.corner.down.right, null, 2, 1, 1.0);
+    SeamInfo high = new SeamInfo((Pixel) graph.corner.down.right, null, 1, 1, 2.0);
+    t.checkExpect(finder.precedes(low, tied, true), true);
+    t.checkExpect(finder.precedes(tied, low, true), false);
+    t.checkExpect(finder.precedes(tied, high, true), true);
+    SeamInfo[] seams = new SeamInfo[] {high, tied, low};
+    t.checkExpect(new BeamSeamFinder(graph, 1).select(seams, 3, true), 1);
+    t.checkExpect(seams[0], low);
+    t.checkExpect(finder.select(seams, 3, true), 2);
+    t.checkExpect(seams[2], high);
+    t.checkConstructorException(new IllegalArgumentException("beam width must be positive"),
+        "BeamSeamFinder", graph, 0);
+  }
 
-    t.checkExpect(firstRowSeams.size(), 3);
-    t.checkExpect(firstRowSeams.get(0).cameFrom, null);
-    t.checkExpect(firstRowSeams.get(1).cameFrom, null);
-    t.checkExpect(firstRowSeams.get(2).cameFrom, null);
+  // BeamSeamFinder leastEnergySeam()
+  void testBeamLeastEnergySeam(Tester t) {
+    // a beam as wide as the graph finds a least energy seam
+    for (String name : new String[] {"images/33ex1.png", "images/32ex1.png", "images/face.png",
+        "images/grid.png"}) {
+      PixelGraph graph = new ImageCodec().read(name);
+      BeamSeamFinder wide = new BeamSeamFinder(graph, Math.max(graph.width, graph.height));
+      t.checkInexact(wide.leastEnergySeam(true).totalWeight,
+          graph.leastEnergySeam(true).totalWeight, 1e-9);
+      t.checkInexact(wide.leastEnergySeam(false).totalWeight,
+          graph.leastEnergySeam(false).totalWeight, 1e-9);
+    }
 
-    t.checkInexact(firstRowSeams.get(0).curr.calculateEnergy(), 
-        ((Pixel) pixelFromGraph).calculateEnergy(), 0.0001);
-    t.checkInexact(firstRowSeams.get(1).curr.calculateEnergy(), 
-        ((Pixel) pixelFromGraph.right).calculateEnergy(), 0.0001);
-    t.checkInexact(firstRowSeams.get(2).curr.calculateEnergy(), 
-        ((Pixel) pixelFromGraph.right.right).calculateEnergy(), 0.0001);
+    // a narrow beam is close to the least energy seam on a photograph, and a greedy one
+    // is never better
+    PixelGraph tower = new ImageCodec().read("images/tower.jpg");
+    double exact = tower.leastEnergySeam(true).totalWeight;
+    SeamInfo greedy = new BeamSeamFinder(tower, 1).leastEnergySeam(true);
+    SeamInfo beam = new BeamSeamFinder(tower, 16).leastEnergySeam(true);
+    t.checkNumRange(greedy.totalWeight, exact - 1e-9, Double.MAX_VALUE);
+    t.checkNumRange(beam.totalWeight, exact - 1e-9, exact * 1.01);
+
+    // the seams found are connected and can be removed
+    int[] path = beam.positions(true);
+    boolean connected = path.length == tower.height;
+    for (int index = 1; index < path.length; index += 1) {
+      connected = connected && Math.abs(path[index] - path[index - 1]) <= 1;
+    }
+    t.checkExpect(connected, true);
+    tower.removeSeam(beam, true);
+    tower.removeSeam(new BeamSeamFinder(tower, 4).leastEnergySeam(false), false);
+    t.checkExpect(tower.width, 1199);
+    t.checkExpect(tower.height, 812);
+    t.checkExpect(tower.isWellFormed(), true);
+  }
 
-    t.checkExpect(firstRowSeams.get(0).x, 0);
-    t.checkExpect(firstRowSeams.get(0).y, 0);
-    t.checkExpect(firstRowSeams.get(1).x, 1);
-    t.checkExpect(firstRowSeams.get(1).y, 0);
-    t.checkExpect(firstRowSeams.get(2).x, 2);
-    t.checkExpect(firstRowSeams.get(2).y, 0);
+  // BeamSeamFinder leastEnergySeam() with a mask
+  void testBeamLeastEnergySeamMasked(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+    byte k = PixelGraph.MASK_KEEP;
+    byte r = PixelGraph.MASK_REMOVE;
+    graph.setMask(new byte[] {k, 0, r, k, r, k, k, 0, r});
+    SeamInfo seam = new BeamSeamFinder(graph, 1).leastEnergySeam(true);
+    t.checkExpect(seam.positions(true), new int[] {2, 1, 2});
   }
-  
-  // makeFirstRowAsSeamInfo()
-  void testMakeFirstRowAsSeamInfoHorizontal(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/33ex1.png"));
-    ArrayList<SeamInfo> firstRowSeams = graph.makeFirstRowAsSeamInfo(false);
 
-    APixel column = graph.corner.right;
-    APixel pixelFromGraph = column.down; 
 
-    t.checkExpect(firstRowSeams.size(), 3);
-    t.checkExpect(firstRowSeams.get(0).cameFrom, null);
-    t.checkExpect(firstRowSeams.get(1).cameFrom, null);
-    t.checkExpect(firstRowSeams.get(2).cameFrom, null);
+  // PackedSeam constructors, move(), positions() and toLongs()
+  void testPackedSeam(Tester t) {
+    PackedSeam seam = new PackedSeam(new int[] {3, 2, 2, 3, 4}, true);
+    t.checkExpect(seam.start, 3);
+    t.checkExpect(seam.length, 5);
+    t.checkExpect(seam.moves, new long[] {0b10100100L});
+    t.checkExpect(seam.move(1), -1);
+    t.checkExpect(seam.move(2), 0);
+    t.checkExpect(seam.move(4), 1);
+    t.checkExpect(seam.positions(), new int[] {3, 2, 2, 3, 4});
+    t.checkExpect(new PackedSeam(new int[] {7}, false).positions(), new int[] {7});
+
+    // a seam down 4000 rows packs into 126 longs, and reads back from them
+    java.util.Random random = new java.util.Random(4);
+    int[] positions = new int[4000];
+    positions[0] = 2000;
+    for (int index = 1; index < positions.length; index += 1) {
+      positions[index] = positions[index - 1] + random.nextInt(3) - 1;
+    }
+    PackedSeam long4000 = new PackedSeam(positions, false);
+    long[] encoded = long4000.toLongs();
+    t.checkExpect(encoded.length, 126);
+    t.checkExpect(long4000.positions(), positions);
+    t.checkExpect(new PackedSeam(encoded).positions(), positions);
+    t.checkExpect(new PackedSeam(encoded).vertical, false);
+    t.checkExpect(new PackedSeam(seam.toLongs()).vertical, true);
+    t.checkExpect(new PackedSeam(seam.toLongs()).start, 3);
+
+    t.checkConstructorException(new IllegalArgumentException("seam is not connected"),
+        "PackedSeam", new int[] {1, 3}, true);
+    t.checkConstructorException(new IllegalArgumentException("seam must not be empty"),
+        "PackedSeam", new int[] {}, true);
+    t.checkConstructorException(new IllegalArgumentException("encoded seam is truncated"),
+        "PackedSeam", Arrays.copyOf(encoded, 125));
+    t.checkConstructorException(new IllegalArgumentException("encoded seam is truncated"),
+        "PackedSeam", new long[] {});
+    t.checkConstructorException(new IllegalArgumentException("seam must not be empty"),
+        "PackedSeam", new long[] {2});
+  }
 
-    t.checkInexact(firstRowSeams.get(0).curr.calculateEnergy(), 
-        ((Pixel) pixelFromGraph).calculateEnergy(), 0.0001);
-    t.checkInexact(firstRowSeams.get(1).curr.calculateEnergy(), 
-        ((Pixel) pixelFromGraph.down).calculateEnergy(), 0.0001);
-    t.checkInexact(firstRowSeams.get(2).curr.calculateEnergy(), 
-        ((Pixel) pixelFromGraph.down.down).calculateEnergy(), 0.0001);
+  // PackedSeam toSeam() on a graph
+  void testPackedSeamToSeam(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/balloons.jpg");
+    PixelGraph copy = new ImageCodec().read("images/balloons.jpg");
+    for (boolean vertical : new boolean[] {true, false}) {
+      SeamInfo seam = graph.leastEnergySeam(vertical);
+      PackedSeam packed = new PackedSeam(seam, vertical);
+      SeamInfo unpacked = packed.toSeam(copy);
+      t.checkExpect(unpacked.positions(vertical), seam.positions(vertical));
+      t.checkInexact(unpacked.totalWeight, seam.totalWeight, 1e-9);
+      graph.removeSeam(seam, vertical);
+      copy.removeSeam(unpacked, vertical);
+    }
+    t.checkExpect(this.sameImage(graph, copy), true);
+    t.checkExpect(copy.isWellFormed(), true);
+
+    PackedSeam tooShort = new PackedSeam(new int[] {0, 1}, true);
+    PackedSeam outside = new PackedSeam(new int[] {2, 3, 4}, true);
+    PixelGraph small = new ImageCodec().read("images/33ex1.png");
+    t.checkException(new IllegalArgumentException("seam does not fit the graph"),
+        tooShort, "toSeam", small);
+    t.checkException(new IllegalArgumentException("seam does not fit the graph"),
+        outside, "toSeam", small);
+  }
 
-    t.checkExpect(firstRowSeams.get(0).x, 0);
-    t.checkExpect(firstRowSeams.get(0).y, 0);
-    t.checkExpect(firstRowSeams.get(1).x, 0);
-    t.checkExpect(firstRowSeams.get(1).y, 1);
-    t.checkExpect(firstRowSeams.get(2).x, 0);
-    t.checkExpect(firstRowSeams.get(2).y, 2);
+  // PackedSeam removeFrom()
+  void testPackedSeamRemoveFrom(Tester t) {
+    for (boolean vertical : new boolean[] {true, false}) {
+      PixelGraph graph = new ImageCodec().read("images/tower.jpg");
+      int[] colors = graph.colors(0, graph.width);
+      SeamInfo seam = graph.leastEnergySeam(vertical);
+      int[] carved = new PackedSeam(seam, vertical).removeFrom(colors, graph.width,
+          graph.height);
+      graph.removeSeam(seam, vertical);
+      t.checkExpect(carved, graph.colors(0, graph.width));
+    }
+    PackedSeam seam = new PackedSeam(new int[] {0, 1}, true);
+    t.checkException(new IllegalArgumentException("seam does not fit the raster"),
+        seam, "removeFrom", new int[6], 3, 3);
+    t.checkException(new IllegalArgumentException("seam does not fit the raster"),
+        seam, "removeFrom", new int[6], 2, 2);
   }
 
-  // removeSeam()
-  void testRemoveLeastEnergySeam(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    SeamInfo firstRemovedSeam = graph.leastEnergySeam(true);
-    graph.removeSeam(firstRemovedSeam, true);
 
-    t.checkExpect(this.pixel00.right, this.pixel02);
-    t.checkExpect(this.pixel10.right, this.pixel12);
-    t.checkExpect(this.pixel20.right, this.pixel22);
-    t.checkExpect(this.pixel02.left, this.pixel00);
-    t.checkExpect(this.pixel12.left, this.pixel10);
-    t.checkExpect(this.pixel22.left, this.pixel20);
+  // energyFromColors()
+  void testEnergyFromColors(Tester t) {
+    Utils u = new Utils();
+    t.checkExpect(u.energyFromColors(new int[] {0xFFFFFFFF, 0xFF000000, 0xFF336699}, 10.0),
+        new float[] {10.0f, 0.0f, (float) ((0x33 + 0x66 + 0x99) / 765.0 * 10.0)});
+    t.checkExpect(u.energyFromColors(new int[0], 10.0), new float[0]);
   }
 
-  void testRemoveLeastEnergySeamHorizontal(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/33ex1.png"));
-    PixelGraph removedGraph = new PixelGraph(new FromFileImage("images/32ex1.png"));
-    SeamInfo firstRemovedSeam = graph.leastEnergySeam(false);
-    graph.removeSeam(firstRemovedSeam, false);
-    
-    t.checkExpect(graph, removedGraph);
+  // PixelGraph(int[], float[], int, int, boolean)
+  void testPixelGraphFromEnergies(Tester t) {
+    int[] colors = new int[12];
+    Arrays.fill(colors, 0xFF808080);
+    float[] energies = new float[] {
+        5.0f, 4.0f, 0.5f, 3.0f,
+        5.0f, 0.5f, 4.0f, 3.0f,
+        5.0f, 4.0f, 0.5f, 3.0f};
+    PixelGraph graph = new PixelGraph(colors, energies, 4, 3, false);
+    graph.setHistoryBudget(1 << 10);
+    SeamInfo seam = graph.leastEnergySeam(true);
+
+    t.checkExpect(graph.isWellFormed(), true);
+    t.checkExpect(seam.positions(true), new int[] {2, 1, 2});
+    t.checkInexact(seam.totalWeight, 1.5, 1e-9);
+    graph.removeSeam(seam, true);
+    t.checkExpect(graph.isWellFormed(), true);
+    t.checkExpect(this.pixelAt(graph, 1, 0).calculateEnergy(), 4.0);
+    t.checkExpect(this.pixelAt(graph, 1, 1).calculateEnergy(), 4.0);
+    t.checkExpect(this.pixelAt(graph, 2, 2).calculateEnergy(), 3.0);
+    t.checkExpect(graph.undoRemoval(), true);
+    t.checkExpect(this.pixelAt(graph, 2, 0).calculateEnergy(), 0.5);
+    graph.insertSeam(graph.leastEnergySeam(true), true);
+    t.checkExpect(graph.width, 5);
+    t.checkExpect(this.pixelAt(graph, 3, 0).calculateEnergy(), 0.5);
+    t.checkExpect(graph.isWellFormed(), true);
+
+    t.checkConstructorException(new IllegalArgumentException("colors do not match image size"),
+        "PixelGraph", colors, energies, 3, 3, false);
+    t.checkConstructorException(new IllegalArgumentException("energies do not match image size"),
+        "PixelGraph", colors, new float[11], 4, 3, false);
   }
-  
-  // makeSeamRed()
-  void testMakeSeamRed(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    ComputedPixelImage image = graph.render();
 
-    t.checkExpect(image.getPixel(1, 2), this.pixel01.color);
-    t.checkExpect(image.getPixel(1, 1), this.pixel11.color);
-    t.checkExpect(image.getPixel(1, 0), this.pixel21.color);
+  // Helper for finding the pixel at the given position of a graph
+  Pixel pixelAt(PixelGraph graph, int x, int y) {
+    return (Pixel) graph.corner.down.moveBy(y, true).right.moveBy(x, false);
+  }
 
-    SeamInfo seamToMakeRed = graph.leastEnergySeam(true);
-    graph.makeSeamRed(seamToMakeRed);
+  // detachSeam() recomputing energies near the seam
+  void testRecomputeNearSeams(Tester t) {
+    PixelGraph plain = new ImageCodec().read("images/tower.jpg");
+    int width = plain.width;
+    int[] colors = plain.colors(0, plain.width);
+    float[] energies = new float[colors.length];
+    Arrays.fill(energies, 1.0f);
+    PixelGraph mapped = new PixelGraph(colors, energies, plain.width, plain.height, true);
+    SeamInfo seam = plain.leastEnergySeam(true);
+    int[] positions = seam.positions(true);
+    mapped.removeSeam(new PackedSeam(positions, true).toSeam(mapped), true);
+    plain.removeSeam(seam, true);
+
+    t.checkExpect(mapped.isWellFormed(), true);
+    t.checkExpect(this.sameImage(mapped, plain), true);
+    boolean nearMatch = true;
+    boolean farUnchanged = true;
+    // EFFECT: compares the energies either side of the removed seam against the plain graph
+    for (int y = 0; y < plain.height; y += 1) {
+      for (int x = Math.max(0, positions[y] - 1); x <= positions[y]
+          && x < plain.width; x += 1) {
+        nearMatch = nearMatch && Math.abs(this.pixelAt(mapped, x, y).calculateEnergy()
+            - this.pixelAt(plain, x, y).calculateEnergy()) < 1e-3;
+      }
+      if (positions[y] >= 3) {
+        farUnchanged = farUnchanged && this.pixelAt(mapped, 0, y).calculateEnergy() == 1.0;
+      }
+    }
+    t.checkExpect(nearMatch, true);
+    t.checkExpect(farUnchanged, true);
+
+    // undoing the removal gives the neighbors back the energies they were given, and redoing
+    // it recomputes them again
+    PixelGraph undone = new PixelGraph(colors, energies, width, plain.height, true);
+    undone.setHistoryBudget(1 << 20);
+    undone.removeSeam(new PackedSeam(positions, true).toSeam(undone), true);
+    t.checkExpect(undone.undoRemoval(), true);
+    t.checkExpect(undone.isWellFormed(), true);
+    t.checkExpect(this.energiesAll(undone, 1.0), true);
+    t.checkExpect(undone.redoRemoval(), true);
+    t.checkExpect(Math.abs(this.pixelAt(undone, positions[7], 7).calculateEnergy()
+        - this.pixelAt(plain, positions[7], 7).calculateEnergy()) < 1e-3, true);
+    t.checkExpect(undone.undoRemoval(), true);
+    t.checkExpect(this.energiesAll(undone, 1.0), true);
+  }
 
-    image = graph.render();
-    t.checkExpect(image.getPixel(1, 2), Color.RED);
-    t.checkExpect(image.getPixel(1, 1), Color.RED);
-    t.checkExpect(image.getPixel(1, 0), Color.RED);
+  // Helper for checking that every pixel of the given graph has the given energy
+  boolean energiesAll(PixelGraph graph, double energy) {
+    boolean result = true;
+    for (int y = 0; y < graph.height; y += 1) {
+      for (int x = 0; x < graph.width; x += 1) {
+        result = result && this.pixelAt(graph, x, y).calculateEnergy() == energy;
+      }
+    }
+    return result;
   }
 
-  // lowerEnergy()
-  void testLowerEnergy(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    ComputedPixelImage image = graph.render();
 
-    SeamInfo firstRemovedSeam = graph.leastEnergySeam(true);
-    graph.removeSeam(firstRemovedSeam, true);
-    SeamInfo secondRemovedSeam = graph.leastEnergySeam(true);
-    graph.removeSeam(secondRemovedSeam, true);
+  // CarveGovernor estimate()
+  void testCarveGovernorEstimate(Tester t) {
+    CarveGovernor governor = new CarveGovernor(1L << 30, 2);
+    t.checkExpect(governor.estimate(10, 10, CarveGovernor.LINKED_GRAPH),
+        7600L + CarveGovernor.JOB_OVERHEAD);
+    t.checkExpect(governor.estimate(100000, 100000, CarveGovernor.LUMINANCE_LEVEL),
+        90000000000L + CarveGovernor.JOB_OVERHEAD);
+    t.checkExpect(governor.estimate(1, 1, CarveGovernor.OFF_HEAP_LEVEL)
+        < governor.estimate(1, 1, CarveGovernor.BRIGHTNESS_LEVEL), true);
+    t.checkException(new IllegalArgumentException("unknown carving backend"),
+        governor, "estimate", 10, 10, 4);
+    t.checkException(new IllegalArgumentException("image must have at least one pixel"),
+        governor, "estimate", 0, 10, CarveGovernor.LINKED_GRAPH);
+    t.checkConstructorException(new IllegalArgumentException("budget must be positive"),
+        "CarveGovernor", 0L, 2);
+    t.checkConstructorException(new IllegalArgumentException("must allow at least one job"),
+        "CarveGovernor", 100L, 0);
+    t.checkExpect(new CarveGovernor(1).budget, Runtime.getRuntime().maxMemory() / 4 * 3);
+    governor.close();
+  }
 
-    // vertical seams
-    SeamInfo testSeam1Start = new SeamInfo(this.pixel00, null, 0, 2);
-    SeamInfo testSeam1Mid = new SeamInfo(this.pixel10, testSeam1Start, 0, 1);
-    SeamInfo testSeam1 = new SeamInfo(this.pixel20, testSeam1Mid, 0, 0);
+  // CarveGovernor submit(), admit(), release() and the reservation metrics
+  void testCarveGovernorQueue(Tester t) {
+    long job = new CarveGovernor(1, 1).estimate(100, 100, CarveGovernor.LUMINANCE_LEVEL);
+    CarveGovernor governor = new CarveGovernor(2 * job + 1, 4);
+    ArrayList<CompletableFuture<Void>> gates = new ArrayList<CompletableFuture<Void>>();
+    ArrayList<CompletableFuture<Integer>> results = new ArrayList<CompletableFuture<Integer>>();
+    // EFFECT: submits three jobs that each wait for their gate to open
+    for (int index = 0; index < 3; index += 1) {
+      CompletableFuture<Void> gate = new CompletableFuture<Void>();
+      int value = index;
+      gates.add(gate);
+      results.add(governor.submit(100, 100, CarveGovernor.LUMINANCE_LEVEL, () -> {
+        gate.join();
+        return value;
+      }));
+    }
+    t.checkExpect(governor.runningJobs(), 2);
+    t.checkExpect(governor.queuedJobs(), 1);
+    t.checkExpect(governor.reservedBytes(), 2 * job);
+    t.checkExpect(governor.queuedBytes(), job);
+
+    gates.get(0).complete(null);
+    t.checkExpect(results.get(0).join(), 0);
+    t.checkExpect(governor.runningJobs(), 2);
+    t.checkExpect(governor.queuedJobs(), 0);
+    t.checkExpect(governor.completedJobs(), 1L);
+
+    gates.get(1).complete(null);
+    gates.get(2).complete(null);
+    t.checkExpect(results.get(1).join() + results.get(2).join(), 3);
+    t.checkExpect(governor.reservedBytes(), 0L);
+    t.checkExpect(governor.peakReservedBytes(), 2 * job);
+    t.checkExpect(governor.completedJobs(), 3L);
+    t.checkException(new IllegalArgumentException("job needs more memory than the whole budget"),
+        governor, "submit", 1000, 1000, CarveGovernor.LUMINANCE_LEVEL,
+        (Supplier<Integer>) () -> 0);
+    governor.close();
+  }
 
-    SeamInfo testSeam2Start = new SeamInfo(this.pixel02, null, 2, 2);
-    SeamInfo testSeam2Mid = new SeamInfo(this.pixel12, testSeam2Start, 2, 1);
-    SeamInfo testSeam2 = new SeamInfo(this.pixel22, testSeam1Mid, 2, 0);
+  // CarveGovernor admit() letting a job that fits start ahead of one that does not
+  void testCarveGovernorSkipsAhead(Tester t) {
+    CarveGovernor sizer = new CarveGovernor(1, 1);
+    long big = sizer.estimate(1000, 1000, CarveGovernor.LINKED_GRAPH);
+    long small = sizer.estimate(10, 10, CarveGovernor.LINKED_GRAPH);
+    CarveGovernor governor = new CarveGovernor(big + small, 3);
+    CompletableFuture<Void> gate = new CompletableFuture<Void>();
+    CompletableFuture<Integer> first = governor.submit(1000, 1000,
+        CarveGovernor.LINKED_GRAPH, () -> {
+          gate.join();
+          return 1;
+        });
+    CompletableFuture<Integer> second = governor.submit(1000, 1000,
+        CarveGovernor.LINKED_GRAPH, () -> 2);
+    CompletableFuture<Integer> third = governor.submit(10, 10,
+        CarveGovernor.LINKED_GRAPH, () -> 3);
+
+    t.checkExpect(third.join(), 3);
+    t.checkExpect(second.isDone(), false);
+    t.checkExpect(governor.queuedJobs(), 1);
+    gate.complete(null);
+    t.checkExpect(first.join() + second.join(), 3);
+    t.checkExpect(governor.peakReservedBytes(), big + small);
+    governor.close();
+  }
 
-    // diagonal seams
-    SeamInfo testSeam3Start = new SeamInfo(this.pixel01, null, 1, 2);
-    SeamInfo testSeam3Mid = new SeamInfo(this.pixel11, testSeam3Start, 1, 1);
-    SeamInfo testSeam3 = new SeamInfo(this.pixel22, testSeam3Mid, 2, 0);
+  // CarveGovernor admit() holding a large job's place once small ones have overtaken it
+  // MAX_OVERTAKES times
+  void testCarveGovernorNoStarvation(Tester t) {
+    CarveGovernor sizer = new CarveGovernor(1, 1);
+    long big = sizer.estimate(1000, 1000, CarveGovernor.LINKED_GRAPH);
+    CarveGovernor governor = new CarveGovernor(big, CarveGovernor.MAX_OVERTAKES + 3);
+    CompletableFuture<Void> gate = new CompletableFuture<Void>();
+    ArrayList<CompletableFuture<Integer>> smalls = new ArrayList<CompletableFuture<Integer>>();
+    smalls.add(governor.submit(10, 10, CarveGovernor.LINKED_GRAPH, () -> {
+      gate.join();
+      return 0;
+    }));
+    CompletableFuture<Integer> large = governor.submit(1000, 1000,
+        CarveGovernor.LINKED_GRAPH, () -> -1);
+    // EFFECT: submits one more small job than may overtake the large one
+    for (int index = 1; index <= CarveGovernor.MAX_OVERTAKES + 1; index += 1) {
+      int value = index;
+      smalls.add(governor.submit(10, 10, CarveGovernor.LINKED_GRAPH, () -> {
+        gate.join();
+        return value;
+      }));
+    }
 
-    SeamInfo testSeam4Start = new SeamInfo(this.pixel01, null, 1, 2);
-    SeamInfo testSeam4Mid = new SeamInfo(this.pixel11, testSeam3Start, 1, 1);
-    SeamInfo testSeam4 = new SeamInfo(this.pixel20, testSeam3Mid, 0, 0);
+    t.checkExpect(governor.runningJobs(), CarveGovernor.MAX_OVERTAKES + 1);
+    t.checkExpect(governor.queuedJobs(), 2);
+    t.checkExpect(governor.queue.get(0).overtaken, CarveGovernor.MAX_OVERTAKES);
+    gate.complete(null);
+    t.checkExpect(large.join(), -1);
+    t.checkExpect(smalls.get(CarveGovernor.MAX_OVERTAKES + 1).join(),
+        CarveGovernor.MAX_OVERTAKES + 1);
+    t.checkExpect(governor.peakReservedBytes(), big);
+    governor.close();
+  }
 
-    t.checkExpect(firstRemovedSeam.lowerEnergy(secondRemovedSeam), firstRemovedSeam); 
-    t.checkExpect(testSeam1.lowerEnergy(testSeam2), testSeam2);
-    t.checkExpect(testSeam3.lowerEnergy(testSeam4), testSeam3);
+  // CarveGovernor running real carves, failures and close()
+  void testCarveGovernorCarving(Tester t) {
+    CarveGovernor governor = new CarveGovernor(1L << 26, 2);
+    CompletableFuture<Integer> carved = governor.submit(3, 3, CarveGovernor.LINKED_GRAPH,
+        () -> {
+          PixelGraph graph = new ImageCodec().read("images/33ex1.png");
+          new BatchCarver().carve(graph, 1, 1);
+          return graph.width * graph.height;
+        });
+    CompletableFuture<Integer> failed = governor.submit(3, 3, CarveGovernor.LINKED_GRAPH,
+        () -> new PixelGraph(new int[2], 3, 3).width);
+    t.checkExpect(carved.join(), 4);
+    t.checkExpect(failed.handle((value, failure) -> failure.getMessage()).join(),
+        "colors do not match image size");
+    t.checkExpect(governor.reservedBytes(), 0L);
+    t.checkExpect(governor.completedJobs(), 2L);
+
+    governor.close();
+    t.checkExpect(governor.pool.isShutdown(), true);
+    t.checkException(new IllegalStateException("governor is closed"),
+        governor, "submit", 3, 3, CarveGovernor.LINKED_GRAPH, (Supplier<Integer>) () -> 0);
   }
 
-  // deleteThisSeam()
-  void testDeleteThisSeam(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
 
-    SeamInfo seamToRemove = graph.leastEnergySeam(true);
+  // CarveControl checkpoint(), cancel(), pastDeadline() and seamRemoved()
+  void testCarveControl(Tester t) {
+    CarveControl open = new CarveControl();
+    open.checkpoint();
+    t.checkExpect(open.isCancelled(), false);
+    t.checkExpect(open.pastDeadline(), false);
+    open.seamRemoved(1, 2, 100);
+    open.cancel();
+    t.checkExpect(open.isCancelled(), true);
+    t.checkException(new CancellationException("carve was cancelled"), open, "checkpoint");
+
+    ArrayList<long[]> reports = new ArrayList<long[]>();
+    CarveControl late = new CarveControl(0, true,
+        (done, total, remaining) -> reports.add(new long[] {done, total, remaining}));
+    t.checkExpect(late.pastDeadline(), true);
+    t.checkException(new CancellationException("carve missed its deadline"), late,
+        "checkpoint");
+    late.seamRemoved(2, 5, 100);
+    late.seamRemoved(5, 5, 260);
+    t.checkExpect(reports.get(0), new long[] {2, 5, 150});
+    t.checkExpect(reports.get(1), new long[] {5, 5, 0});
+    t.checkExpect(new CarveControl(Long.MAX_VALUE / 2, false, null).pastDeadline(), false);
+
+    ArrayList<int[]> undated = new ArrayList<int[]>();
+    CarveControl listened = new CarveControl(
+        (done, total, remaining) -> undated.add(new int[] {done, total}));
+    t.checkExpect(listened.pastDeadline(), false);
+    listened.checkpoint();
+    listened.seamRemoved(1, 3, 100);
+    t.checkExpect(undated.get(0), new int[] {1, 3});
+    t.checkConstructorException(new IllegalArgumentException("timeout must not be negative"),
+        "CarveControl", -1L, false, null);
+  }
 
-    Pixel bottomOfSeam = seamToRemove.curr;
-    Pixel middleOfSeam = seamToRemove.cameFrom.curr;
-    Pixel topOfSeam = seamToRemove.cameFrom.cameFrom.curr;
+  // BatchCarver carve() with a CarveControl
+  void testCarveWithControl(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PixelGraph plain = new ImageCodec().read("images/testImage.png");
+    ArrayList<int[]> reports = new ArrayList<int[]>();
+    CarveControl control = new CarveControl(
+        (done, total, remaining) -> reports.add(new int[] {done, total}));
+    t.checkExpect(new BatchCarver().carve(graph, 3, 1, control), 4);
+    new BatchCarver().carve(plain, 3, 1);
+    t.checkExpect(this.sameImage(graph, plain), true);
+    t.checkExpect(reports.size(), 4);
+    t.checkExpect(reports.get(3), new int[] {4, 4});
+    t.checkExpect(new BatchCarver().carve(new ImageCodec().read("images/33ex1.png"), 5, 5,
+        new CarveControl()), 4);
+
+    PixelGraph cancelled = new ImageCodec().read("images/testImage.png");
+    int width = cancelled.width;
+    CarveControl canceller = new CarveControl();
+    canceller.listener = (done, total, remaining) -> {
+      if (done == 2) {
+        canceller.cancel();
+      }
+    };
+    t.checkException(new CancellationException("carve was cancelled"), new BatchCarver(),
+        "carve", cancelled, 3, 1, canceller);
+    t.checkExpect(cancelled.width, width - 2);
+    t.checkException(new CancellationException("carve was cancelled"), cancelled,
+        "leastEnergySeam", true, canceller);
+  }
 
-    APixel topOfSeamLeftNeighbor = topOfSeam.left;
-    APixel topOfSeamRightNeighbor = topOfSeam.right;
+  // BatchCarver carve() past a CarveControl's deadline
+  void testCarveWithDeadline(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    int width = graph.width;
+    CarveControl expired = new CarveControl(0, true, null);
+    t.checkExpect(new BatchCarver().carve(graph, 3, 1, expired), 0);
+    t.checkExpect(graph.width, width);
+
+    CarveControl partial = new CarveControl(Long.MAX_VALUE / 2, true, null);
+    partial.listener = (done, total, remaining) -> {
+      if (done == 2) {
+        partial.deadline = System.nanoTime();
+      }
+    };
+    t.checkExpect(new BatchCarver().carve(graph, 3, 1, partial), 2);
+    t.checkExpect(graph.width, width - 2);
+    t.checkExpect(graph.isWellFormed(), true);
 
-    APixel midOfSeamLeftNeighbor = middleOfSeam.left;
-    APixel midOfSeamRightNeighbor = middleOfSeam.right;
+    CarveControl strict = new CarveControl(0, false, null);
+    t.checkException(new CancellationException("carve missed its deadline"),
+        new BatchCarver(), "carve", graph, 3, 1, strict);
+    t.checkExpect(graph.width, width - 2);
+  }
 
-    APixel bottomOfSeamLeftNeighbor = bottomOfSeam.left;
-    APixel bottomOfSeamRightNeighbor = bottomOfSeam.right;
 
-    seamToRemove.deleteThisSeam(true);
+  // Helper making a subscriber that records its events and how the stream ended, asking for
+  // the given number of events when it subscribes
+  Flow.Subscriber<CarveEvent> recorder(ArrayList<CarveEvent> events, ArrayList<String> ends,
+      ArrayList<Flow.Subscription> subscriptions, long initialRequest) {
+    return new Flow.Subscriber<CarveEvent>() {
+      public void onSubscribe(Flow.Subscription subscription) {
+        subscriptions.add(subscription);
+        if (initialRequest > 0) {
+          subscription.request(initialRequest);
+        }
+      }
 
-    t.checkExpect(bottomOfSeam.right, bottomOfSeamRightNeighbor);
-    t.checkExpect(bottomOfSeam.left, bottomOfSeamLeftNeighbor);
+      public void onNext(CarveEvent event) {
+        events.add(event);
+      }
 
-    t.checkExpect(middleOfSeam.right, midOfSeamRightNeighbor);
-    t.checkExpect(middleOfSeam.left, midOfSeamLeftNeighbor);
+      public void onError(Throwable failure) {
+        ends.add(failure.getMessage());
+      }
 
-    t.checkExpect(topOfSeam.right, topOfSeamRightNeighbor);
-    t.checkExpect(topOfSeam.left, topOfSeamLeftNeighbor);
+      public void onComplete() {
+        ends.add("complete");
+      }
+    };
   }
-  
-  void testDeleteThisSeamHorizontal(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/33ex1.png"));
-    SeamInfo seamToRemove = graph.leastEnergySeam(false);
-    
-    Pixel leftOfSeam = seamToRemove.curr;
-    Pixel middleOfSeam = seamToRemove.cameFrom.curr;
-    Pixel rightOfSeam = seamToRemove.cameFrom.cameFrom.curr;
 
-    APixel leftOfSeamDownNeighbor = leftOfSeam.down;
-    APixel leftOfSeamUpNeighbor = leftOfSeam.up;
+  // CarvePublisher carve(), seamRemoved() and publishFrame()
+  void testCarvePublisher(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    int[] colors = graph.colors(0, graph.width);
+    int width = graph.width;
+    int height = graph.height;
+    CarvePublisher stream = new CarvePublisher(graph, 2);
+    ArrayList<CarveEvent> fast = new ArrayList<CarveEvent>();
+    ArrayList<CarveEvent> slow = new ArrayList<CarveEvent>();
+    ArrayList<String> ends = new ArrayList<String>();
+    ArrayList<Flow.Subscription> subscriptions = new ArrayList<Flow.Subscription>();
+    stream.subscribe(this.recorder(fast, ends, subscriptions, Long.MAX_VALUE));
+    stream.subscribe(this.recorder(slow, ends, subscriptions, 0));
+
+    t.checkExpect(stream.carve(3, 1, new CarveControl()), 4);
+    t.checkExpect(fast.size(), 6);
+    t.checkExpect(fast.get(2).isFrame(), true);
+    t.checkExpect(fast.get(2).seamsDone, 2);
+    t.checkExpect(fast.get(2).width, width - 2);
+    t.checkExpect(fast.get(5).frame, graph.colors(0, graph.width));
+    t.checkExpect(fast.get(5).height, height - 1);
+    t.checkExpect(ends, new ArrayList<String>(Arrays.asList("complete")));
+    t.checkExpect(slow.size(), 0);
+    t.checkExpect(stream.framesSkipped, 0);
+    // EFFECT: replays the streamed seams onto the original colors
+    for (CarveEvent event : fast) {
+      if (!event.isFrame()) {
+        colors = event.seam.removeFrom(colors, width, height);
+        if (event.seam.vertical) {
+          width -= 1;
+        }
+        else {
+          height -= 1;
+        }
+      }
+    }
+    t.checkExpect(colors, graph.colors(0, graph.width));
+
+    subscriptions.get(1).request(3);
+    t.checkExpect(slow.size(), 3);
+    t.checkExpect(ends.size(), 1);
+    subscriptions.get(1).request(10);
+    t.checkExpect(slow.size(), 4);
+    t.checkExpect(slow.get(3).isFrame(), false);
+    t.checkExpect(slow.get(3).seamsDone, 4);
+    t.checkExpect(ends, new ArrayList<String>(Arrays.asList("complete", "complete")));
+
+    ArrayList<String> late = new ArrayList<String>();
+    stream.subscribe(this.recorder(new ArrayList<CarveEvent>(), late,
+        new ArrayList<Flow.Subscription>(), 0));
+    t.checkExpect(late, new ArrayList<String>(Arrays.asList("complete")));
+    t.checkConstructorException(new IllegalArgumentException("frame interval must be positive"),
+        "CarvePublisher", graph, 0);
+  }
 
-    APixel midOfSeamDownNeighbor = middleOfSeam.down;
-    APixel midOfSeamUpNeighbor = middleOfSeam.up;
+  // CarvePublisher skipping frames for slow subscribers, cancellation and failures
+  void testCarvePublisherDemand(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    CarvePublisher stream = new CarvePublisher(graph, 1);
+    ArrayList<CarveEvent> events = new ArrayList<CarveEvent>();
+    ArrayList<String> ends = new ArrayList<String>();
+    ArrayList<Flow.Subscription> subscriptions = new ArrayList<Flow.Subscription>();
+    stream.subscribe(this.recorder(events, ends, subscriptions, 3));
+    t.checkExpect(stream.carve(4, 0, new CarveControl()), 4);
+    t.checkExpect(events.size(), 3);
+    t.checkExpect(events.get(1).isFrame(), true);
+    t.checkExpect(events.get(2).isFrame(), false);
+    t.checkExpect(stream.framesSkipped, 3);
+    subscriptions.get(0).cancel();
+    subscriptions.get(0).request(10);
+    t.checkExpect(events.size(), 3);
+    t.checkExpect(ends.size(), 0);
+    t.checkExpect(stream.currentSubscriptions().size(), 0);
+    t.checkExpect(stream.subscriptions.size(), 0);
+
+    PixelGraph other = new ImageCodec().read("images/testImage.png");
+    CarvePublisher failing = new CarvePublisher(other, 1);
+    ArrayList<String> failures = new ArrayList<String>();
+    ArrayList<Flow.Subscription> failingSubscriptions = new ArrayList<Flow.Subscription>();
+    failing.subscribe(this.recorder(new ArrayList<CarveEvent>(), failures,
+        failingSubscriptions, 1));
+    CarveControl control = new CarveControl();
+    control.cancel();
+    t.checkException(new CancellationException("carve was cancelled"), failing, "carve",
+        2, 0, control);
+    t.checkExpect(failures, new ArrayList<String>(Arrays.asList("carve was cancelled")));
+
+    ArrayList<String> invalid = new ArrayList<String>();
+    ArrayList<CarveEvent> invalidEvents = new ArrayList<CarveEvent>();
+    new CarvePublisher(other, 1).subscribe(this.recorder(invalidEvents, invalid,
+        new ArrayList<Flow.Subscription>(), -1));
+    t.checkExpect(invalid.size(), 0);
+    CarvePublisher zero = new CarvePublisher(other, 1);
+    ArrayList<Flow.Subscription> zeroSubscriptions = new ArrayList<Flow.Subscription>();
+    zero.subscribe(this.recorder(invalidEvents, invalid, zeroSubscriptions, 0));
+    zeroSubscriptions.get(0).request(0);
+    t.checkExpect(invalid,
+        new ArrayList<String>(Arrays.asList("must request a positive number of events")));
+  }
 
-    APixel rightOfSeamDownNeighbor = rightOfSeam.down;
-    APixel rightOfSeamUpNeighbor = rightOfSeam.up;
-    
-    seamToRemove.deleteThisSeam(true);
+  // CarvePublisher subscribe() while the stream ends
+  void testCarvePublisherSubscribe(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    CarvePublisher stream = new CarvePublisher(graph, 1);
+    ArrayList<String> calls = new ArrayList<String>();
+    stream.subscribe(new Flow.Subscriber<CarveEvent>() {
+      public void onSubscribe(Flow.Subscription subscription) {
+        stream.finish(null);
+        calls.add("subscribe");
+      }
 
-    t.checkExpect(leftOfSeam.down, leftOfSeamDownNeighbor);
-    t.checkExpect(leftOfSeam.up, leftOfSeamUpNeighbor);
+      public void onNext(CarveEvent event) {
+        calls.add("next");
+      }
 
-    t.checkExpect(middleOfSeam.down, midOfSeamDownNeighbor);
-    t.checkExpect(middleOfSeam.up, midOfSeamUpNeighbor);
+      public void onError(Throwable failure) {
+        calls.add(failure.getMessage());
+      }
 
-    t.checkExpect(rightOfSeam.down, rightOfSeamDownNeighbor);
-    t.checkExpect(rightOfSeam.up, rightOfSeamUpNeighbor);
+      public void onComplete() {
+        calls.add("complete");
+      }
+    });
+    t.checkExpect(calls, new ArrayList<String>(Arrays.asList("subscribe", "complete")));
+    t.checkExpect(stream.subscriptions.size(), 0);
   }
 
-  // showSeam()
-  void testShowSeam(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(this.pixelcorner, 3, 3);
-    ComputedPixelImage image = graph.render();
-
-    t.checkExpect(image.getPixel(1, 2), this.pixel01.color);
-    t.checkExpect(image.getPixel(1, 1), this.pixel11.color);
-    t.checkExpect(image.getPixel(1, 0), this.pixel21.color);
+  // CarvingWorld streamTo() and removeSeam() streaming seams
+  void testCarvingWorldStream(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    CarvingWorld world = new CarvingWorld(graph);
+    CarvePublisher stream = new CarvePublisher(graph, 10);
+    ArrayList<CarveEvent> events = new ArrayList<CarveEvent>();
+    ArrayList<String> ends = new ArrayList<String>();
+    stream.subscribe(this.recorder(events, ends, new ArrayList<Flow.Subscription>(), 5));
+    world.streamTo(stream);
+    graph.setHistoryBudget(1 << 20);
+    SeamInfo seam = graph.leastEnergySeam(true);
+    int[] positions = seam.positions(true);
+    world.removeSeam(seam, true);
+
+    t.checkExpect(events.size(), 1);
+    t.checkExpect(events.get(0).seam.positions(), positions);
+    t.checkExpect(events.get(0).seamsDone, 1);
+    t.checkExpect(events.get(0).isUndo(), false);
+    world.undoRemoval();
+    t.checkExpect(events.size(), 3);
+    t.checkExpect(events.get(1).isUndo(), true);
+    t.checkExpect(events.get(1).seam.positions(), positions);
+    t.checkExpect(events.get(1).seamsDone, 0);
+    t.checkExpect(events.get(2).isFrame(), true);
+    t.checkExpect(events.get(2).width, graph.width);
+    t.checkExpect(events.get(2).frame, graph.colors(0, graph.width));
+    world.redoRemoval();
+    t.checkExpect(events.size(), 4);
+    t.checkExpect(events.get(3).isUndo(), false);
+    t.checkExpect(events.get(3).seam.positions(), positions);
+    t.checkExpect(events.get(3).seamsDone, 1);
+    world.undoRemoval();
+    world.undoRemoval();
+    t.checkExpect(events.size(), 5);
+    t.checkExpect(events.get(4).isUndo(), true);
+    t.checkExpect(stream.framesSkipped, 1);
+    t.checkException(new IllegalArgumentException("stream is of another graph"), world,
+        "streamTo", new CarvePublisher(new ImageCodec().read("images/33ex1.png"), 1));
+  }
 
-    graph.leastEnergySeam(true).showSeam();
-    image = graph.render();
 
-    t.checkExpect(image.getPixel(1, 2), Color.RED);
-    t.checkExpect(image.getPixel(1, 1), Color.RED);
-    t.checkExpect(image.getPixel(1, 0), Color.RED);
+  // CarveWorkspace ints(), longs(), bytes() and fitSearch()
+  void testCarveWorkspaceBuffers(Tester t) {
+    CarveWorkspace workspace = new CarveWorkspace();
+    int[] ints = workspace.ints(new int[0], 5);
+    t.checkExpect(ints.length, 5);
+    t.checkExpect(workspace.ints(ints, 5) == ints, true);
+    t.checkExpect(workspace.ints(ints, 3) == ints, true);
+    t.checkExpect(workspace.ints(ints, 6).length, 10);
+    t.checkExpect(workspace.longs(new long[4], 20).length, 20);
+    t.checkExpect(workspace.bytes(new byte[4], 5).length, 8);
+    t.checkExpect(workspace.growths, 4);
+
+    CarveWorkspace search = new CarveWorkspace();
+    search.fitSearch(3, 4);
+    t.checkExpect(search.moves.length, 12);
+    t.checkExpect(search.line.length, 6);
+    t.checkExpect(search.path.length, 3);
+    t.checkExpect(search.growths, 8);
+    search.fitSearch(2, 4);
+    t.checkExpect(search.growths, 8);
+    t.checkExpect(search.spareFor(10) == search.spareFor(7), true);
+    t.checkExpect(CarveWorkspace.forThread() == CarveWorkspace.forThread(), true);
+    t.checkExpect(CompletableFuture.supplyAsync(() -> CarveWorkspace.forThread()).join()
+        == CarveWorkspace.forThread(), false);
   }
 
-  // calculatePosition() vertical
-  void testCalcualtePositionVertical(Tester t) {
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
-    SeamInfo leastEnergySeam = graph.leastEnergySeam(true);
+  // CarveWorkspace carve() and removeFromRaster()
+  void testCarveWorkspaceCarve(Tester t) {
+    for (String path : new String[] {"images/testImage.png", "images/tower.jpg"}) {
+      PixelGraph graph = new ImageCodec().read(path);
+      int[] colors = graph.colors(0, graph.width);
+      int width = graph.width;
+      int height = graph.height;
+      LuminanceLevel level = new LuminanceLevel(graph, LuminanceLevel.GRADIENT_MAGNITUDE);
+      // EFFECT: removes five vertical and then three horizontal seams found by the level
+      for (int count = 0; count < 8; count += 1) {
+        boolean vertical = count < 5;
+        int[] found = level.leastEnergyPath(vertical);
+        level.removePath(found, vertical);
+        graph.removeSeam(new PackedSeam(found, vertical).toSeam(graph), vertical);
+      }
+      CarveWorkspace workspace = new CarveWorkspace();
+      t.checkExpect(workspace.carve(colors, width, height, 5, 3),
+          graph.colors(0, graph.width));
+      t.checkExpect(workspace.width, width - 5);
+      t.checkExpect(workspace.height, height - 3);
+      t.checkExpect(workspace.jobs, 1);
+    }
+    CarveWorkspace workspace = new CarveWorkspace();
+    int[] colors = new ImageCodec().read("images/33ex1.png").colors(0, 3);
+    t.checkExpect(workspace.carve(colors, 3, 3, 5, 5).length, 1);
+    t.checkExpect(workspace.carve(colors, 3, 3, 0, 0), colors);
+    t.checkException(new IllegalArgumentException("colors do not match image size"),
+        workspace, "carve", colors, 2, 3, 1, 1);
+  }
 
-    t.checkExpect(leastEnergySeam.calculatePosition(true), 0);
-    t.checkExpect(leastEnergySeam.cameFrom.calculatePosition(true), 0);
+  // CarveWorkspace carve() reusing its buffers
+  void testCarveWorkspaceReuse(Tester t) {
+    PixelGraph tower = new ImageCodec().read("images/tower.jpg");
+    int[] large = tower.colors(0, tower.width);
+    int[] small = tower.colors(0, 100);
+    CarveWorkspace workspace = new CarveWorkspace();
+    int[] first = workspace.carve(large, tower.width, tower.height, 4, 4);
+    int growths = workspace.growths;
+    t.checkExpect(workspace.carve(small, 100, tower.height, 6, 2),
+        new CarveWorkspace().carve(small, 100, tower.height, 6, 2));
+    t.checkExpect(workspace.carve(large, tower.width, tower.height, 4, 4), first);
+    t.checkExpect(workspace.growths, growths);
+    t.checkExpect(workspace.jobs, 3);
   }
 
-  //calculatePosition() horizontal
-  void testCalcualtePositionHorizontal(Tester t) {
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
-    SeamInfo leastEnergySeam = graph.leastEnergySeam(false);
 
-    t.checkExpect(leastEnergySeam.calculatePosition(false), 0);
-    t.checkExpect(leastEnergySeam.cameFrom.calculatePosition(false), 0);
+  // BenchmarkCase seams(), generate() and load()
+  void testBenchmarkCase(Tester t) {
+    BenchmarkCase bundled = new BenchmarkCase("images/testImage.png", 32, 32, 24, 28);
+    BenchmarkCase generated = new BenchmarkCase("generated", 64, 48, 5, 60, 40);
+    t.checkExpect(bundled.name, "testImage.png");
+    t.checkExpect(bundled.seams(), 12);
+    t.checkExpect(generated.seams(), 12);
+    t.checkExpect(bundled.load().width, 32);
+    t.checkExpect(generated.generate(), generated.generate());
+    t.checkExpect(generated.generate().length, 64 * 48);
+    t.checkExpect(Arrays.equals(generated.generate(),
+        new BenchmarkCase("generated", 64, 48, 6, 60, 40).generate()), false);
+    t.checkExpect(generated.load().colors(0, 64), generated.generate());
+    t.checkConstructorException(
+        new IllegalArgumentException("target size must be within the image"),
+        "BenchmarkCase", "generated", 64, 48, 5L, 65, 40);
+    t.checkConstructorException(
+        new IllegalArgumentException("target size must be within the image"),
+        "BenchmarkCase", "generated", 64, 48, 5L, 60, 0);
   }
 
-  // onTick()
-  void testOnTick(Tester t) {
-    this.initData();
-    PixelGraph graph = new PixelGraph(new FromFileImage("images/testImage.png"));
-    ComputedPixelImage image = graph.render();
-    CarvingWorld world = new CarvingWorld(graph);
-    int worldWidth = graph.width;
-    int worldHeight = graph.height;
+  // BenchmarkResult goldenLine() and problemsAgainst()
+  void testBenchmarkResult(Tester t) {
+    BenchmarkResult result = new BenchmarkResult("tower.jpg", 240, 300, 0xABCDEFL, 12.5,
+        200000000L, 3, 1 << 20);
+    t.checkExpect(result.goldenLine(), "tower.jpg 240 300 00abcdef 12.50");
+    BenchmarkResult golden = new BenchmarkResult(result.goldenLine());
+    t.checkExpect(golden.checksum, 0xABCDEFL);
+    t.checkInexact(golden.seamsPerSecond, 12.5, 1e-9);
+    t.checkExpect(result.problemsAgainst(golden, 0.2).size(), 0);
+    t.checkExpect(result.problemsAgainst(new BenchmarkResult("tower.jpg 240 300 00abcdef 15.0"),
+        0.2).size(), 0);
+    t.checkExpect(result.problemsAgainst(new BenchmarkResult("tower.jpg 240 300 00abcdef 20.0"),
+        0.2), new ArrayList<String>(Arrays.asList(
+            "tower.jpg: 12.50 seams/s is 38% below the golden 20.00")));
+    t.checkExpect(result.problemsAgainst(new BenchmarkResult("tower.jpg 240 300 00abcdee 12.5"),
+        0.2), new ArrayList<String>(Arrays.asList(
+            "tower.jpg: output changed, 240x300 00abcdef instead of 240x300 00abcdee")));
+    BenchmarkResult quick = new BenchmarkResult("face.png", 2, 2, 1, 10.0, 1000, 0, 0);
+    t.checkExpect(quick.problemsAgainst(new BenchmarkResult("face.png 2 2 1 1000.0"), 0.2)
+        .size(), 0);
+    t.checkConstructorException(
+        new IllegalArgumentException("malformed golden line: tower.jpg 240 300"),
+        "BenchmarkResult", "tower.jpg 240 300");
+    t.checkConstructorException(new IllegalArgumentException("malformed golden line: a b c d e"),
+        "BenchmarkResult", "a b c d e");
+  }
 
-    t.checkExpect(world.tickCounter, 0);
-    t.checkExpect(world.graph.width, worldWidth);
+  // ThroughputBenchmark checksum(), carveOnce(), run(), compare(), writeGolden() and
+  // readGolden()
+  void testThroughputBenchmark(Tester t) {
+    ThroughputBenchmark benchmark = new ThroughputBenchmark();
+    t.checkExpect(benchmark.checksum(new int[] {0xFF123456}),
+        benchmark.checksum(new int[] {0x00123456}));
+    t.checkExpect(benchmark.checksum(new int[] {1, 2}) == benchmark.checksum(new int[] {2, 1}),
+        false);
+
+    BenchmarkCase testImage = new BenchmarkCase("images/testImage.png", 32, 32, 28, 31);
+    PixelGraph expected = new ImageCodec().read("images/testImage.png");
+    new BatchCarver().carve(expected, 4, 1);
+    int[] rendered = benchmark.carveOnce(testImage);
+    t.checkExpect(rendered.length, 28 * 31);
+    t.checkExpect(benchmark.checksum(rendered), benchmark.checksum(expected.colors(0, 28)));
+    BenchmarkResult result = benchmark.run(testImage, 0, 2);
+    t.checkExpect(result.checksum, benchmark.checksum(rendered));
+    t.checkExpect(result.width, 28);
+    t.checkExpect(result.seamsPerSecond > 0, true);
+    t.checkExpect(result.peakHeapBytes > 0, true);
+    t.checkExpect(benchmark.corpus().size(), new File("images").list().length + 2);
+
+    ArrayList<BenchmarkResult> results = new ArrayList<BenchmarkResult>(Arrays.asList(result,
+        new BenchmarkResult("extra", 1, 1, 0, 1.0, 0, 0, 0)));
+    File golden = new File(System.getProperty("java.io.tmpdir"), "throughput-test.golden");
+    benchmark.writeGolden(new ArrayList<BenchmarkResult>(Arrays.asList(result)), golden);
+    ArrayList<BenchmarkResult> read = benchmark.readGolden(golden);
+    t.checkExpect(read.size(), 1);
+    t.checkExpect(read.get(0).goldenLine(), result.goldenLine());
+    t.checkExpect(benchmark.compare(results, read, 0.2),
+        new ArrayList<String>(Arrays.asList("extra: no golden result")));
+    golden.delete();
+  }
 
-    world.onTick();
 
-    t.checkExpect(world.tickCounter, 1);
-    t.checkExpect(world.graph.width, worldWidth);
+  // setValidation() and validateRemoval()
+  void testSetValidation(Tester t) {
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    PixelGraph plain = new ImageCodec().read("images/testImage.png");
+    graph.setValidation(true, 3);
+    // EFFECT: removes seams both ways from both graphs
+    for (int count = 0; count < 8; count += 1) {
+      boolean vertical = count % 2 == 0;
+      graph.removeSeam(graph.leastEnergySeam(vertical), vertical);
+      plain.removeSeam(plain.leastEnergySeam(vertical), vertical);
+    }
+    t.checkExpect(this.sameImage(graph, plain), true);
+    t.checkExpect(graph.removalsSinceFullCheck, 2);
+    graph.setValidation(false, 0);
+    t.checkExpect(graph.removalsSinceFullCheck, 0);
+    t.checkException(new IllegalArgumentException("full check interval must not be negative"),
+        graph, "setValidation", true, -1);
+
+    PixelGraph corrupted = new ImageCodec().read("images/testImage.png");
+    Pixel far = this.pixelAt(corrupted, corrupted.width - 1, corrupted.height - 1);
+    far.up = far.left;
+    corrupted.setValidation(true, 0);
+    SeamInfo seam = corrupted.leastEnergySeam(true);
+    t.checkExpect(seam.positions(true)[corrupted.height - 1] < corrupted.width - 2, true);
+    corrupted.removeSeam(seam, true);
+    corrupted.setValidation(true, 2);
+    corrupted.removeSeam(corrupted.leastEnergySeam(true), true);
+    t.checkException(new IllegalStateException("graph is malformed"), corrupted,
+        "removeSeam", corrupted.leastEnergySeam(true), true);
+  }
 
-    world.onTick();
+  // isWellFormedAround()
+  void testIsWellFormedAround(Tester t) {
+    for (boolean vertical : new boolean[] {true, false}) {
+      PixelGraph graph = new ImageCodec().read("images/testImage.png");
+      SeamInfo seam = graph.leastEnergySeam(vertical);
+      graph.removeSeam(seam, vertical);
+      t.checkExpect(graph.isWellFormedAround(seam, vertical), true);
+
+      APixel before = seam.cameFrom.curr.moveInNegativeDirection(!vertical);
+      APixel after = before.moveInPositiveDirection(!vertical);
+      before.updatePositiveDirection(seam.cameFrom.curr, !vertical);
+      t.checkExpect(graph.isWellFormedAround(seam, vertical), false);
+      before.updatePositiveDirection(after, !vertical);
+      t.checkExpect(graph.isWellFormedAround(seam, vertical), true);
+
+      APixel sentinel = graph.corner.moveInPositiveDirection(!vertical)
+          .moveInPositiveDirection(!vertical);
+      APixel edge = sentinel.moveInPositiveDirection(vertical);
+      sentinel.updatePositiveDirection(sentinel, vertical);
+      t.checkExpect(graph.isWellFormedAround(seam, vertical), false);
+      sentinel.updatePositiveDirection(edge, vertical);
+      t.checkExpect(graph.isWellFormedAround(seam, vertical), true);
+    }
 
-    t.checkExpect(world.tickCounter, 2);
-    t.checkExpect((world.graph.width == worldWidth - 1) || (world.graph.height == worldHeight - 1),
-        true);
+    PixelGraph graph = new ImageCodec().read("images/testImage.png");
+    graph.setValidation(true, 0);
+    SeamInfo seam = graph.leastEnergySeam(true);
+    APixel before = seam.curr.moveInNegativeDirection(false);
+    before.updateUp(before);
+    t.checkException(new IllegalStateException("graph is malformed around the removed seam"),
+        graph, "removeSeam", seam, true);
   }
 }